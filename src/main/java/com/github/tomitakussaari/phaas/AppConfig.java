@@ -1,10 +1,18 @@
 package com.github.tomitakussaari.phaas;
 
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomitakussaari.phaas.util.Argon2EngineSelector;
+import com.github.tomitakussaari.phaas.util.DeferredUpgrades;
+import com.github.tomitakussaari.phaas.util.EntropySource;
+import com.github.tomitakussaari.phaas.util.HashRewrapper;
 import com.github.tomitakussaari.phaas.util.JsonHelper;
+import com.github.tomitakussaari.phaas.util.JwtHelper;
+import com.github.tomitakussaari.phaas.util.MemoryAdmissionController;
 import com.github.tomitakussaari.phaas.util.PasswordHasher;
 import com.github.tomitakussaari.phaas.util.PasswordVerifier;
+import com.github.tomitakussaari.phaas.util.VerifyCoalescer;
 import com.zaxxer.hikari.HikariDataSource;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -31,13 +39,31 @@ public class AppConfig {
     }
 
     @Bean
-    public PasswordVerifier passwordVerifyHandler() {
-        return new PasswordVerifier();
+    public PasswordVerifier passwordVerifyHandler(EntropySource entropySource, MemoryAdmissionController admissionController, DeferredUpgrades deferredUpgrades,
+                                                  VerifyCoalescer verifyCoalescer, Argon2EngineSelector engineSelector) {
+        return new PasswordVerifier(entropySource, admissionController, deferredUpgrades, verifyCoalescer, engineSelector.selection());
     }
 
     @Bean
-    public PasswordHasher passwordHasher() {
-        return new PasswordHasher();
+    public PasswordHasher passwordHasher(EntropySource entropySource, MemoryAdmissionController admissionController, Argon2EngineSelector engineSelector) {
+        return new PasswordHasher(entropySource, admissionController, engineSelector.selection());
+    }
+
+    @Bean
+    public HashRewrapper hashRewrapper(EntropySource entropySource, Environment environment) {
+        return new HashRewrapper(entropySource,
+                environment.getProperty("phaas.rewrap.parallelism", Integer.class, Runtime.getRuntime().availableProcessors()),
+                environment.getProperty("phaas.rewrap.window", Integer.class, 1024));
+    }
+
+    @Bean
+    public JwtHelper jwtHelper(EntropySource entropySource) {
+        return new JwtHelper(entropySource);
+    }
+
+    @Bean
+    public MetricRegistry metricRegistry() {
+        return new MetricRegistry();
     }
 
     @Bean
@@ -0,0 +1,63 @@
+package com.github.tomitakussaari.phaas;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
+import com.github.tomitakussaari.phaas.user.PhaasUser;
+import com.github.tomitakussaari.phaas.user.UsersService;
+import com.github.tomitakussaari.phaas.util.HashRewrapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Offline version of PUT /passwords/rewrap, for rewrapping exported hashes without running the API:
+ * <pre>
+ * java -jar phaas.jar --spring.main.web-environment=false --phaas.rewrap.user=name --phaas.rewrap.input=hashes.ndjson
+ * </pre>
+ * Password of user is read from phaas.rewrap.password (or PHAAS_REWRAP_PASSWORD environment variable),
+ * and results are written to phaas.rewrap.output, which defaults to input file name with .rewrapped suffix.
+ * With phaas.rewrap.import=true, input hashes are hashes of other systems, that are imported like in PUT /passwords/import.
+ */
+@Component
+@ConditionalOnProperty("phaas.rewrap.input")
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class HashRewrapCommand implements CommandLineRunner {
+
+    private final Environment environment;
+    private final UsersService usersService;
+    private final HashRewrapper hashRewrapper;
+
+    @Override
+    public void run(String... args) throws Exception {
+        String userName = environment.getRequiredProperty("phaas.rewrap.user");
+        Path input = Paths.get(environment.getRequiredProperty("phaas.rewrap.input"));
+        Path output = Paths.get(environment.getProperty("phaas.rewrap.output", input + ".rewrapped"));
+
+        PhaasUser user = (PhaasUser) usersService.loadUserByUsername(userName);
+        user.setUserPassword(environment.getRequiredProperty("phaas.rewrap.password"));
+        CryptoData activeCryptoData = user.currentlyActiveCryptoData();
+        activeCryptoData.getDataProtectionKey(); // fails with wrong password before anything is written
+
+        try (Reader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            if (environment.getProperty("phaas.rewrap.import", Boolean.class, false)) {
+                HashRewrapper.Summary summary = hashRewrapper.importAll(reader, writer, activeCryptoData);
+                log.info("Imported hashes of {} from {} into {}: {}", userName, input, output, summary);
+            } else {
+                HashRewrapper.Summary summary = hashRewrapper.rewrapAll(reader, writer, user::cryptoDataForId, activeCryptoData);
+                log.info("Rewrapped hashes of {} from {} into {}: {}", userName, input, output, summary);
+            }
+        }
+    }
+}
@@ -21,7 +21,7 @@ import static springfox.documentation.builders.PathSelectors.regex;
 @EnableSwagger2
 public class SwaggerConfig {
 
-    private static final String DOCUMENTED_ENDPOINTS = "/passwords.*|/users.*|/tokens.*";
+    private static final String DOCUMENTED_ENDPOINTS = "/passwords.*|/users.*|/tokens.*|/metrics.*|/sessions.*";
 
     @Bean
     public Docket phaasDocumentation() {
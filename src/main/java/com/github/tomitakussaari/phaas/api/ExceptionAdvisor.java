@@ -1,14 +1,19 @@
 package com.github.tomitakussaari.phaas.api;
 
+import com.github.tomitakussaari.phaas.model.InsufficientEntropyException;
 import com.github.tomitakussaari.phaas.model.ProtectionSchemeNotFoundException;
 import com.github.tomitakussaari.phaas.user.SecurityConfig;
+import com.github.tomitakussaari.phaas.util.BatchExecutor.BatchTooLargeException;
+import com.github.tomitakussaari.phaas.util.IdempotentResults.IdempotencyKeyReusedException;
 import com.github.tomitakussaari.phaas.util.JwtHelper.JWTException;
+import com.github.tomitakussaari.phaas.util.MemoryAdmissionController.AdmissionRejectedException;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -45,13 +50,43 @@ public class ExceptionAdvisor {
         return responseEntity("DataProtectionScheme was not found", e, HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler(InsufficientEntropyException.class)
+    public ResponseEntity<ErrorMessage> insufficientEntropy(InsufficientEntropyException e) {
+        log.info("Refused to hash secret: " + e.getMessage());
+        return responseEntity("Secret does not have enough entropy for protection scheme", e, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<ErrorMessage> admissionRejected(AdmissionRejectedException e) {
+        log.warn("Rejected request: " + e.getMessage());
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        return responseEntity("Service is busy, try again later", e, headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @ExceptionHandler(BatchTooLargeException.class)
+    public ResponseEntity<ErrorMessage> batchTooLarge(BatchTooLargeException e) {
+        log.info("Rejected batch: " + e.getMessage());
+        return responseEntity("Batch is too large", e, HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<ErrorMessage> idempotencyKeyReused(IdempotencyKeyReusedException e) {
+        log.info("Rejected request: " + e.getMessage());
+        return responseEntity("Idempotency-Key was already used for another request", e, HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
     @ExceptionHandler(JWTException.class)
     public ResponseEntity<ErrorMessage> jwtParseProblem(JWTException e) {
         return responseEntity(e.getMessage(), e, HttpStatus.UNPROCESSABLE_ENTITY);
     }
 
     private ResponseEntity<ErrorMessage> responseEntity(String message, Exception e, HttpStatus status) {
-        return new ResponseEntity<>(new ErrorMessage(message, e.getMessage(), MDC.get(SecurityConfig.AuditAndLoggingFilter.MDC_REQUEST_ID), status.value()), status);
+        return responseEntity(message, e, new HttpHeaders(), status);
+    }
+
+    private ResponseEntity<ErrorMessage> responseEntity(String message, Exception e, HttpHeaders headers, HttpStatus status) {
+        return new ResponseEntity<>(new ErrorMessage(message, e.getMessage(), MDC.get(SecurityConfig.AuditAndLoggingFilter.MDC_REQUEST_ID), status.value()), headers, status);
     }
 
     @XmlRootElement
@@ -0,0 +1,34 @@
+package com.github.tomitakussaari.phaas.api;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomitakussaari.phaas.user.UsersService;
+import io.swagger.annotations.ApiOperation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+@RestController
+@RequestMapping("/metrics")
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class MetricsApi {
+
+    private final MetricRegistry metricRegistry;
+
+    @ApiOperation(value = "Returns current values of internal metrics, only usable by admins")
+    @Secured({UsersService.ADMIN_ROLE_VALUE})
+    @RequestMapping(method = RequestMethod.GET, produces = "application/json")
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new TreeMap<>();
+        metricRegistry.getCounters().forEach((name, counter) -> metrics.put(name, counter.getCount()));
+        metricRegistry.getGauges().forEach((name, gauge) -> metrics.put(name, gauge.getValue()));
+        metricRegistry.getMeters().forEach((name, meter) -> metrics.put(name, meter.getCount()));
+        metricRegistry.getTimers().forEach((name, timer) -> metrics.put(name, timer.getCount()));
+        return metrics;
+    }
+}
@@ -1,43 +1,94 @@
 package com.github.tomitakussaari.phaas.api;
 
+import com.github.tomitakussaari.phaas.model.BatchHashResult;
+import com.github.tomitakussaari.phaas.model.BatchVerifyResult;
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
 import com.github.tomitakussaari.phaas.model.HashedPassword;
 import com.github.tomitakussaari.phaas.model.PasswordHashRequest;
+import com.github.tomitakussaari.phaas.model.PasswordUpgradeResult;
 import com.github.tomitakussaari.phaas.model.PasswordVerifyRequest;
 import com.github.tomitakussaari.phaas.model.PasswordVerifyResult;
 import com.github.tomitakussaari.phaas.user.PhaasUser;
 import com.github.tomitakussaari.phaas.user.UsersService;
+import com.github.tomitakussaari.phaas.util.BatchExecutor;
+import com.github.tomitakussaari.phaas.util.DeferredUpgrades;
+import com.github.tomitakussaari.phaas.util.HashRewrapper;
+import com.github.tomitakussaari.phaas.util.IdempotentResults;
 import com.github.tomitakussaari.phaas.util.PasswordHasher;
 import com.github.tomitakussaari.phaas.util.PasswordVerifier;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.context.request.async.DeferredResult;
 import springfox.documentation.annotations.ApiIgnore;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 import static com.github.tomitakussaari.phaas.util.AsyncHelper.withName;
 
 @RestController
 @RequestMapping("/passwords")
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
 public class PasswordApi {
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
     private final PasswordVerifier passwordVerifier;
     private final PasswordHasher passwordHasher;
+    private final BatchExecutor batchExecutor;
+    private final HashRewrapper hashRewrapper;
+    private final DeferredUpgrades deferredUpgrades;
+    private final IdempotentResults idempotentResults;
 
     @ApiOperation(value = "Hashes and protects password")
     @Secured({UsersService.USER_ROLE_VALUE})
     @RequestMapping(method = RequestMethod.PUT, path = "/hash", produces = "application/json")
-    public DeferredResult<HashedPassword> hashPassword(@RequestBody PasswordHashRequest request, @ApiIgnore @AuthenticationPrincipal PhaasUser userDetails) {
-        return withName("passwords").toDeferredResult(() -> passwordHasher.hash(request, userDetails.currentlyActiveCryptoData()));
+    public DeferredResult<HashedPassword> hashPassword(@RequestBody PasswordHashRequest request, @ApiIgnore @AuthenticationPrincipal PhaasUser userDetails,
+                                                       @ApiParam("Retry with same key returns earlier result") @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return withName("passwords").toDeferredResult(() -> idempotentResults.remember(userDetails.getUsername(), idempotencyKey == null ? null : "hash:" + idempotencyKey,
+                request.getRawPassword(), () -> passwordHasher.hash(request, userDetails.currentlyActiveCryptoData())));
+    }
+
+    @ApiOperation(value = "Hashes and protects passwords in parallel, results are in same order as requests")
+    @Secured({UsersService.USER_ROLE_VALUE})
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Batch was processed, results tell which passwords were hashed"),
+            @ApiResponse(code = 413, message = "Batch has too many passwords")
+    })
+    @RequestMapping(method = RequestMethod.PUT, path = "/hash/batch", produces = "application/json")
+    public DeferredResult<List<BatchHashResult>> hashPasswords(@RequestBody List<PasswordHashRequest> requests, @ApiIgnore @AuthenticationPrincipal PhaasUser userDetails,
+                                                               @ApiParam("Retry with same key returns earlier results of passwords that were hashed") @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        CryptoData cryptoData = userDetails.currentlyActiveCryptoData(); // shared, so that key is unwrapped only once
+        // every item is remembered on its own, so that retry computes only items that failed
+        List<Integer> indexes = IntStream.range(0, requests.size()).boxed().collect(Collectors.toList());
+        return batchExecutor.execute("passwords", indexes,
+                index -> idempotentResults.remember(userDetails.getUsername(), idempotencyKey == null ? null : "hash/batch:" + idempotencyKey + "/" + index,
+                        requests.get(index).getRawPassword(), () -> BatchHashResult.success(passwordHasher.hash(requests.get(index), cryptoData))),
+                BatchHashResult::failure);
     }
 
     @ApiOperation(value = "Verifies given password against given hash")
@@ -53,4 +104,64 @@ public class PasswordApi {
             return result.isValid() ? ResponseEntity.ok(result) : ResponseEntity.unprocessableEntity().body(result);
         });
     }
+
+    @ApiOperation(value = "Verifies passwords against their hashes in parallel, results are in same order as requests")
+    @Secured({UsersService.USER_ROLE_VALUE})
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Batch was processed, results tell which passwords were valid"),
+            @ApiResponse(code = 413, message = "Batch has too many passwords")
+    })
+    @RequestMapping(method = RequestMethod.PUT, path = "/verify/batch", produces = "application/json")
+    public DeferredResult<List<BatchVerifyResult>> verifyPasswords(@RequestBody List<PasswordVerifyRequest> requests, @ApiIgnore @AuthenticationPrincipal PhaasUser userDetails) {
+        CryptoData activeCryptoData = userDetails.currentlyActiveCryptoData();
+        // items are grouped by scheme id, so that key of each scheme is unwrapped and derived only once per batch
+        Map<Integer, CryptoData> cryptoDataBySchemeId = new ConcurrentHashMap<>();
+        cryptoDataBySchemeId.put(activeCryptoData.getScheme().getId(), activeCryptoData);
+        return batchExecutor.execute("passwords", requests,
+                request -> BatchVerifyResult.success(passwordVerifier.verify(request, cryptoDataBySchemeId.computeIfAbsent(request.schemeId(), userDetails::cryptoDataForId), activeCryptoData)),
+                BatchVerifyResult::failure);
+    }
+
+    @ApiOperation(value = "Returns new password hash of deferred upgrade", notes = "Ticket is returned by verify when phaas.upgrade.mode is deferred")
+    @Secured({UsersService.USER_ROLE_VALUE})
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Upgrade is done"),
+            @ApiResponse(code = 202, message = "New hash is still being computed"),
+            @ApiResponse(code = 404, message = "Upgrade was not found or has expired")
+    })
+    @RequestMapping(method = RequestMethod.GET, path = "/upgrades/{ticket}", produces = "application/json")
+    public ResponseEntity<PasswordUpgradeResult> upgradedPassword(@PathVariable String ticket) {
+        return deferredUpgrades.find(ticket)
+                .map(result -> result.isPending() ? ResponseEntity.accepted().body(result) : ResponseEntity.ok(result))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @ApiOperation(value = "Moves stored hashes of older protection schemes under active scheme, without passwords",
+            notes = "Request and response are NDJSON, one {\"id\": \"...\", \"hash\": \"...\"} per line, and response lines are in same order as request lines. "
+                    + "Hashes that have \"rewrapped\": true in response should be stored, hashes that can not be rewrapped get error and are upgraded when users log in.")
+    @Secured({UsersService.USER_ROLE_VALUE})
+    @RequestMapping(method = RequestMethod.PUT, path = "/rewrap", produces = NDJSON)
+    public void rewrapHashes(@ApiIgnore HttpServletRequest request, @ApiIgnore HttpServletResponse response, @ApiIgnore @AuthenticationPrincipal PhaasUser userDetails) throws IOException {
+        CryptoData activeCryptoData = userDetails.currentlyActiveCryptoData();
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        // streamed synchronously, so that long rewraps are not cut by async request timeout
+        HashRewrapper.Summary summary = hashRewrapper.rewrapAll(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8),
+                response.getWriter(), userDetails::cryptoDataForId, activeCryptoData);
+        log.info("Rewrapped hashes of {}: {}", userDetails.getUsername(), summary);
+    }
+
+    @ApiOperation(value = "Imports bcrypt, PBKDF2 and scrypt hashes of other systems under active scheme, without passwords",
+            notes = "Request and response are NDJSON like in /passwords/rewrap, request hashes are hashes of other system, and response hashes are phaas hashes that should be stored. "
+                    + "Imported hash is verified with its own algorithm, and successful verify returns upgradedHash of active scheme.")
+    @Secured({UsersService.USER_ROLE_VALUE})
+    @RequestMapping(method = RequestMethod.PUT, path = "/import", produces = NDJSON)
+    public void importHashes(@ApiIgnore HttpServletRequest request, @ApiIgnore HttpServletResponse response, @ApiIgnore @AuthenticationPrincipal PhaasUser userDetails) throws IOException {
+        CryptoData activeCryptoData = userDetails.currentlyActiveCryptoData();
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        HashRewrapper.Summary summary = hashRewrapper.importAll(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8),
+                response.getWriter(), activeCryptoData);
+        log.info("Imported hashes of {}: {}", userDetails.getUsername(), summary);
+    }
 }
@@ -0,0 +1,40 @@
+package com.github.tomitakussaari.phaas.api;
+
+import com.github.tomitakussaari.phaas.model.Sessions.CreateSessionResponse;
+import com.github.tomitakussaari.phaas.user.PhaasUser;
+import com.github.tomitakussaari.phaas.user.SessionTokens;
+import io.swagger.annotations.ApiOperation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import static com.github.tomitakussaari.phaas.util.AsyncHelper.withName;
+
+@RestController
+@RequestMapping("/sessions")
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class SessionsApi {
+
+    private final SessionTokens sessionTokens;
+
+    @ApiOperation(value = "Exchanges user credentials into short-lived session token, which can be used as 'Authorization: Bearer <token>' header instead of credentials")
+    @RequestMapping(method = RequestMethod.POST, produces = "application/json")
+    public DeferredResult<CreateSessionResponse> createSession() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication instanceof PreAuthenticatedAuthenticationToken) {
+            throw new AccessDeniedException("Session can only be created with user name and password");
+        }
+        PhaasUser user = (PhaasUser) authentication.getPrincipal();
+        return withName("sessions").toDeferredResult(() -> {
+            SessionTokens.Session session = sessionTokens.issue(user);
+            return new CreateSessionResponse(session.getToken(), session.getExpiresAt());
+        });
+    }
+}
@@ -7,6 +7,8 @@ import com.github.tomitakussaari.phaas.model.Tokens.ParseTokenResponse;
 import com.github.tomitakussaari.phaas.user.PhaasUser;
 import com.github.tomitakussaari.phaas.util.JwtHelper;
 import io.swagger.annotations.ApiOperation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -21,9 +23,10 @@ import static com.github.tomitakussaari.phaas.util.AsyncHelper.withName;
 
 @RestController
 @RequestMapping("/tokens")
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
 public class TokensApi {
 
-    private final JwtHelper jwtHelper = new JwtHelper();
+    private final JwtHelper jwtHelper;
 
     @ApiOperation(value = "Creates token with given claims and validity", consumes = "application/json")
     @RequestMapping(method = RequestMethod.POST, path = "/create")
@@ -5,6 +5,7 @@ import com.github.tomitakussaari.phaas.model.DataProtectionScheme.PublicProtecti
 import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
 import com.github.tomitakussaari.phaas.user.PhaasUser;
 import com.github.tomitakussaari.phaas.user.UsersService;
+import io.swagger.annotations.ApiModelProperty;
 import io.swagger.annotations.ApiOperation;
 import lombok.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -40,6 +41,7 @@ public class UsersApi {
     @RequestMapping(method = RequestMethod.PUT, produces = "application/json", path = "/me")
     public void changePasswords(@RequestBody ChangePasswordsRequest changePasswordsRequest, @ApiIgnore @AuthenticationPrincipal PhaasUser userDetails) {
         rejectIfUserDatabaseIsImmutable();
+        rejectIfAuthenticatedWithoutPassword(userDetails);
         usersService.renewEncryptionKeyProtection(userDetails.getUsername(), changePasswordsRequest.getNewPassword(), userDetails.getUserPassword(), changePasswordsRequest.getSharedSecretForSigningCommunication());
     }
 
@@ -70,7 +72,9 @@ public class UsersApi {
     @RequestMapping(method = RequestMethod.POST, path = "/me/scheme", consumes = "application/json")
     public void newProtectionScheme(@RequestBody ProtectionSchemeRequest request, @ApiIgnore @AuthenticationPrincipal PhaasUser userDetails) {
         rejectIfUserDatabaseIsImmutable();
-        usersService.newProtectionScheme(userDetails.getUsername(), request.getAlgorithm(), userDetails.getUserPassword(), request.isRemoveOldSchemes());
+        rejectIfAuthenticatedWithoutPassword(userDetails);
+        usersService.newProtectionScheme(userDetails.getUsername(), request.getAlgorithm(), userDetails.getUserPassword(), request.isRemoveOldSchemes(),
+                request.isServerRelief());
     }
 
     private PublicUser toPublicUser(PhaasUser userDetails) {
@@ -88,6 +92,12 @@ public class UsersApi {
         }
     }
 
+    private void rejectIfAuthenticatedWithoutPassword(PhaasUser userDetails) {
+        if (userDetails.getUserPassword() == null) {
+            throw new OperationIsNotAvailableException("operation requires authentication with password");
+        }
+    }
+
     @Getter
     @RequiredArgsConstructor
     static class ChangePasswordsRequest {
@@ -113,6 +123,8 @@ public class UsersApi {
         @NonNull
         private final PasswordEncodingAlgorithm algorithm;
         private final boolean removeOldSchemes;
+        @ApiModelProperty(notes = "clients compute memory hard part of hashes themselves, only supported with Argon2 algorithms")
+        private final boolean serverRelief;
     }
 
     @RequiredArgsConstructor
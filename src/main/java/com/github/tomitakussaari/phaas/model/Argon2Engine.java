@@ -0,0 +1,110 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.github.tomitakussaari.phaas.util.ArenaPool;
+import com.github.tomitakussaari.phaas.util.Argon2WorkerPool;
+import com.github.tomitakussaari.phaas.util.JavaArgon2;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Implementation that computes Argon2 hashes, selected per algorithm. All engines produce and accept same encoded hashes,
+ * so engine can be changed without affecting stored hashes.
+ * <p>
+ * Engines are given to encoders as {@link Selection}, see {@link PasswordEncodingAlgorithm#encoder(EncoderParameters, Selection)}.
+ * Encoders that are created without selection use {@link Selection#defaults()}.
+ */
+@Slf4j
+public enum Argon2Engine {
+    /**
+     * libargon2, through argon2-jvm or JNA
+     */
+    NATIVE,
+    /**
+     * {@link JavaArgon2}, does not need native library and takes its memory from pooled off-heap arenas
+     */
+    JAVA,
+    /**
+     * {@link Argon2WorkerPool}, hashes are computed with native or Java engine in separate worker processes
+     */
+    PROCESS;
+
+    /**
+     * @return true, if this engine can compute given algorithm on this host. Native ARGON2ID needs libargon2 that has Argon2id functions.
+     */
+    public boolean isAvailable(PasswordEncodingAlgorithm algorithm) {
+        return this != NATIVE || algorithm != PasswordEncodingAlgorithm.ARGON2ID || Argon2idPasswordEncoder.isNativeAvailable();
+    }
+
+    /**
+     * @return this engine, or Java engine if this engine can not compute given algorithm on this host
+     */
+    public Argon2Engine availableFor(PasswordEncodingAlgorithm algorithm) {
+        if (isAvailable(algorithm)) {
+            return this;
+        }
+        log.warn("{} engine is not available for {}: libargon2 20161029 or newer is needed, using {} engine instead", this, algorithm, JAVA);
+        return JAVA;
+    }
+
+    /**
+     * Engines of {@link PasswordEncodingAlgorithm#ARGON2} and {@link PasswordEncodingAlgorithm#ARGON2ID}, with resources that they use.
+     * Selection is immutable, and encoders are shared per selection, so selections with different engines can be used side by side.
+     */
+    public static final class Selection {
+        private final Argon2Engine argon2;
+        private final Argon2Engine argon2id;
+        private final JavaArgon2 javaArgon2;
+        private final Argon2WorkerPool workers;
+
+        /**
+         * @param arenas  pool that {@link #JAVA} engine takes memory from, should keep as many arenas as there can be concurrent operations
+         * @param workers worker processes that {@link #PROCESS} engine sends hashes to, null if it is not selected. Closed with this selection.
+         */
+        public Selection(Argon2Engine argon2, Argon2Engine argon2id, ArenaPool arenas, Argon2WorkerPool workers) {
+            Preconditions.checkArgument(workers != null || (argon2 != PROCESS && argon2id != PROCESS), "Process engine needs Argon2 worker processes");
+            this.argon2 = argon2;
+            this.argon2id = argon2id;
+            this.javaArgon2 = new JavaArgon2(arenas);
+            this.workers = workers;
+        }
+
+        /**
+         * @return native engine, or Java engine for algorithms that native library of this host can not compute
+         */
+        public static Selection defaults() {
+            return DefaultSelection.INSTANCE;
+        }
+
+        public Argon2Engine engine(PasswordEncodingAlgorithm algorithm) {
+            return algorithm == PasswordEncodingAlgorithm.ARGON2ID ? argon2id : argon2;
+        }
+
+        /**
+         * Stops worker processes, and forgets encoders that use this selection
+         */
+        public void close() {
+            EncoderRegistry.forget(this);
+            if (workers != null) {
+                workers.close();
+            }
+        }
+
+        JavaArgon2 javaArgon2() {
+            return javaArgon2;
+        }
+
+        Argon2WorkerPool workers() {
+            return workers;
+        }
+
+        @Override
+        public String toString() {
+            return "ARGON2=" + argon2 + ", ARGON2ID=" + argon2id;
+        }
+    }
+
+    private static class DefaultSelection {
+        private static final Selection INSTANCE = new Selection(NATIVE, NATIVE.availableFor(PasswordEncodingAlgorithm.ARGON2ID),
+                new ArenaPool(Runtime.getRuntime().availableProcessors()), null);
+    }
+}
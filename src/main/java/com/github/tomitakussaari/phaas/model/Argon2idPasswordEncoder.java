@@ -0,0 +1,156 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.github.tomitakussaari.phaas.util.EntropySource;
+import com.github.tomitakussaari.phaas.util.JavaArgon2;
+import com.google.common.base.Preconditions;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import de.mkammerer.argon2.jna.Size_t;
+import de.mkammerer.argon2.jna.Uint32_t;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.ITERATIONS;
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.MEMORY;
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.PARALLELISM;
+
+/**
+ * Argon2id, where parallelism parameter (p) is maximum number of lanes. Actual lane count of each hash is picked
+ * by {@link LanePolicy} and stored in hash, so verifying uses same lanes as hashing did.
+ * <p>
+ * argon2-jvm binds only Argon2i and Argon2d, so libargon2 is called directly, unless engine selection has {@link Argon2Engine#JAVA}
+ * or {@link Argon2Engine#PROCESS} for Argon2id. libargon2 bundled with argon2-jvm 2.1 does not have Argon2id functions,
+ * so native engine needs system libargon2 20161029 or newer, see {@link #isNativeAvailable()}.
+ */
+class Argon2idPasswordEncoder implements PasswordEncoder {
+
+    static final String HASH_PREFIX = "$argon2id$";
+    static final EncoderParameters DEFAULT_PARAMETERS = EncoderParameters.DEFAULTS.with(ITERATIONS, 2).with(MEMORY, 65536).with(PARALLELISM, 4);
+    private static final int HASH_LENGTH = 32;
+    private static final int MAX_ENCODED_LENGTH = 256;
+    private static final int ARGON2_OK = 0;
+    private static final String LIBRARY = "argon2";
+
+    private final EncoderParameters parameters;
+    private final int iterations;
+    private final int memoryKiB;
+    private final int maxLanes;
+    private final LanePolicy lanePolicy;
+    private final Argon2Engine engine;
+    private final Argon2Engine.Selection engines;
+
+    Argon2idPasswordEncoder(EncoderParameters parameters) {
+        this(parameters, Argon2Engine.Selection.defaults());
+    }
+
+    Argon2idPasswordEncoder(EncoderParameters parameters, Argon2Engine.Selection engines) {
+        this(parameters, LanePolicy.shared(), engines);
+    }
+
+    Argon2idPasswordEncoder(EncoderParameters parameters, LanePolicy lanePolicy, Argon2Engine.Selection engines) {
+        this.parameters = parameters;
+        this.engine = engines.engine(PasswordEncodingAlgorithm.ARGON2ID);
+        this.engines = engines;
+        this.iterations = parameters.get(ITERATIONS, 2);
+        this.memoryKiB = parameters.get(MEMORY, 65536);
+        this.maxLanes = parameters.get(PARALLELISM, 4);
+        this.lanePolicy = lanePolicy;
+        Preconditions.checkArgument(iterations >= 1, "Argon2 requires at least one iteration");
+        Preconditions.checkArgument(maxLanes >= 1 && maxLanes <= 255, "Argon2 parallelism must be between 1 and 255");
+        Preconditions.checkArgument(memoryKiB >= 8 * maxLanes, "Argon2 requires at least 8 KiB memory per lane");
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        if (engine == Argon2Engine.PROCESS) {
+            return engines.workers().encode(PasswordEncodingAlgorithm.ARGON2ID, parameters, rawPassword); // worker picks lanes
+        }
+        return lanePolicy.withLanes(maxLanes, lanes -> hash(rawPassword, lanes));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (encodedPassword == null || !encodedPassword.startsWith(HASH_PREFIX)) {
+            return false;
+        }
+        if (engine == Argon2Engine.PROCESS) {
+            return engines.workers().matches(PasswordEncodingAlgorithm.ARGON2ID, rawPassword, encodedPassword);
+        }
+        byte[] password = toBytes(rawPassword);
+        try {
+            if (engine == Argon2Engine.JAVA) {
+                return lanePolicy.running(() -> engines.javaArgon2().verify(JavaArgon2.Type.ARGON2ID, encodedPassword, password));
+            }
+            byte[] encoded = Native.toByteArray(encodedPassword, StandardCharsets.US_ASCII.name());
+            return lanePolicy.running(() -> library().argon2id_verify(encoded, password, new Size_t(password.length)) == ARGON2_OK);
+        } finally {
+            Arrays.fill(password, (byte) 0);
+        }
+    }
+
+    private String hash(CharSequence rawPassword, int lanes) {
+        byte[] password = toBytes(rawPassword);
+        byte[] salt = EntropySource.defaultSource().salt();
+        try {
+            if (engine == Argon2Engine.JAVA) {
+                return engines.javaArgon2().hash(JavaArgon2.Type.ARGON2ID, iterations, memoryKiB, lanes, password, salt, HASH_LENGTH);
+            }
+            byte[] encoded = new byte[MAX_ENCODED_LENGTH];
+            Argon2idLibrary library = library();
+            int result = library.argon2id_hash_encoded(new Uint32_t(iterations), new Uint32_t(memoryKiB), new Uint32_t(lanes),
+                    password, new Size_t(password.length), salt, new Size_t(salt.length), new Size_t(HASH_LENGTH), encoded, new Size_t(encoded.length));
+            if (result != ARGON2_OK) {
+                throw new IllegalStateException("Argon2id hashing failed: " + library.argon2_error_message(result) + " (" + result + ")");
+            }
+            return Native.toString(encoded, StandardCharsets.US_ASCII.name());
+        } finally {
+            Arrays.fill(password, (byte) 0);
+        }
+    }
+
+    /**
+     * @return true, if libargon2 can be loaded and it has Argon2id functions
+     */
+    static boolean isNativeAvailable() {
+        try {
+            NativeLibrary library = NativeLibrary.getInstance(LIBRARY);
+            library.getFunction("argon2id_hash_encoded");
+            library.getFunction("argon2id_verify");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Missing library or function is {@link UnsatisfiedLinkError}, that would escape error handling meant for exceptions
+     */
+    private static Argon2idLibrary library() {
+        if (!Argon2idLibraryHolder.AVAILABLE) {
+            throw new IllegalStateException("libargon2 with Argon2id functions is not available, install libargon2 20161029 or newer, or select java engine for ARGON2ID");
+        }
+        return Argon2idLibraryHolder.INSTANCE;
+    }
+
+    private static byte[] toBytes(CharSequence rawPassword) {
+        return rawPassword.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Argon2idLibraryHolder {
+        static final boolean AVAILABLE = isNativeAvailable();
+        static final Argon2idLibrary INSTANCE = AVAILABLE ? (Argon2idLibrary) Native.loadLibrary(LIBRARY, Argon2idLibrary.class) : null;
+    }
+
+    interface Argon2idLibrary extends Library {
+
+        int argon2id_hash_encoded(Uint32_t iterations, Uint32_t memoryKiB, Uint32_t parallelism, byte[] password, Size_t passwordLength,
+                                  byte[] salt, Size_t saltLength, Size_t hashLength, byte[] encoded, Size_t encodedLength);
+
+        int argon2id_verify(byte[] encoded, byte[] password, Size_t passwordLength);
+
+        String argon2_error_message(int errorCode);
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchHashResult {
+    @ApiModelProperty(notes = "protected hash, if password was hashed")
+    private final String hash;
+    @ApiModelProperty(notes = "reason, if password could not be hashed")
+    private final String error;
+
+    public static BatchHashResult success(HashedPassword hashedPassword) {
+        return new BatchHashResult(hashedPassword.getHash(), null);
+    }
+
+    public static BatchHashResult failure(String error) {
+        return new BatchHashResult(null, error);
+    }
+}
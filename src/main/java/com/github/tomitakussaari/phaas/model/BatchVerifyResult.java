@@ -0,0 +1,30 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Optional;
+
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchVerifyResult {
+    @ApiModelProperty(notes = "new password hash if new protection scheme is active")
+    private final Optional<String> upgradedHash;
+    private final boolean valid;
+    @ApiModelProperty(notes = "when upgrades are deferred, ticket for fetching new password hash from /passwords/upgrades/{ticket}")
+    private final String upgradeTicket;
+    @ApiModelProperty(notes = "reason, if password could not be verified")
+    private final String error;
+
+    public static BatchVerifyResult success(PasswordVerifyResult result) {
+        return new BatchVerifyResult(result.getUpgradedHash(), result.isValid(), result.getUpgradeTicket(), null);
+    }
+
+    public static BatchVerifyResult failure(String error) {
+        return new BatchVerifyResult(null, false, null, error);
+    }
+}
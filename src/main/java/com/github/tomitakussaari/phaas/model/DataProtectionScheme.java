@@ -1,13 +1,18 @@
 package com.github.tomitakussaari.phaas.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import com.github.tomitakussaari.phaas.util.PasswordHashCipher;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
-@RequiredArgsConstructor
+import javax.crypto.SecretKey;
+import java.util.function.Supplier;
+
 @Getter
 public class DataProtectionScheme {
 
@@ -21,32 +26,117 @@ public class DataProtectionScheme {
     private final String encryptedKeyWithSalt;
     @NonNull
     private final CryptoHelper cryptoHelper;
+    @NonNull
+    private final EncoderParameters encoderParameters;
+    /**
+     * Null, unless scheme uses server relief, see {@link ServerRelief}
+     */
+    private final String serverReliefSalt;
+
+    public DataProtectionScheme(int id, @NonNull PasswordEncodingAlgorithm algorithm, @NonNull String encryptedKeyWithSalt, @NonNull CryptoHelper cryptoHelper) {
+        this(id, algorithm, encryptedKeyWithSalt, cryptoHelper, EncoderParameters.DEFAULTS);
+    }
+
+    public DataProtectionScheme(int id, @NonNull PasswordEncodingAlgorithm algorithm, @NonNull String encryptedKeyWithSalt, @NonNull CryptoHelper cryptoHelper,
+                                @NonNull EncoderParameters encoderParameters) {
+        this(id, algorithm, encryptedKeyWithSalt, cryptoHelper, encoderParameters, null);
+    }
+
+    public DataProtectionScheme(int id, @NonNull PasswordEncodingAlgorithm algorithm, @NonNull String encryptedKeyWithSalt, @NonNull CryptoHelper cryptoHelper,
+                                @NonNull EncoderParameters encoderParameters, String serverReliefSalt) {
+        this.id = id;
+        this.algorithm = algorithm;
+        this.encryptedKeyWithSalt = encryptedKeyWithSalt;
+        this.cryptoHelper = cryptoHelper;
+        this.encoderParameters = encoderParameters;
+        this.serverReliefSalt = serverReliefSalt;
+    }
 
     public PasswordEncoder passwordEncoder() {
-        return getAlgorithm().encoder();
+        return passwordEncoder(Argon2Engine.Selection.defaults());
+    }
+
+    public PasswordEncoder passwordEncoder(Argon2Engine.Selection engines) {
+        return getAlgorithm().encoder(encoderParameters, engines);
+    }
+
+    /**
+     * @return true, if clients compute memory hard part of hashes, and phaas only finalises them with keyed hash
+     */
+    public boolean isServerRelief() {
+        return serverReliefSalt != null;
+    }
+
+    public int memoryCostKiB() {
+        return isServerRelief() ? 0 : algorithm.memoryCostKiB(encoderParameters);
+    }
+
+    /**
+     * @param hashedPassword inner hash, made with algorithm of this scheme
+     * @return true, if hash was made with lower cost parameters than this scheme uses
+     */
+    public boolean isWeakerHash(String hashedPassword) {
+        return !isServerRelief() && algorithm.isWeaker(hashedPassword, encoderParameters);
     }
 
     public PublicProtectionScheme toPublicScheme() {
-        return new PublicProtectionScheme(id, algorithm);
+        ServerRelief serverRelief = isServerRelief() ? new ServerRelief(algorithm, algorithm.parameters(encoderParameters).toString(), serverReliefSalt) : null;
+        return new PublicProtectionScheme(id, algorithm, serverRelief);
+    }
+
+    public boolean isKeyProtectionOutdated() {
+        return cryptoHelper.isOutdated(encryptedKeyWithSalt);
     }
 
     public CryptoData cryptoData(CharSequence userPassword) {
         return new CryptoData(this, userPassword);
     }
 
-    @RequiredArgsConstructor
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
     public static class CryptoData {
         private final DataProtectionScheme scheme;
-        private final CharSequence userPassword;
+        private final Supplier<String> keySupplier;
+        @Getter(lazy = true)
+        private final String dataProtectionKey  = keySupplier.get();
+        /**
+         * Derived once, so that all hashes protected with same CryptoData share key derivation
+         */
         @Getter(lazy = true)
-        private final String dataProtectionKey  = dataProtectionKey();
+        private final SecretKey hashEncryptionKey = PasswordHashCipher.hashEncryptionKey(getDataProtectionKey());
+
+        CryptoData(DataProtectionScheme scheme, CharSequence userPassword) {
+            this(scheme, () -> scheme.getCryptoHelper().decryptDataProtectionKey(scheme.getId(), userPassword, scheme.getEncryptedKeyWithSalt()));
+        }
+
+        /**
+         * For data protection keys that are available without user's password
+         */
+        public static CryptoData withKey(DataProtectionScheme scheme, String dataProtectionKey) {
+            return new CryptoData(scheme, () -> dataProtectionKey);
+        }
 
         public DataProtectionScheme getScheme() {
             return scheme;
         }
 
-        private String dataProtectionKey() {
-            return scheme.getCryptoHelper().decryptData(userPassword, scheme.getEncryptedKeyWithSalt());
+        public PasswordEncoder passwordEncoder() {
+            return passwordEncoder(Argon2Engine.Selection.defaults());
+        }
+
+        /**
+         * Keyed algorithms, and server relief finalisation, get key derived from data protection key and pepper.
+         *
+         * @param engines engines that compute Argon2 hashes
+         */
+        public PasswordEncoder passwordEncoder(Argon2Engine.Selection engines) {
+            PasswordEncodingAlgorithm algorithm = scheme.getAlgorithm();
+            if (scheme.isServerRelief()) {
+                return ServerRelief.encoder(PasswordEncodingAlgorithm.HMAC_SHA256.encoder(scheme.getCryptoHelper().passwordHashingKeys(getDataProtectionKey())));
+            }
+            if (algorithm.requiresKey()) {
+                return algorithm.encoder(scheme.getCryptoHelper().passwordHashingKeys(getDataProtectionKey()));
+            }
+            return scheme.passwordEncoder(engines);
         }
     }
 
@@ -55,6 +145,8 @@ public class DataProtectionScheme {
         private final int id;
         @NonNull
         private final PasswordEncodingAlgorithm algorithm;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private final ServerRelief serverRelief;
     }
 
 
@@ -0,0 +1,96 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import lombok.EqualsAndHashCode;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Cost parameters of password encoder, like {@code m=65536,p=2,t=2} for Argon2 or {@code cost=11} for bcrypt.
+ * Parameters that are not given use algorithm's defaults, see {@link PasswordEncodingAlgorithm#parameters(EncoderParameters)}.
+ */
+@EqualsAndHashCode
+public final class EncoderParameters {
+
+    /**
+     * Argon2 iterations (t)
+     */
+    public static final String ITERATIONS = "t";
+    /**
+     * Argon2 memory in KiB (m)
+     */
+    public static final String MEMORY = "m";
+    /**
+     * Argon2 lanes (p)
+     */
+    public static final String PARALLELISM = "p";
+    /**
+     * bcrypt log2 rounds
+     */
+    public static final String COST = "cost";
+    public static final EncoderParameters DEFAULTS = new EncoderParameters(new TreeMap<>());
+
+    private static final Joiner.MapJoiner joiner = Joiner.on(',').withKeyValueSeparator('=');
+    private static final Splitter.MapSplitter splitter = Splitter.on(',').trimResults().omitEmptyStrings().withKeyValueSeparator('=');
+
+    private final SortedMap<String, Integer> values;
+
+    private EncoderParameters(SortedMap<String, Integer> values) {
+        this.values = Collections.unmodifiableSortedMap(values);
+    }
+
+    /**
+     * @param parameters in format {@code name=value,name2=value2}, null or empty for defaults
+     */
+    public static EncoderParameters parse(String parameters) {
+        if (parameters == null || parameters.trim().isEmpty()) {
+            return DEFAULTS;
+        }
+        try {
+            SortedMap<String, Integer> values = new TreeMap<>();
+            splitter.split(parameters).forEach((name, value) -> values.put(name, Integer.valueOf(value)));
+            return new EncoderParameters(values);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid encoder parameters: " + parameters, e);
+        }
+    }
+
+    public int get(String name, int defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    public EncoderParameters with(String name, int value) {
+        SortedMap<String, Integer> newValues = new TreeMap<>(values);
+        newValues.put(name, value);
+        return new EncoderParameters(newValues);
+    }
+
+    /**
+     * @return parameters with given defaults for those that are not set
+     */
+    EncoderParameters withDefaults(EncoderParameters defaults) {
+        SortedMap<String, Integer> newValues = new TreeMap<>(defaults.values);
+        newValues.putAll(values);
+        return new EncoderParameters(newValues);
+    }
+
+    public Map<String, Integer> asMap() {
+        return values;
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * @return parameters in format accepted by {@link #parse(String)}
+     */
+    @Override
+    public String toString() {
+        return joiner.join(values);
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.tomitakussaari.phaas.model;
+
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Shared encoder instances, one per algorithm, parameter set and Argon2 engine selection. Encoders are stateless and thread-safe,
+ * so there is no need to pay for creating them (for Argon2, binding native library) on every hash and verify.
+ */
+final class EncoderRegistry {
+
+    private static final ConcurrentMap<EncoderKey, PasswordEncoder> encoders = new ConcurrentHashMap<>();
+
+    private EncoderRegistry() {
+    }
+
+    /**
+     * @param engines Argon2 engines that encoder uses, null for algorithms that are not computed by {@link Argon2Engine}
+     */
+    static PasswordEncoder encoder(PasswordEncodingAlgorithm algorithm, EncoderParameters parameters, Argon2Engine.Selection engines,
+                                   Supplier<PasswordEncoder> factory) {
+        return encoders.computeIfAbsent(new EncoderKey(algorithm, parameters, engines), key -> factory.get());
+    }
+
+    static void forget(Argon2Engine.Selection engines) {
+        encoders.keySet().removeIf(key -> key.engines == engines);
+    }
+
+    /**
+     * Selections are compared by identity, as each of them has resources of its own
+     */
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    private static class EncoderKey {
+        private final PasswordEncodingAlgorithm algorithm;
+        private final EncoderParameters parameters;
+        private final Argon2Engine.Selection engines;
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * One line of hash rewrap input and output NDJSON.
+ */
+@RequiredArgsConstructor
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HashRewrapItem {
+    @ApiModelProperty(notes = "optional identifier of hash, returned as is")
+    private final String id;
+    @ApiModelProperty(notes = "protected hash, in output it is protected with active scheme if it was rewrapped")
+    private final String hash;
+    @ApiModelProperty(notes = "reason, if hash could not be rewrapped")
+    private final String error;
+    @ApiModelProperty(notes = "true, if hash was rewrapped and should be stored")
+    private final boolean rewrapped;
+
+    public static HashRewrapItem failure(String id, String hash, String error) {
+        return new HashRewrapItem(id, hash, error, false);
+    }
+
+    public HashRewrapItem rewrapped(String newHash) {
+        return new HashRewrapItem(id, newHash, null, true);
+    }
+
+    public HashRewrapItem unchanged() {
+        return new HashRewrapItem(id, hash, null, false);
+    }
+}
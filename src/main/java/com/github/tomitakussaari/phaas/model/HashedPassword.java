@@ -13,4 +13,8 @@ public class HashedPassword {
     public static HashedPassword from(Integer encryptionId, String encryptionSalt, String hashedPassword) {
         return new HashedPassword(encryptionId + TOKEN_VALUE_SEPARATOR + encryptionSalt + TOKEN_VALUE_SEPARATOR + hashedPassword);
     }
+
+    public static HashedPassword from(ProtectedPasswordHash protectedHash) {
+        return new HashedPassword(protectedHash.getHash());
+    }
 }
@@ -0,0 +1,28 @@
+package com.github.tomitakussaari.phaas.model;
+
+/**
+ * Versioned keys for keyed password hashing algorithms. Id of key is stored in hash, so older keys can still be used for verifying.
+ */
+public interface HashingKeys {
+
+    String currentKeyId();
+
+    byte[] key(String keyId);
+
+    static HashingKeys of(String keyId, byte[] key) {
+        return new HashingKeys() {
+            @Override
+            public String currentKeyId() {
+                return keyId;
+            }
+
+            @Override
+            public byte[] key(String requestedKeyId) {
+                if (!keyId.equals(requestedKeyId)) {
+                    throw new IllegalStateException("Unknown key: " + requestedKeyId);
+                }
+                return key;
+            }
+        };
+    }
+}
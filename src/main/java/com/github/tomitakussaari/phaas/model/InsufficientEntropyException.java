@@ -0,0 +1,8 @@
+package com.github.tomitakussaari.phaas.model;
+
+public class InsufficientEntropyException extends IllegalArgumentException {
+
+    public InsufficientEntropyException(String message) {
+        super(message);
+    }
+}
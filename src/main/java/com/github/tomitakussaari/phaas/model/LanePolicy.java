@@ -0,0 +1,58 @@
+package com.github.tomitakussaari.phaas.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Picks number of Argon2id lanes (threads) for new hash from how many Argon2id operations are running.
+ * When there is nothing else to do, hash uses up to all processors, so that user waits less.
+ * When processors are already busy, hash uses one lane, as extra threads would only add contention.
+ */
+final class LanePolicy {
+
+    private static final LanePolicy shared = new LanePolicy(Runtime.getRuntime().availableProcessors());
+
+    private final int processors;
+    private final AtomicInteger running = new AtomicInteger();
+
+    LanePolicy(int processors) {
+        this.processors = processors;
+    }
+
+    static LanePolicy shared() {
+        return shared;
+    }
+
+    /**
+     * Runs operation with lane count picked for current load
+     */
+    <T> T withLanes(int maxLanes, IntFunction<T> operation) {
+        int concurrent = running.incrementAndGet();
+        try {
+            return operation.apply(lanes(maxLanes, concurrent));
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * Runs operation that does not pick lanes itself (like verify), but keeps processors busy
+     */
+    <T> T running(Supplier<T> operation) {
+        running.incrementAndGet();
+        try {
+            return operation.get();
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    int lanes(int maxLanes, int concurrent) {
+        return Math.max(1, Math.min(maxLanes, processors / Math.max(1, concurrent)));
+    }
+
+    int running() {
+        return running.get();
+    }
+}
@@ -0,0 +1,240 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.github.tomitakussaari.phaas.util.ByteBCrypt;
+import com.github.tomitakussaari.phaas.util.Pbkdf2;
+import com.github.tomitakussaari.phaas.util.Scrypt;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Hash formats of other systems, that can be imported into phaas without passwords. Imported hash is protected
+ * like any other hash, but its inner hash is marked with {@link #IMPORTED_PREFIX}. Imported hashes are only verified,
+ * and successful verify returns hash of user's active scheme, that should replace imported one.
+ */
+public enum LegacyHashAlgorithm {
+    /**
+     * bcrypt of password itself, {@code $2a$}, {@code $2b$} and {@code $2y$}
+     */
+    BCRYPT(new LegacyBCrypt(), "$2a$", "$2b$", "$2y$"),
+    /**
+     * Django ({@code pbkdf2_sha256$<iterations>$<salt>$<base64 hash>}) and passlib ({@code $pbkdf2-sha256$<iterations>$<ab64 salt>$<ab64 hash>}) formats
+     */
+    PBKDF2(new LegacyPbkdf2(), "pbkdf2_sha256$", "pbkdf2_sha1$", "$pbkdf2-sha512$", "$pbkdf2-sha256$", "$pbkdf2$"),
+    /**
+     * passlib ({@code $scrypt$ln=<log2 N>,r=<r>,p=<p>$<ab64 salt>$<ab64 hash>}) and Spring Security / lambdaworks ({@code $s0$<hex parameters>$<salt>$<hash>}) formats
+     */
+    SCRYPT(new LegacyScrypt(), "$scrypt$", "$s0$");
+
+    public static final String IMPORTED_PREFIX = "$imported$";
+
+    private final LegacyHash legacyHash;
+    private final List<String> hashPrefixes;
+
+    LegacyHashAlgorithm(LegacyHash legacyHash, String... hashPrefixes) {
+        this.legacyHash = legacyHash;
+        this.hashPrefixes = ImmutableList.copyOf(hashPrefixes);
+    }
+
+    public static Optional<LegacyHashAlgorithm> findForHash(String hash) {
+        for (LegacyHashAlgorithm algorithm : values()) {
+            if (algorithm.hashPrefixes.stream().anyMatch(hash::startsWith)) {
+                return Optional.of(algorithm);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return given legacy hash marked as imported
+     * @throws IllegalArgumentException if hash is not in any of known formats
+     */
+    public static String imported(String legacyHash) {
+        LegacyHashAlgorithm algorithm = findForHash(legacyHash)
+                .orElseThrow(() -> new IllegalArgumentException("Unrecognized legacy hash format"));
+        algorithm.legacyHash.memoryCostKiB(legacyHash); // parses hash
+        return IMPORTED_PREFIX + legacyHash;
+    }
+
+    /**
+     * @param hash inner hash of protected hash
+     * @return legacy hash without marker, or empty if hash was not imported
+     */
+    public static Optional<String> importedHash(String hash) {
+        return hash.startsWith(IMPORTED_PREFIX) ? Optional.of(hash.substring(IMPORTED_PREFIX.length())) : Optional.empty();
+    }
+
+    public boolean matches(CharSequence rawPassword, String hash) {
+        char[] password = rawPassword.toString().toCharArray();
+        try {
+            return legacyHash.matches(password, hash);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    /**
+     * @return memory that verifying given hash needs, excluding small constant overhead
+     */
+    public int memoryCostKiB(String hash) {
+        return legacyHash.memoryCostKiB(hash);
+    }
+
+    /**
+     * Alphabet of passlib, that is base64 with '.' instead of '+', and without padding
+     */
+    static byte[] decodeBase64(String encoded) {
+        try {
+            return Base64.getDecoder().decode(encoded.replace('.', '+'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid base64 in legacy hash", e);
+        }
+    }
+
+    static String[] split(String hash, int parts) {
+        String[] split = hash.split("\\$", -1);
+        Preconditions.checkArgument(split.length == parts, "Legacy hash has %s parts, but should have %s", split.length, parts);
+        return split;
+    }
+}
+
+interface LegacyHash {
+    boolean matches(char[] password, String hash);
+
+    int memoryCostKiB(String hash);
+}
+
+class LegacyBCrypt implements LegacyHash {
+
+    @Override
+    public boolean matches(char[] password, String hash) {
+        memoryCostKiB(hash);
+        byte[] passwordBytes = new String(password).getBytes(StandardCharsets.UTF_8);
+        try {
+            return ByteBCrypt.verify(passwordBytes, hash);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    public int memoryCostKiB(String hash) {
+        String[] parts = LegacyHashAlgorithm.split(hash, 4);
+        Preconditions.checkArgument(hash.length() == 60 && parts[2].matches("\\d\\d"), "Invalid bcrypt hash");
+        return 0;
+    }
+}
+
+class LegacyPbkdf2 implements LegacyHash {
+
+    @Override
+    public boolean matches(char[] password, String hash) {
+        Parameters parameters = new Parameters(hash);
+        byte[] derived = Pbkdf2.derive(parameters.mac, password, parameters.salt, parameters.iterations, parameters.hash.length);
+        return MessageDigest.isEqual(parameters.hash, derived);
+    }
+
+    @Override
+    public int memoryCostKiB(String hash) {
+        new Parameters(hash);
+        return 0;
+    }
+
+    private static class Parameters {
+        private final String mac;
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        Parameters(String encoded) {
+            try {
+                if (encoded.startsWith("pbkdf2_")) {
+                    String[] parts = LegacyHashAlgorithm.split(encoded, 4);
+                    this.mac = mac(parts[0].substring("pbkdf2_".length()));
+                    this.iterations = Integer.parseInt(parts[1]);
+                    this.salt = parts[2].getBytes(StandardCharsets.UTF_8);
+                    this.hash = Base64.getDecoder().decode(parts[3]);
+                } else {
+                    String[] parts = LegacyHashAlgorithm.split(encoded, 5);
+                    this.mac = mac(parts[1].equals("pbkdf2") ? "sha1" : parts[1].substring("pbkdf2-".length()));
+                    this.iterations = Integer.parseInt(parts[2]);
+                    this.salt = LegacyHashAlgorithm.decodeBase64(parts[3]);
+                    this.hash = LegacyHashAlgorithm.decodeBase64(parts[4]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid PBKDF2 hash: " + e.getMessage(), e);
+            }
+            Preconditions.checkArgument(iterations >= 1 && hash.length > 0, "Invalid PBKDF2 hash");
+        }
+
+        private static String mac(String digest) {
+            switch (digest) {
+                case "sha1":
+                    return "HmacSHA1";
+                case "sha256":
+                    return "HmacSHA256";
+                case "sha512":
+                    return "HmacSHA512";
+                default:
+                    throw new IllegalArgumentException("Unsupported PBKDF2 digest " + digest);
+            }
+        }
+    }
+}
+
+class LegacyScrypt implements LegacyHash {
+
+    @Override
+    public boolean matches(char[] password, String hash) {
+        Parameters parameters = new Parameters(hash);
+        byte[] derived = Scrypt.derive(password, parameters.salt, parameters.n, parameters.r, parameters.p, parameters.hash.length);
+        return MessageDigest.isEqual(parameters.hash, derived);
+    }
+
+    @Override
+    public int memoryCostKiB(String hash) {
+        Parameters parameters = new Parameters(hash);
+        return (int) Math.min(Integer.MAX_VALUE, Scrypt.memoryCostKiB(parameters.n, parameters.r));
+    }
+
+    private static class Parameters {
+        private final int n;
+        private final int r;
+        private final int p;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        Parameters(String encoded) {
+            String[] parts = LegacyHashAlgorithm.split(encoded, 5);
+            int logN;
+            try {
+                if (parts[1].equals("s0")) {
+                    long parameters = Long.parseLong(parts[2], 16);
+                    logN = (int) (parameters >> 16 & 0xffff);
+                    this.r = (int) (parameters >> 8 & 0xff);
+                    this.p = (int) (parameters & 0xff);
+                } else {
+                    String[] values = parts[2].split(",");
+                    Preconditions.checkArgument(values.length == 3 && values[0].startsWith("ln=") && values[1].startsWith("r=") && values[2].startsWith("p="),
+                            "parameters must be ln=<log2 N>,r=<r>,p=<p>");
+                    logN = Integer.parseInt(values[0].substring(3));
+                    this.r = Integer.parseInt(values[1].substring(2));
+                    this.p = Integer.parseInt(values[2].substring(2));
+                }
+                this.salt = LegacyHashAlgorithm.decodeBase64(parts[3]);
+                this.hash = LegacyHashAlgorithm.decodeBase64(parts[4]);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid scrypt hash: " + e.getMessage(), e);
+            }
+            Preconditions.checkArgument(logN >= 1 && logN <= 30 && r >= 1 && p >= 1 && (long) 32 * r << logN <= Integer.MAX_VALUE
+                    && hash.length > 0, "Invalid scrypt hash parameters");
+            this.n = 1 << logN;
+        }
+    }
+}
@@ -1,26 +1,65 @@
 package com.github.tomitakussaari.phaas.model;
 
-import com.google.common.hash.Hashing;
+import com.github.tomitakussaari.phaas.util.ByteBCrypt;
+import com.github.tomitakussaari.phaas.util.EntropySource;
+import com.github.tomitakussaari.phaas.util.JavaArgon2;
+import com.google.common.base.Preconditions;
 import de.mkammerer.argon2.Argon2;
 import de.mkammerer.argon2.Argon2Constants;
 import de.mkammerer.argon2.Argon2Factory;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Optional;
-import java.util.function.Supplier;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.COST;
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.ITERATIONS;
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.MEMORY;
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.PARALLELISM;
 
 public enum PasswordEncodingAlgorithm {
-    ARGON2("$argon2i$", Argon2PasswordEncoder::new),
-    SHA256_BCRYPT("$2a$", SHA256AndBCryptPasswordEncoder::new);
+    ARGON2("$argon2i$", (parameters, keys, engines) -> new Argon2PasswordEncoder(parameters, engines), Argon2PasswordEncoder.DEFAULT_PARAMETERS, false),
+    SHA256_BCRYPT("$2a$", SHA256AndBCryptPasswordEncoder::new, SHA256AndBCryptPasswordEncoder.DEFAULT_PARAMETERS),
+    /**
+     * Only for machine generated, high entropy secrets such as API keys, see {@link HmacSHA256PasswordEncoder}
+     */
+    HMAC_SHA256(HmacSHA256PasswordEncoder.HASH_PREFIX, HmacSHA256PasswordEncoder::new),
+    /**
+     * Argon2id, parallelism (p) is maximum number of lanes, see {@link Argon2idPasswordEncoder}
+     */
+    ARGON2ID(Argon2idPasswordEncoder.HASH_PREFIX, (parameters, keys, engines) -> new Argon2idPasswordEncoder(parameters, engines),
+            Argon2idPasswordEncoder.DEFAULT_PARAMETERS, false);
 
     private final String hashPrefix;
-    private final Supplier<PasswordEncoder> encoderSupplier;
+    private final EncoderFactory encoderFactory;
+    private final EncoderParameters defaultParameters;
+    private final boolean requiresKey;
+
+    PasswordEncodingAlgorithm(String hashPrefix, Function<EncoderParameters, PasswordEncoder> encoderFactory, EncoderParameters defaultParameters) {
+        this(hashPrefix, (parameters, keys, engines) -> encoderFactory.apply(parameters), defaultParameters, false);
+    }
+
+    PasswordEncodingAlgorithm(String hashPrefix, Function<HashingKeys, PasswordEncoder> keyedEncoderFactory) {
+        this(hashPrefix, (parameters, keys, engines) -> keyedEncoderFactory.apply(keys), EncoderParameters.DEFAULTS, true);
+    }
 
-    PasswordEncodingAlgorithm(String hashPrefix, Supplier<PasswordEncoder> encoderSupplier) {
+    PasswordEncodingAlgorithm(String hashPrefix, EncoderFactory encoderFactory, EncoderParameters defaultParameters, boolean requiresKey) {
         this.hashPrefix = hashPrefix;
-        this.encoderSupplier = encoderSupplier;
+        this.encoderFactory = encoderFactory;
+        this.defaultParameters = defaultParameters;
+        this.requiresKey = requiresKey;
     }
 
     public static Optional<PasswordEncodingAlgorithm> findForHash(String hash) {
@@ -32,43 +71,277 @@ public enum PasswordEncodingAlgorithm {
         return Optional.empty();
     }
 
+    /**
+     * @return true if encoder is keyed, and must be created with {@link #encoder(HashingKeys)}
+     */
+    public boolean requiresKey() {
+        return requiresKey;
+    }
+
+    /**
+     * @return shared, thread-safe encoder with default parameters
+     */
     public PasswordEncoder encoder() {
-        return encoderSupplier.get();
+        return encoder(EncoderParameters.DEFAULTS);
+    }
+
+    /**
+     * @return shared, thread-safe encoder, that computes Argon2 with {@link Argon2Engine.Selection#defaults()}
+     */
+    public PasswordEncoder encoder(EncoderParameters parameters) {
+        return encoder(parameters, Argon2Engine.Selection.defaults());
+    }
+
+    /**
+     * @param engines engines that compute Argon2 hashes, ignored by other algorithms
+     * @return shared, thread-safe encoder
+     */
+    public PasswordEncoder encoder(EncoderParameters parameters, Argon2Engine.Selection engines) {
+        Preconditions.checkState(!requiresKey, "%s requires key", this);
+        EncoderParameters allParameters = parameters(parameters);
+        return EncoderRegistry.encoder(this, allParameters, isArgon2() ? engines : null, () -> encoderFactory.create(allParameters, null, engines));
+    }
+
+    public PasswordEncoder encoder(HashingKeys keys) {
+        return encoderFactory.create(defaultParameters, keys, null);
+    }
+
+    /**
+     * @return given parameters, with defaults of this algorithm for those that were not given
+     */
+    public EncoderParameters parameters(EncoderParameters parameters) {
+        return parameters.withDefaults(defaultParameters);
+    }
+
+    /**
+     * @return memory that one hash or verify operation needs, excluding small constant overhead
+     */
+    public int memoryCostKiB(EncoderParameters parameters) {
+        return isArgon2() ? parameters(parameters).get(MEMORY, 0) : 0;
+    }
+
+    /**
+     * Compares cost parameters that hash carries (bcrypt cost, Argon2 iterations and memory) to given parameters.
+     * Argon2 parallelism is not compared, as it does not change total work.
+     *
+     * @param hash hash made with this algorithm
+     * @return true, if hash was made with lower cost than given parameters require
+     */
+    public boolean isWeaker(String hash, EncoderParameters parameters) {
+        EncoderParameters required = parameters(parameters);
+        EncoderParameters actual = hashParameters(hash);
+        return Stream.of(COST, ITERATIONS, MEMORY).anyMatch(name -> actual.get(name, Integer.MAX_VALUE) < required.get(name, 0));
+    }
+
+    /**
+     * @return cost parameters of {@code $2a$<cost>$...} or {@code $argon2i$v=19$m=<m>,t=<t>,p=<p>$...} hash, empty if hash carries none
+     */
+    static EncoderParameters hashParameters(String hash) {
+        String[] parts = hash.split("\\$");
+        if (hash.startsWith(SHA256_BCRYPT.hashPrefix) && parts.length > 2) {
+            return EncoderParameters.parse(COST + "=" + parts[2]);
+        }
+        if (hash.startsWith(ARGON2.hashPrefix) || hash.startsWith(ARGON2ID.hashPrefix)) {
+            return Arrays.stream(parts).filter(part -> part.startsWith(MEMORY + "=")).findFirst()
+                    .map(EncoderParameters::parse).orElse(EncoderParameters.DEFAULTS);
+        }
+        return EncoderParameters.DEFAULTS;
+    }
+
+    private boolean isArgon2() {
+        return this == ARGON2 || this == ARGON2ID;
+    }
+
+    @FunctionalInterface
+    private interface EncoderFactory {
+        PasswordEncoder create(EncoderParameters parameters, HashingKeys keys, Argon2Engine.Selection engines);
     }
 }
 
+/**
+ * Argon2i, computed by {@link Argon2Engine} that given selection has for {@link PasswordEncodingAlgorithm#ARGON2}
+ */
 class Argon2PasswordEncoder implements PasswordEncoder {
 
+    static final EncoderParameters DEFAULT_PARAMETERS = EncoderParameters.DEFAULTS.with(ITERATIONS, 2).with(MEMORY, 65536).with(PARALLELISM, 2);
+
     private final Argon2 argon2 = Argon2Factory.create(Argon2Factory.Argon2Types.ARGON2i, Argon2Constants.DEFAULT_SALT_LENGTH, Argon2Constants.DEFAULT_HASH_LENGTH);
+    private final EncoderParameters parameters;
+    private final int iterations;
+    private final int memoryKiB;
+    private final int parallelism;
+    private final Argon2Engine engine;
+    private final Argon2Engine.Selection engines;
+
+    Argon2PasswordEncoder() {
+        this(DEFAULT_PARAMETERS, Argon2Engine.Selection.defaults());
+    }
+
+    Argon2PasswordEncoder(EncoderParameters parameters, Argon2Engine.Selection engines) {
+        this.parameters = parameters;
+        this.engine = engines.engine(PasswordEncodingAlgorithm.ARGON2);
+        this.engines = engines;
+        this.iterations = parameters.get(ITERATIONS, 2);
+        this.memoryKiB = parameters.get(MEMORY, 65536);
+        this.parallelism = parameters.get(PARALLELISM, 2);
+        Preconditions.checkArgument(iterations >= 1, "Argon2 requires at least one iteration");
+        Preconditions.checkArgument(parallelism >= 1 && parallelism <= 255, "Argon2 parallelism must be between 1 and 255");
+        Preconditions.checkArgument(memoryKiB >= 8 * parallelism, "Argon2 requires at least 8 KiB memory per lane");
+    }
 
     @Override
     public String encode(CharSequence rawPassword) {
-        return argon2.hash(2, 65536, 2, rawPassword.toString(), StandardCharsets.UTF_8);
+        if (engine == Argon2Engine.PROCESS) {
+            return engines.workers().encode(PasswordEncodingAlgorithm.ARGON2, parameters, rawPassword);
+        }
+        if (engine == Argon2Engine.JAVA) {
+            byte[] password = rawPassword.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                return engines.javaArgon2().hash(JavaArgon2.Type.ARGON2I, iterations, memoryKiB, parallelism, password,
+                        EntropySource.defaultSource().salt(), Argon2Constants.DEFAULT_HASH_LENGTH);
+            } finally {
+                Arrays.fill(password, (byte) 0);
+            }
+        }
+        return argon2.hash(iterations, memoryKiB, parallelism, rawPassword.toString(), StandardCharsets.UTF_8);
     }
 
     @Override
     public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (engine == Argon2Engine.PROCESS) {
+            return engines.workers().matches(PasswordEncodingAlgorithm.ARGON2, rawPassword, encodedPassword);
+        }
+        if (engine == Argon2Engine.JAVA) {
+            byte[] password = rawPassword.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                return engines.javaArgon2().verify(JavaArgon2.Type.ARGON2I, encodedPassword, password);
+            } finally {
+                Arrays.fill(password, (byte) 0);
+            }
+        }
         return argon2.verify(encodedPassword, rawPassword.toString(), StandardCharsets.UTF_8);
     }
 }
 
-class SHA256AndBCryptPasswordEncoder extends BCryptPasswordEncoder {
+/**
+ * bcrypt of hex encoded SHA-256 of password, computed with {@link ByteBCrypt}
+ */
+class SHA256AndBCryptPasswordEncoder implements PasswordEncoder {
+
+    static final EncoderParameters DEFAULT_PARAMETERS = EncoderParameters.DEFAULTS.with(COST, 11);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int cost;
 
     SHA256AndBCryptPasswordEncoder() {
-        super(11);
+        this(DEFAULT_PARAMETERS);
     }
 
-    static String sha256hex(CharSequence toHash) {
-        return Hashing.sha256().hashString(toHash, StandardCharsets.UTF_8).toString();
+    SHA256AndBCryptPasswordEncoder(EncoderParameters parameters) {
+        this.cost = parameters.get(COST, 11);
+        Preconditions.checkArgument(cost >= 4 && cost <= 31, "bcrypt cost must be between 4 and 31");
+    }
+
+    /**
+     * @return lower case hex of SHA-256 of UTF-8 encoded password, as ASCII bytes
+     */
+    static byte[] sha256hex(CharSequence toHash) {
+        byte[] digest = sha256.get().digest(toHash.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] hex = new byte[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+            hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0x0f];
+        }
+        return hex;
     }
 
     @Override
     public String encode(CharSequence rawPassword) {
-        return super.encode(sha256hex(rawPassword));
+        return ByteBCrypt.hash(sha256hex(rawPassword), cost, EntropySource.defaultSource().salt());
     }
 
     @Override
     public boolean matches(CharSequence rawPassword, String encodedPassword) {
-        return super.matches(sha256hex(rawPassword), encodedPassword);
+        return ByteBCrypt.verify(sha256hex(rawPassword), encodedPassword);
+    }
+}
+
+/**
+ * Keyed, fast hash for secrets that have so much entropy that they can not be brute forced anyway,
+ * so slow, memory hard hashing would only waste resources. Refuses to hash secrets that are not machine generated tokens.
+ * Hash format is {@code $hmac-sha256$<key id>$<mac>}, hashes without key id were made with key {@value #DEFAULT_KEY_ID}.
+ */
+class HmacSHA256PasswordEncoder implements PasswordEncoder {
+
+    static final String HASH_PREFIX = "$hmac-sha256$";
+    static final String DEFAULT_KEY_ID = "0";
+    static final int MIN_SECRET_BYTES = 32;
+    private static final Pattern HEX = Pattern.compile("(?:[0-9a-fA-F]{2})+");
+    private static final String KEY_ID_SEPARATOR = "$";
+    private static final String HMAC_SHA256 = "HmacSHA256";
+
+    private final HashingKeys keys;
+
+    HmacSHA256PasswordEncoder(HashingKeys keys) {
+        Preconditions.checkArgument(keys != null, "HMAC_SHA256 requires key");
+        this.keys = keys;
     }
-}
\ No newline at end of file
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        if (!isMachineGeneratedSecret(rawPassword)) {
+            throw new InsufficientEntropyException("HMAC_SHA256 requires machine generated secrets with at least " + MIN_SECRET_BYTES * 8
+                    + " bits of entropy, encoded as base64url or hex");
+        }
+        String keyId = keys.currentKeyId();
+        return HASH_PREFIX + keyId + KEY_ID_SEPARATOR + Base64.getUrlEncoder().withoutPadding().encodeToString(hmac(keyId, rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (!encodedPassword.startsWith(HASH_PREFIX)) {
+            return false;
+        }
+        String keyIdAndMac = encodedPassword.substring(HASH_PREFIX.length());
+        int separator = keyIdAndMac.indexOf(KEY_ID_SEPARATOR);
+        String keyId = separator < 0 ? DEFAULT_KEY_ID : keyIdAndMac.substring(0, separator);
+        byte[] expected = Base64.getUrlDecoder().decode(keyIdAndMac.substring(separator + 1));
+        return MessageDigest.isEqual(expected, hmac(keyId, rawPassword));
+    }
+
+    private byte[] hmac(String keyId, CharSequence rawPassword) {
+        byte[] key = keys.key(keyId);
+        Preconditions.checkState(key.length >= 32, "HMAC_SHA256 requires at least 256 bit key");
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA256);
+            mac.init(new SecretKeySpec(key, HMAC_SHA256));
+            return mac.doFinal(rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Entropy of human chosen secrets can not be estimated from their characters, so only secrets in format of
+     * machine generated tokens are accepted: base64url (with or without padding) or hex, that decodes to at least
+     * {@value #MIN_SECRET_BYTES} bytes. Decoded bytes must also not be repetitive, as random bytes practically never are.
+     */
+    static boolean isMachineGeneratedSecret(CharSequence secret) {
+        String value = secret.toString();
+        byte[] decoded;
+        try {
+            decoded = HEX.matcher(value).matches() ? Hex.decodeHex(value.toCharArray()) : Base64.getUrlDecoder().decode(value);
+        } catch (DecoderException | IllegalArgumentException e) {
+            return false;
+        }
+        long distinctBytes = IntStream.range(0, decoded.length).map(i -> decoded[i]).distinct().count();
+        return decoded.length >= MIN_SECRET_BYTES && distinctBytes >= MIN_SECRET_BYTES / 2;
+    }
+}
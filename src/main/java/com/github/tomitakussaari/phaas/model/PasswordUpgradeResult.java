@@ -0,0 +1,25 @@
+package com.github.tomitakussaari.phaas.model;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Optional;
+
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+public class PasswordUpgradeResult {
+    @ApiModelProperty(notes = "true, while new hash is still being computed")
+    private final boolean pending;
+    @ApiModelProperty(notes = "new password hash, missing if password could not be upgraded")
+    private final Optional<String> upgradedHash;
+
+    public static PasswordUpgradeResult pending() {
+        return new PasswordUpgradeResult(true, Optional.empty());
+    }
+
+    public static PasswordUpgradeResult done(Optional<String> upgradedHash) {
+        return new PasswordUpgradeResult(false, upgradedHash);
+    }
+}
@@ -4,8 +4,6 @@ import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
-import static com.github.tomitakussaari.phaas.model.DataProtectionScheme.ESCAPED_TOKEN_VALUE_SEPARATOR;
-
 @RequiredArgsConstructor
 @Getter
 public class PasswordVerifyRequest {
@@ -13,16 +11,18 @@ public class PasswordVerifyRequest {
     private final String passwordCandidate;
     @NonNull
     private final String hash;
+    @Getter(lazy = true)
+    private final ProtectedPasswordHash protectedHash = ProtectedPasswordHash.parse(hash);
 
     public int schemeId() {
-        return Integer.valueOf(hash.split(ESCAPED_TOKEN_VALUE_SEPARATOR)[0]);
+        return getProtectedHash().getSchemeId();
     }
 
     public String encryptionSalt() {
-        return hash.split(ESCAPED_TOKEN_VALUE_SEPARATOR)[1];
+        return getProtectedHash().getSalt();
     }
 
     public String encryptedPasswordHash() {
-        return getHash().split(ESCAPED_TOKEN_VALUE_SEPARATOR)[2];
+        return getProtectedHash().getEncryptedHash();
     }
 }
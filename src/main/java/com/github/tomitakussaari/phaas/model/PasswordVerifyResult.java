@@ -1,5 +1,6 @@
 package com.github.tomitakussaari.phaas.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import io.swagger.annotations.ApiModelProperty;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -12,4 +13,11 @@ public class PasswordVerifyResult {
     @ApiModelProperty(notes = "new password hash if new protection scheme is active")
     private final Optional<String> upgradedHash;
     private final boolean valid;
+    @ApiModelProperty(notes = "when upgrades are deferred, ticket for fetching new password hash from /passwords/upgrades/{ticket}")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String upgradeTicket;
+
+    public PasswordVerifyResult(Optional<String> upgradedHash, boolean valid) {
+        this(upgradedHash, valid, null);
+    }
 }
@@ -0,0 +1,60 @@
+package com.github.tomitakussaari.phaas.model;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import static com.github.tomitakussaari.phaas.model.DataProtectionScheme.ESCAPED_TOKEN_VALUE_SEPARATOR;
+import static com.github.tomitakussaari.phaas.model.DataProtectionScheme.TOKEN_VALUE_SEPARATOR;
+
+/**
+ * Parsed form of password hash returned to clients.
+ * <ul>
+ * <li>LEGACY: {@code <schemeId>.<hex salt>.<hex ciphertext>}, encrypted with Encryptors.text (PBKDF2 + AES-CBC)</li>
+ * <li>V2: {@code v2.<schemeId>.<base64url nonce>.<base64url ciphertext>}, encrypted with AES-GCM under key derived from scheme key with HKDF</li>
+ * </ul>
+ */
+@RequiredArgsConstructor
+@Getter
+@EqualsAndHashCode
+public class ProtectedPasswordHash {
+
+    @NonNull
+    private final Format format;
+    private final int schemeId;
+    @NonNull
+    private final String salt;
+    @NonNull
+    private final String encryptedHash;
+
+    public static ProtectedPasswordHash parse(@NonNull String hash) {
+        String[] parts = hash.split(ESCAPED_TOKEN_VALUE_SEPARATOR);
+        try {
+            if (hash.startsWith(Format.V2.prefix) && parts.length == 4) {
+                return new ProtectedPasswordHash(Format.V2, Integer.parseInt(parts[1]), parts[2], parts[3]);
+            } else if (parts.length == 3) {
+                return new ProtectedPasswordHash(Format.LEGACY, Integer.parseInt(parts[0]), parts[1], parts[2]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid scheme id in password hash", e);
+        }
+        throw new IllegalArgumentException("Unrecognized password hash format");
+    }
+
+    public String getHash() {
+        return format.prefix + schemeId + TOKEN_VALUE_SEPARATOR + salt + TOKEN_VALUE_SEPARATOR + encryptedHash;
+    }
+
+    @RequiredArgsConstructor
+    public enum Format {
+        LEGACY(""),
+        V2("v2" + TOKEN_VALUE_SEPARATOR);
+
+        private final String prefix;
+
+        public String additionalData(int schemeId) {
+            return prefix + schemeId;
+        }
+    }
+}
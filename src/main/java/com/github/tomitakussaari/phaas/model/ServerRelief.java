@@ -0,0 +1,83 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.github.tomitakussaari.phaas.util.EntropySource;
+import com.google.common.collect.ImmutableSet;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Base64;
+import java.util.Set;
+
+/**
+ * Server relief protocol of protection scheme, that phaas publishes to clients.
+ * <p>
+ * Client computes memory hard part of hash itself, with {@link #algorithm} and {@link #parameters} of scheme and
+ * salt made of {@link #salt} and identifier of its own user, and sends raw output as base64url encoded password.
+ * Phaas then only applies keyed HMAC-SHA256 to it, so hashing and verifying costs about as much as with API keys.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ServerRelief {
+
+    static final Set<PasswordEncodingAlgorithm> ALGORITHMS = ImmutableSet.of(PasswordEncodingAlgorithm.ARGON2, PasswordEncodingAlgorithm.ARGON2ID);
+    static final int MIN_CLIENT_HASH_LENGTH = 32;
+    private static final int SALT_LENGTH = 16;
+
+    @ApiModelProperty(notes = "algorithm that client uses")
+    private final PasswordEncodingAlgorithm algorithm;
+    @ApiModelProperty(notes = "parameters of algorithm, like m=65536,p=2,t=2")
+    private final String parameters;
+    @ApiModelProperty(notes = "base64url encoded salt of scheme, client appends identifier of its user to it")
+    private final String salt;
+
+    /**
+     * @return algorithm's default parameters, as client speed is not known
+     */
+    public static String parametersFor(PasswordEncodingAlgorithm algorithm) {
+        if (!ALGORITHMS.contains(algorithm)) {
+            throw new IllegalArgumentException("Server relief is only supported with " + ALGORITHMS + ", not with " + algorithm);
+        }
+        return algorithm.parameters(EncoderParameters.DEFAULTS).toString();
+    }
+
+    public static String newSalt() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(EntropySource.defaultSource().randomBytes(SALT_LENGTH));
+    }
+
+    static PasswordEncoder encoder(PasswordEncoder keyedFinalisation) {
+        return new ClientHashPasswordEncoder(keyedFinalisation);
+    }
+}
+
+/**
+ * Accepts only passwords that look like client computed hashes, and finalises them with keyed encoder
+ */
+@RequiredArgsConstructor
+class ClientHashPasswordEncoder implements PasswordEncoder {
+
+    private final PasswordEncoder keyedFinalisation;
+
+    @Override
+    public String encode(CharSequence clientHash) {
+        if (!isClientHash(clientHash)) {
+            throw new IllegalArgumentException("Scheme uses server relief, password must be base64url encoded client hash of at least "
+                    + ServerRelief.MIN_CLIENT_HASH_LENGTH + " bytes");
+        }
+        return keyedFinalisation.encode(clientHash);
+    }
+
+    @Override
+    public boolean matches(CharSequence clientHash, String encodedPassword) {
+        return isClientHash(clientHash) && keyedFinalisation.matches(clientHash, encodedPassword);
+    }
+
+    private static boolean isClientHash(CharSequence clientHash) {
+        try {
+            return Base64.getUrlDecoder().decode(clientHash.toString()).length >= ServerRelief.MIN_CLIENT_HASH_LENGTH;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
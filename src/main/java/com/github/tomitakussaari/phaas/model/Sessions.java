@@ -0,0 +1,21 @@
+package com.github.tomitakussaari.phaas.model;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.UtilityClass;
+
+import java.time.ZonedDateTime;
+
+@UtilityClass
+public class Sessions {
+
+    @RequiredArgsConstructor
+    @Getter
+    public static class CreateSessionResponse {
+        @NonNull
+        private final String token;
+        @NonNull
+        private final ZonedDateTime expiresAt;
+    }
+}
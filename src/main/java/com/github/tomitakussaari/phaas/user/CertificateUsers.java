@@ -0,0 +1,48 @@
+package com.github.tomitakussaari.phaas.user;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
+import com.github.tomitakussaari.phaas.model.ProtectionSchemeNotFoundException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.userdetails.AuthenticationUserDetailsService;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+
+/**
+ * Loads users authenticated with client certificate, principal is user name extracted from certificate subject.
+ * Data protection keys of these users come from {@link SealedKeyStore} instead of being decrypted with user's password.
+ */
+@RequiredArgsConstructor
+class CertificateUsers implements AuthenticationUserDetailsService<PreAuthenticatedAuthenticationToken> {
+
+    static final String DEFAULT_SUBJECT_PATTERN = "CN=(.*?)(?:,|$)";
+
+    private final UsersService usersService;
+    private final SealedKeyStore keyStore;
+
+    @Override
+    public UserDetails loadUserDetails(PreAuthenticatedAuthenticationToken token) {
+        PhaasUser user = (PhaasUser) usersService.loadUserByUsername(token.getName());
+        if (!keyStore.dataProtectionKey(user.activeProtectionScheme().getId()).isPresent()) {
+            throw new UsernameNotFoundException("No sealed key for active protection scheme of " + user.getUsername());
+        }
+        return new CertificateUser(user, keyStore);
+    }
+
+    static class CertificateUser extends PhaasUser {
+        private final SealedKeyStore keyStore;
+
+        CertificateUser(PhaasUser user, SealedKeyStore keyStore) {
+            super(user.userDTO(), user.configurations(), user.cryptoHelper());
+            this.keyStore = keyStore;
+        }
+
+        @Override
+        protected CryptoData cryptoData(DataProtectionScheme scheme) {
+            String key = keyStore.dataProtectionKey(scheme.getId())
+                    .orElseThrow(() -> new ProtectionSchemeNotFoundException("No sealed key for protection scheme: " + scheme.getId()));
+            return CryptoData.withKey(scheme, key);
+        }
+    }
+}
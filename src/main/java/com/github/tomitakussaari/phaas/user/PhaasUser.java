@@ -6,6 +6,7 @@ import com.github.tomitakussaari.phaas.model.ProtectionSchemeNotFoundException;
 import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
 import com.github.tomitakussaari.phaas.user.dao.UserDTO;
 import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -18,6 +19,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
 import static java.util.stream.Collectors.toList;
 
@@ -29,21 +31,21 @@ public class PhaasUser implements UserDetails {
     private final CryptoHelper cryptoHelper;
     @Getter @Setter
     private CharSequence userPassword;
+    @Getter(value = AccessLevel.PRIVATE, lazy = true)
+    private final SchemeTable schemeTable = new SchemeTable(configurations, cryptoHelper);
 
     public DataProtectionScheme activeProtectionScheme() {
-        return configurations.stream().filter(UserConfigurationDTO::isActive).findFirst()
-                .map(config -> config.toProtectionScheme(cryptoHelper))
+        return Optional.ofNullable(getSchemeTable().active())
                 .orElseThrow(() -> new ProtectionSchemeNotFoundException("Unable to find active encryption key for user: " + getUsername()));
     }
 
     public DataProtectionScheme protectionScheme(int id) {
-        return configurations.stream().filter(config -> config.getId().equals(id)).findFirst()
-                .map(config -> config.toProtectionScheme(cryptoHelper))
+        return Optional.ofNullable(getSchemeTable().byId(id))
                 .orElseThrow(() -> new ProtectionSchemeNotFoundException("Unable to find encryption key by id: " + id));
     }
 
     public List<DataProtectionScheme> protectionSchemes() {
-        return configurations.stream().map(config -> config.toProtectionScheme(cryptoHelper)).collect(toList());
+        return getSchemeTable().all();
     }
 
     public String communicationSigningKey() {
@@ -51,11 +53,27 @@ public class PhaasUser implements UserDetails {
     }
 
     public CryptoData currentlyActiveCryptoData() {
-        return activeProtectionScheme().cryptoData(getUserPassword());
+        return cryptoData(activeProtectionScheme());
     }
 
     public CryptoData cryptoDataForId(int schemeId) {
-        return protectionScheme(schemeId).cryptoData(getUserPassword());
+        return cryptoData(protectionScheme(schemeId));
+    }
+
+    protected CryptoData cryptoData(DataProtectionScheme scheme) {
+        return scheme.cryptoData(getUserPassword());
+    }
+
+    UserDTO userDTO() {
+        return userDTO;
+    }
+
+    List<UserConfigurationDTO> configurations() {
+        return configurations;
+    }
+
+    CryptoHelper cryptoHelper() {
+        return cryptoHelper;
     }
 
     @Override
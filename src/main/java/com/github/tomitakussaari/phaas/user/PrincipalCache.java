@@ -0,0 +1,83 @@
+package com.github.tomitakussaari.phaas.user;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.codec.digest.HmacUtils.hmacSha256Hex;
+
+/**
+ * Remembers successfully authenticated users for a short while, so that repeated requests with same credentials
+ * do not have to load user from database and decrypt data protection key again.
+ * <p>
+ * Credentials are never stored as such, cache key contains only HMAC of them, calculated with key that is generated on startup.
+ */
+@Component
+@Slf4j
+public class PrincipalCache {
+
+    private final byte[] digestKey = KeyGenerators.secureRandom(32).generateKey();
+    private final Cache<CacheKey, PhaasUser> principals;
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public PrincipalCache(Environment environment, MetricRegistry metricRegistry) {
+        this(environment.getProperty("phaas.authentication.cache.max-size", Long.class, 1000L),
+                environment.getProperty("phaas.authentication.cache.ttl-seconds", Long.class, 60L),
+                metricRegistry);
+    }
+
+    PrincipalCache(long maxSize, long ttlSeconds, MetricRegistry metricRegistry) {
+        this.principals = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+        this.hits = metricRegistry.counter("authentication.cache.hits");
+        this.misses = metricRegistry.counter("authentication.cache.misses");
+        metricRegistry.register("authentication.cache.size", (Gauge<Long>) principals::size);
+        log.info("Authenticated users are cached for {} seconds, max {} entries", ttlSeconds, maxSize);
+    }
+
+    public Optional<PhaasUser> get(String userName, CharSequence credentials) {
+        Optional<PhaasUser> user = Optional.ofNullable(principals.getIfPresent(cacheKey(userName, credentials)));
+        if (user.isPresent()) {
+            hits.inc();
+        } else {
+            misses.inc();
+        }
+        return user;
+    }
+
+    public void put(String userName, CharSequence credentials, PhaasUser user) {
+        principals.put(cacheKey(userName, credentials), user);
+    }
+
+    public void invalidate(String userName) {
+        principals.asMap().keySet().removeIf(key -> key.userName.equals(userName));
+    }
+
+    private CacheKey cacheKey(String userName, CharSequence credentials) {
+        return new CacheKey(userName, hmacSha256Hex(digestKey, credentials.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    private static class CacheKey {
+        private final String userName;
+        private final String credentialsDigest;
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.tomitakussaari.phaas.user;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
+import com.github.tomitakussaari.phaas.util.CryptoHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable view of user's protection schemes, built once per loaded user.
+ * Schemes are looked up by id with binary search over sorted primitive ids, and same
+ * {@link DataProtectionScheme} instances are returned on every call.
+ */
+final class SchemeTable {
+
+    private final List<DataProtectionScheme> schemes;
+    private final int[] sortedIds;
+    private final DataProtectionScheme[] schemesBySortedId;
+    private final DataProtectionScheme active;
+
+    SchemeTable(List<UserConfigurationDTO> configurations, CryptoHelper cryptoHelper) {
+        List<DataProtectionScheme> allSchemes = new ArrayList<>(configurations.size());
+        DataProtectionScheme activeScheme = null;
+        for (UserConfigurationDTO configuration : configurations) {
+            DataProtectionScheme scheme = configuration.toProtectionScheme(cryptoHelper);
+            allSchemes.add(scheme);
+            if (activeScheme == null && configuration.isActive()) {
+                activeScheme = scheme;
+            }
+        }
+        this.schemes = Collections.unmodifiableList(allSchemes);
+        this.active = activeScheme;
+        DataProtectionScheme[] sortedSchemes = allSchemes.stream()
+                .sorted(Comparator.comparingInt(DataProtectionScheme::getId)) // stable, so first of duplicate ids wins
+                .toArray(DataProtectionScheme[]::new);
+        int[] ids = new int[sortedSchemes.length];
+        int unique = 0;
+        for (DataProtectionScheme scheme : sortedSchemes) {
+            if (unique == 0 || ids[unique - 1] != scheme.getId()) {
+                ids[unique] = scheme.getId();
+                sortedSchemes[unique++] = scheme;
+            }
+        }
+        this.sortedIds = Arrays.copyOf(ids, unique);
+        this.schemesBySortedId = Arrays.copyOf(sortedSchemes, unique);
+    }
+
+    /**
+     * @return null, if there is no active scheme
+     */
+    DataProtectionScheme active() {
+        return active;
+    }
+
+    /**
+     * @return null, if there is no scheme with given id
+     */
+    DataProtectionScheme byId(int id) {
+        int index = Arrays.binarySearch(sortedIds, id);
+        return index >= 0 ? schemesBySortedId[index] : null;
+    }
+
+    List<DataProtectionScheme> all() {
+        return schemes;
+    }
+}
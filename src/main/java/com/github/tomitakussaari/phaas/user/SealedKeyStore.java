@@ -0,0 +1,49 @@
+package com.github.tomitakussaari.phaas.user;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.SecretKey;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Optional;
+
+/**
+ * Local JCEKS key store holding data protection keys of users that authenticate with client certificate,
+ * entry alias is id of protection scheme. Keys can be added with keytool:
+ * {@code keytool -importpass -storetype JCEKS -keystore keys.jceks -alias <scheme id>}, giving data protection key as password.
+ */
+@Slf4j
+class SealedKeyStore {
+
+    private final KeyStore keyStore;
+    private final char[] password;
+
+    SealedKeyStore(KeyStore keyStore, char[] password) {
+        this.keyStore = keyStore;
+        this.password = password;
+    }
+
+    static SealedKeyStore load(String path, String password) {
+        try (InputStream input = new FileInputStream(path)) {
+            KeyStore keyStore = KeyStore.getInstance("JCEKS");
+            keyStore.load(input, password.toCharArray());
+            log.info("Loaded {} sealed keys from {}", keyStore.size(), path);
+            return new SealedKeyStore(keyStore, password.toCharArray());
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to load sealed key store from " + path, e);
+        }
+    }
+
+    Optional<String> dataProtectionKey(int schemeId) {
+        try {
+            SecretKey key = (SecretKey) keyStore.getKey(String.valueOf(schemeId), password);
+            return Optional.ofNullable(key).map(secretKey -> new String(secretKey.getEncoded(), StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to read sealed key for scheme " + schemeId, e);
+        }
+    }
+}
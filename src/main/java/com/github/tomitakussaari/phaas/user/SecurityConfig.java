@@ -1,6 +1,9 @@
 package com.github.tomitakussaari.phaas.user;
 
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.util.AsyncHelper;
 import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import com.github.tomitakussaari.phaas.util.EntropySource;
 import com.github.tomitakussaari.phaas.util.JsonHelper;
 import com.google.common.base.Preconditions;
 import io.dropwizard.servlets.ThreadNameFilter;
@@ -12,6 +15,8 @@ import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.MethodParameter;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.server.ServerHttpRequest;
@@ -28,6 +33,8 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -43,6 +50,7 @@ import java.security.Principal;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.github.tomitakussaari.phaas.user.SecurityConfig.AuditAndLoggingFilter.X_REQUEST_ID;
 import static java.util.Optional.ofNullable;
@@ -59,13 +67,23 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 
     private final UsersService usersService;
     private final CryptoHelper cryptoHelper;
+    private final PrincipalCache principalCache;
+    private final SessionTokens sessionTokens;
+    private final Environment environment;
+    private final EntropySource entropySource;
 
     @Getter(lazy = true)
-    private final String userNotFoundCryptedData = createUserNotFoundCryptedData();
+    private final CryptoHelper.Decoy userNotFoundDecoy = cryptoHelper.decoy(USER_NOT_FOUND_PASSWORD);
 
     @Override
     public void configure(AuthenticationManagerBuilder auth) throws Exception {
-        auth.authenticationProvider(new PhaasAuthenticator(usersService, cryptoHelper, getUserNotFoundCryptedData())).eraseCredentials(false);
+        auth.authenticationProvider(new PhaasAuthenticator(usersService, getUserNotFoundDecoy(), principalCache, rewrapOutdatedKeys()))
+                .eraseCredentials(false);
+    }
+
+    private boolean rewrapOutdatedKeys() {
+        return !environment.getProperty("immutable.users.db", Boolean.class, false)
+                && environment.getProperty("phaas.key.wrapping.rewrap-outdated", Boolean.class, true);
     }
 
     @Override
@@ -73,8 +91,16 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
         http.authorizeRequests()
                 .requestMatchers((RequestMatcher) this::requiresAuthentication).authenticated()
                 .and().httpBasic().realmName("phaas")
-                .and().csrf().disable()
+                .and().addFilterBefore(new SessionTokenFilter(sessionTokens), BasicAuthenticationFilter.class)
+                .csrf().disable()
                 .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
+        if (environment.getProperty("phaas.mtls.enabled", Boolean.class, false)) {
+            SealedKeyStore keyStore = SealedKeyStore.load(environment.getRequiredProperty("phaas.mtls.keystore.path"),
+                    environment.getRequiredProperty("phaas.mtls.keystore.password"));
+            http.x509()
+                    .subjectPrincipalRegex(environment.getProperty("phaas.mtls.subject-pattern", CertificateUsers.DEFAULT_SUBJECT_PATTERN))
+                    .authenticationUserDetailsService(new CertificateUsers(usersService, keyStore));
+        }
     }
 
     private boolean requiresAuthentication(HttpServletRequest httpServletRequest) {
@@ -83,7 +109,7 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 
     @Bean
     public FilterRegistrationBean auditAndLoggingFilter() {
-        return filterRegistration(new AuditAndLoggingFilter());
+        return filterRegistration(new AuditAndLoggingFilter(entropySource));
     }
 
     @Bean
@@ -101,12 +127,26 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
     @RequiredArgsConstructor
     static class PhaasAuthenticator extends AbstractUserDetailsAuthenticationProvider {
         private final UsersService usersService;
-        private final CryptoHelper cryptoHelper;
-        private final String userNotFoundCryptedData;
+        private final CryptoHelper.Decoy userNotFoundDecoy;
+        private final PrincipalCache principalCache;
+        private final boolean rewrapOutdatedKeys;
+        private final Set<String> rewrapsInProgress = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public Authentication authenticate(Authentication authentication) {
+            String passwordCandidate = credentials(authentication);
+            Optional<PhaasUser> cachedUser = principalCache.get(authentication.getName(), passwordCandidate);
+            if (cachedUser.isPresent()) {
+                return createSuccessAuthentication(cachedUser.get(), authentication, cachedUser.get());
+            }
+            Authentication authenticated = super.authenticate(authentication);
+            principalCache.put(authentication.getName(), passwordCandidate, (PhaasUser) authenticated.getPrincipal());
+            return authenticated;
+        }
 
         @Override
         protected void additionalAuthenticationChecks(UserDetails userDetails, UsernamePasswordAuthenticationToken authentication) {
-            String passwordCandidate = Optional.ofNullable(authentication.getCredentials()).map(Object::toString).orElse("");
+            String passwordCandidate = credentials(authentication);
             PhaasUser phaasUser = (PhaasUser) userDetails;
             try {
                 Preconditions.checkState(phaasUser.activeProtectionScheme().cryptoData(passwordCandidate).getDataProtectionKey() != null);
@@ -114,6 +154,21 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
             } catch (IllegalStateException keyDecryptFailed) {
                 throw new BadCredentialsException("invalid credentials", keyDecryptFailed);
             }
+            if (rewrapOutdatedKeys && phaasUser.protectionSchemes().stream().anyMatch(DataProtectionScheme::isKeyProtectionOutdated)) {
+                rewrapInBackground(phaasUser.getUsername(), passwordCandidate);
+            }
+        }
+
+        private void rewrapInBackground(String username, String password) {
+            if (rewrapsInProgress.add(username)) {
+                AsyncHelper.withName("rewrapOutdatedKeys").runInBackground(() -> {
+                    try {
+                        usersService.rewrapOutdatedKeys(username, password);
+                    } finally {
+                        rewrapsInProgress.remove(username);
+                    }
+                });
+            }
         }
 
         @Override
@@ -122,10 +177,41 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                 return usersService.loadUserByUsername(username);
             } catch (UsernameNotFoundException notFound) {
                 //run "password check"
-                cryptoHelper.decryptData(USER_NOT_FOUND_PASSWORD, userNotFoundCryptedData);
+                userNotFoundDecoy.decrypt();
                 throw notFound;
             }
         }
+
+        private static String credentials(Authentication authentication) {
+            return Optional.ofNullable(authentication.getCredentials()).map(Object::toString).orElse("");
+        }
+    }
+
+    /**
+     * Authenticates requests carrying {@code Authorization: Bearer <session token>}, see {@link SessionTokens}.
+     * Other requests are left for HTTP Basic authentication.
+     */
+    @RequiredArgsConstructor
+    static class SessionTokenFilter extends OncePerRequestFilter {
+        static final String BEARER_PREFIX = "Bearer ";
+
+        private final SessionTokens sessionTokens;
+
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+            String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+            if (authorization != null && authorization.startsWith(BEARER_PREFIX)) {
+                Optional<PhaasUser> user = sessionTokens.authenticate(authorization.substring(BEARER_PREFIX.length()).trim());
+                if (!user.isPresent()) {
+                    SecurityContextHolder.clearContext();
+                    response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer realm=\"phaas\"");
+                    response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid session token");
+                    return;
+                }
+                SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(user.get(), null, user.get().getAuthorities()));
+            }
+            filterChain.doFilter(request, response);
+        }
     }
 
     @ControllerAdvice
@@ -161,10 +247,7 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
         }
     }
 
-    private String createUserNotFoundCryptedData() {
-        return cryptoHelper.encryptData(USER_NOT_FOUND_PASSWORD, "some-data");
-    }
-
+    @RequiredArgsConstructor
     public static class AuditAndLoggingFilter extends OncePerRequestFilter {
 
         public static final String X_REQUEST_ID = "X-Request-ID";
@@ -176,9 +259,11 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
         public static final String MDC_IP = "ip";
         public static final String MDC_USER = "user";
 
+        private final EntropySource entropySource;
+
         @Override
         protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
-            final String requestId = ofNullable(trimToNull(request.getHeader(X_REQUEST_ID))).orElse(UUID.randomUUID().toString());
+            final String requestId = ofNullable(trimToNull(request.getHeader(X_REQUEST_ID))).orElseGet(() -> entropySource.randomUUID().toString());
             try {
                 Optional<Authentication> authentication = Optional.ofNullable(SecurityContextHolder.getContext().getAuthentication());
                 response.setHeader(X_REQUEST_ID, requestId);
@@ -0,0 +1,144 @@
+package com.github.tomitakussaari.phaas.user;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
+import com.github.tomitakussaari.phaas.model.ProtectionSchemeNotFoundException;
+import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import com.github.tomitakussaari.phaas.util.DataProtectionKeyCache.SealedKey;
+import com.github.tomitakussaari.phaas.util.EntropySource;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+
+/**
+ * Issues short-lived session tokens in exchange for user's credentials, so that clients doing lots of requests
+ * do not need to pay for password check on every request.
+ * <p>
+ * Token is opaque random session id. Unwrapped data protection keys of session are kept only in memory of this
+ * instance (outside of java heap, zeroed when session ends), so token gives access to neither user's password nor keys,
+ * and session is unusable after it has expired or has been revoked. Sessions authenticate requests only in instance that
+ * issued them, so with several instances clients need sticky routing, or session per instance. That also makes
+ * revocation complete: all sessions of user live in this instance.
+ * <p>
+ * Session users have no password, so operations that need password (changing it, or protection scheme) are not available with them.
+ */
+@Component
+@Slf4j
+public class SessionTokens {
+
+    private static final int TOKEN_LENGTH = 32;
+
+    private final Duration validityTime;
+    private final CryptoHelper cryptoHelper;
+    private final EntropySource entropySource;
+    private final Cache<String, StoredSession> sessions;
+
+    @Autowired
+    public SessionTokens(Environment environment, CryptoHelper cryptoHelper, EntropySource entropySource) {
+        this(Duration.ofSeconds(environment.getProperty("phaas.session.ttl-seconds", Long.class, 900L)),
+                environment.getProperty("phaas.session.max-sessions", Long.class, 10000L),
+                cryptoHelper, entropySource);
+    }
+
+    SessionTokens(Duration validityTime, long maxSessions, CryptoHelper cryptoHelper) {
+        this(validityTime, maxSessions, cryptoHelper, EntropySource.defaultSource());
+    }
+
+    SessionTokens(Duration validityTime, long maxSessions, CryptoHelper cryptoHelper, EntropySource entropySource) {
+        this.validityTime = validityTime;
+        this.cryptoHelper = cryptoHelper;
+        this.entropySource = entropySource;
+        this.sessions = CacheBuilder.newBuilder()
+                .maximumSize(maxSessions)
+                .expireAfterWrite(Math.max(0, validityTime.toMillis()), TimeUnit.MILLISECONDS)
+                .removalListener((RemovalNotification<String, StoredSession> removed) -> removed.getValue().destroy())
+                .build();
+    }
+
+    public Session issue(PhaasUser user) {
+        Map<Integer, SealedKey> keys = new HashMap<>();
+        user.protectionSchemes().forEach(scheme -> keys.put(scheme.getId(), new SealedKey(user.cryptoDataForId(scheme.getId()).getDataProtectionKey())));
+        Instant expiresAt = Instant.now().plus(validityTime);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(entropySource.randomBytes(TOKEN_LENGTH));
+        sessions.put(sha256Hex(token), new StoredSession(user, keys, expiresAt));
+        return new Session(token, ZonedDateTime.ofInstant(expiresAt, ZoneId.systemDefault()));
+    }
+
+    /**
+     * @return user, if session exists in this instance, and has not expired or been revoked
+     */
+    public Optional<PhaasUser> authenticate(String token) {
+        StoredSession session = sessions.getIfPresent(sha256Hex(token));
+        if (session == null || !session.expiresAt.isAfter(Instant.now())) {
+            log.info("Rejected session token");
+            return Optional.empty();
+        }
+        return Optional.of(new SessionUser(session, cryptoHelper));
+    }
+
+    /**
+     * Ends all sessions of user, and destroys their keys.
+     */
+    public void revoke(String userName) {
+        sessions.asMap().values().removeIf(session -> session.user.getUsername().equals(userName));
+    }
+
+    long sessions() {
+        return sessions.size();
+    }
+
+    @RequiredArgsConstructor
+    private static class StoredSession {
+        private final PhaasUser user;
+        private final Map<Integer, SealedKey> keys;
+        private final Instant expiresAt;
+
+        void destroy() {
+            keys.values().forEach(SealedKey::destroy);
+        }
+    }
+
+    static class SessionUser extends PhaasUser {
+        private final StoredSession session;
+
+        SessionUser(StoredSession session, CryptoHelper cryptoHelper) {
+            super(session.user.userDTO(), session.user.configurations(), cryptoHelper);
+            this.session = session;
+        }
+
+        @Override
+        protected CryptoData cryptoData(DataProtectionScheme scheme) {
+            String key = Optional.ofNullable(session.keys.get(scheme.getId())).map(SealedKey::reveal)
+                    .orElseThrow(() -> new ProtectionSchemeNotFoundException("Session has no key for protection scheme: " + scheme.getId()));
+            return CryptoData.withKey(scheme, key);
+        }
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    public static class Session {
+        @NonNull
+        private final String token;
+        @NonNull
+        private final ZonedDateTime expiresAt;
+    }
+}
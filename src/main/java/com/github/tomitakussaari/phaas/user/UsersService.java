@@ -1,10 +1,13 @@
 package com.github.tomitakussaari.phaas.user;
 
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
 import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.github.tomitakussaari.phaas.model.ServerRelief;
 import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
 import com.github.tomitakussaari.phaas.user.dao.UserConfigurationRepository;
 import com.github.tomitakussaari.phaas.user.dao.UserDTO;
 import com.github.tomitakussaari.phaas.user.dao.UserRepository;
+import com.github.tomitakussaari.phaas.util.CostCalibrator;
 import com.github.tomitakussaari.phaas.util.CryptoHelper;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -16,11 +19,12 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.joining;
@@ -36,6 +40,9 @@ public class UsersService implements UserDetailsService {
     private final UserConfigurationRepository userConfigurationRepository;
     private final UserRepository userRepository;
     private final CryptoHelper cryptoHelper;
+    private final PrincipalCache principalCache;
+    private final SessionTokens sessionTokens;
+    private final CostCalibrator costCalibrator;
 
     public static String generateEncryptionKey() {
         return RandomStringUtils.randomAscii(32);
@@ -69,7 +76,7 @@ public class UsersService implements UserDetailsService {
                 roles.stream().map(ROLE::getValue).collect(joining(",")),
                 sharedSecretForSigningCommunication);
 
-        UserConfigurationDTO configurationDTO = createUserConfigurationDTO(algorithm, userPassword, generateEncryptionKey(), userDTO);
+        UserConfigurationDTO configurationDTO = createUserConfigurationDTO(algorithm, calibratedParameters(algorithm), null, userPassword, generateEncryptionKey(), userDTO, Optional.empty());
         save(userDTO, configurationDTO);
         return userPassword;
     }
@@ -80,13 +87,17 @@ public class UsersService implements UserDetailsService {
             CharSequence userPassword = newPassword.orElse(oldPassword);
             sharedSecretForSigningCommunication.ifPresent(user::setSharedSecretForSigningCommunication);
 
-            List<UserConfigurationDTO> newConfigs = userConfigurationRepository.findByUser(user.getUserName()).stream()
-                    .map(currentConfig -> {
-                        String protectionKey = currentConfig.toProtectionScheme(cryptoHelper).cryptoData(oldPassword).getDataProtectionKey();
-                        return createUserConfigurationDTO(currentConfig.getAlgorithm(), userPassword, protectionKey, user).setId(currentConfig.getId());
-                    }).collect(Collectors.toList());
+            List<UserConfigurationDTO> newConfigs = new ArrayList<>();
+            for (UserConfigurationDTO currentConfig : userConfigurationRepository.findByUser(user.getUserName())) {
+                String protectionKey = currentConfig.toProtectionScheme(cryptoHelper).cryptoData(oldPassword).getDataProtectionKey();
+                Optional<String> sharingKeyDerivationWith = newConfigs.stream().findFirst().map(UserConfigurationDTO::getDataProtectionKey);
+                newConfigs.add(createUserConfigurationDTO(currentConfig.getAlgorithm(), currentConfig.getEncoderParameters(), currentConfig.getServerReliefSalt(),
+                        userPassword, protectionKey, user, sharingKeyDerivationWith)
+                        .setId(currentConfig.getId()));
+            }
 
             save(user, newConfigs.toArray(new UserConfigurationDTO[]{}));
+            forgetAuthentications(user.getUserName());
             log.info("Generated new encryption keys for {} ", user.getUserName());
         });
     }
@@ -96,20 +107,92 @@ public class UsersService implements UserDetailsService {
         userRepository.findByUserName(userName).ifPresent(userDTO -> {
             userConfigurationRepository.deleteByUser(userName);
             userRepository.delete(userDTO.getId());
+            forgetAuthentications(userDTO.getUserName());
             log.info("Deleted user {}", userDTO.getUserName());
         });
     }
 
     @Transactional
     public void newProtectionScheme(String userName, PasswordEncodingAlgorithm algorithm, CharSequence userPassword, Boolean removeOldSchemes) {
+        newProtectionScheme(userName, algorithm, userPassword, removeOldSchemes, false);
+    }
+
+    /**
+     * @param serverRelief true, if clients compute memory hard part of hashes themselves, see {@link ServerRelief}
+     */
+    @Transactional
+    public void newProtectionScheme(String userName, PasswordEncodingAlgorithm algorithm, CharSequence userPassword, Boolean removeOldSchemes, boolean serverRelief) {
+        String encoderParameters = serverRelief ? ServerRelief.parametersFor(algorithm) : calibratedParameters(algorithm);
+        String serverReliefSalt = serverRelief ? ServerRelief.newSalt() : null;
         Optional<UserDTO> userMaybe = userRepository.findByUserName(userName);
         userMaybe.ifPresent(userDTO -> {
-            userConfigurationRepository.findByUser(userName).forEach(config -> invalidateOrRemove(removeOldSchemes, config));
-            userConfigurationRepository.save(createUserConfigurationDTO(algorithm, userPassword, generateEncryptionKey(), userDTO));
-            log.info("Updated default algorithm for {} to {}", userDTO.getUserName(), algorithm);
+            List<UserConfigurationDTO> oldConfigs = userConfigurationRepository.findByUser(userName);
+            Optional<String> sharingKeyDerivationWith = oldConfigs.stream().filter(UserConfigurationDTO::isActive).findFirst().map(UserConfigurationDTO::getDataProtectionKey);
+            oldConfigs.forEach(config -> invalidateOrRemove(removeOldSchemes, config));
+            userConfigurationRepository.save(createUserConfigurationDTO(algorithm, encoderParameters, serverReliefSalt, userPassword, generateEncryptionKey(), userDTO, sharingKeyDerivationWith));
+            forgetAuthentications(userDTO.getUserName());
+            log.info("Updated default algorithm for {} to {} ({}{})", userDTO.getUserName(), algorithm, encoderParameters, serverRelief ? ", server relief" : "");
+        });
+    }
+
+    /**
+     * Re-encrypts user's data protection keys that are protected with old version of {@link CryptoHelper} encryption,
+     * or with old key derivation settings. Keys themselves stay the same, so existing password hashes stay valid.
+     * <p>
+     * Keys are replaced only if they have not changed since they were read, so that keys that concurrent password change
+     * protected with new password are never overwritten with keys protected with old one. On such conflict nothing is
+     * rewrapped, and rewrap is retried on next login.
+     *
+     * @throws IllegalStateException if keys changed during rewrap
+     */
+    @Transactional
+    public void rewrapOutdatedKeys(String userName, CharSequence userPassword) {
+        List<UserConfigurationDTO> configs = userConfigurationRepository.findByUser(userName);
+        Optional<String> sharingKeyDerivationWith = configs.stream().map(UserConfigurationDTO::getDataProtectionKey)
+                .filter(key -> !cryptoHelper.isOutdated(key)).findFirst();
+        int rewrapped = 0;
+        for (UserConfigurationDTO config : configs) {
+            if (cryptoHelper.isOutdated(config.getDataProtectionKey())) {
+                String protectionKey = cryptoHelper.decryptData(userPassword, config.getDataProtectionKey());
+                String newProtectedKey = sharingKeyDerivationWith
+                        .map(sharedWith -> cryptoHelper.encryptData(userPassword, protectionKey, sharedWith))
+                        .orElseGet(() -> cryptoHelper.encryptData(userPassword, protectionKey));
+                if (userConfigurationRepository.replaceDataProtectionKey(config.getId(), config.getDataProtectionKey(), newProtectedKey) != 1) {
+                    throw new IllegalStateException("Data protection keys of " + userName + " changed during rewrap");
+                }
+                sharingKeyDerivationWith = Optional.of(newProtectedKey);
+                rewrapped++;
+            }
+        }
+        if (rewrapped > 0) {
+            nowAndAfterCommit(() -> principalCache.invalidate(userName));
+            log.info("Rewrapped {} data protection keys for {}", rewrapped, userName);
+        }
+    }
+
+    private void forgetAuthentications(String userName) {
+        nowAndAfterCommit(() -> {
+            principalCache.invalidate(userName);
+            sessionTokens.revoke(userName);
         });
     }
 
+    /**
+     * Authentication that runs concurrently with transaction reads rows that transaction has not committed yet,
+     * and could cache them again after they were invalidated, so invalidation is repeated after commit.
+     */
+    private static void nowAndAfterCommit(Runnable invalidation) {
+        invalidation.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+
     private void invalidateOrRemove(Boolean removeOldSchemes, UserConfigurationDTO config) {
         if (removeOldSchemes) {
             userConfigurationRepository.delete(config);
@@ -125,10 +208,19 @@ public class UsersService implements UserDetailsService {
         log.info("Saved user: {}", savedUser.getUserName());
     }
 
-    private UserConfigurationDTO createUserConfigurationDTO(PasswordEncodingAlgorithm algorithm, CharSequence password, String encryptionKey, UserDTO userDTO) {
+    private String calibratedParameters(PasswordEncodingAlgorithm algorithm) {
+        EncoderParameters parameters = costCalibrator.parametersFor(algorithm);
+        return parameters.isEmpty() ? null : parameters.toString();
+    }
+
+    private UserConfigurationDTO createUserConfigurationDTO(PasswordEncodingAlgorithm algorithm, String encoderParameters, String serverReliefSalt, CharSequence password,
+                                                            String encryptionKey, UserDTO userDTO, Optional<String> sharingKeyDerivationWith) {
+        String protectedKey = sharingKeyDerivationWith
+                .map(sharedWith -> cryptoHelper.encryptData(password, encryptionKey, sharedWith))
+                .orElseGet(() -> cryptoHelper.encryptData(password, encryptionKey));
         return new UserConfigurationDTO()
-                .setActive(true).setAlgorithm(algorithm).setUser(userDTO.getUserName())
-                .setDataProtectionKey(cryptoHelper.encryptData(password, encryptionKey));
+                .setActive(true).setAlgorithm(algorithm).setEncoderParameters(encoderParameters).setServerReliefSalt(serverReliefSalt).setUser(userDTO.getUserName())
+                .setDataProtectionKey(protectedKey);
     }
 
     private String generatePassword() {
@@ -1,7 +1,10 @@
 package com.github.tomitakussaari.phaas.user.dao;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
 import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.github.tomitakussaari.phaas.model.ServerRelief;
 import com.github.tomitakussaari.phaas.util.CryptoHelper;
 import lombok.*;
 import lombok.experimental.Accessors;
@@ -25,9 +28,27 @@ public final class UserConfigurationDTO implements Serializable {
     private String dataProtectionKey;
     private boolean active;
     private PasswordEncodingAlgorithm algorithm;
+    /**
+     * Cost parameters for algorithm, see {@link EncoderParameters}. Null for algorithm's defaults.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String encoderParameters;
+    /**
+     * Salt that clients use, when scheme uses server relief, see {@link ServerRelief}. Null for normal schemes.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String serverReliefSalt;
+
+    public UserConfigurationDTO(Integer id, String user, String dataProtectionKey, boolean active, PasswordEncodingAlgorithm algorithm) {
+        this(id, user, dataProtectionKey, active, algorithm, null);
+    }
+
+    public UserConfigurationDTO(Integer id, String user, String dataProtectionKey, boolean active, PasswordEncodingAlgorithm algorithm, String encoderParameters) {
+        this(id, user, dataProtectionKey, active, algorithm, encoderParameters, null);
+    }
 
     public DataProtectionScheme toProtectionScheme(CryptoHelper helper) {
-        return new DataProtectionScheme(getId(), getAlgorithm(), getDataProtectionKey(), helper);
+        return new DataProtectionScheme(getId(), getAlgorithm(), getDataProtectionKey(), helper, EncoderParameters.parse(getEncoderParameters()), getServerReliefSalt());
     }
 
 }
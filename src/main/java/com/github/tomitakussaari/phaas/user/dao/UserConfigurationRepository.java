@@ -1,6 +1,9 @@
 package com.github.tomitakussaari.phaas.user.dao;
 
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 
@@ -11,4 +14,13 @@ public interface UserConfigurationRepository extends CrudRepository<UserConfigur
 
     void deleteByUser(String userName);
 
+    /**
+     * Replaces data protection key of configuration, but only if it still is expectedKey
+     *
+     * @return 1 if key was replaced, 0 if it had been changed meanwhile
+     */
+    @Modifying
+    @Query("update UserConfigurationDTO c set c.dataProtectionKey = :newKey where c.id = :id and c.dataProtectionKey = :expectedKey")
+    int replaceDataProtectionKey(@Param("id") Integer id, @Param("expectedKey") String expectedKey, @Param("newKey") String newKey);
+
 }
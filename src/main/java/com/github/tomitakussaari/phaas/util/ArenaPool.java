@@ -0,0 +1,78 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable off-heap memory for {@link JavaArgon2}, so that hashing does not allocate and free its memory matrix on every call.
+ * <p>
+ * Arenas are created lazily, and at most {@code maxIdle} of them are kept after use. That should be number of
+ * Argon2 operations that may run concurrently, so that arena is normally available. Arena that is too small for
+ * requested size is replaced with bigger one. Arenas are wiped before they are returned to pool.
+ */
+public final class ArenaPool {
+
+    private static final long[] ZEROS = new long[1024];
+
+    private final BlockingQueue<ByteBuffer> idle;
+    private final AtomicLong allocations = new AtomicLong();
+
+    public ArenaPool(int maxIdle) {
+        Preconditions.checkArgument(maxIdle >= 1, "Arena pool must keep at least one arena");
+        this.idle = new LinkedBlockingQueue<>(maxIdle);
+    }
+
+    Arena acquire(long bytes) {
+        Preconditions.checkArgument(bytes > 0 && bytes <= Integer.MAX_VALUE && bytes % Long.BYTES == 0, "Unsupported arena size: %s", bytes);
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null || buffer.capacity() < bytes) {
+            allocations.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+        }
+        return new Arena(buffer, (int) (bytes / Long.BYTES));
+    }
+
+    int idleArenas() {
+        return idle.size();
+    }
+
+    /**
+     * @return number of arenas allocated so far
+     */
+    long allocations() {
+        return allocations.get();
+    }
+
+    final class Arena implements AutoCloseable {
+        private final ByteBuffer buffer;
+        private final LongBuffer longs;
+
+        private Arena(ByteBuffer buffer, int longs) {
+            this.buffer = buffer;
+            this.longs = buffer.asLongBuffer();
+            this.longs.limit(longs);
+        }
+
+        /**
+         * @return view that starts from beginning of arena, and has requested size
+         */
+        LongBuffer longs() {
+            return longs.duplicate();
+        }
+
+        @Override
+        public void close() {
+            LongBuffer wiped = longs();
+            while (wiped.hasRemaining()) {
+                wiped.put(ZEROS, 0, Math.min(ZEROS.length, wiped.remaining()));
+            }
+            idle.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.Argon2Engine;
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.function.Supplier;
+
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2ID;
+
+/**
+ * Selects {@link Argon2Engine} for Argon2 algorithms with phaas.encoder.[algorithm].engine (native, java or process),
+ * and sizes arena pool of Java engine to number of default sized operations that Argon2 memory budget admits concurrently.
+ * Worker processes of process engine are configured with phaas.encoder.process.* properties.
+ * <p>
+ * Selection belongs to this application context: hashing beans get it from {@link #selection()}, and it is closed
+ * when application context closes.
+ */
+@Component
+@Slf4j
+public class Argon2EngineSelector {
+
+    private final Argon2Engine.Selection selection;
+
+    @Autowired
+    public Argon2EngineSelector(Environment environment, MemoryAdmissionController admissionController) {
+        this(engine(environment, ARGON2), engine(environment, ARGON2ID), admissionController.memoryBudgetKiB(), () -> workers(environment));
+    }
+
+    Argon2EngineSelector(Argon2Engine argon2, Argon2Engine argon2id, int memoryBudgetKiB) {
+        this(argon2, argon2id, memoryBudgetKiB, () -> {
+            throw new IllegalArgumentException("Argon2 worker processes are not configured");
+        });
+    }
+
+    Argon2EngineSelector(Argon2Engine selectedArgon2, Argon2Engine selectedArgon2id, int memoryBudgetKiB, Supplier<Argon2WorkerPool> workers) {
+        Argon2Engine argon2 = available(ARGON2, selectedArgon2);
+        Argon2Engine argon2id = available(ARGON2ID, selectedArgon2id);
+        boolean processSelected = argon2 == Argon2Engine.PROCESS || argon2id == Argon2Engine.PROCESS;
+        int arenas = arenas(memoryBudgetKiB);
+        this.selection = new Argon2Engine.Selection(argon2, argon2id, new ArenaPool(arenas), processSelected ? workers.get() : null);
+        log.info("Using {} engine for ARGON2 and {} engine for ARGON2ID, keeping up to {} memory arenas", argon2, argon2id, arenas);
+    }
+
+    public Argon2Engine.Selection selection() {
+        return selection;
+    }
+
+    /**
+     * @return given engine, or java engine if given engine can not compute algorithm on this host
+     */
+    static Argon2Engine available(PasswordEncodingAlgorithm algorithm, Argon2Engine engine) {
+        return engine.availableFor(algorithm);
+    }
+
+    static int arenas(int memoryBudgetKiB) {
+        return Math.max(1, memoryBudgetKiB / ARGON2.memoryCostKiB(EncoderParameters.DEFAULTS));
+    }
+
+    @PreDestroy
+    public void close() {
+        selection.close();
+    }
+
+    private static Argon2Engine engine(Environment environment, PasswordEncodingAlgorithm algorithm) {
+        String engine = environment.getProperty("phaas.encoder." + algorithm.name().toLowerCase() + ".engine", "native");
+        return Argon2Engine.valueOf(engine.toUpperCase());
+    }
+
+    private static Argon2WorkerPool workers(Environment environment) {
+        int workers = environment.getProperty("phaas.encoder.process.workers", Integer.class, 2);
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new Argon2WorkerPool(workers,
+                environment.getProperty("phaas.encoder.process.threads", Integer.class, Math.max(1, processors / workers)),
+                environment.getProperty("phaas.encoder.process.engine", "java"),
+                environment.getProperty("phaas.encoder.process.max-memory-mb", Integer.class, 512),
+                environment.getProperty("phaas.encoder.process.jvm-options", ""),
+                environment.getProperty("phaas.encoder.process.timeout-seconds", Long.class, 60L) * 1000);
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.Argon2Engine;
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2ID;
+
+/**
+ * Main class of worker process of {@link Argon2WorkerPool}. Reads requests from stdin, one per line, computes them
+ * concurrently with {@code threads} threads and writes responses to stdout as they complete, see {@link #handle(String)}.
+ * Logging goes to stderr. Worker exits when its stdin is closed.
+ */
+public final class Argon2Worker {
+
+    static final String ENCODE = "E";
+    static final String MATCHES = "M";
+    static final String OK = "OK";
+    static final String BAD_REQUEST = "BAD";
+    static final String ERROR = "ERR";
+    static final String NO_PARAMETERS = "-";
+
+    private Argon2Worker() {
+    }
+
+    /**
+     * @param args engine (native or java) and number of threads
+     */
+    public static void main(String[] args) throws IOException {
+        PrintStream protocol = System.out;
+        System.setOut(System.err);
+        Argon2Engine engine = Argon2Engine.valueOf(args[0].toUpperCase());
+        int threads = Integer.parseInt(args[1]);
+        Preconditions.checkArgument(engine != Argon2Engine.PROCESS, "Worker can not use process engine");
+        Argon2Engine.Selection engines = new Argon2Engine.Selection(engine, engine.availableFor(ARGON2ID), new ArenaPool(threads), null);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("phaas-argon2-worker-%d").build());
+        Writer responses = new BufferedWriter(new OutputStreamWriter(protocol, StandardCharsets.UTF_8));
+        BufferedReader requests = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII));
+        String line;
+        while ((line = requests.readLine()) != null) {
+            String request = line;
+            pool.execute(() -> respond(handle(request, engines), responses));
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param request {@code <id> E <algorithm> <parameters or -> <base64 password>} or {@code <id> M <algorithm> <encoded hash> <base64 password>}
+     * @return {@code <id> OK <hash or true/false>}, or {@code <id> BAD|ERR <message>} when request failed
+     */
+    static String handle(String request, Argon2Engine.Selection engines) {
+        String[] parts = request.split(" ");
+        if (parts.length != 5) {
+            return parts[0] + " " + BAD_REQUEST + " Malformed worker request";
+        }
+        byte[] password = null;
+        try {
+            PasswordEncodingAlgorithm algorithm = PasswordEncodingAlgorithm.valueOf(parts[2]);
+            Preconditions.checkArgument(algorithm == ARGON2 || algorithm == ARGON2ID, "%s is not Argon2", algorithm);
+            password = Base64.getDecoder().decode(parts[4]);
+            String rawPassword = new String(password, StandardCharsets.UTF_8);
+            switch (parts[1]) {
+                case ENCODE:
+                    EncoderParameters parameters = EncoderParameters.parse(parts[3].equals(NO_PARAMETERS) ? null : parts[3]);
+                    return parts[0] + " " + OK + " " + algorithm.encoder(parameters, engines).encode(rawPassword);
+                case MATCHES:
+                    return parts[0] + " " + OK + " " + algorithm.encoder(EncoderParameters.DEFAULTS, engines).matches(rawPassword, parts[3]);
+                default:
+                    return parts[0] + " " + BAD_REQUEST + " Unknown operation " + parts[1];
+            }
+        } catch (IllegalArgumentException e) {
+            return parts[0] + " " + BAD_REQUEST + " " + singleLine(e.getMessage());
+        } catch (RuntimeException e) {
+            return parts[0] + " " + ERROR + " " + singleLine(e.getMessage());
+        } finally {
+            if (password != null) {
+                Arrays.fill(password, (byte) 0);
+            }
+        }
+    }
+
+    private static void respond(String response, Writer responses) {
+        try {
+            synchronized (responses) {
+                responses.write(response);
+                responses.write('\n');
+                responses.flush();
+            }
+        } catch (IOException e) {
+            System.exit(1); // parent is gone
+        }
+    }
+
+    private static String singleLine(String message) {
+        return String.valueOf(message).replace('\n', ' ').replace('\r', ' ');
+    }
+}
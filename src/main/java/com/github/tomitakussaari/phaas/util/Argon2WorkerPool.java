@@ -0,0 +1,316 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.github.tomitakussaari.phaas.util.MemoryAdmissionController.AdmissionRejectedException;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes Argon2 hashes in separate worker processes ({@link Argon2Worker}), so that memory spikes and crashes of
+ * hashing do not affect service JVM, and workers can have memory limits of their own.
+ * <p>
+ * Requests are pipelined: each worker has many requests in flight over its stdin and stdout, and responses are
+ * matched to requests by id, so IPC costs little compared to hashing. Each worker has at most {@code threadsPerWorker}
+ * requests in flight, so that requests do not queue inside workers; others wait in this pool, for at most timeout, and are
+ * then rejected with {@link AdmissionRejectedException}, like requests that do not fit into memory budget.
+ * Request goes to worker with fewest requests in flight.
+ * <p>
+ * Request that is not answered in time fails alone, and keeps its place in worker until worker answers it. Worker is killed
+ * only when it has not answered any request for timeout, that fails its requests in flight. Worker that exits is
+ * restarted on next request.
+ */
+@Slf4j
+public class Argon2WorkerPool {
+
+    private static final long BUSY_RETRY_AFTER_SECONDS = 1;
+
+    private final List<String> command;
+    private final long timeoutMillis;
+    private final WorkerProcess[] workers;
+    private final Semaphore capacity;
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param engine       engine that workers use, native or java
+     * @param maxMemoryMiB direct memory limit of each worker, limits java engine. Native engine is limited only by operating system.
+     * @param jvmOptions   additional options for worker JVMs, separated by spaces
+     */
+    public Argon2WorkerPool(int workers, int threadsPerWorker, String engine, int maxMemoryMiB, String jvmOptions, long timeoutMillis) {
+        this(command(threadsPerWorker, engine, maxMemoryMiB, jvmOptions), workers, threadsPerWorker, timeoutMillis);
+    }
+
+    Argon2WorkerPool(List<String> command, int workers, int threadsPerWorker, long timeoutMillis) {
+        Preconditions.checkArgument(workers >= 1, "Argon2 worker pool needs at least one worker");
+        Preconditions.checkArgument(threadsPerWorker >= 1, "Argon2 workers need at least one thread");
+        this.command = ImmutableList.copyOf(command);
+        this.timeoutMillis = timeoutMillis;
+        this.capacity = new Semaphore(workers * threadsPerWorker, true);
+        this.workers = new WorkerProcess[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new WorkerProcess(i);
+        }
+        log.info("Started {} Argon2 worker processes: {}", workers, String.join(" ", this.command));
+    }
+
+    public String encode(PasswordEncodingAlgorithm algorithm, EncoderParameters parameters, CharSequence rawPassword) {
+        String encodedParameters = parameters.isEmpty() ? Argon2Worker.NO_PARAMETERS : parameters.toString();
+        return call(Argon2Worker.ENCODE + " " + algorithm.name() + " " + encodedParameters, rawPassword);
+    }
+
+    public boolean matches(PasswordEncodingAlgorithm algorithm, CharSequence rawPassword, String encodedPassword) {
+        if (encodedPassword == null || encodedPassword.isEmpty() || encodedPassword.contains(" ") || encodedPassword.contains("\n")) {
+            return false;
+        }
+        return Boolean.parseBoolean(call(Argon2Worker.MATCHES + " " + algorithm.name() + " " + encodedPassword, rawPassword));
+    }
+
+    /**
+     * @return number of times that workers have been restarted
+     */
+    long restarts() {
+        return restarts.get();
+    }
+
+    /**
+     * Kills all workers, as if they had crashed
+     */
+    void killWorkers() {
+        for (WorkerProcess worker : workers) {
+            worker.kill();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        killWorkers();
+    }
+
+    private String call(String operation, CharSequence rawPassword) {
+        Preconditions.checkState(!closed, "Argon2 worker pool is closed");
+        long id = ids.incrementAndGet();
+        byte[] password = rawPassword.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] encodedPassword = Base64.getEncoder().encode(password);
+        byte[] prefix = (id + " " + operation + " ").getBytes(StandardCharsets.US_ASCII);
+        byte[] request = new byte[prefix.length + encodedPassword.length + 1];
+        System.arraycopy(prefix, 0, request, 0, prefix.length);
+        System.arraycopy(encodedPassword, 0, request, prefix.length, encodedPassword.length);
+        request[request.length - 1] = '\n';
+        WorkerProcess worker = null;
+        try {
+            if (!capacity.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new AdmissionRejectedException("All Argon2 workers stayed busy for " + timeoutMillis + " ms", BUSY_RETRY_AFTER_SECONDS);
+            }
+            worker = reserveLeastBusy();
+            CompletableFuture<String> response = send(worker, id, request);
+            return response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            if (worker.isUnresponsive(timeoutMillis)) {
+                log.warn("Argon2 worker {} has not responded to any request in {} ms, killing it", worker.index, timeoutMillis);
+                worker.kill();
+            }
+            throw new IllegalStateException("Argon2 worker did not respond in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for Argon2 worker", e);
+        } finally {
+            Arrays.fill(password, (byte) 0);
+            Arrays.fill(encodedPassword, (byte) 0);
+            Arrays.fill(request, (byte) 0);
+        }
+    }
+
+    /**
+     * Place in worker is released when worker answers, or exits, not when caller stops waiting, so that requests
+     * never queue inside worker
+     */
+    private CompletableFuture<String> send(WorkerProcess worker, long id, byte[] request) {
+        CompletableFuture<String> response;
+        try {
+            response = worker.send(id, request);
+        } catch (RuntimeException e) {
+            release(worker);
+            throw e;
+        }
+        response.whenComplete((result, failure) -> release(worker));
+        return response;
+    }
+
+    private synchronized WorkerProcess reserveLeastBusy() {
+        WorkerProcess best = workers[0];
+        for (WorkerProcess worker : workers) {
+            if (worker.reserved < best.reserved) {
+                best = worker;
+            }
+        }
+        best.reserved++;
+        return best;
+    }
+
+    private void release(WorkerProcess worker) {
+        synchronized (this) {
+            worker.reserved--;
+        }
+        capacity.release();
+    }
+
+    private static List<String> command(int threadsPerWorker, String engine, int maxMemoryMiB, String jvmOptions) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Xmx64m");
+        command.add("-XX:MaxDirectMemorySize=" + maxMemoryMiB + "m");
+        command.addAll(Splitter.on(' ').omitEmptyStrings().splitToList(jvmOptions));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        if (Argon2WorkerPool.class.getClassLoader().getClass().getName().startsWith("org.springframework.boot.loader.")) {
+            // executable jar: application classes are nested inside the jar, and only Spring Boot launcher can load them
+            command.add("-Dloader.main=" + Argon2Worker.class.getName());
+            command.add("org.springframework.boot.loader.PropertiesLauncher");
+        } else {
+            command.add(Argon2Worker.class.getName());
+        }
+        command.add(engine);
+        command.add(String.valueOf(threadsPerWorker));
+        return command;
+    }
+
+    /**
+     * One worker process and its requests in flight, process is replaced when it has exited
+     */
+    private final class WorkerProcess {
+
+        private final int index;
+        /**
+         * Requests sent to this worker and not answered yet, guarded by pool
+         */
+        private int reserved;
+        /**
+         * When worker last answered, or got request after being idle
+         */
+        private volatile long lastProgressNanos = System.nanoTime();
+        private Process process;
+        private OutputStream requests;
+        private Map<Long, CompletableFuture<String>> inFlight;
+
+        WorkerProcess(int index) {
+            this.index = index;
+            start();
+        }
+
+        synchronized CompletableFuture<String> send(long id, byte[] request) {
+            if (!process.isAlive()) {
+                restarts.incrementAndGet();
+                log.warn("Restarting Argon2 worker {}, it exited with {}", index, process.exitValue());
+                start();
+            }
+            CompletableFuture<String> response = new CompletableFuture<>();
+            if (inFlight.isEmpty()) {
+                lastProgressNanos = System.nanoTime();
+            }
+            inFlight.put(id, response);
+            try {
+                requests.write(request);
+                requests.flush();
+            } catch (IOException e) {
+                inFlight.remove(id);
+                response.completeExceptionally(new IllegalStateException("Unable to send request to Argon2 worker: " + e.getMessage(), e));
+            }
+            return response;
+        }
+
+        boolean isUnresponsive(long timeoutMillis) {
+            return System.nanoTime() - lastProgressNanos >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        }
+
+        synchronized void kill() {
+            process.destroyForcibly();
+            awaitExit(process);
+        }
+
+        private void start() {
+            Process started;
+            try {
+                started = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to start Argon2 worker: " + e.getMessage(), e);
+            }
+            Map<Long, CompletableFuture<String>> startedInFlight = new ConcurrentHashMap<>();
+            Thread reader = new Thread(() -> readResponses(started, startedInFlight), "phaas-argon2-worker-" + index + "-reader");
+            reader.setDaemon(true);
+            reader.start();
+            process = started;
+            requests = started.getOutputStream();
+            inFlight = startedInFlight;
+        }
+
+        /**
+         * Completes requests with responses of given process, and fails those that are left in flight when process exits
+         */
+        private void readResponses(Process process, Map<Long, CompletableFuture<String>> inFlight) {
+            try (BufferedReader responses = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = responses.readLine()) != null) {
+                    complete(line, inFlight);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Reading responses of Argon2 worker {} failed: {}", index, e.getMessage());
+            }
+            process.destroyForcibly();
+            awaitExit(process);
+            synchronized (this) { // requests are not sent to process that has exited
+                inFlight.values().forEach(response -> response.completeExceptionally(new IllegalStateException("Argon2 worker exited")));
+                inFlight.clear();
+            }
+        }
+
+        private void complete(String line, Map<Long, CompletableFuture<String>> inFlight) {
+            lastProgressNanos = System.nanoTime();
+            String[] parts = line.split(" ", 3);
+            CompletableFuture<String> response = inFlight.remove(Long.parseLong(parts[0]));
+            if (response == null) {
+                return;
+            }
+            String result = parts.length > 2 ? parts[2] : "";
+            if (Argon2Worker.OK.equals(parts[1])) {
+                response.complete(result);
+            } else if (Argon2Worker.BAD_REQUEST.equals(parts[1])) {
+                response.completeExceptionally(new IllegalArgumentException(result));
+            } else {
+                response.completeExceptionally(new IllegalStateException("Argon2 worker failed: " + result));
+            }
+        }
+    }
+
+    private static void awaitExit(Process process) {
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,19 +2,29 @@ package com.github.tomitakussaari.phaas.util;
 
 import com.netflix.hystrix.HystrixCommand;
 import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.github.tomitakussaari.phaas.util.MemoryAdmissionController.AdmissionRejectedException;
 import com.netflix.hystrix.exception.HystrixBadRequestException;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import com.netflix.hystrix.exception.HystrixRuntimeException.FailureType;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.springframework.web.context.request.async.DeferredResult;
+import rx.Observable;
 
 import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static com.google.common.collect.ImmutableList.of;
 
+@Slf4j
 public class AsyncHelper {
 
     private final String name;
     private static final int timeout = 10_000;
+    private static final long REJECTED_RETRY_AFTER_SECONDS = 1;
+    private static final List<FailureType> rejections = of(FailureType.REJECTED_THREAD_EXECUTION, FailureType.REJECTED_SEMAPHORE_EXECUTION, FailureType.SHORTCIRCUIT);
     private static final List<Class<? extends Exception>> badRequestExceptions = of(IllegalArgumentException.class, IllegalStateException.class);
 
     private AsyncHelper(String name) {
@@ -32,6 +42,25 @@ public class AsyncHelper {
         return deferred;
     }
 
+    /**
+     * Runs operation for every item as its own command, at most maxConcurrent at time, and completes with results in order of items.
+     * Failing item is turned into result with onError, so that it does not fail other items. Item that is rejected because
+     * service is busy fails whole result with {@link AdmissionRejectedException}, like single requests do.
+     */
+    public <T, R> DeferredResult<List<R>> toDeferredResults(List<T> items, Function<T, R> operation, BiFunction<T, Throwable, R> onError,
+                                                           int maxConcurrent, long timeoutMillis) {
+        DeferredResult<List<R>> deferred = new DeferredResult<>(timeoutMillis);
+        Observable.from(items)
+                .concatMapEager(item -> new NamedCommand<>(name, () -> operation.apply(item)).toObservable()
+                        .onErrorResumeNext(error -> {
+                            Throwable cause = getCause(error);
+                            return cause instanceof AdmissionRejectedException ? Observable.<R>error(cause) : Observable.just(onError.apply(item, cause));
+                        }), 1, maxConcurrent)
+                .toList()
+                .subscribe(deferred::setResult, error -> deferred.setErrorResult(getCause(error)));
+        return deferred;
+    }
+
     public <T> T doWithTimeout(Supplier<T> operation) {
         try {
             return new NamedCommand<>(name, operation).execute();
@@ -40,7 +69,21 @@ public class AsyncHelper {
         }
     }
 
+    public void runInBackground(Runnable operation) {
+        NamedCommand<Void> command = new NamedCommand<>(name, () -> {
+            operation.run();
+            return null;
+        });
+        command.observe().subscribe(ignored -> {}, error -> log.warn("Background operation {} failed", name, getCause(error)));
+    }
+
+    /**
+     * Hystrix rejects commands when thread pool is full or circuit is open, that is reported like full memory admission queue
+     */
     static Throwable getCause(Throwable error) {
+        if (error instanceof HystrixRuntimeException && rejections.contains(((HystrixRuntimeException) error).getFailureType())) {
+            return new AdmissionRejectedException("too many operations in progress", REJECTED_RETRY_AFTER_SECONDS);
+        }
         if(error.getCause() != null) {
             return error.getCause();
         }
@@ -0,0 +1,75 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.netflix.hystrix.HystrixThreadPoolKey;
+import com.netflix.hystrix.HystrixThreadPoolProperties;
+import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Runs items of batch request in hashing pool, so that one batch uses at most phaas.batch.parallelism threads,
+ * and never more than half of Hystrix thread pool, so that other requests still get their share. Results are returned
+ * in order of items, and failure of one item is reported in its result instead of failing whole batch. When service is
+ * busy (memory admission or thread pool is full), whole batch is rejected with 503, see {@link AsyncHelper#toDeferredResults}.
+ */
+@Component
+@Slf4j
+public class BatchExecutor {
+
+    private final int maxSize;
+    private final int parallelism;
+    private final long timeoutMillis;
+
+    @Autowired
+    public BatchExecutor(Environment environment) {
+        this(environment.getProperty("phaas.batch.max-size", Integer.class, 1000),
+                environment.getProperty("phaas.batch.parallelism", Integer.class, 4),
+                environment.getProperty("phaas.batch.timeout-seconds", Long.class, 300L) * 1000);
+    }
+
+    BatchExecutor(int maxSize, int parallelism, long timeoutMillis) {
+        this.maxSize = maxSize;
+        this.parallelism = parallelism;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public <T, R> DeferredResult<List<R>> execute(String name, List<T> items, Function<T, R> operation, Function<String, R> onError) {
+        if (items.size() > maxSize) {
+            throw new BatchTooLargeException("Batch has " + items.size() + " items, but at most " + maxSize + " are allowed");
+        }
+        BiFunction<T, Throwable, R> errorResult = (item, error) -> onError.apply(describe(error));
+        return AsyncHelper.withName(name).toDeferredResults(items, operation, errorResult, Math.min(parallelism, maxParallelism(name)), timeoutMillis);
+    }
+
+    /**
+     * @return half of Hystrix thread pool that commands of given name run in
+     */
+    static int maxParallelism(String name) {
+        HystrixThreadPoolProperties pool = HystrixPropertiesFactory.getThreadPoolProperties(HystrixThreadPoolKey.Factory.asKey(name), HystrixThreadPoolProperties.Setter());
+        return Math.max(1, pool.coreSize().get() / 2);
+    }
+
+    /**
+     * @return message of bad request, generic message for other errors, like error responses of single item requests
+     */
+    static String describe(Throwable error) {
+        if (error instanceof IllegalArgumentException || error instanceof IllegalStateException) {
+            return error.getMessage();
+        }
+        log.warn("Batch item failed: " + error.getMessage(), error);
+        return "Internal error";
+    }
+
+    public static class BatchTooLargeException extends IllegalArgumentException {
+        public BatchTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.Argon2Engine;
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.COST;
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.ITERATIONS;
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.MEMORY;
+import static com.github.tomitakussaari.phaas.model.EncoderParameters.PARALLELISM;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2ID;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.SHA256_BCRYPT;
+
+/**
+ * Proposes cost parameters for new protection schemes, so that one hash takes about target latency on this host,
+ * and target throughput (hashes per second) fits into available processors and Argon2 memory budget.
+ * <p>
+ * Host is benchmarked in background after startup, until then (and when calibration is disabled) algorithm's
+ * defaults are used. Parameters can also be fixed with phaas.encoder.[algorithm].parameters, like
+ * {@code phaas.encoder.argon2.parameters=m=65536,p=2,t=3}. Proposals never go below minimum parameters.
+ */
+@Component
+@Slf4j
+public class CostCalibrator {
+
+    static final EncoderParameters ARGON2_MINIMUM = EncoderParameters.parse("m=19456,p=1,t=2");
+    static final EncoderParameters BCRYPT_MINIMUM = EncoderParameters.parse("cost=10");
+    private static final int ARGON2_MAX_MEMORY_KIB = 262144;
+    private static final int BCRYPT_MAX_COST = 16;
+    private static final int MEASUREMENTS = 3;
+
+    private final long targetMillis;
+    private final int targetThroughput;
+    private final int processors;
+    private final int memoryBudgetKiB;
+    private final LatencyProbe probe;
+    private final boolean enabled;
+    private final Map<PasswordEncodingAlgorithm, EncoderParameters> proposals = new ConcurrentHashMap<>();
+    private final ExecutorService calibrator = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("phaas-calibration-%d").build());
+
+    /**
+     * @param engineSelector engines that hashes are computed with, and that calibration measures
+     */
+    @Autowired
+    public CostCalibrator(Environment environment, MemoryAdmissionController admissionController, Argon2EngineSelector engineSelector) {
+        this(environment.getProperty("phaas.calibration.target-millis", Long.class, 250L),
+                environment.getProperty("phaas.calibration.target-throughput", Integer.class, 20),
+                Runtime.getRuntime().availableProcessors(),
+                admissionController.memoryBudgetKiB(),
+                (algorithm, parameters) -> measureMillis(algorithm, parameters, admissionController, engineSelector.selection()),
+                environment.getProperty("phaas.calibration.enabled", Boolean.class, true),
+                configuredParameters(environment));
+    }
+
+    CostCalibrator(long targetMillis, int targetThroughput, int processors, int memoryBudgetKiB, LatencyProbe probe,
+                   boolean enabled, Map<PasswordEncodingAlgorithm, EncoderParameters> configuredParameters) {
+        this.targetMillis = targetMillis;
+        this.targetThroughput = targetThroughput;
+        this.processors = processors;
+        this.memoryBudgetKiB = memoryBudgetKiB;
+        this.probe = probe;
+        this.enabled = enabled;
+        configuredParameters.forEach((algorithm, parameters) -> proposals.put(algorithm, algorithm.parameters(parameters)));
+    }
+
+    /**
+     * For classes that are created outside of Spring context: always proposes algorithm's defaults
+     */
+    public static CostCalibrator withDefaults() {
+        return new CostCalibrator(0, 0, 1, 0, (algorithm, parameters) -> {
+            throw new IllegalStateException("Calibration is disabled");
+        }, false, new EnumMap<>(PasswordEncodingAlgorithm.class));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            calibrator.execute(() -> Arrays.stream(PasswordEncodingAlgorithm.values())
+                    .filter(algorithm -> !proposals.containsKey(algorithm))
+                    .forEach(this::calibrateSafely));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        calibrator.shutdownNow();
+    }
+
+    /**
+     * @return calibrated or configured parameters, or algorithm's defaults when neither is available (yet)
+     */
+    public EncoderParameters parametersFor(PasswordEncodingAlgorithm algorithm) {
+        return proposals.getOrDefault(algorithm, algorithm.parameters(EncoderParameters.DEFAULTS));
+    }
+
+    void calibrate(PasswordEncodingAlgorithm algorithm) {
+        EncoderParameters proposal;
+        if (algorithm == ARGON2 || algorithm == ARGON2ID) {
+            proposal = calibrateArgon2(algorithm);
+        } else if (algorithm == SHA256_BCRYPT) {
+            proposal = calibrateBcrypt();
+        } else {
+            return;
+        }
+        proposals.putIfAbsent(algorithm, proposal);
+        log.info("Calibrated {} to {} (target {} ms, {} hashes/s, {} processors)", algorithm, proposal, targetMillis, targetThroughput, processors);
+    }
+
+    /**
+     * Latency allowed for one hash, so that target throughput fits into available processors
+     */
+    long latencyBudgetMillis(int threadsPerHash) {
+        long concurrentHashes = Math.max(1, processors / threadsPerHash);
+        return Math.min(targetMillis, concurrentHashes * 1000 / Math.max(1, targetThroughput));
+    }
+
+    private EncoderParameters calibrateArgon2(PasswordEncodingAlgorithm algorithm) {
+        EncoderParameters defaults = algorithm.parameters(EncoderParameters.DEFAULTS);
+        int parallelism = Math.min(defaults.get(PARALLELISM, 2), processors);
+        // Argon2id falls back to one lane under load, so it must reach target latency also with one lane
+        int measuredParallelism = algorithm == ARGON2ID ? 1 : parallelism;
+        long latencyBudget = latencyBudgetMillis(measuredParallelism);
+        long concurrentHashes = Math.max(1, (targetThroughput * latencyBudget + 999) / 1000);
+        int memory = floorToPowerOfTwo(Math.min(ARGON2_MAX_MEMORY_KIB, memoryBudgetKiB / concurrentHashes));
+        memory = Math.max(memory, ARGON2_MINIMUM.get(MEMORY, 0));
+        EncoderParameters candidate = defaults.with(PARALLELISM, measuredParallelism).with(ITERATIONS, 1).with(MEMORY, memory);
+        long oneIteration = probe.millis(algorithm, candidate);
+        while (oneIteration > latencyBudget / ARGON2_MINIMUM.get(ITERATIONS, 1) && memory / 2 >= ARGON2_MINIMUM.get(MEMORY, 0)) {
+            memory /= 2;
+            candidate = candidate.with(MEMORY, memory);
+            oneIteration = probe.millis(algorithm, candidate);
+        }
+        int iterations = (int) Math.max(ARGON2_MINIMUM.get(ITERATIONS, 1), latencyBudget / Math.max(1, oneIteration));
+        return candidate.with(ITERATIONS, iterations).with(PARALLELISM, parallelism);
+    }
+
+    private EncoderParameters calibrateBcrypt() {
+        long latencyBudget = latencyBudgetMillis(1);
+        int cost = BCRYPT_MINIMUM.get(COST, 10);
+        long latency = probe.millis(SHA256_BCRYPT, BCRYPT_MINIMUM);
+        while (cost < BCRYPT_MAX_COST && latency * 2 <= latencyBudget) {
+            cost++;
+            latency *= 2;
+        }
+        return SHA256_BCRYPT.parameters(BCRYPT_MINIMUM.with(COST, cost));
+    }
+
+    private void calibrateSafely(PasswordEncodingAlgorithm algorithm) {
+        try {
+            calibrate(algorithm);
+        } catch (RuntimeException e) {
+            log.warn("Unable to calibrate {}, using default parameters", algorithm, e);
+        }
+    }
+
+    private static int floorToPowerOfTwo(long value) {
+        return Integer.highestOneBit((int) Math.max(1, Math.min(Integer.MAX_VALUE, value)));
+    }
+
+    private static long measureMillis(PasswordEncodingAlgorithm algorithm, EncoderParameters parameters, MemoryAdmissionController admissionController,
+                                      Argon2Engine.Selection engines) {
+        String password = RandomStringUtils.randomAlphanumeric(20);
+        long[] measurements = new long[MEASUREMENTS + 1];
+        for (int i = 0; i < measurements.length; i++) {
+            measurements[i] = admissionController.withReservation(algorithm.memoryCostKiB(parameters), () -> {
+                long started = System.nanoTime();
+                algorithm.encoder(parameters, engines).encode(password);
+                return (System.nanoTime() - started) / 1_000_000;
+            });
+        }
+        long[] afterWarmUp = Arrays.copyOfRange(measurements, 1, measurements.length);
+        Arrays.sort(afterWarmUp);
+        return afterWarmUp[MEASUREMENTS / 2];
+    }
+
+    private static Map<PasswordEncodingAlgorithm, EncoderParameters> configuredParameters(Environment environment) {
+        Map<PasswordEncodingAlgorithm, EncoderParameters> configured = new EnumMap<>(PasswordEncodingAlgorithm.class);
+        for (PasswordEncodingAlgorithm algorithm : PasswordEncodingAlgorithm.values()) {
+            String parameters = environment.getProperty("phaas.encoder." + algorithm.name().toLowerCase() + ".parameters");
+            if (parameters != null) {
+                configured.put(algorithm, EncoderParameters.parse(parameters));
+            }
+        }
+        return configured;
+    }
+
+    @FunctionalInterface
+    interface LatencyProbe {
+        long millis(PasswordEncodingAlgorithm algorithm, EncoderParameters parameters);
+    }
+}
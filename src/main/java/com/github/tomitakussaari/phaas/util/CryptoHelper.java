@@ -1,56 +1,291 @@
 package com.github.tomitakussaari.phaas.util;
 
-import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
-import lombok.RequiredArgsConstructor;
+import com.github.tomitakussaari.phaas.model.HashingKeys;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.security.crypto.encrypt.Encryptors;
 import org.springframework.security.crypto.encrypt.TextEncryptor;
-import org.springframework.security.crypto.keygen.KeyGenerators;
 import org.springframework.stereotype.Service;
 
-import java.util.function.BiFunction;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
 
+import static com.github.tomitakussaari.phaas.model.DataProtectionScheme.ESCAPED_TOKEN_VALUE_SEPARATOR;
 import static com.github.tomitakussaari.phaas.model.DataProtectionScheme.TOKEN_VALUE_SEPARATOR;
 
-@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+/**
+ * Protects data (in practice, data protection keys) with user's password.
+ * <ul>
+ * <li>$1: {@code $1.<salt>.<data>}, Encryptors.text</li>
+ * <li>$2: {@code $2.<salt>.<data>}, Encryptors.delux</li>
+ * <li>$3: {@code $3.<kdf>.<kdf salt>.<key salt>.<nonce + data>}, wrapping key is derived from password with configured {@link KeyDerivation},
+ * key for each piece of data is derived from wrapping key with HKDF and data is encrypted with AES-GCM.
+ * Data sharing same kdf salt shares wrapping key, so slow key derivation is needed only once per password.</li>
+ * <li>$4: {@code $4.<pepper id>.<kdf>.<kdf salt>.<key salt>.<nonce + data>}, like $3, but records which pepper of
+ * {@link PepperSource} ring was used. $3 data uses legacy pepper.</li>
+ * </ul>
+ * Data protected with older pepper is not outdated, so rotating pepper does not cause keys to be rewrapped.
+ */
 @Service
 public class CryptoHelper {
 
+    private static final String AES_GCM = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final byte[] KEY_INFO = "phaas-key-wrapping-v3".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HASHING_KEY_INFO = "phaas-password-hashing".getBytes(StandardCharsets.UTF_8);
+
     private final PepperSource pepperSource;
+    private final DataProtectionKeyCache keyCache;
+    private final KeyDerivation keyDerivation;
+    private final EntropySource entropySource;
+
+    @Autowired
+    public CryptoHelper(PepperSource pepperSource, DataProtectionKeyCache keyCache, Environment environment, EntropySource entropySource) {
+        this(pepperSource, keyCache, KeyDerivation.fromEnvironment(environment), entropySource);
+    }
+
+    public CryptoHelper(PepperSource pepperSource, DataProtectionKeyCache keyCache) {
+        this(pepperSource, keyCache, KeyDerivation.DEFAULT);
+    }
+
+    public CryptoHelper(PepperSource pepperSource) {
+        this(pepperSource, new DataProtectionKeyCache(100, 300));
+    }
+
+    CryptoHelper(PepperSource pepperSource, DataProtectionKeyCache keyCache, KeyDerivation keyDerivation) {
+        this(pepperSource, keyCache, keyDerivation, EntropySource.defaultSource());
+    }
+
+    CryptoHelper(PepperSource pepperSource, DataProtectionKeyCache keyCache, KeyDerivation keyDerivation, EntropySource entropySource) {
+        this.pepperSource = pepperSource;
+        this.keyCache = keyCache;
+        this.keyDerivation = keyDerivation;
+        this.entropySource = entropySource;
+    }
 
     public String encryptData(CharSequence password, String dataToEncrypt) {
-        Version encryptVersion = Version.defaultVersion();
-        String salt = KeyGenerators.string().generateKey();
-        String pepperedPassword = password+"."+ pepperSource.getPepper();
-        String encryptedData = encryptVersion.encryptor(pepperedPassword, salt).encrypt(dataToEncrypt);
-        return encryptVersion.name() + TOKEN_VALUE_SEPARATOR + salt + TOKEN_VALUE_SEPARATOR + encryptedData;
+        return encryptV4(password, dataToEncrypt, Hex.encodeHexString(entropySource.salt()));
+    }
+
+    /**
+     * Encrypts data so that it shares wrapping key with already encrypted data, if that is still protected with current key derivation and pepper.
+     * Used for protecting all of user's keys, so that user's password needs to be run through slow key derivation only once.
+     */
+    public String encryptData(CharSequence password, String dataToEncrypt, String sharingKeyDerivationWith) {
+        WrappedData sharedWith = WrappedData.parse(sharingKeyDerivationWith);
+        if (isOutdated(sharedWith) || !sharedWith.pepperId.equals(pepperSource.currentPepperId())) {
+            return encryptData(password, dataToEncrypt);
+        }
+        return encryptV4(password, dataToEncrypt, sharedWith.kdfSalt);
     }
 
+    /**
+     * Always runs key derivation, and does not use cached wrapping keys, so that it takes constant time.
+     */
     public String decryptData(CharSequence password, String encryptedData) {
-        Version version = Version.valueOf(encryptedData.split(DataProtectionScheme.ESCAPED_TOKEN_VALUE_SEPARATOR)[0]);
-        String salt = encryptedData.split(DataProtectionScheme.ESCAPED_TOKEN_VALUE_SEPARATOR)[1];
-        String data = encryptedData.split(DataProtectionScheme.ESCAPED_TOKEN_VALUE_SEPARATOR)[2];
-        String pepperedPassword = password+"."+ pepperSource.getPepper();
-        return version.encryptor(pepperedPassword, salt).decrypt(data);
+        return decrypt(password, encryptedData, false);
     }
-}
 
-enum Version {
-    $1(Encryptors::text),
-    $2(Encryptors::delux);
+    /**
+     * @return stand-in for {@link #decryptData} for requests that have no data to decrypt, such as authentication of unknown user
+     */
+    public Decoy decoy(CharSequence password) {
+        return new Decoy(password);
+    }
 
-    private final BiFunction<CharSequence, String, TextEncryptor> encryptorFunction;
+    public String decryptDataProtectionKey(int schemeId, CharSequence password, String encryptedKey) {
+        return keyCache.get(schemeId, password, encryptedKey, () -> decrypt(password, encryptedKey, true));
+    }
+
+    /**
+     * @return keys for keyed password hashing algorithms, derived from data protection key and each pepper of the ring
+     */
+    public HashingKeys passwordHashingKeys(String dataProtectionKey) {
+        return new HashingKeys() {
+            @Override
+            public String currentKeyId() {
+                return pepperSource.currentPepperId();
+            }
+
+            @Override
+            public byte[] key(String pepperId) {
+                return Hkdf.derive(dataProtectionKey.getBytes(StandardCharsets.UTF_8), pepperSource.getPepper(pepperId).getBytes(StandardCharsets.UTF_8), HASHING_KEY_INFO, 32);
+            }
+        };
+    }
+
+    /**
+     * @return true if data is not protected with current format and key derivation, and should be re-encrypted.
+     * Pepper is not considered, data protected with older pepper of the ring is still up to date.
+     */
+    public boolean isOutdated(String encryptedData) {
+        return isOutdated(WrappedData.parse(encryptedData));
+    }
+
+    private boolean isOutdated(WrappedData data) {
+        return data.kdfSpec == null || !keyDerivation.spec().equals(data.kdfSpec);
+    }
+
+    private String encryptV4(CharSequence password, String dataToEncrypt, String kdfSalt) {
+        String pepperId = pepperSource.currentPepperId();
+        String keySalt = Hex.encodeHexString(entropySource.salt());
+        String header = String.join(TOKEN_VALUE_SEPARATOR, Version.$4.name(), pepperId, keyDerivation.spec(), kdfSalt, keySalt);
+        byte[] nonce = entropySource.randomBytes(NONCE_LENGTH);
+        byte[] wrappingKey = cachedWrappingKey(password, pepperId, keyDerivation, kdfSalt);
+        byte[] encrypted = aesGcm(Cipher.ENCRYPT_MODE, wrappingKey, keySalt, header, nonce, dataToEncrypt.getBytes(StandardCharsets.UTF_8));
+        byte[] payload = new byte[nonce.length + encrypted.length];
+        System.arraycopy(nonce, 0, payload, 0, nonce.length);
+        System.arraycopy(encrypted, 0, payload, nonce.length, encrypted.length);
+        return header + TOKEN_VALUE_SEPARATOR + Base64.getUrlEncoder().withoutPadding().encodeToString(payload);
+    }
 
-    Version(BiFunction<CharSequence, String, TextEncryptor> encryptorFunction) {
-        this.encryptorFunction = encryptorFunction;
+    private String decrypt(CharSequence password, String encryptedData, boolean useCachedWrappingKey) {
+        WrappedData data = WrappedData.parse(encryptedData);
+        if (!data.version.wrapped) {
+            String[] parts = encryptedData.split(ESCAPED_TOKEN_VALUE_SEPARATOR);
+            return textEncryptor(data.version, pepperedPassword(password, data.pepperId), parts[1]).decrypt(parts[2]);
+        }
+        KeyDerivation kdf = KeyDerivation.parse(data.kdfSpec);
+        byte[] wrappingKey = useCachedWrappingKey ? cachedWrappingKey(password, data.pepperId, kdf, data.kdfSalt) : deriveWrappingKey(password, data.pepperId, kdf, data.kdfSalt);
+        return unwrap(data, wrappingKey);
     }
 
-    TextEncryptor encryptor(CharSequence password, String salt) {
-        return encryptorFunction.apply(password, salt);
+    private static String unwrap(WrappedData data, byte[] wrappingKey) {
+        byte[] payload = Base64.getUrlDecoder().decode(data.payload);
+        byte[] decrypted = aesGcm(Cipher.DECRYPT_MODE, wrappingKey, data.keySalt, data.header,
+                Arrays.copyOf(payload, NONCE_LENGTH), Arrays.copyOfRange(payload, NONCE_LENGTH, payload.length));
+        return new String(decrypted, StandardCharsets.UTF_8);
     }
 
-    static Version defaultVersion() {
-        return Version.$2;
+    private static TextEncryptor textEncryptor(Version version, CharSequence password, String salt) {
+        switch (version) {
+            case $1:
+                return Encryptors.text(password, salt);
+            case $2:
+                return Encryptors.delux(password, salt);
+            default:
+                throw new IllegalArgumentException(version + " is not based on TextEncryptor");
+        }
+    }
+
+    private byte[] cachedWrappingKey(CharSequence password, String pepperId, KeyDerivation kdf, String kdfSalt) {
+        String kdfParameters = String.join(TOKEN_VALUE_SEPARATOR, pepperId, kdf.spec(), kdfSalt);
+        return keyCache.getWrappingKey(password, kdfParameters, () -> deriveWrappingKey(password, pepperId, kdf, kdfSalt));
+    }
+
+    private byte[] deriveWrappingKey(CharSequence password, String pepperId, KeyDerivation kdf, String kdfSalt) {
+        return kdf.deriveKey(pepperedPassword(password, pepperId), hex(kdfSalt));
+    }
+
+    /**
+     * Zeroes wrapping key when done. Header (everything but encrypted payload) is authenticated.
+     */
+    private static byte[] aesGcm(int mode, byte[] wrappingKey, String keySalt, String header, byte[] nonce, byte[] input) {
+        byte[] key = Hkdf.derive(wrappingKey, hex(keySalt), KEY_INFO, 32);
+        DataProtectionKeyCache.SealedKey.zero(wrappingKey);
+        try {
+            Cipher cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(mode, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+            cipher.updateAAD(header.getBytes(StandardCharsets.UTF_8));
+            return cipher.doFinal(input);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to " + (mode == Cipher.ENCRYPT_MODE ? "encrypt" : "decrypt") + " data", e);
+        } finally {
+            DataProtectionKeyCache.SealedKey.zero(key);
+        }
+    }
+
+    /**
+     * Unwraps its own data like {@link #decryptData}, but with wrapping key that was derived once when decoy was created.
+     * Instead of deriving key again, sleeps until as much time has passed as that derivation took,
+     * so made up user names are not faster to reject than wrong passwords, and cost no more CPU than AES-GCM.
+     */
+    public class Decoy {
+        private final WrappedData data;
+        private final byte[] wrappingKey;
+        private final long derivationNanos;
+
+        Decoy(CharSequence password) {
+            data = WrappedData.parse(encryptData(password, "decoy"));
+            long started = System.nanoTime();
+            wrappingKey = deriveWrappingKey(password, data.pepperId, keyDerivation, data.kdfSalt);
+            derivationNanos = System.nanoTime() - started;
+        }
+
+        public void decrypt() {
+            long started = System.nanoTime();
+            unwrap(data, wrappingKey.clone());
+            Uninterruptibles.sleepUninterruptibly(derivationNanos - (System.nanoTime() - started), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String pepperedPassword(CharSequence password, String pepperId) {
+        return password + "." + pepperSource.getPepper(pepperId);
+    }
+
+    private static byte[] hex(String value) {
+        try {
+            return Hex.decodeHex(value.toCharArray());
+        } catch (DecoderException e) {
+            throw new IllegalArgumentException("Invalid salt: " + value, e);
+        }
+    }
+}
+
+/**
+ * Parts of encrypted data. Key derivation related parts are null for versions that are based on TextEncryptor.
+ */
+class WrappedData {
+    final Version version;
+    final String pepperId;
+    final String kdfSpec;
+    final String kdfSalt;
+    final String keySalt;
+    final String header;
+    final String payload;
+
+    private WrappedData(Version version, String pepperId, String[] parts, int kdfIndex) {
+        this.version = version;
+        this.pepperId = pepperId;
+        this.kdfSpec = version.wrapped ? parts[kdfIndex] : null;
+        this.kdfSalt = version.wrapped ? parts[kdfIndex + 1] : null;
+        this.keySalt = version.wrapped ? parts[kdfIndex + 2] : null;
+        this.header = String.join(TOKEN_VALUE_SEPARATOR, Arrays.copyOf(parts, parts.length - 1));
+        this.payload = parts[parts.length - 1];
+    }
+
+    static WrappedData parse(String encryptedData) {
+        String[] parts = encryptedData.split(ESCAPED_TOKEN_VALUE_SEPARATOR);
+        Version version = Version.valueOf(parts[0]);
+        if (version == Version.$4) {
+            return new WrappedData(version, parts[1], parts, 2);
+        }
+        return new WrappedData(version, PepperSource.LEGACY_PEPPER_ID, parts, 1);
     }
 }
 
+enum Version {
+    $1(false),
+    $2(false),
+    $3(true),
+    $4(true);
+
+    /**
+     * True when data is wrapped with key derived by {@link KeyDerivation}, false when it is protected with TextEncryptor
+     */
+    final boolean wrapped;
+
+    Version(boolean wrapped) {
+        this.wrapped = wrapped;
+    }
+}
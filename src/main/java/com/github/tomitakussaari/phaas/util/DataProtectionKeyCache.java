@@ -0,0 +1,177 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.apache.commons.codec.digest.HmacUtils.hmacSha256Hex;
+
+/**
+ * Keeps unwrapped data protection keys in memory, so that key needs to be decrypted with user's password only once,
+ * instead of once per request.
+ * <p>
+ * Cache key is scheme id and HMAC of user's password and encrypted key, so old password does not
+ * give access to key after password has been changed.
+ * Keys are held outside of java heap, and overwritten with zeroes when they are evicted.
+ * <p>
+ * Key wrapping keys derived from user's password (see {@link KeyDerivation}) are cached the same way,
+ * so that slow key derivation is done once per password instead of once per scheme.
+ */
+@Service
+@Slf4j
+public class DataProtectionKeyCache {
+
+    private final byte[] digestKey = KeyGenerators.secureRandom(32).generateKey();
+    private final Cache<CacheKey, SealedKey> keys;
+    private final Cache<CacheKey, SealedKey> wrappingKeys;
+
+    @Autowired
+    public DataProtectionKeyCache(Environment environment) {
+        this(environment.getProperty("phaas.key.cache.max-size", Long.class, 1000L),
+                environment.getProperty("phaas.key.cache.idle-seconds", Long.class, 300L));
+    }
+
+    public DataProtectionKeyCache(long maxSize, long idleSeconds) {
+        this.keys = sealedKeyCache(maxSize, idleSeconds);
+        this.wrappingKeys = sealedKeyCache(maxSize, idleSeconds);
+    }
+
+    public String get(int schemeId, CharSequence password, String encryptedKey, Supplier<String> unwrapper) {
+        CacheKey cacheKey = new CacheKey(schemeId, digest(password, encryptedKey));
+        String key = getOrLoad(keys, cacheKey, () -> new SealedKey(unwrapper.get())).reveal();
+        return key != null ? key : unwrapper.get(); //evicted and destroyed while we were reading it
+    }
+
+    /**
+     * @param kdfParameters key derivation function, its parameters and salt, everything besides password that affects derived key
+     * @return copy of cached key, caller may zero it after use
+     */
+    public byte[] getWrappingKey(CharSequence password, String kdfParameters, Supplier<byte[]> deriver) {
+        CacheKey cacheKey = new CacheKey(0, digest(password, kdfParameters));
+        byte[] key = getOrLoad(wrappingKeys, cacheKey, () -> new SealedKey(deriver.get())).revealBytes();
+        return key != null ? key : deriver.get();
+    }
+
+    public void put(int schemeId, CharSequence password, String encryptedKey, String key) {
+        get(schemeId, password, encryptedKey, () -> key);
+    }
+
+    public void clear() {
+        keys.invalidateAll();
+        wrappingKeys.invalidateAll();
+    }
+
+    long size() {
+        return keys.size();
+    }
+
+    long wrappingKeysSize() {
+        return wrappingKeys.size();
+    }
+
+    private String digest(CharSequence password, String context) {
+        return hmacSha256Hex(digestKey, (password + "." + context).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static SealedKey getOrLoad(Cache<CacheKey, SealedKey> cache, CacheKey cacheKey, Callable<SealedKey> loader) {
+        try {
+            return cache.get(cacheKey, loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static Cache<CacheKey, SealedKey> sealedKeyCache(long maxSize, long idleSeconds) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(idleSeconds, TimeUnit.SECONDS)
+                .removalListener((RemovalNotification<CacheKey, SealedKey> removed) -> removed.getValue().destroy())
+                .build();
+    }
+
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    private static class CacheKey {
+        private final int schemeId;
+        private final String digest;
+    }
+
+    /**
+     * Key held outside of java heap, until it is destroyed
+     */
+    public static class SealedKey {
+        private final ByteBuffer keyMaterial;
+        private boolean destroyed = false;
+
+        public SealedKey(String key) {
+            this(key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @param keyBytes zeroed after they have been copied
+         */
+        SealedKey(byte[] keyBytes) {
+            keyMaterial = ByteBuffer.allocateDirect(keyBytes.length);
+            keyMaterial.put(keyBytes);
+            zero(keyBytes);
+        }
+
+        /**
+         * @return key, or null if key has been destroyed
+         */
+        public synchronized String reveal() {
+            byte[] keyBytes = revealBytes();
+            if (keyBytes == null) {
+                return null;
+            }
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            zero(keyBytes);
+            return key;
+        }
+
+        synchronized byte[] revealBytes() {
+            if (destroyed) {
+                return null;
+            }
+            byte[] keyBytes = new byte[keyMaterial.capacity()];
+            for (int i = 0; i < keyBytes.length; i++) {
+                keyBytes[i] = keyMaterial.get(i);
+            }
+            return keyBytes;
+        }
+
+        public synchronized void destroy() {
+            for (int i = 0; i < keyMaterial.capacity(); i++) {
+                keyMaterial.put(i, (byte) 0);
+            }
+            destroyed = true;
+        }
+
+        synchronized boolean isDestroyed() {
+            return destroyed;
+        }
+
+        static void zero(byte[] bytes) {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = 0;
+            }
+        }
+    }
+}
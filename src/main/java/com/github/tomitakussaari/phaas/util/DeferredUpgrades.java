@@ -0,0 +1,131 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
+import com.github.tomitakussaari.phaas.model.PasswordUpgradeResult;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.apache.commons.codec.digest.HmacUtils.hmacSha256Hex;
+
+/**
+ * Moves rehashing of passwords into new protection scheme out of verify requests, when phaas.upgrade.mode is deferred.
+ * <p>
+ * Verify returns ticket right away, and hash is computed in low priority background pool. Upgraded hash is then
+ * available with the ticket, and is also returned by next verify of same old hash. Ticket is HMAC of old hash and
+ * new scheme, so repeated verifies share the same upgrade. Upgrades are kept only in this instance.
+ * When pool queue is full, nothing is queued, and password is upgraded on some later verify.
+ */
+@Service
+@Slf4j
+public class DeferredUpgrades {
+
+    private static final String DELIMITER = "\n";
+
+    private final byte[] ticketKey = KeyGenerators.secureRandom(32).generateKey();
+    private final boolean enabled;
+    private final ThreadPoolExecutor pool;
+    private final Cache<String, CompletableFuture<Optional<String>>> upgrades;
+
+    @Autowired
+    public DeferredUpgrades(Environment environment) {
+        this("deferred".equalsIgnoreCase(environment.getProperty("phaas.upgrade.mode", "inline")),
+                environment.getProperty("phaas.upgrade.threads", Integer.class, 1),
+                environment.getProperty("phaas.upgrade.queue-size", Integer.class, 1000),
+                environment.getProperty("phaas.upgrade.ticket-ttl-seconds", Long.class, 600L));
+    }
+
+    DeferredUpgrades(boolean enabled, int threads, int queueSize, long ticketTtlSeconds) {
+        this.enabled = enabled;
+        this.pool = enabled ? new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setDaemon(true).setPriority(Thread.MIN_PRIORITY).setNameFormat("phaas-upgrade-%d").build()) : null;
+        this.upgrades = CacheBuilder.newBuilder()
+                .maximumSize(enabled ? threads + queueSize * 2L : 0)
+                .expireAfterWrite(ticketTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * For classes that are created outside of Spring context, upgrades are done inline
+     */
+    public static DeferredUpgrades disabled() {
+        return new DeferredUpgrades(false, 0, 0, 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param rehash computes new hash, or returns empty if password can not be upgraded
+     */
+    public Upgrade upgrade(String oldHash, CryptoData target, Supplier<Optional<String>> rehash) {
+        String ticket = hmacSha256Hex(ticketKey, (oldHash + DELIMITER + target.getScheme().getId() + DELIMITER + target.getScheme().getEncryptedKeyWithSalt())
+                .getBytes(StandardCharsets.UTF_8));
+        CompletableFuture<Optional<String>> upgrade;
+        try {
+            upgrade = upgrades.get(ticket, () -> CompletableFuture.supplyAsync(rehash, pool));
+        } catch (ExecutionException | UncheckedExecutionException queueFull) {
+            log.debug("Unable to queue password upgrade: {}", queueFull.getMessage());
+            return new Upgrade(Optional.empty(), null);
+        }
+        if (!upgrade.isDone()) {
+            return new Upgrade(Optional.empty(), ticket);
+        }
+        if (upgrade.isCompletedExceptionally()) {
+            upgrades.invalidate(ticket); // retried on next verify
+            return new Upgrade(Optional.empty(), null);
+        }
+        return new Upgrade(upgrade.join(), null);
+    }
+
+    /**
+     * @return empty, if there is no upgrade with given ticket (or it has expired)
+     */
+    public Optional<PasswordUpgradeResult> find(String ticket) {
+        return Optional.ofNullable(upgrades.getIfPresent(ticket)).map(upgrade -> {
+            if (!upgrade.isDone()) {
+                return PasswordUpgradeResult.pending();
+            }
+            return PasswordUpgradeResult.done(upgrade.isCompletedExceptionally() ? Optional.empty() : upgrade.join());
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    public static class Upgrade {
+        /**
+         * present, if upgrade was already done
+         */
+        private final Optional<String> upgradedHash;
+        /**
+         * null, if upgrade was done or could not be queued
+         */
+        private final String ticket;
+    }
+}
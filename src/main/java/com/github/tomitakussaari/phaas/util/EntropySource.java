@@ -0,0 +1,140 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Source of random salts, nonces and ids, that does not block or contend between request threads.
+ * <p>
+ * Every thread has its own SHA1PRNG generator, seeded from non-blocking OS entropy pool (DRBG would need Java 9).
+ * Salts are additionally buffered in lock-free queue, and buffer is refilled in background when it gets below
+ * half full, so that request threads normally only take ready made salt from queue.
+ */
+@Service
+@Slf4j
+public class EntropySource {
+
+    public static final int SALT_LENGTH = 16;
+    private static final int SEED_LENGTH = 32;
+    private static final SecureRandom osEntropy = new SecureRandom();
+
+    private final ThreadLocal<SecureRandom> generators = ThreadLocal.withInitial(EntropySource::newGenerator);
+    private final Queue<byte[]> salts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferedSalts = new AtomicInteger();
+    private final int saltBufferSize;
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final ExecutorService refiller = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("phaas-entropy-%d").build());
+
+    @Autowired
+    public EntropySource(Environment environment) {
+        this(environment.getProperty("phaas.entropy.salt-buffer-size", Integer.class, 1024));
+    }
+
+    EntropySource(int saltBufferSize) {
+        this.saltBufferSize = saltBufferSize;
+    }
+
+    /**
+     * For classes that are created outside of Spring context
+     */
+    public static EntropySource defaultSource() {
+        return DefaultSource.INSTANCE;
+    }
+
+    @PostConstruct
+    public void fill() {
+        refill();
+    }
+
+    @PreDestroy
+    public void close() {
+        refiller.shutdownNow();
+    }
+
+    public byte[] salt() {
+        int buffered = bufferedSalts.getAndUpdate(count -> Math.max(0, count - 1));
+        byte[] salt = buffered > 0 ? salts.poll() : null; // salts are counted after they are queued, so counted salt is there
+        if (buffered <= saltBufferSize / 2) {
+            refill();
+        }
+        return salt != null ? salt : randomBytes(SALT_LENGTH);
+    }
+
+    public byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        generators.get().nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return type 4 (random) UUID, like {@link UUID#randomUUID()} but without shared generator
+     */
+    public UUID randomUUID() {
+        byte[] bytes = randomBytes(16);
+        bytes[6] = (byte) ((bytes[6] & 0x0f) | 0x40);
+        bytes[8] = (byte) ((bytes[8] & 0x3f) | 0x80);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    int bufferedSalts() {
+        return bufferedSalts.get();
+    }
+
+    private void refill() {
+        if (refilling.compareAndSet(false, true)) {
+            try {
+                refiller.execute(() -> {
+                    try {
+                        while (bufferedSalts.get() < saltBufferSize) { // only refiller adds, so buffer never overflows
+                            salts.offer(randomBytes(SALT_LENGTH));
+                            bufferedSalts.incrementAndGet();
+                        }
+                    } finally {
+                        refilling.set(false);
+                    }
+                    if (bufferedSalts.get() < saltBufferSize) {
+                        refill(); // salts were taken after buffer was full, but before refilling ended
+                    }
+                });
+            } catch (RuntimeException e) {
+                refilling.set(false);
+                log.debug("Unable to refill salt buffer", e);
+            }
+        }
+    }
+
+    private static SecureRandom newGenerator() {
+        SecureRandom generator;
+        try {
+            generator = SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+        byte[] seed = new byte[SEED_LENGTH];
+        osEntropy.nextBytes(seed);
+        generator.setSeed(seed);
+        return generator;
+    }
+
+    private static class DefaultSource {
+        private static final EntropySource INSTANCE = new EntropySource(256);
+    }
+}
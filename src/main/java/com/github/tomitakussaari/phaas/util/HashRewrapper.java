@@ -0,0 +1,202 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
+import com.github.tomitakussaari.phaas.model.HashRewrapItem;
+import com.github.tomitakussaari.phaas.model.LegacyHashAlgorithm;
+import com.github.tomitakussaari.phaas.model.ProtectedPasswordHash;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
+
+import static com.github.tomitakussaari.phaas.util.JsonHelper.objectMapper;
+
+/**
+ * Moves stored password hashes from older protection scheme to active one, without users' passwords.
+ * <p>
+ * Inner hash is only decrypted with old scheme key and encrypted again with active scheme key, so this runs at AES speed.
+ * That is possible only when both schemes use same unkeyed algorithm (inner hash carries its own cost parameters),
+ * old scheme does not need more memory than active one, and inner hash has at least cost parameters of active scheme,
+ * so that rewrapped hash is never weaker than hashes of active scheme. Other hashes are still upgraded when users log in,
+ * as are weaker hashes that only had their format updated within active scheme.
+ * Hashes of other systems can be imported same way, see {@link #importHash}. Schemes with server relief are never
+ * rewrapped, as their inner hashes are made from client hashes, not from passwords.
+ * <p>
+ * Input and output are NDJSON, one {@link HashRewrapItem} per line, output lines are in same order as input lines.
+ * At most {@code window} items are in memory at once, and they are processed by {@code parallelism} threads.
+ */
+@Slf4j
+public class HashRewrapper {
+
+    private static final ObjectReader itemReader = objectMapper.readerFor(HashRewrapItem.class);
+    private static final ObjectWriter itemWriter = objectMapper.writerFor(HashRewrapItem.class).without(SerializationFeature.INDENT_OUTPUT);
+
+    private final PasswordHashCipher hashCipher;
+    private final ExecutorService workers;
+    private final int window;
+
+    public HashRewrapper(EntropySource entropySource, int parallelism, int window) {
+        this.hashCipher = new PasswordHashCipher(entropySource);
+        this.workers = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("phaas-rewrap-%d").build());
+        this.window = window;
+    }
+
+    public HashRewrapper() {
+        this(EntropySource.defaultSource(), Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    /**
+     * @param schemes user's protection schemes by id, each is asked for only once
+     * @param target  active scheme, that hashes are moved into
+     */
+    public Summary rewrapAll(Reader input, Writer output, IntFunction<CryptoData> schemes, CryptoData target) throws IOException {
+        Map<Integer, CryptoData> cryptoDataBySchemeId = new ConcurrentHashMap<>();
+        cryptoDataBySchemeId.put(target.getScheme().getId(), target);
+        IntFunction<CryptoData> sharedSchemes = id -> cryptoDataBySchemeId.computeIfAbsent(id, schemes::apply);
+        return processAll(input, output, hash -> rewrap(hash, sharedSchemes, target));
+    }
+
+    /**
+     * Like {@link #rewrapAll}, but input hashes are hashes of other systems, see {@link #importHash}
+     */
+    public Summary importAll(Reader input, Writer output, CryptoData target) throws IOException {
+        return processAll(input, output, hash -> importHash(hash, target));
+    }
+
+    /**
+     * @return hash protected with target scheme, or given hash if it already is
+     */
+    public String rewrap(String protectedHash, IntFunction<CryptoData> schemes, CryptoData target) {
+        ProtectedPasswordHash hash = ProtectedPasswordHash.parse(protectedHash);
+        DataProtectionScheme targetScheme = target.getScheme();
+        if (hash.getSchemeId() == targetScheme.getId() && hash.getFormat() == ProtectedPasswordHash.Format.V2) {
+            return protectedHash;
+        }
+        CryptoData source = schemes.apply(hash.getSchemeId());
+        DataProtectionScheme sourceScheme = source.getScheme();
+        if (sourceScheme.isServerRelief() || targetScheme.isServerRelief()) {
+            throw new IllegalArgumentException("Hash of scheme " + sourceScheme.getId() + " can not be rewrapped into scheme " + targetScheme.getId()
+                    + ", schemes with server relief are not rewrapped");
+        }
+        String hashedPassword = hashCipher.decrypt(source, hash);
+        if (LegacyHashAlgorithm.importedHash(hashedPassword).isPresent()) {
+            return hashCipher.encrypt(target, hashedPassword).getHash(); // imported hashes do not depend on scheme algorithm
+        }
+        if (sourceScheme.getAlgorithm() != targetScheme.getAlgorithm() || sourceScheme.getAlgorithm().requiresKey()) {
+            throw new IllegalArgumentException("Hash of " + sourceScheme.getAlgorithm() + " scheme " + sourceScheme.getId()
+                    + " can not be rewrapped into " + targetScheme.getAlgorithm() + " scheme " + targetScheme.getId());
+        }
+        if (sourceScheme.memoryCostKiB() > targetScheme.memoryCostKiB()) {
+            throw new IllegalArgumentException("Hash of scheme " + sourceScheme.getId() + " needs more memory than scheme " + targetScheme.getId());
+        }
+        if (sourceScheme.getId() != targetScheme.getId() && targetScheme.isWeakerHash(hashedPassword)) {
+            throw new IllegalArgumentException("Hash of scheme " + sourceScheme.getId() + " has lower cost parameters than scheme " + targetScheme.getId()
+                    + ", it is upgraded when user logs in");
+        }
+        return hashCipher.encrypt(target, hashedPassword).getHash();
+    }
+
+    /**
+     * @param legacyHash bcrypt, PBKDF2 or scrypt hash of other system, see {@link LegacyHashAlgorithm}
+     * @return legacy hash protected with target scheme, it is verified with its own algorithm and upgraded on successful verify
+     */
+    public String importHash(String legacyHash, CryptoData target) {
+        if (target.getScheme().isServerRelief()) {
+            throw new IllegalArgumentException("Hashes can not be imported into scheme " + target.getScheme().getId() + " with server relief");
+        }
+        return hashCipher.encrypt(target, LegacyHashAlgorithm.imported(legacyHash)).getHash();
+    }
+
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private Summary processAll(Reader input, Writer output, UnaryOperator<String> operation) throws IOException {
+        Summary summary = new Summary();
+        Deque<CompletableFuture<HashRewrapItem>> inFlight = new ArrayDeque<>(window);
+        BufferedReader reader = new BufferedReader(input);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String item = line;
+            inFlight.addLast(CompletableFuture.supplyAsync(() -> processLine(item, operation), workers));
+            if (inFlight.size() >= window) {
+                write(inFlight.removeFirst().join(), output, summary);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            write(inFlight.removeFirst().join(), output, summary);
+        }
+        output.flush();
+        return summary;
+    }
+
+    private HashRewrapItem processLine(String line, UnaryOperator<String> operation) {
+        HashRewrapItem item;
+        try {
+            item = itemReader.readValue(line);
+        } catch (IOException | RuntimeException e) {
+            return HashRewrapItem.failure(null, null, "Invalid line: " + e.getMessage());
+        }
+        if (item.getHash() == null) {
+            return HashRewrapItem.failure(item.getId(), null, "Hash is missing");
+        }
+        try {
+            String rewrapped = operation.apply(item.getHash());
+            return rewrapped.equals(item.getHash()) ? item.unchanged() : item.rewrapped(rewrapped);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return HashRewrapItem.failure(item.getId(), item.getHash(), e.getMessage());
+        } catch (RuntimeException e) {
+            log.warn("Unable to rewrap hash: " + e.getMessage(), e);
+            return HashRewrapItem.failure(item.getId(), item.getHash(), "Internal error");
+        }
+    }
+
+    private static void write(HashRewrapItem item, Writer output, Summary summary) throws IOException {
+        output.write(itemWriter.writeValueAsString(item));
+        output.write('\n');
+        summary.count(item);
+    }
+
+    @Getter
+    public static class Summary {
+        private long rewrapped;
+        private long unchanged;
+        private long failed;
+
+        private void count(HashRewrapItem item) {
+            if (item.getError() != null) {
+                failed++;
+            } else if (item.isRewrapped()) {
+                rewrapped++;
+            } else {
+                unchanged++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "rewrapped=" + rewrapped + " unchanged=" + unchanged + " failed=" + failed;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.tomitakussaari.phaas.util;
+
+import lombok.experimental.UtilityClass;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * HMAC-SHA256 based key derivation function (RFC 5869), for deriving subkeys from keys that already have enough entropy.
+ */
+@UtilityClass
+public class Hkdf {
+
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+
+    public static byte[] derive(byte[] inputKey, byte[] salt, byte[] info, int length) {
+        if (length > 255 * HASH_LENGTH) {
+            throw new IllegalArgumentException("Too long key requested: " + length);
+        }
+        byte[] pseudoRandomKey = hmac(salt.length > 0 ? salt : new byte[HASH_LENGTH], inputKey);
+        byte[] output = new byte[length];
+        byte[] previous = new byte[0];
+        int offset = 0;
+        for (int counter = 1; offset < length; counter++) {
+            Mac mac = mac(pseudoRandomKey);
+            mac.update(previous);
+            mac.update(info);
+            mac.update((byte) counter);
+            previous = mac.doFinal();
+            int toCopy = Math.min(previous.length, length - offset);
+            System.arraycopy(previous, 0, output, offset, toCopy);
+            offset += toCopy;
+        }
+        return output;
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) {
+        return mac(key).doFinal(data);
+    }
+
+    private static Mac mac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA256);
+            mac.init(new SecretKeySpec(key, HMAC_SHA256));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.apache.commons.codec.digest.HmacUtils.hmacSha256Hex;
+
+/**
+ * Remembers results of requests that had Idempotency-Key header, so that retried request gets earlier result
+ * instead of computing it again. Retry that arrives while original is still running waits for it.
+ * <p>
+ * Results are kept per user, at most phaas.idempotency.max-keys-per-user keys for phaas.idempotency.ttl-seconds.
+ * Failed requests are forgotten, so that they can be retried. Key that is reused for different request is rejected,
+ * requests are compared by HMAC, so that passwords are not kept in memory.
+ */
+@Service
+public class IdempotentResults {
+
+    private final byte[] fingerprintKey = KeyGenerators.secureRandom(32).generateKey();
+    private final long maxKeysPerUser;
+    private final long ttlSeconds;
+    private final Cache<String, Cache<String, Result>> resultsByUser;
+
+    @Autowired
+    public IdempotentResults(Environment environment) {
+        this(environment.getProperty("phaas.idempotency.max-users", Long.class, 1000L),
+                environment.getProperty("phaas.idempotency.max-keys-per-user", Long.class, 1000L),
+                environment.getProperty("phaas.idempotency.ttl-seconds", Long.class, 300L));
+    }
+
+    IdempotentResults(long maxUsers, long maxKeysPerUser, long ttlSeconds) {
+        this.maxKeysPerUser = maxKeysPerUser;
+        this.ttlSeconds = ttlSeconds;
+        this.resultsByUser = CacheBuilder.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * @param idempotencyKey key given by client, or null if operation should just be done
+     * @param request        identifies request, so that key can not be reused for another request
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T remember(String user, String idempotencyKey, String request, Supplier<T> operation) {
+        if (idempotencyKey == null) {
+            return operation.get();
+        }
+        Cache<String, Result> results = resultsFor(user);
+        Result ownResult = new Result(hmacSha256Hex(fingerprintKey, request.getBytes(StandardCharsets.UTF_8)), new CompletableFuture<>());
+        Result result = results.asMap().putIfAbsent(idempotencyKey, ownResult);
+        if (result != null) {
+            if (!result.fingerprint.equals(ownResult.fingerprint)) {
+                throw new IdempotencyKeyReusedException("Idempotency-Key " + idempotencyKey + " was already used for another request");
+            }
+            return (T) join(result.value);
+        }
+        try {
+            T value = operation.get();
+            ownResult.value.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            results.asMap().remove(idempotencyKey, ownResult);
+            ownResult.value.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Cache<String, Result> resultsFor(String user) {
+        try {
+            return resultsByUser.get(user, () -> CacheBuilder.newBuilder()
+                    .maximumSize(maxKeysPerUser)
+                    .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                    .build());
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static Object join(CompletableFuture<Object> value) {
+        try {
+            return value.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Result {
+        private final String fingerprint;
+        private final CompletableFuture<Object> value;
+    }
+
+    public static class IdempotencyKeyReusedException extends IllegalArgumentException {
+        public IdempotencyKeyReusedException(String message) {
+            super(message);
+        }
+    }
+}
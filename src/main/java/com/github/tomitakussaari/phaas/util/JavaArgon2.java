@@ -0,0 +1,366 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.LongBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Argon2 (RFC 9106) in plain Java, producing same hashes and encoded strings as libargon2 reference implementation.
+ * <p>
+ * Memory matrix is taken from {@link ArenaPool}. Lanes of hash are filled in parallel, like libargon2 does with threads.
+ * Secret key and associated data are not supported, as libargon2 encoded hashes can not have them either.
+ */
+public final class JavaArgon2 {
+
+    public static final int VERSION_10 = 0x10;
+    public static final int VERSION_13 = 0x13;
+
+    private static final int BLOCK_LONGS = 128;
+    private static final int BLOCK_BYTES = BLOCK_LONGS * Long.BYTES;
+    private static final int SYNC_POINTS = 4;
+
+    private final ArenaPool arenas;
+
+    public JavaArgon2(ArenaPool arenas) {
+        this.arenas = arenas;
+    }
+
+    public enum Type {
+        ARGON2D("argon2d"), ARGON2I("argon2i"), ARGON2ID("argon2id");
+
+        private final String name;
+
+        Type(String name) {
+            this.name = name;
+        }
+
+        public String hashPrefix() {
+            return "$" + name + "$";
+        }
+    }
+
+    /**
+     * @return encoded hash, like {@code $argon2i$v=19$m=65536,t=2,p=2$<salt>$<hash>}
+     */
+    public String hash(Type type, int iterations, int memoryKiB, int lanes, byte[] password, byte[] salt, int hashLength) {
+        byte[] hash = rawHash(type, VERSION_13, iterations, memoryKiB, lanes, password, salt, hashLength);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return type.hashPrefix() + "v=" + VERSION_13 + "$m=" + memoryKiB + ",t=" + iterations + ",p=" + lanes
+                + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+    }
+
+    /**
+     * @return true, if encoded hash is of given type, and was made from password. False for malformed hashes
+     */
+    public boolean verify(Type type, String encoded, byte[] password) {
+        if (encoded == null || !encoded.startsWith(type.hashPrefix())) {
+            return false;
+        }
+        String[] fields = encoded.substring(type.hashPrefix().length()).split("\\$", -1);
+        try {
+            int version = VERSION_10;
+            int field = 0;
+            if (fields.length == 4 && fields[0].startsWith("v=")) {
+                version = Integer.parseInt(fields[field++].substring(2));
+            } else if (fields.length != 3) {
+                return false;
+            }
+            Map<String, Integer> parameters = new HashMap<>();
+            for (String parameter : fields[field++].split(",")) {
+                String[] nameAndValue = parameter.split("=", 2);
+                parameters.put(nameAndValue[0], Integer.valueOf(nameAndValue[1]));
+            }
+            byte[] salt = Base64.getDecoder().decode(fields[field++]);
+            byte[] expected = Base64.getDecoder().decode(fields[field]);
+            if ((version != VERSION_10 && version != VERSION_13) || !parameters.keySet().containsAll(Arrays.asList("m", "t", "p"))) {
+                return false;
+            }
+            byte[] actual = rawHash(type, version, parameters.get("t"), parameters.get("m"), parameters.get("p"), password, salt, expected.length);
+            return MessageDigest.isEqual(expected, actual);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    byte[] rawHash(Type type, int version, int iterations, int memoryKiB, int lanes, byte[] password, byte[] salt, int hashLength) {
+        Preconditions.checkArgument(iterations >= 1, "Argon2 requires at least one iteration");
+        Preconditions.checkArgument(lanes >= 1 && lanes <= 0xffffff, "Argon2 requires between 1 and 2^24-1 lanes");
+        Preconditions.checkArgument(memoryKiB >= 8 * lanes, "Argon2 requires at least 8 KiB memory per lane");
+        Preconditions.checkArgument(salt.length >= 8, "Argon2 requires at least 8 byte salt");
+        Preconditions.checkArgument(hashLength >= 4, "Argon2 requires at least 4 byte hash");
+        Instance instance = new Instance(type, version, iterations, memoryKiB, lanes);
+        byte[] h0 = initialHash(instance, password, salt, hashLength);
+        try (ArenaPool.Arena arena = arenas.acquire((long) instance.memoryBlocks * BLOCK_BYTES)) {
+            LongBuffer memory = arena.longs();
+            Lane[] laneStates = new Lane[lanes];
+            for (int lane = 0; lane < lanes; lane++) {
+                laneStates[lane] = new Lane(instance, memory, lane);
+                laneStates[lane].fillFirstBlocks(h0);
+            }
+            for (int pass = 0; pass < iterations; pass++) {
+                for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                    int currentPass = pass;
+                    int currentSlice = slice;
+                    if (lanes == 1) {
+                        laneStates[0].fillSegment(currentPass, currentSlice);
+                    } else {
+                        IntStream.range(0, lanes).parallel().forEach(lane -> laneStates[lane].fillSegment(currentPass, currentSlice));
+                    }
+                }
+            }
+            return finalHash(instance, memory, hashLength);
+        }
+    }
+
+    private static byte[] initialHash(Instance instance, byte[] password, byte[] salt, int hashLength) {
+        return new Blake2b(64)
+                .update(instance.lanes).update(hashLength).update(instance.memoryKiB).update(instance.iterations)
+                .update(instance.version).update(instance.type.ordinal())
+                .update(password.length).update(password)
+                .update(salt.length).update(salt)
+                .update(0).update(0) // secret and associated data
+                .digest();
+    }
+
+    private static byte[] finalHash(Instance instance, LongBuffer memory, int hashLength) {
+        long[] last = new long[BLOCK_LONGS];
+        long[] block = new long[BLOCK_LONGS];
+        for (int lane = 0; lane < instance.lanes; lane++) {
+            memory.position((lane + 1) * instance.laneLength * BLOCK_LONGS - BLOCK_LONGS);
+            memory.get(block);
+            for (int i = 0; i < BLOCK_LONGS; i++) {
+                last[i] ^= block[i];
+            }
+        }
+        byte[] bytes = new byte[BLOCK_BYTES];
+        for (int i = 0; i < BLOCK_BYTES; i++) {
+            bytes[i] = (byte) (last[i >> 3] >>> (8 * (i & 7)));
+        }
+        return variableLengthHash(hashLength, bytes);
+    }
+
+    /**
+     * H' of RFC 9106, BLAKE2b with output of any length
+     */
+    static byte[] variableLengthHash(int length, byte[]... inputs) {
+        Blake2b first = new Blake2b(Math.min(length, 64)).update(length);
+        for (byte[] input : inputs) {
+            first.update(input);
+        }
+        if (length <= 64) {
+            return first.digest();
+        }
+        byte[] out = new byte[length];
+        byte[] v = first.digest();
+        int position = 0;
+        while (length - position > 64) {
+            System.arraycopy(v, 0, out, position, 32);
+            position += 32;
+            if (length - position > 64) {
+                v = Blake2b.hash(64, v);
+            }
+        }
+        v = Blake2b.hash(length - position, v);
+        System.arraycopy(v, 0, out, position, length - position);
+        return out;
+    }
+
+    private static final class Instance {
+        private final Type type;
+        private final int version;
+        private final int iterations;
+        private final int memoryKiB;
+        private final int lanes;
+        private final int memoryBlocks;
+        private final int laneLength;
+        private final int segmentLength;
+
+        private Instance(Type type, int version, int iterations, int memoryKiB, int lanes) {
+            this.type = type;
+            this.version = version;
+            this.iterations = iterations;
+            this.memoryKiB = memoryKiB;
+            this.lanes = lanes;
+            this.segmentLength = memoryKiB / (lanes * SYNC_POINTS);
+            this.laneLength = segmentLength * SYNC_POINTS;
+            this.memoryBlocks = laneLength * lanes;
+        }
+    }
+
+    /**
+     * State of one lane, so lanes can be filled concurrently
+     */
+    private static final class Lane {
+        private final Instance instance;
+        private final LongBuffer memory;
+        private final int lane;
+        private long[] previous = new long[BLOCK_LONGS];
+        private long[] next = new long[BLOCK_LONGS];
+        private final long[] reference = new long[BLOCK_LONGS];
+        private final long[] scratch = new long[BLOCK_LONGS];
+        private final long[] zeros = new long[BLOCK_LONGS];
+        private final long[] input = new long[BLOCK_LONGS];
+        private final long[] addresses = new long[BLOCK_LONGS];
+
+        private Lane(Instance instance, LongBuffer memory, int lane) {
+            this.instance = instance;
+            this.memory = memory.duplicate();
+            this.lane = lane;
+        }
+
+        private void fillFirstBlocks(byte[] h0) {
+            for (int block = 0; block < 2; block++) {
+                byte[] bytes = variableLengthHash(BLOCK_BYTES, h0, littleEndian(block), littleEndian(lane));
+                for (int i = 0; i < BLOCK_LONGS; i++) {
+                    next[i] = Blake2b.littleEndianLong(bytes, i * Long.BYTES);
+                }
+                write(lane * instance.laneLength + block, next);
+            }
+        }
+
+        private void fillSegment(int pass, int slice) {
+            boolean dataIndependent = instance.type == Type.ARGON2I || (instance.type == Type.ARGON2ID && pass == 0 && slice < SYNC_POINTS / 2);
+            if (dataIndependent) {
+                Arrays.fill(input, 0);
+                input[0] = pass;
+                input[1] = lane;
+                input[2] = slice;
+                input[3] = instance.memoryBlocks;
+                input[4] = instance.iterations;
+                input[5] = instance.type.ordinal();
+            }
+            int startingIndex = 0;
+            if (pass == 0 && slice == 0) {
+                startingIndex = 2;
+                if (dataIndependent) {
+                    nextAddresses();
+                }
+            }
+            int laneStart = lane * instance.laneLength;
+            int currentOffset = laneStart + slice * instance.segmentLength + startingIndex;
+            read(currentOffset == laneStart ? laneStart + instance.laneLength - 1 : currentOffset - 1, previous);
+            boolean withXor = instance.version != VERSION_10 && pass != 0;
+            for (int index = startingIndex; index < instance.segmentLength; index++, currentOffset++) {
+                long pseudoRandom;
+                if (dataIndependent) {
+                    if (index % BLOCK_LONGS == 0) {
+                        nextAddresses();
+                    }
+                    pseudoRandom = addresses[index % BLOCK_LONGS];
+                } else {
+                    pseudoRandom = previous[0];
+                }
+                int referenceLane = (int) ((pseudoRandom >>> 32) % instance.lanes);
+                if (pass == 0 && slice == 0) {
+                    referenceLane = lane;
+                }
+                int referenceIndex = referenceIndex(pass, slice, index, pseudoRandom & 0xffffffffL, referenceLane == lane);
+                read(referenceLane * instance.laneLength + referenceIndex, reference);
+                if (withXor) {
+                    read(currentOffset, next);
+                }
+                compress(previous, reference, next, withXor, scratch);
+                write(currentOffset, next);
+                long[] computed = next;
+                next = previous;
+                previous = computed;
+            }
+        }
+
+        private int referenceIndex(int pass, int slice, int index, long pseudoRandom, boolean sameLane) {
+            long segmentLength = instance.segmentLength;
+            long referenceArea;
+            if (pass == 0) {
+                if (slice == 0) {
+                    referenceArea = index - 1;
+                } else if (sameLane) {
+                    referenceArea = slice * segmentLength + index - 1;
+                } else {
+                    referenceArea = slice * segmentLength + (index == 0 ? -1 : 0);
+                }
+            } else if (sameLane) {
+                referenceArea = instance.laneLength - segmentLength + index - 1;
+            } else {
+                referenceArea = instance.laneLength - segmentLength + (index == 0 ? -1 : 0);
+            }
+            long relativePosition = (pseudoRandom * pseudoRandom) >>> 32;
+            relativePosition = referenceArea - 1 - ((referenceArea * relativePosition) >>> 32);
+            long startPosition = pass != 0 && slice != SYNC_POINTS - 1 ? (slice + 1) * segmentLength : 0;
+            return (int) ((startPosition + relativePosition) % instance.laneLength);
+        }
+
+        private void nextAddresses() {
+            input[6]++;
+            compress(zeros, input, addresses, false, scratch);
+            compress(zeros, addresses, addresses, false, scratch);
+        }
+
+        private void read(int block, long[] into) {
+            memory.position(block * BLOCK_LONGS);
+            memory.get(into);
+        }
+
+        private void write(int block, long[] from) {
+            memory.position(block * BLOCK_LONGS);
+            memory.put(from);
+        }
+    }
+
+    /**
+     * Compression function G: out = P(x ^ y) ^ x ^ y, additionally xored with old out when withXor. Out may be same array as x or y.
+     */
+    private static void compress(long[] x, long[] y, long[] out, boolean withXor, long[] r) {
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            r[i] = x[i] ^ y[i];
+        }
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            out[i] = withXor ? out[i] ^ r[i] : r[i];
+        }
+        for (int i = 0; i < 8; i++) {
+            int row = 16 * i;
+            round(r, row, row + 1, row + 2, row + 3, row + 4, row + 5, row + 6, row + 7,
+                    row + 8, row + 9, row + 10, row + 11, row + 12, row + 13, row + 14, row + 15);
+        }
+        for (int i = 0; i < 8; i++) {
+            int column = 2 * i;
+            round(r, column, column + 1, column + 16, column + 17, column + 32, column + 33, column + 48, column + 49,
+                    column + 64, column + 65, column + 80, column + 81, column + 96, column + 97, column + 112, column + 113);
+        }
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            out[i] ^= r[i];
+        }
+    }
+
+    private static void round(long[] v, int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                              int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+        mix(v, v0, v4, v8, v12);
+        mix(v, v1, v5, v9, v13);
+        mix(v, v2, v6, v10, v14);
+        mix(v, v3, v7, v11, v15);
+        mix(v, v0, v5, v10, v15);
+        mix(v, v1, v6, v11, v12);
+        mix(v, v2, v7, v8, v13);
+        mix(v, v3, v4, v9, v14);
+    }
+
+    private static void mix(long[] v, int a, int b, int c, int d) {
+        v[a] = v[a] + v[b] + 2 * (v[a] & 0xffffffffL) * (v[b] & 0xffffffffL);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+        v[c] = v[c] + v[d] + 2 * (v[c] & 0xffffffffL) * (v[d] & 0xffffffffL);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+        v[a] = v[a] + v[b] + 2 * (v[a] & 0xffffffffL) * (v[b] & 0xffffffffL);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+        v[c] = v[c] + v[d] + 2 * (v[c] & 0xffffffffL) * (v[d] & 0xffffffffL);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+    }
+
+    private static byte[] littleEndian(int value) {
+        return new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)};
+    }
+}
@@ -25,6 +25,16 @@ import static java.time.LocalDateTime.now;
 
 public class JwtHelper {
 
+    private final EntropySource entropySource;
+
+    public JwtHelper(EntropySource entropySource) {
+        this.entropySource = entropySource;
+    }
+
+    public JwtHelper() {
+        this(EntropySource.defaultSource());
+    }
+
     private static SignedJWT decryptAndVerifySignature(JWEObject jweObject, CryptoData cryptoData) throws JOSEException {
         jweObject.decrypt(new DirectDecrypter(cryptoData.getDataProtectionKey().getBytes()));
         SignedJWT signedJWT = jweObject.getPayload().toSignedJWT();
@@ -69,7 +79,7 @@ public class JwtHelper {
         try {
             CryptoData cryptoData = userDetails.currentlyActiveCryptoData();
 
-            Builder claimSetBuilder = new Builder().jwtID(UUID.randomUUID().toString()).issueTime(new Date()).issuer(userDetails.getUsername());
+            Builder claimSetBuilder = new Builder().jwtID(entropySource.randomUUID().toString()).issueTime(new Date()).issuer(userDetails.getUsername());
             validityTime.ifPresent(ttl -> claimSetBuilder.expirationTime(Date.from(now().plus(ttl).atZone(ZoneId.systemDefault()).toInstant())));
             claims.forEach(claimSetBuilder::claim);
             SignedJWT jwt = signedToken(cryptoData, claimSetBuilder);
@@ -0,0 +1,63 @@
+package com.github.tomitakussaari.phaas.util;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.env.Environment;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * Slow, password based key derivation used for wrapping data protection keys.
+ * Serialized as {@code <ALGORITHM>:<iterations>} into wrapped data, so configuration can be changed without breaking old data.
+ */
+@RequiredArgsConstructor
+@Getter
+@EqualsAndHashCode
+public class KeyDerivation {
+
+    static final KeyDerivation DEFAULT = new KeyDerivation(Algorithm.PBKDF2_SHA256, 100_000);
+    private static final String SPEC_SEPARATOR = ":";
+    private static final int KEY_LENGTH_BITS = 256;
+
+    @NonNull
+    private final Algorithm algorithm;
+    private final int iterations;
+
+    static KeyDerivation fromEnvironment(Environment environment) {
+        return new KeyDerivation(
+                Algorithm.valueOf(environment.getProperty("phaas.key.wrapping.kdf", DEFAULT.algorithm.name())),
+                environment.getProperty("phaas.key.wrapping.iterations", Integer.class, DEFAULT.iterations));
+    }
+
+    static KeyDerivation parse(String spec) {
+        String[] algorithmAndIterations = spec.split(SPEC_SEPARATOR);
+        return new KeyDerivation(Algorithm.valueOf(algorithmAndIterations[0]), Integer.parseInt(algorithmAndIterations[1]));
+    }
+
+    String spec() {
+        return algorithm.name() + SPEC_SEPARATOR + iterations;
+    }
+
+    byte[] deriveKey(CharSequence password, byte[] salt) {
+        PBEKeySpec keySpec = new PBEKeySpec(password.toString().toCharArray(), salt, iterations, KEY_LENGTH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(algorithm.jceName).generateSecret(keySpec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to derive key with " + spec(), e);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    @RequiredArgsConstructor
+    public enum Algorithm {
+        PBKDF2_SHA256("PBKDF2WithHmacSHA256"),
+        PBKDF2_SHA512("PBKDF2WithHmacSHA512");
+
+        private final String jceName;
+    }
+}
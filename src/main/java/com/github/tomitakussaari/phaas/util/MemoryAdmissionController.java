@@ -0,0 +1,194 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.OptionalLong;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Limits how much memory in-flight password hashing operations (Argon2 allocates its whole memory cost
+ * outside of heap for every hash and verify) may reserve at the same time.
+ * <p>
+ * Operations that do not fit into budget wait in bounded queue, and are rejected with
+ * {@link AdmissionRejectedException} when queue is full or waiting takes too long,
+ * so that bursts make service slower or return 503, instead of getting it killed for running out of memory.
+ * <p>
+ * Budget is read from phaas.argon2.memory-budget-mb, or derived from container (cgroup) memory limit:
+ * half of what is left after max heap size.
+ */
+@Component
+@Slf4j
+public class MemoryAdmissionController {
+
+    private static final long UNLIMITED_CGROUP_LIMIT = 1L << 60;
+    private static final int DEFAULT_OPERATION_KIB = 65536;
+    private static final Path[] CGROUP_LIMIT_FILES = {
+            Paths.get("/sys/fs/cgroup/memory.max"),
+            Paths.get("/sys/fs/cgroup/memory/memory.limit_in_bytes")
+    };
+
+    private final int budgetKiB;
+    private final int maxQueue;
+    private final long maxWaitMillis;
+    private final long retryAfterSeconds;
+    private final Semaphore reservations;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Counter rejected;
+
+    @Autowired
+    public MemoryAdmissionController(Environment environment, MetricRegistry metricRegistry) {
+        this(budgetKiB(environment.getProperty("phaas.argon2.memory-budget-mb", Long.class)),
+                environment.getProperty("phaas.argon2.admission.max-queue", Integer.class, 64),
+                environment.getProperty("phaas.argon2.admission.max-wait-millis", Long.class, 5000L),
+                environment.getProperty("phaas.argon2.admission.retry-after-seconds", Long.class, 1L),
+                metricRegistry);
+    }
+
+    MemoryAdmissionController(int budgetKiB, int maxQueue, long maxWaitMillis, long retryAfterSeconds, MetricRegistry metricRegistry) {
+        this.budgetKiB = budgetKiB;
+        this.maxQueue = maxQueue;
+        this.maxWaitMillis = maxWaitMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.reservations = new Semaphore(budgetKiB, true);
+        this.rejected = metricRegistry.counter("argon2.admission.rejected");
+        metricRegistry.register("argon2.admission.queue-depth", (Gauge<Integer>) waiting::get);
+        metricRegistry.register("argon2.admission.reserved-bytes", (Gauge<Long>) this::reservedBytes);
+        metricRegistry.register("argon2.admission.budget-bytes", (Gauge<Long>) () -> budgetKiB * 1024L);
+        log.info("Memory budget for password hashing is {} MB, max {} operations waiting", budgetKiB / 1024, maxQueue);
+    }
+
+    /**
+     * For classes that are created outside of Spring context: nothing is ever rejected
+     */
+    public static MemoryAdmissionController unlimited() {
+        return new MemoryAdmissionController(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, 1, new MetricRegistry());
+    }
+
+    /**
+     * Runs operation once given amount of memory has been reserved for it.
+     * Operations needing more than whole budget are run alone.
+     */
+    public <T> T withReservation(int memoryKiB, Supplier<T> operation) {
+        if (memoryKiB <= 0) {
+            return operation.get();
+        }
+        int permits = Math.min(memoryKiB, budgetKiB);
+        acquire(permits);
+        try {
+            return operation.get();
+        } finally {
+            reservations.release(permits);
+        }
+    }
+
+    int memoryBudgetKiB() {
+        return budgetKiB;
+    }
+
+    long reservedBytes() {
+        return (budgetKiB - (long) reservations.availablePermits()) * 1024;
+    }
+
+    int queueDepth() {
+        return waiting.get();
+    }
+
+    private void acquire(int permits) {
+        try {
+            if (reservations.tryAcquire(permits, 0, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            if (waiting.incrementAndGet() > maxQueue) {
+                waiting.decrementAndGet();
+                throw reject("too many password hashing operations waiting for memory");
+            }
+            try {
+                if (!reservations.tryAcquire(permits, maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                    throw reject("timed out waiting for memory for password hashing");
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject("interrupted while waiting for memory for password hashing");
+        }
+    }
+
+    private AdmissionRejectedException reject(String reason) {
+        rejected.inc();
+        return new AdmissionRejectedException(reason, retryAfterSeconds);
+    }
+
+    static int budgetKiB(Long configuredBudgetMb) {
+        if (configuredBudgetMb != null) {
+            return toKiB(configuredBudgetMb * 1024 * 1024);
+        }
+        OptionalLong containerLimit = containerMemoryLimit();
+        if (containerLimit.isPresent()) {
+            return budgetKiB(containerLimit.getAsLong(), Runtime.getRuntime().maxMemory());
+        }
+        log.info("Container memory limit not found, allowing one password hashing operation per processor");
+        return Runtime.getRuntime().availableProcessors() * DEFAULT_OPERATION_KIB;
+    }
+
+    static int budgetKiB(long containerLimitBytes, long maxHeapBytes) {
+        return Math.max(DEFAULT_OPERATION_KIB, toKiB((containerLimitBytes - maxHeapBytes) / 2));
+    }
+
+    static OptionalLong parseCgroupLimit(String value) {
+        String limit = value.trim();
+        if (limit.isEmpty() || "max".equals(limit)) {
+            return OptionalLong.empty();
+        }
+        long bytes = Long.parseLong(limit);
+        return bytes >= UNLIMITED_CGROUP_LIMIT ? OptionalLong.empty() : OptionalLong.of(bytes);
+    }
+
+    private static OptionalLong containerMemoryLimit() {
+        for (Path limitFile : CGROUP_LIMIT_FILES) {
+            if (Files.isReadable(limitFile)) {
+                try {
+                    return parseCgroupLimit(new String(Files.readAllBytes(limitFile), StandardCharsets.US_ASCII));
+                } catch (IOException | NumberFormatException e) {
+                    log.warn("Unable to read memory limit from {}", limitFile, e);
+                }
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    private static int toKiB(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, bytes / 1024));
+    }
+
+    /**
+     * Service is temporarily out of memory budget, client should retry after {@link #getRetryAfterSeconds()}
+     */
+    public static class AdmissionRejectedException extends IllegalStateException {
+        private final long retryAfterSeconds;
+
+        public AdmissionRejectedException(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+}
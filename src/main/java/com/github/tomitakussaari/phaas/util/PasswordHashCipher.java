@@ -0,0 +1,73 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
+import com.github.tomitakussaari.phaas.model.ProtectedPasswordHash;
+import com.github.tomitakussaari.phaas.model.ProtectedPasswordHash.Format;
+import org.springframework.security.crypto.encrypt.Encryptors;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+/**
+ * Encrypts password hashes into {@link ProtectedPasswordHash} envelopes, and decrypts them back.
+ * New hashes are always encrypted in V2 format, legacy format is still understood when decrypting.
+ */
+public class PasswordHashCipher {
+
+    private static final String AES_GCM = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final byte[] KEY_INFO = "phaas-password-hash-v2".getBytes(StandardCharsets.UTF_8);
+
+    private final EntropySource entropySource;
+
+    public PasswordHashCipher(EntropySource entropySource) {
+        this.entropySource = entropySource;
+    }
+
+    public PasswordHashCipher() {
+        this(EntropySource.defaultSource());
+    }
+
+    public ProtectedPasswordHash encrypt(CryptoData cryptoData, String hashedPassword) {
+        int schemeId = cryptoData.getScheme().getId();
+        byte[] nonce = entropySource.randomBytes(NONCE_LENGTH);
+        byte[] encrypted = aesGcm(Cipher.ENCRYPT_MODE, cryptoData, schemeId, nonce, hashedPassword.getBytes(StandardCharsets.UTF_8));
+        return new ProtectedPasswordHash(Format.V2, schemeId, base64(nonce), base64(encrypted));
+    }
+
+    public String decrypt(CryptoData cryptoData, ProtectedPasswordHash protectedHash) {
+        if (protectedHash.getFormat() == Format.LEGACY) {
+            return Encryptors.text(cryptoData.getDataProtectionKey(), protectedHash.getSalt()).decrypt(protectedHash.getEncryptedHash());
+        }
+        Base64.Decoder decoder = Base64.getUrlDecoder();
+        byte[] decrypted = aesGcm(Cipher.DECRYPT_MODE, cryptoData, protectedHash.getSchemeId(),
+                decoder.decode(protectedHash.getSalt()), decoder.decode(protectedHash.getEncryptedHash()));
+        return new String(decrypted, StandardCharsets.UTF_8);
+    }
+
+    public static SecretKey hashEncryptionKey(String dataProtectionKey) {
+        byte[] key = Hkdf.derive(dataProtectionKey.getBytes(StandardCharsets.UTF_8), new byte[0], KEY_INFO, 32);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    private static byte[] aesGcm(int mode, CryptoData cryptoData, int schemeId, byte[] nonce, byte[] input) {
+        try {
+            Cipher cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(mode, cryptoData.getHashEncryptionKey(), new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+            cipher.updateAAD(Format.V2.additionalData(schemeId).getBytes(StandardCharsets.UTF_8));
+            return cipher.doFinal(input);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to " + (mode == Cipher.ENCRYPT_MODE ? "encrypt" : "decrypt") + " password hash", e);
+        }
+    }
+
+    private static String base64(byte[] data) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+    }
+}
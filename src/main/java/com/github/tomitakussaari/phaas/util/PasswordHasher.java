@@ -1,18 +1,33 @@
 package com.github.tomitakussaari.phaas.util;
 
+import com.github.tomitakussaari.phaas.model.Argon2Engine;
 import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
 import com.github.tomitakussaari.phaas.model.HashedPassword;
 import com.github.tomitakussaari.phaas.model.PasswordHashRequest;
-import org.springframework.security.crypto.encrypt.Encryptors;
-import org.springframework.security.crypto.encrypt.TextEncryptor;
-import org.springframework.security.crypto.keygen.KeyGenerators;
 
 public class PasswordHasher {
 
+    private final PasswordHashCipher hashCipher;
+    private final MemoryAdmissionController admissionController;
+    private final Argon2Engine.Selection engines;
+
+    public PasswordHasher(EntropySource entropySource, MemoryAdmissionController admissionController, Argon2Engine.Selection engines) {
+        this.hashCipher = new PasswordHashCipher(entropySource);
+        this.admissionController = admissionController;
+        this.engines = engines;
+    }
+
+    public PasswordHasher(EntropySource entropySource, MemoryAdmissionController admissionController) {
+        this(entropySource, admissionController, Argon2Engine.Selection.defaults());
+    }
+
+    public PasswordHasher() {
+        this(EntropySource.defaultSource(), MemoryAdmissionController.unlimited());
+    }
+
     public HashedPassword hash(PasswordHashRequest request, CryptoData protectionScheme) {
-        String salt = KeyGenerators.string().generateKey();
-        TextEncryptor encryptor = Encryptors.text(protectionScheme.getDataProtectionKey(), salt);
-        String hashedPassword = protectionScheme.getScheme().passwordEncoder().encode(request.getRawPassword());
-        return HashedPassword.from(protectionScheme.getScheme().getId(), salt, encryptor.encrypt(hashedPassword));
+        String hashedPassword = admissionController.withReservation(protectionScheme.getScheme().memoryCostKiB(),
+                () -> protectionScheme.passwordEncoder(engines).encode(request.getRawPassword()));
+        return HashedPassword.from(hashCipher.encrypt(protectionScheme, hashedPassword));
     }
 }
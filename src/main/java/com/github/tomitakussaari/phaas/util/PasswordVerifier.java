@@ -1,30 +1,106 @@
 package com.github.tomitakussaari.phaas.util;
 
+import com.github.tomitakussaari.phaas.model.Argon2Engine;
 import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
+import com.github.tomitakussaari.phaas.model.InsufficientEntropyException;
+import com.github.tomitakussaari.phaas.model.LegacyHashAlgorithm;
 import com.github.tomitakussaari.phaas.model.PasswordHashRequest;
 import com.github.tomitakussaari.phaas.model.PasswordVerifyRequest;
 import com.github.tomitakussaari.phaas.model.PasswordVerifyResult;
-import org.springframework.security.crypto.encrypt.Encryptors;
-import org.springframework.security.crypto.encrypt.TextEncryptor;
 
 import java.util.Optional;
 
 public class PasswordVerifier {
 
-    private final PasswordHasher passwordReHasher = new PasswordHasher();
+    private final PasswordHasher passwordReHasher;
+    private final PasswordHashCipher hashCipher;
+    private final MemoryAdmissionController admissionController;
+    private final DeferredUpgrades deferredUpgrades;
+    private final VerifyCoalescer verifyCoalescer;
+    private final Argon2Engine.Selection engines;
+
+    public PasswordVerifier(EntropySource entropySource, MemoryAdmissionController admissionController, DeferredUpgrades deferredUpgrades,
+                            VerifyCoalescer verifyCoalescer, Argon2Engine.Selection engines) {
+        this.passwordReHasher = new PasswordHasher(entropySource, admissionController, engines);
+        this.hashCipher = new PasswordHashCipher(entropySource);
+        this.admissionController = admissionController;
+        this.deferredUpgrades = deferredUpgrades;
+        this.verifyCoalescer = verifyCoalescer;
+        this.engines = engines;
+    }
+
+    public PasswordVerifier(EntropySource entropySource, MemoryAdmissionController admissionController, DeferredUpgrades deferredUpgrades,
+                            VerifyCoalescer verifyCoalescer) {
+        this(entropySource, admissionController, deferredUpgrades, verifyCoalescer, Argon2Engine.Selection.defaults());
+    }
+
+    public PasswordVerifier(EntropySource entropySource, MemoryAdmissionController admissionController, DeferredUpgrades deferredUpgrades) {
+        this(entropySource, admissionController, deferredUpgrades, VerifyCoalescer.withoutCache());
+    }
+
+    public PasswordVerifier(EntropySource entropySource, MemoryAdmissionController admissionController) {
+        this(entropySource, admissionController, DeferredUpgrades.disabled());
+    }
+
+    public PasswordVerifier() {
+        this(EntropySource.defaultSource(), MemoryAdmissionController.unlimited());
+    }
 
     public PasswordVerifyResult verify(PasswordVerifyRequest request, CryptoData schemeForRequest, CryptoData activeSchemeForUser) {
-        TextEncryptor decryptor = Encryptors.text(schemeForRequest.getDataProtectionKey(), request.encryptionSalt());
-        String hashedPassword = decryptor.decrypt(request.encryptedPasswordHash());
-        boolean passwordValid = schemeForRequest.getScheme().passwordEncoder().matches(request.getPasswordCandidate(), hashedPassword);
-        Optional<String> upgradedHash = getUpgradedHash(request, schemeForRequest, activeSchemeForUser, passwordValid);
-        return new PasswordVerifyResult(upgradedHash, passwordValid);
+        String hashedPassword = hashCipher.decrypt(schemeForRequest, request.getProtectedHash());
+        Optional<String> importedHash = LegacyHashAlgorithm.importedHash(hashedPassword);
+        boolean passwordValid = verifyCoalescer.verify(schemeForRequest.getScheme(), request.getHash(), request.getPasswordCandidate(),
+                () -> importedHash.isPresent() ? matchesImported(request, importedHash.get()) : matches(request, schemeForRequest, hashedPassword));
+        if (!passwordValid || isUpToDate(schemeForRequest, activeSchemeForUser, hashedPassword, importedHash) || !canUpgrade(schemeForRequest, activeSchemeForUser, importedHash)) {
+            return new PasswordVerifyResult(Optional.empty(), passwordValid);
+        }
+        if (deferredUpgrades.isEnabled()) {
+            DeferredUpgrades.Upgrade upgrade = deferredUpgrades.upgrade(request.getHash(), activeSchemeForUser, () -> getUpgradedHash(request, activeSchemeForUser));
+            return new PasswordVerifyResult(upgrade.getUpgradedHash(), true, upgrade.getTicket());
+        }
+        return new PasswordVerifyResult(getUpgradedHash(request, activeSchemeForUser), true);
+    }
+
+    /**
+     * Hash of active scheme is upgraded too, if it was made with lower cost parameters than active scheme uses (cost was raised, or hash was rewrapped)
+     */
+    private static boolean isUpToDate(CryptoData schemeForRequest, CryptoData activeSchemeForUser, String hashedPassword, Optional<String> importedHash) {
+        return !importedHash.isPresent() && schemeForRequest.getScheme().getId() == activeSchemeForUser.getScheme().getId()
+                && !activeSchemeForUser.getScheme().isWeakerHash(hashedPassword);
+    }
+
+    /**
+     * With server relief, candidate is client hash made with parameters and salt of its own scheme, so it can not be hashed with other scheme.
+     * Client gets to know active scheme from users API, and hashes password again itself.
+     * <p>
+     * Secrets that were hashed with slow algorithm are passwords, even if they look like API keys, so they are never moved to fast keyed hash.
+     */
+    private static boolean canUpgrade(CryptoData schemeForRequest, CryptoData activeSchemeForUser, Optional<String> importedHash) {
+        boolean intoKeyedHash = activeSchemeForUser.getScheme().getAlgorithm().requiresKey();
+        boolean fromKeyedHash = !importedHash.isPresent() && schemeForRequest.getScheme().getAlgorithm().requiresKey();
+        return (!intoKeyedHash || fromKeyedHash) && !schemeForRequest.getScheme().isServerRelief() && !activeSchemeForUser.getScheme().isServerRelief();
+    }
+
+    private boolean matches(PasswordVerifyRequest request, CryptoData schemeForRequest, String hashedPassword) {
+        return admissionController.withReservation(schemeForRequest.getScheme().memoryCostKiB(),
+                () -> schemeForRequest.passwordEncoder(engines).matches(request.getPasswordCandidate(), hashedPassword));
+    }
+
+    /**
+     * Imported hashes are verified with algorithm of their own format, regardless of scheme that protects them
+     */
+    private boolean matchesImported(PasswordVerifyRequest request, String importedHash) {
+        LegacyHashAlgorithm algorithm = LegacyHashAlgorithm.findForHash(importedHash)
+                .orElseThrow(() -> new IllegalStateException("Unrecognized imported hash format"));
+        return admissionController.withReservation(algorithm.memoryCostKiB(importedHash),
+                () -> algorithm.matches(request.getPasswordCandidate(), importedHash));
     }
 
-    private Optional<String> getUpgradedHash(PasswordVerifyRequest request, CryptoData currentScheme, CryptoData newScheme, boolean passwordValid) {
-        if (currentScheme.getScheme().getId() != newScheme.getScheme().getId() && passwordValid) {
+    private Optional<String> getUpgradedHash(PasswordVerifyRequest request, CryptoData newScheme) {
+        try {
             return Optional.of(passwordReHasher.hash(new PasswordHashRequest(request.getPasswordCandidate()), newScheme).getHash());
+        } catch (InsufficientEntropyException e) {
+            return Optional.empty(); // password is valid, but can not be upgraded to new scheme
         }
-        return Optional.empty();
     }
 }
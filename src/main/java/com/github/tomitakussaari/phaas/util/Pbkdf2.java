@@ -0,0 +1,42 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.google.common.base.Preconditions;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+
+/**
+ * PBKDF2 (RFC 8018) with output of any length, as needed by {@link Scrypt} and for verifying imported PBKDF2 hashes.
+ * Computed by JCE provider, like {@link KeyDerivation}. Provider encodes password as UTF-8, and requires non-empty salt.
+ */
+public final class Pbkdf2 {
+
+    private static final String ALGORITHM_PREFIX = "PBKDF2With";
+
+    private Pbkdf2() {
+    }
+
+    /**
+     * @param macAlgorithm JCE name of HMAC, like HmacSHA256
+     */
+    public static byte[] derive(String macAlgorithm, char[] password, byte[] salt, int iterations, int length) {
+        Preconditions.checkArgument(iterations >= 1, "PBKDF2 requires at least one iteration");
+        Preconditions.checkArgument(length >= 1 && length <= Integer.MAX_VALUE / 8, "PBKDF2 output length must be between 1 and %s bytes", Integer.MAX_VALUE / 8);
+        SecretKeyFactory keyFactory;
+        try {
+            keyFactory = SecretKeyFactory.getInstance(ALGORITHM_PREFIX + macAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(ALGORITHM_PREFIX + macAlgorithm + " is not available", e);
+        }
+        PBEKeySpec keySpec = new PBEKeySpec(password, salt, iterations, length * 8);
+        try {
+            return keyFactory.generateSecret(keySpec).getEncoded();
+        } catch (InvalidKeySpecException e) {
+            throw new IllegalArgumentException("Unable to derive key with " + ALGORITHM_PREFIX + macAlgorithm + ": " + e.getMessage(), e);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+}
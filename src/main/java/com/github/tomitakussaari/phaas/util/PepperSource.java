@@ -1,9 +1,11 @@
 package com.github.tomitakussaari.phaas.util;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.env.Environment;
@@ -16,33 +18,150 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 
 import static org.springframework.http.HttpMethod.GET;
 
+/**
+ * Pepper that is mixed into user's password when protecting data protection keys.
+ * <p>
+ * Besides single (legacy) pepper from {@code phaas.pepper.source}, there can be a ring of versioned peppers
+ * in {@code phaas.pepper.ring.source}, one {@code <id>=<pepper>} per line, last line being the current pepper.
+ * Legacy pepper has id {@value #LEGACY_PEPPER_ID}. Ring is refreshed in background, and peppers are never
+ * dropped from it, so data protected with older peppers stays readable.
+ * To rotate, first add new pepper before current one, and move it last once all instances have seen it.
+ */
 @Service
+@Slf4j
 public class PepperSource {
 
-    private final String pepper;
+    public static final String LEGACY_PEPPER_ID = "0";
+    private static final Pattern PEPPER_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final String ringUrl;
+    private volatile PepperRing ring;
+    private ScheduledExecutorService refresher;
 
     @Autowired
     public PepperSource(Environment environment) {
-        this(loadPepperFrom(environment.getProperty("phaas.pepper.source", "string://")));
+        this(loadPepperFrom(environment.getProperty("phaas.pepper.source", "string://")), environment.getProperty("phaas.pepper.ring.source"));
+        if (ringUrl != null) {
+            startRefreshing(environment.getProperty("phaas.pepper.ring.refresh-seconds", Long.class, 300L));
+        }
     }
 
     public PepperSource(String pepper) {
-        this.pepper = pepper;
+        this(pepper, null);
     }
 
+    PepperSource(String legacyPepper, String ringUrl) {
+        this.ringUrl = ringUrl;
+        this.ring = new PepperRing(Collections.singletonMap(LEGACY_PEPPER_ID, legacyPepper), LEGACY_PEPPER_ID);
+        if (ringUrl != null) {
+            refresh();
+        }
+    }
 
+    /**
+     * @return current pepper, used for protecting new data
+     */
     public String getPepper() {
+        return getPepper(currentPepperId());
+    }
+
+    public String currentPepperId() {
+        return ring.currentId;
+    }
+
+    public String getPepper(String id) {
+        String pepper = ring.peppers.get(id);
+        if (pepper == null) {
+            throw new IllegalStateException("Unknown pepper: " + id);
+        }
         return pepper;
     }
 
+    /**
+     * Reloads pepper ring from its source. Peppers that are no longer listed are kept, and existing ids can not be given new value.
+     */
+    void refresh() {
+        String content = loadPepperFrom(ringUrl);
+        ring = ring.merge(parseRing(content));
+        log.info("Pepper ring has {} peppers, current pepper is {}", ring.peppers.size(), ring.currentId);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    private void startRefreshing(long refreshSeconds) {
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("phaas-pepper-%d").build());
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                log.warn("Unable to refresh pepper ring, using previous one", e);
+            }
+        }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    static LinkedHashMap<String, String> parseRing(String content) {
+        LinkedHashMap<String, String> peppers = new LinkedHashMap<>();
+        for (String line : content.split("\\r?\\n")) {
+            if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                continue;
+            }
+            int separator = line.indexOf('=');
+            Preconditions.checkArgument(separator > 0, "Pepper ring lines must be in format <id>=<pepper>");
+            String id = line.substring(0, separator).trim();
+            Preconditions.checkArgument(PEPPER_ID.matcher(id).matches(), "Invalid pepper id: %s", id);
+            peppers.remove(id);
+            peppers.put(id, line.substring(separator + 1));
+        }
+        Preconditions.checkArgument(!peppers.isEmpty(), "Pepper ring is empty");
+        return peppers;
+    }
+
+    private static class PepperRing {
+        private final Map<String, String> peppers;
+        private final String currentId;
+
+        PepperRing(Map<String, String> peppers, String currentId) {
+            this.peppers = Collections.unmodifiableMap(new LinkedHashMap<>(peppers));
+            this.currentId = currentId;
+        }
+
+        PepperRing merge(LinkedHashMap<String, String> loaded) {
+            Map<String, String> merged = new LinkedHashMap<>(peppers);
+            String newCurrentId = currentId;
+            for (Map.Entry<String, String> pepper : loaded.entrySet()) {
+                String existing = merged.putIfAbsent(pepper.getKey(), pepper.getValue());
+                if (existing == null || existing.equals(pepper.getValue())) {
+                    newCurrentId = pepper.getKey();
+                } else {
+                    log.warn("Pepper {} has changed, ignoring new value", pepper.getKey());
+                    newCurrentId = currentId;
+                }
+            }
+            return new PepperRing(merged, newCurrentId);
+        }
+    }
+
     private static String loadPepperFrom(@NonNull String url) {
         for (Source source : Source.values()) {
             if (url.toLowerCase().startsWith(source.name().toLowerCase())) {
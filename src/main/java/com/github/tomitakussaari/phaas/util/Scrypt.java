@@ -0,0 +1,140 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * scrypt (RFC 7914), for verifying imported scrypt hashes. Outer PBKDF2 is computed by JCE provider, see {@link Pbkdf2}.
+ */
+public final class Scrypt {
+
+    private Scrypt() {
+    }
+
+    /**
+     * @param n CPU/memory cost, power of two
+     * @param r block size
+     * @param p parallelism, lanes are computed one after another
+     */
+    public static byte[] derive(char[] password, byte[] salt, int n, int r, int p, int length) {
+        Preconditions.checkArgument(n > 1 && (n & (n - 1)) == 0, "scrypt N must be power of two larger than 1");
+        Preconditions.checkArgument(r >= 1 && p >= 1, "scrypt r and p must be positive");
+        Preconditions.checkArgument((long) 32 * r * n <= Integer.MAX_VALUE && (long) 128 * r * p <= Integer.MAX_VALUE / 8,
+                "scrypt parameters are too large");
+        byte[] b = Pbkdf2.derive("HmacSHA256", password, salt, 1, 128 * r * p);
+        int[] x = new int[32 * r];
+        int[] y = new int[32 * r];
+        int[] v = new int[32 * r * n];
+        int[] block = new int[16];
+        for (int lane = 0; lane < p; lane++) {
+            smix(b, lane * 128 * r, r, n, x, y, v, block);
+        }
+        return Pbkdf2.derive("HmacSHA256", password, b, 1, length);
+    }
+
+    /**
+     * @return memory that deriving needs with given parameters
+     */
+    public static long memoryCostKiB(int n, int r) {
+        return (long) 128 * r * n / 1024;
+    }
+
+    private static void smix(byte[] b, int offset, int r, int n, int[] x, int[] y, int[] v, int[] block) {
+        int words = 32 * r;
+        for (int i = 0; i < words; i++) {
+            int at = offset + i * 4;
+            x[i] = (b[at] & 0xff) | (b[at + 1] & 0xff) << 8 | (b[at + 2] & 0xff) << 16 | (b[at + 3] & 0xff) << 24;
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * words, words);
+            blockMix(x, y, block, r);
+        }
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1);
+            for (int k = 0; k < words; k++) {
+                x[k] ^= v[j * words + k];
+            }
+            blockMix(x, y, block, r);
+        }
+        for (int i = 0; i < words; i++) {
+            int at = offset + i * 4;
+            b[at] = (byte) x[i];
+            b[at + 1] = (byte) (x[i] >>> 8);
+            b[at + 2] = (byte) (x[i] >>> 16);
+            b[at + 3] = (byte) (x[i] >>> 24);
+        }
+    }
+
+    /**
+     * Mixes b in place, using y and block as scratch space
+     */
+    private static void blockMix(int[] b, int[] y, int[] block, int r) {
+        System.arraycopy(b, (2 * r - 1) * 16, block, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                block[k] ^= b[i * 16 + k];
+            }
+            salsa20(block);
+            // even blocks go to first half and odd blocks to second half
+            System.arraycopy(block, 0, y, ((i & 1) * r + i / 2) * 16, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    /**
+     * Salsa20/8 core
+     */
+    private static void salsa20(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0;
+        b[1] += x1;
+        b[2] += x2;
+        b[3] += x3;
+        b[4] += x4;
+        b[5] += x5;
+        b[6] += x6;
+        b[7] += x7;
+        b[8] += x8;
+        b[9] += x9;
+        b[10] += x10;
+        b[11] += x11;
+        b[12] += x12;
+        b[13] += x13;
+        b[14] += x14;
+        b[15] += x15;
+    }
+}
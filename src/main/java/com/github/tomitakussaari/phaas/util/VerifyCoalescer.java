@@ -0,0 +1,160 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Makes concurrent verifications of same password candidate against same hash share one password hash computation.
+ * <p>
+ * Requests are matched by HMAC of scheme, protected hash and password candidate, under key that exists only in memory
+ * of this instance. Results can additionally be kept for very short time (phaas.verify.cache.ttl-millis, disabled by default),
+ * to absorb client retries. Digests are overwritten with zeroes when they are evicted, or when request is done with them.
+ */
+@Service
+public class VerifyCoalescer {
+
+    private static final byte[] DELIMITER = {0};
+
+    private final SecretKeySpec digestKey = new SecretKeySpec(KeyGenerators.secureRandom(32).generateKey(), "HmacSHA256");
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+    private final ConcurrentMap<Digest, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final Cache<Digest, Boolean> recentResults;
+
+    @Autowired
+    public VerifyCoalescer(Environment environment) {
+        this(environment.getProperty("phaas.verify.cache.ttl-millis", Long.class, 0L),
+                environment.getProperty("phaas.verify.cache.max-size", Long.class, 10000L));
+    }
+
+    VerifyCoalescer(long cacheTtlMillis, long cacheMaxSize) {
+        this.recentResults = cacheTtlMillis > 0 ? CacheBuilder.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(cacheTtlMillis, TimeUnit.MILLISECONDS)
+                .removalListener((RemovalNotification<Digest, Boolean> removed) -> removed.getKey().destroy())
+                .build() : null;
+    }
+
+    /**
+     * For classes that are created outside of Spring context
+     */
+    public static VerifyCoalescer withoutCache() {
+        return new VerifyCoalescer(0, 0);
+    }
+
+    public boolean verify(DataProtectionScheme scheme, String protectedHash, CharSequence passwordCandidate, Supplier<Boolean> verification) {
+        Digest digest = digest(scheme, protectedHash, passwordCandidate);
+        try {
+            Boolean recentResult = recentResults != null ? recentResults.getIfPresent(digest) : null;
+            if (recentResult != null) {
+                return recentResult;
+            }
+            CompletableFuture<Boolean> ownVerification = new CompletableFuture<>();
+            CompletableFuture<Boolean> sameVerification = inFlight.putIfAbsent(digest, ownVerification);
+            if (sameVerification != null) {
+                return join(sameVerification);
+            }
+            try {
+                boolean result = verification.get();
+                ownVerification.complete(result);
+                if (recentResults != null) {
+                    recentResults.put(digest.copy(), result);
+                }
+                return result;
+            } catch (RuntimeException e) {
+                ownVerification.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(digest, ownVerification);
+            }
+        } finally {
+            digest.destroy();
+        }
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    private static boolean join(CompletableFuture<Boolean> verification) {
+        try {
+            return verification.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private Digest digest(DataProtectionScheme scheme, String protectedHash, CharSequence passwordCandidate) {
+        Mac mac = macs.get();
+        mac.update(String.valueOf(scheme.getId()).getBytes(StandardCharsets.UTF_8));
+        mac.update(DELIMITER);
+        mac.update(scheme.getEncryptedKeyWithSalt().getBytes(StandardCharsets.UTF_8));
+        mac.update(DELIMITER);
+        mac.update(protectedHash.getBytes(StandardCharsets.UTF_8));
+        mac.update(DELIMITER);
+        byte[] candidate = passwordCandidate.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            return new Digest(mac.doFinal(candidate));
+        } finally {
+            Arrays.fill(candidate, (byte) 0);
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(digestKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static final class Digest {
+        private final byte[] bytes;
+        private final int hashCode;
+
+        private Digest(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        Digest copy() {
+            return new Digest(bytes.clone());
+        }
+
+        void destroy() {
+            Arrays.fill(bytes, (byte) 0);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Digest && Arrays.equals(bytes, ((Digest) other).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.github.tomitakussaari.phaas.api;
 
+import com.github.tomitakussaari.phaas.model.InsufficientEntropyException;
+import com.github.tomitakussaari.phaas.util.BatchExecutor.BatchTooLargeException;
+import com.github.tomitakussaari.phaas.util.IdempotentResults.IdempotencyKeyReusedException;
+import com.github.tomitakussaari.phaas.util.MemoryAdmissionController.AdmissionRejectedException;
 import org.junit.Test;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -38,4 +43,32 @@ public class ExceptionAdvisorTest {
         assertThat(error.getBody().getReason()).isEqualTo("not available");
     }
 
+    @Test
+    public void mapsInsufficientEntropyExceptionToHttp400() {
+        ResponseEntity<ExceptionAdvisor.ErrorMessage> error = new ExceptionAdvisor().insufficientEntropy(new InsufficientEntropyException("too short"));
+        assertThat(error.getStatusCode().value()).isEqualTo(400);
+        assertThat(error.getBody().getReason()).isEqualTo("too short");
+    }
+
+    @Test
+    public void mapsAdmissionRejectedExceptionToHttp503WithRetryAfter() {
+        ResponseEntity<ExceptionAdvisor.ErrorMessage> error = new ExceptionAdvisor().admissionRejected(new AdmissionRejectedException("queue is full", 2));
+        assertThat(error.getStatusCode().value()).isEqualTo(503);
+        assertThat(error.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("2");
+        assertThat(error.getBody().getReason()).isEqualTo("queue is full");
+    }
+
+    @Test
+    public void mapsBatchTooLargeExceptionToHttp413() {
+        ResponseEntity<ExceptionAdvisor.ErrorMessage> error = new ExceptionAdvisor().batchTooLarge(new BatchTooLargeException("too many"));
+        assertThat(error.getStatusCode().value()).isEqualTo(413);
+        assertThat(error.getBody().getReason()).isEqualTo("too many");
+    }
+
+    @Test
+    public void mapsIdempotencyKeyReusedExceptionToHttp422() {
+        ResponseEntity<ExceptionAdvisor.ErrorMessage> error = new ExceptionAdvisor().idempotencyKeyReused(new IdempotencyKeyReusedException("reused"));
+        assertThat(error.getStatusCode().value()).isEqualTo(422);
+        assertThat(error.getBody().getReason()).isEqualTo("reused");
+    }
 }
@@ -0,0 +1,29 @@
+package com.github.tomitakussaari.phaas.api;
+
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+import static com.github.tomitakussaari.phaas.user.UsersService.ROLE.USER;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricsApiIntegrationTest extends IT {
+
+    @Test
+    public void returnsAuthenticationCacheMetricsForAdmin() {
+        authenticatedWebTarget().path("/users/me").request().accept(MediaType.APPLICATION_JSON).get(Map.class);
+        Map metrics = authenticatedWebTarget().path("/metrics").request().accept(MediaType.APPLICATION_JSON).get(Map.class);
+        assertThat(((Number) metrics.get("authentication.cache.hits")).longValue()).isGreaterThanOrEqualTo(1L);
+        assertThat(metrics).containsKey("authentication.cache.misses");
+    }
+
+    @Test
+    public void nonAdminUserCannotReadMetrics() {
+        String password = createUserAndReturnPassword("metrics-user", singletonList(USER));
+        Response response = unAuthenticatedWebTarget().path("/metrics").request().header("Authorization", basicAuth("metrics-user", password)).get();
+        assertThat(response.getStatus()).isEqualTo(401);
+    }
+}
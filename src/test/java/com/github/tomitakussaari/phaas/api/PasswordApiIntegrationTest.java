@@ -1,13 +1,18 @@
 package com.github.tomitakussaari.phaas.api;
 
+import com.github.tomitakussaari.phaas.util.JsonHelper;
 import org.junit.Test;
 
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import static com.github.tomitakussaari.phaas.user.UsersService.ROLE.USER;
 import static com.google.common.collect.ImmutableMap.of;
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static javax.ws.rs.client.Entity.json;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -91,6 +96,131 @@ public class PasswordApiIntegrationTest extends IT {
         assertThat((boolean) verifyResponse.get("valid")).isFalse();
     }
 
+    @Test
+    public void hashesBatchOfPasswordsInOrder() {
+        List<Map> results = authenticatedWebTarget().path("/passwords/hash/batch").request()
+                .put(json(asList(of("rawPassword", "first"), of("rawPassword", "second"), of("rawPassword", "third"))), new GenericType<List<Map>>() {});
+        assertThat(results).hasSize(3);
+        String[] passwords = {"first", "second", "third"};
+        for (int i = 0; i < passwords.length; i++) {
+            Map verifyResponse = authenticatedWebTarget().path("/passwords/verify").request().put(json(of("passwordCandidate", passwords[i], "hash", results.get(i).get("hash"))), Map.class);
+            assertThat((boolean) verifyResponse.get("valid")).isTrue();
+        }
+    }
+
+    @Test
+    public void failingPasswordDoesNotFailWholeBatch() {
+        Response updateResponse = authenticatedWebTarget().path("/users/me/scheme").request().post(Entity.json(of("algorithm", "HMAC_SHA256")));
+        assertThat(updateResponse.getStatusInfo().getFamily()).isEqualTo(Response.Status.Family.SUCCESSFUL);
+
+        List<Map> results = authenticatedWebTarget().path("/passwords/hash/batch").request()
+                .put(json(asList(of("rawPassword", "weak"), of("rawPassword", "q8Zr2LxV7mT4wKp9sNc3Hy6Jd1Bf5Ge0aT7uW2xY4zC"))), new GenericType<List<Map>>() {});
+        assertThat(results.get(0).get("hash")).isNull();
+        assertThat((String) results.get(0).get("error")).contains("entropy");
+        assertThat((String) results.get(1).get("hash")).isNotEmpty();
+        assertThat(results.get(1).get("error")).isNull();
+    }
+
+    @Test
+    public void retryWithSameIdempotencyKeyReturnsEarlierHash() {
+        Map first = authenticatedWebTarget().path("/passwords/hash").request().header("Idempotency-Key", "hash-1").put(json(of("rawPassword", PASSWORD)), Map.class);
+        Map retry = authenticatedWebTarget().path("/passwords/hash").request().header("Idempotency-Key", "hash-1").put(json(of("rawPassword", PASSWORD)), Map.class);
+        Map withoutKey = authenticatedWebTarget().path("/passwords/hash").request().put(json(of("rawPassword", PASSWORD)), Map.class);
+        assertThat(retry.get("hash")).isEqualTo(first.get("hash"));
+        assertThat(withoutKey.get("hash")).isNotEqualTo(first.get("hash"));
+
+        Response reused = authenticatedWebTarget().path("/passwords/hash").request().header("Idempotency-Key", "hash-1").put(json(of("rawPassword", "other-password")));
+        assertThat(reused.getStatus()).isEqualTo(422);
+    }
+
+    @Test
+    public void retryOfBatchWithSameIdempotencyKeyReturnsEarlierHashes() {
+        List<Map> first = authenticatedWebTarget().path("/passwords/hash/batch").request().header("Idempotency-Key", "batch-1")
+                .put(json(asList(of("rawPassword", "first"), of("rawPassword", "second"))), new GenericType<List<Map>>() {});
+        List<Map> retry = authenticatedWebTarget().path("/passwords/hash/batch").request().header("Idempotency-Key", "batch-1")
+                .put(json(asList(of("rawPassword", "first"), of("rawPassword", "second"))), new GenericType<List<Map>>() {});
+        assertThat(retry.get(0).get("hash")).isEqualTo(first.get(0).get("hash"));
+        assertThat(retry.get(1).get("hash")).isEqualTo(first.get(1).get("hash"));
+    }
+
+    @Test
+    public void verifiesBatchOfPasswordsInOrder() {
+        Map first = authenticatedWebTarget().path("/passwords/hash").request().put(json(of("rawPassword", "first")), Map.class);
+        Map second = authenticatedWebTarget().path("/passwords/hash").request().put(json(of("rawPassword", "second")), Map.class);
+
+        List<Map> results = authenticatedWebTarget().path("/passwords/verify/batch").request()
+                .put(json(asList(of("passwordCandidate", "first", "hash", first.get("hash")),
+                        of("passwordCandidate", "wrong-password", "hash", second.get("hash")),
+                        of("passwordCandidate", "second", "hash", "foobar"),
+                        of("passwordCandidate", "second", "hash", second.get("hash")))), new GenericType<List<Map>>() {});
+        assertThat(results).hasSize(4);
+        assertThat((boolean) results.get(0).get("valid")).isTrue();
+        assertThat((boolean) results.get(1).get("valid")).isFalse();
+        assertThat(results.get(1).get("error")).isNull();
+        assertThat((boolean) results.get(2).get("valid")).isFalse();
+        assertThat((String) results.get(2).get("error")).isEqualTo("Unrecognized password hash format");
+        assertThat((boolean) results.get(3).get("valid")).isTrue();
+    }
+
+    @Test
+    public void batchVerificationReturnsUpgradedHashesForOldScheme() {
+        Map hashedPasswordWithOldScheme = authenticatedWebTarget().path("/passwords/hash").request().put(json(of("rawPassword", PASSWORD)), Map.class);
+        Response updateResponse = authenticatedWebTarget().path("/users/me/scheme").request().post(Entity.json(of("algorithm", "SHA256_BCRYPT")));
+        assertThat(updateResponse.getStatusInfo().getFamily()).isEqualTo(Response.Status.Family.SUCCESSFUL);
+        Map hashedPasswordWithNewScheme = authenticatedWebTarget().path("/passwords/hash").request().put(json(of("rawPassword", PASSWORD)), Map.class);
+
+        List<Map> results = authenticatedWebTarget().path("/passwords/verify/batch").request()
+                .put(json(asList(of("passwordCandidate", PASSWORD, "hash", hashedPasswordWithOldScheme.get("hash")),
+                        of("passwordCandidate", PASSWORD, "hash", hashedPasswordWithNewScheme.get("hash")))), new GenericType<List<Map>>() {});
+        assertThat((boolean) results.get(0).get("valid")).isTrue();
+        assertThat(results.get(0).get("upgradedHash")).isNotNull();
+        assertThat((boolean) results.get(1).get("valid")).isTrue();
+        assertThat(results.get(1).get("upgradedHash")).isNull();
+    }
+
+    @Test
+    public void rewrapsHashesOfOldSchemeUnderActiveSchemeWithoutPasswords() throws IOException {
+        Map hashedPasswordWithOldScheme = authenticatedWebTarget().path("/passwords/hash").request().put(json(of("rawPassword", PASSWORD)), Map.class);
+        Response updateResponse = authenticatedWebTarget().path("/users/me/scheme").request().post(Entity.json(of("algorithm", "SHA256_BCRYPT")));
+        assertThat(updateResponse.getStatusInfo().getFamily()).isEqualTo(Response.Status.Family.SUCCESSFUL);
+
+        String input = "{\"id\": \"first\", \"hash\": \"" + hashedPasswordWithOldScheme.get("hash") + "\"}\n"
+                + "{\"id\": \"second\", \"hash\": \"foobar\"}\n";
+        String output = authenticatedWebTarget().path("/passwords/rewrap").request("application/x-ndjson")
+                .put(Entity.entity(input, "application/x-ndjson"), String.class);
+        String[] lines = output.split("\n");
+        assertThat(lines).hasSize(2);
+        Map first = JsonHelper.objectMapper.readValue(lines[0], Map.class);
+        Map second = JsonHelper.objectMapper.readValue(lines[1], Map.class);
+        assertThat(first.get("id")).isEqualTo("first");
+        assertThat((boolean) first.get("rewrapped")).isTrue();
+        assertThat(second.get("id")).isEqualTo("second");
+        assertThat(second.get("error")).isEqualTo("Unrecognized password hash format");
+
+        Map verifyResponse = authenticatedWebTarget().path("/passwords/verify").request().put(json(of("passwordCandidate", PASSWORD, "hash", first.get("hash"))), Map.class);
+        assertThat((boolean) verifyResponse.get("valid")).isTrue();
+        assertThat(verifyResponse.get("upgradedHash")).isNull();
+    }
+
+    @Test
+    public void importsHashesOfOtherSystemAndUpgradesThemOnVerify() throws IOException {
+        String input = "{\"id\": \"django\", \"hash\": \"pbkdf2_sha256$1000$seasalt$7sOSJwP0EXHPfMGm8H03pMl9+wAdV3oxv2uy4GeP3bc=\"}\n";
+        String output = authenticatedWebTarget().path("/passwords/import").request("application/x-ndjson")
+                .put(Entity.entity(input, "application/x-ndjson"), String.class);
+        Map imported = JsonHelper.objectMapper.readValue(output.trim(), Map.class);
+        assertThat((boolean) imported.get("rewrapped")).isTrue();
+
+        Map verifyResponse = authenticatedWebTarget().path("/passwords/verify").request().put(json(of("passwordCandidate", "legacy-password", "hash", imported.get("hash"))), Map.class);
+        assertThat((boolean) verifyResponse.get("valid")).isTrue();
+        assertThat(verifyResponse.get("upgradedHash")).isNotNull();
+    }
+
+    @Test
+    public void unknownUpgradeTicketIsNotFound() {
+        Response response = authenticatedWebTarget().path("/passwords/upgrades/unknown").request().get();
+        assertThat(response.getStatus()).isEqualTo(404);
+    }
+
     @Test
     public void unAuthenticatedCannotAccessHashingApi() {
         Response response = unAuthenticatedWebTarget().path("/passwords/hash").request().put(json(of("rawPassword", PASSWORD)));
@@ -0,0 +1,51 @@
+package com.github.tomitakussaari.phaas.api;
+
+import org.junit.Test;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+import static com.google.common.collect.ImmutableMap.of;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SessionsApiIntegrationTest extends IT {
+
+    @Test
+    public void authenticatesWithSessionToken() {
+        String token = createSession();
+        Map currentUser = unAuthenticatedWebTarget().path("/users/me").request()
+                .header("Authorization", "Bearer " + token).accept(MediaType.APPLICATION_JSON).get(Map.class);
+        assertThat(currentUser.get("userName")).isEqualTo(USER_NAME);
+    }
+
+    @Test
+    public void rejectsInvalidSessionToken() {
+        Response response = unAuthenticatedWebTarget().path("/users/me").request()
+                .header("Authorization", "Bearer foobar").accept(MediaType.APPLICATION_JSON).get();
+        assertThat(response.getStatus()).isEqualTo(401);
+    }
+
+    @Test
+    public void sessionCannotBeCreatedWithSessionToken() {
+        Response response = unAuthenticatedWebTarget().path("/sessions").request()
+                .header("Authorization", "Bearer " + createSession()).post(Entity.json(""));
+        assertThat(response.getStatus()).isEqualTo(401);
+    }
+
+    @Test
+    public void sessionTokenIsRejectedAfterPasswordChange() {
+        String token = createSession();
+        authenticatedWebTarget().path("/users/me").request().put(Entity.json(of("newPassword", USER_PASSWORD)));
+        Response response = unAuthenticatedWebTarget().path("/users/me").request()
+                .header("Authorization", "Bearer " + token).accept(MediaType.APPLICATION_JSON).get();
+        assertThat(response.getStatus()).isEqualTo(401);
+    }
+
+    private String createSession() {
+        Map session = authenticatedWebTarget().path("/sessions").request().accept(MediaType.APPLICATION_JSON).post(Entity.json(""), Map.class);
+        assertThat(session).containsKey("expiresAt");
+        return (String) session.get("token");
+    }
+}
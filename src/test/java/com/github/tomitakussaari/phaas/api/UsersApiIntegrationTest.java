@@ -40,6 +40,23 @@ public class UsersApiIntegrationTest extends IT {
         assertThat(currentUserWithNewScheme).isNotEqualTo(currentUserWithOldScheme);
     }
 
+    @Test
+    public void publishesServerReliefOfProtectionScheme() {
+        Response updateResponse = authenticatedWebTarget().path("/users/me/scheme").request().post(Entity.json(of("algorithm", "ARGON2", "serverRelief", true)));
+        assertThat(updateResponse.getStatusInfo().getFamily()).isEqualTo(Response.Status.Family.SUCCESSFUL);
+        Map currentUser = authenticatedWebTarget().path("/users/me").request().accept(MediaType.APPLICATION_JSON).get(Map.class);
+        Map serverRelief = (Map) ((Map) currentUser.get("currentProtectionScheme")).get("serverRelief");
+        assertThat(serverRelief.get("algorithm")).isEqualTo("ARGON2");
+        assertThat(serverRelief.get("parameters")).isEqualTo("m=65536,p=2,t=2");
+        assertThat((String) serverRelief.get("salt")).isNotEmpty();
+
+        String clientHash = "ZGVyaXZlZC1ieS1jbGllbnQtd2l0aC1hcmdvbjItYW5kLXNhbHQ";
+        Map hashedPassword = authenticatedWebTarget().path("/passwords/hash").request().put(json(of("rawPassword", clientHash)), Map.class);
+        Map verifyResponse = authenticatedWebTarget().path("/passwords/verify").request().put(json(of("passwordCandidate", clientHash, "hash", hashedPassword.get("hash"))), Map.class);
+        assertThat((boolean) verifyResponse.get("valid")).isTrue();
+        assertThat(authenticatedWebTarget().path("/passwords/hash").request().put(json(of("rawPassword", "password"))).getStatus()).isEqualTo(400);
+    }
+
     @Test
     public void changesPassword() {
         Response updateResponse = authenticatedWebTarget().path("/users/me").request().put(Entity.json(of("newPassword", "new-password")));
@@ -0,0 +1,65 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.github.tomitakussaari.phaas.util.ArenaPool;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares throughput of {@link Argon2Engine#NATIVE} and {@link Argon2Engine#JAVA} engines with default parameters.
+ * Run with main method, GC profiler shows heap allocation per operation (memory matrix of native engine is
+ * allocated with malloc, and memory matrix of Java engine comes from arena pool, so neither shows there).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+@Fork(1)
+public class Argon2EngineBenchmark {
+
+    @Param({"NATIVE", "JAVA"})
+    private Argon2Engine engine;
+
+    @Param({"ARGON2", "ARGON2ID"})
+    private PasswordEncodingAlgorithm algorithm;
+
+    private Argon2Engine.Selection engines;
+    private PasswordEncoder encoder;
+    private String hash;
+
+    @Setup
+    public void setUp() {
+        engines = new Argon2Engine.Selection(engine, engine, new ArenaPool(1), null);
+        encoder = algorithm.encoder(EncoderParameters.DEFAULTS, engines);
+        hash = encoder.encode("benchmark password");
+    }
+
+    @TearDown
+    public void tearDown() {
+        engines.close();
+    }
+
+    @Benchmark
+    public String hash() {
+        return encoder.encode("benchmark password");
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return encoder.matches("benchmark password", hash);
+    }
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(Argon2EngineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.github.tomitakussaari.phaas.util.ArenaPool;
+import org.junit.Test;
+
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Argon2EngineTest {
+
+    @Test
+    public void javaEngineVerifiesArgon2iHashesMadeWithNativeEngine() {
+        Argon2Engine.Selection engines = select(Argon2Engine.JAVA, Argon2Engine.NATIVE);
+        String hash = "$argon2i$v=19$m=65536,t=2,p=2$cGhhYXMtdGVzdC1zYWx0IQ$Bn6gCTA3ZNsbTbfZ3gQwGC0OVsF+7Ebn4Esy1fGy0nM";
+        assertThat(ARGON2.encoder(EncoderParameters.DEFAULTS, engines).matches("password", hash)).isTrue();
+        assertThat(ARGON2.encoder(EncoderParameters.DEFAULTS, engines).matches("passw0rd", hash)).isFalse();
+    }
+
+    @Test
+    public void javaEngineHashesWithAlgorithmParameters() {
+        Argon2Engine.Selection engines = select(Argon2Engine.JAVA, Argon2Engine.NATIVE);
+        String hash = ARGON2.encoder(EncoderParameters.parse("m=4096,p=1,t=3"), engines).encode("password");
+        assertThat(hash).startsWith("$argon2i$v=19$m=4096,t=3,p=1$");
+        assertThat(ARGON2.encoder().matches("password", hash)).isTrue();
+    }
+
+    @Test
+    public void javaEngineIsUsedForArgon2id() {
+        Argon2idPasswordEncoder encoder = new Argon2idPasswordEncoder(EncoderParameters.parse("m=16384,p=2,t=2"), new LanePolicy(8),
+                select(Argon2Engine.NATIVE, Argon2Engine.JAVA));
+        String hash = encoder.encode("correct horse battery staple");
+        assertThat(hash).startsWith("$argon2id$v=19$m=16384,t=2,p=2$");
+        assertThat(encoder.matches("correct horse battery staple", hash)).isTrue();
+        assertThat(encoder.matches("correct horse battery staple",
+                "$argon2id$v=19$m=16384,t=2,p=2$cGhhYXMtdGVzdC1zYWx0IQ$6tVPWk4gE/8ufQ1vT0vi6qXkAGFzBgQZ1UHT8062qzU")).isTrue();
+    }
+
+    @Test
+    public void encodersAreSharedPerSelection() {
+        Argon2Engine.Selection java = select(Argon2Engine.JAVA, Argon2Engine.JAVA);
+        Argon2Engine.Selection nativeEngines = select(Argon2Engine.NATIVE, Argon2Engine.NATIVE);
+        assertThat(ARGON2.encoder(EncoderParameters.DEFAULTS, java)).isSameAs(ARGON2.encoder(EncoderParameters.DEFAULTS, java));
+        assertThat(ARGON2.encoder(EncoderParameters.DEFAULTS, java)).isNotSameAs(ARGON2.encoder(EncoderParameters.DEFAULTS, nativeEngines));
+        assertThat(PasswordEncodingAlgorithm.SHA256_BCRYPT.encoder(EncoderParameters.DEFAULTS, java))
+                .isSameAs(PasswordEncodingAlgorithm.SHA256_BCRYPT.encoder(EncoderParameters.DEFAULTS, nativeEngines));
+    }
+
+    @Test
+    public void closedSelectionForgetsItsEncoders() {
+        Argon2Engine.Selection engines = select(Argon2Engine.JAVA, Argon2Engine.JAVA);
+        Object encoder = ARGON2.encoder(EncoderParameters.DEFAULTS, engines);
+        engines.close();
+        assertThat(ARGON2.encoder(EncoderParameters.DEFAULTS, engines)).isNotSameAs(encoder);
+    }
+
+    @Test
+    public void defaultsFallBackToJavaEngineForArgon2idWhenNativeIsNotAvailable() {
+        assertThat(Argon2Engine.Selection.defaults().engine(ARGON2)).isEqualTo(Argon2Engine.NATIVE);
+        assertThat(Argon2Engine.Selection.defaults().engine(ARGON2ID))
+                .isEqualTo(Argon2Engine.NATIVE.isAvailable(ARGON2ID) ? Argon2Engine.NATIVE : Argon2Engine.JAVA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void processEngineNeedsWorkers() {
+        new Argon2Engine.Selection(Argon2Engine.PROCESS, Argon2Engine.NATIVE, new ArenaPool(1), null);
+    }
+
+    private static Argon2Engine.Selection select(Argon2Engine argon2, Argon2Engine argon2id) {
+        return new Argon2Engine.Selection(argon2, argon2id, new ArenaPool(1), null);
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.tomitakussaari.phaas.model;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Argon2idPasswordEncoderTest {
+
+    private static final EncoderParameters parameters = EncoderParameters.parse("m=16384,p=4,t=2");
+
+    @Test
+    public void verifiesHashMadeWithReferenceImplementation() {
+        String hash = "$argon2id$v=19$m=16384,t=2,p=2$cGhhYXMtdGVzdC1zYWx0IQ$6tVPWk4gE/8ufQ1vT0vi6qXkAGFzBgQZ1UHT8062qzU";
+        Argon2idPasswordEncoder encoder = new Argon2idPasswordEncoder(parameters);
+        assertThat(encoder.matches("correct horse battery staple", hash)).isTrue();
+        assertThat(encoder.matches("correct horse battery stapler", hash)).isFalse();
+    }
+
+    @Test
+    public void usesAllLanesWhenIdle() {
+        Argon2idPasswordEncoder encoder = new Argon2idPasswordEncoder(parameters, new LanePolicy(8), Argon2Engine.Selection.defaults());
+        String hash = encoder.encode("password");
+        assertThat(hash).startsWith("$argon2id$v=19$m=16384,t=2,p=4$");
+        assertThat(encoder.matches("password", hash)).isTrue();
+    }
+
+    @Test
+    public void usesOneLaneWhenProcessorsAreBusy() {
+        LanePolicy busy = new LanePolicy(2);
+        Argon2idPasswordEncoder encoder = new Argon2idPasswordEncoder(parameters, busy, Argon2Engine.Selection.defaults());
+        String hash = busy.running(() -> encoder.encode("password"));
+        assertThat(hash).startsWith("$argon2id$v=19$m=16384,t=2,p=1$");
+        assertThat(new Argon2idPasswordEncoder(parameters).matches("password", hash)).isTrue();
+    }
+
+    @Test
+    public void doesNotMatchOtherHashes() {
+        Argon2idPasswordEncoder encoder = new Argon2idPasswordEncoder(parameters);
+        assertThat(encoder.matches("password", "$argon2i$v=19$m=65536,t=2,p=2$c29tZXNhbHQ$aGFzaA")).isFalse();
+        assertThat(encoder.matches("password", "$argon2id$not-a-hash")).isFalse();
+    }
+}
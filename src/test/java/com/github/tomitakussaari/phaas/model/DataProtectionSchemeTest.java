@@ -5,6 +5,7 @@ import com.github.tomitakussaari.phaas.util.PepperSource;
 import org.junit.Test;
 
 import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2;
+import static org.assertj.core.api.Assertions.assertThat;
 
 public class DataProtectionSchemeTest {
 
@@ -23,4 +24,31 @@ public class DataProtectionSchemeTest {
         new DataProtectionScheme(1, null, "", new CryptoHelper(new PepperSource("")));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void cryptoDataDerivesHashEncryptionKeyOnlyOnce() {
+        CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+        DataProtectionScheme scheme = new DataProtectionScheme(1, ARGON2, cryptoHelper.encryptData("password", "key"), cryptoHelper);
+        DataProtectionScheme.CryptoData cryptoData = scheme.cryptoData("password");
+        assertThat(cryptoData.getHashEncryptionKey()).isSameAs(cryptoData.getHashEncryptionKey());
+        assertThat(cryptoData.getHashEncryptionKey().getEncoded()).isEqualTo(scheme.cryptoData("password").getHashEncryptionKey().getEncoded());
+    }
+
+    @Test
+    public void publishesServerReliefAndNeedsNoMemory() {
+        CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+        DataProtectionScheme scheme = new DataProtectionScheme(1, ARGON2, cryptoHelper.encryptData("password", "key"), cryptoHelper,
+                EncoderParameters.parse(ServerRelief.parametersFor(ARGON2)), "c2FsdA");
+        assertThat(scheme.isServerRelief()).isTrue();
+        assertThat(scheme.memoryCostKiB()).isEqualTo(0);
+        ServerRelief serverRelief = scheme.toPublicScheme().getServerRelief();
+        assertThat(serverRelief.getAlgorithm()).isEqualTo(ARGON2);
+        assertThat(serverRelief.getParameters()).isEqualTo("m=65536,p=2,t=2");
+        assertThat(serverRelief.getSalt()).isEqualTo("c2FsdA");
+        assertThat(new DataProtectionScheme(2, ARGON2, "", cryptoHelper).toPublicScheme().getServerRelief()).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void serverReliefIsOnlySupportedWithArgon2() {
+        ServerRelief.parametersFor(PasswordEncodingAlgorithm.SHA256_BCRYPT);
+    }
+}
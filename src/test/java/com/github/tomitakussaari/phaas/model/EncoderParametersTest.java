@@ -0,0 +1,39 @@
+package com.github.tomitakussaari.phaas.model;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EncoderParametersTest {
+
+    @Test
+    public void parsesAndFormatsParameters() {
+        EncoderParameters parameters = EncoderParameters.parse(" t=3, m=32768,p=2 ");
+        assertThat(parameters.get(EncoderParameters.ITERATIONS, 0)).isEqualTo(3);
+        assertThat(parameters.get(EncoderParameters.MEMORY, 0)).isEqualTo(32768);
+        assertThat(parameters.get(EncoderParameters.COST, 11)).isEqualTo(11);
+        assertThat(parameters.toString()).isEqualTo("m=32768,p=2,t=3");
+        assertThat(EncoderParameters.parse(parameters.toString())).isEqualTo(parameters);
+    }
+
+    @Test
+    public void emptyParametersAreDefaults() {
+        assertThat(EncoderParameters.parse(null)).isSameAs(EncoderParameters.DEFAULTS);
+        assertThat(EncoderParameters.parse(" ")).isSameAs(EncoderParameters.DEFAULTS);
+        assertThat(EncoderParameters.DEFAULTS.isEmpty()).isTrue();
+        assertThat(EncoderParameters.DEFAULTS.toString()).isEqualTo("");
+    }
+
+    @Test
+    public void givenParametersOverrideDefaults() {
+        EncoderParameters parameters = PasswordEncodingAlgorithm.ARGON2.parameters(EncoderParameters.parse("t=4"));
+        assertThat(parameters).isEqualTo(EncoderParameters.parse("m=65536,p=2,t=4"));
+        assertThat(PasswordEncodingAlgorithm.SHA256_BCRYPT.parameters(EncoderParameters.DEFAULTS)).isEqualTo(EncoderParameters.parse("cost=11"));
+        assertThat(PasswordEncodingAlgorithm.HMAC_SHA256.parameters(EncoderParameters.DEFAULTS).isEmpty()).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidParameters() {
+        EncoderParameters.parse("t=two");
+    }
+}
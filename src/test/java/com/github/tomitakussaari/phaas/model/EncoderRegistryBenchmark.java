@@ -0,0 +1,47 @@
+package com.github.tomitakussaari.phaas.model;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares getting encoder from {@link EncoderRegistry} to creating new encoder for every call,
+ * like {@link PasswordEncodingAlgorithm#encoder()} used to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class EncoderRegistryBenchmark {
+
+    @Benchmark
+    public PasswordEncoder argon2FromRegistry() {
+        return PasswordEncodingAlgorithm.ARGON2.encoder();
+    }
+
+    @Benchmark
+    public PasswordEncoder newArgon2() {
+        return new Argon2PasswordEncoder();
+    }
+
+    @Benchmark
+    public PasswordEncoder bcryptFromRegistry() {
+        return PasswordEncodingAlgorithm.SHA256_BCRYPT.encoder();
+    }
+
+    @Benchmark
+    public PasswordEncoder newBcrypt() {
+        return new SHA256AndBCryptPasswordEncoder();
+    }
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EncoderRegistryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
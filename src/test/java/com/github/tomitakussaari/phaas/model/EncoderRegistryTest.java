@@ -0,0 +1,51 @@
+package com.github.tomitakussaari.phaas.model;
+
+import org.junit.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EncoderRegistryTest {
+
+    @Test
+    public void returnsSameEncoderForSameAlgorithm() {
+        for (PasswordEncodingAlgorithm algorithm : new PasswordEncodingAlgorithm[]{PasswordEncodingAlgorithm.ARGON2, PasswordEncodingAlgorithm.SHA256_BCRYPT}) {
+            assertThat(algorithm.encoder()).isSameAs(algorithm.encoder());
+        }
+    }
+
+    @Test
+    public void returnsDifferentEncodersForDifferentParameters() {
+        PasswordEncoder encoder = EncoderRegistry.encoder(PasswordEncodingAlgorithm.ARGON2, EncoderParameters.parse("t=3"), Argon2Engine.Selection.defaults(), Argon2PasswordEncoder::new);
+        assertThat(EncoderRegistry.encoder(PasswordEncodingAlgorithm.ARGON2, EncoderParameters.parse("t=3"), Argon2Engine.Selection.defaults(), Argon2PasswordEncoder::new)).isSameAs(encoder);
+        assertThat(EncoderRegistry.encoder(PasswordEncodingAlgorithm.ARGON2, EncoderParameters.parse("t=4"), Argon2Engine.Selection.defaults(), Argon2PasswordEncoder::new)).isNotSameAs(encoder);
+    }
+
+    @Test
+    public void sharedEncoderCanBeUsedConcurrently() throws Exception {
+        PasswordEncoder encoder = PasswordEncodingAlgorithm.ARGON2.encoder();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Boolean>> tasks = IntStream.range(0, 8)
+                    .mapToObj(i -> (Callable<Boolean>) () -> {
+                        String password = "password-" + i;
+                        String hash = encoder.encode(password);
+                        return encoder.matches(password, hash) && !encoder.matches(password + "1", hash);
+                    })
+                    .collect(Collectors.toList());
+            for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                assertThat(result.get()).isTrue();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
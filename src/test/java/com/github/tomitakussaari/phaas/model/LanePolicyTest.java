@@ -0,0 +1,37 @@
+package com.github.tomitakussaari.phaas.model;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LanePolicyTest {
+
+    private final LanePolicy lanePolicy = new LanePolicy(32);
+
+    @Test
+    public void usesAllowedLanesWhenIdle() {
+        int lanesWhenIdle = lanePolicy.withLanes(8, lanes -> lanes);
+        assertThat(lanesWhenIdle).isEqualTo(8);
+        assertThat(lanePolicy.lanes(8, 1)).isEqualTo(8);
+    }
+
+    @Test
+    public void sharesProcessorsBetweenRunningOperations() {
+        assertThat(lanePolicy.lanes(8, 8)).isEqualTo(4);
+        assertThat(lanePolicy.lanes(8, 16)).isEqualTo(2);
+    }
+
+    @Test
+    public void fallsBackToOneLaneWhenSaturated() {
+        assertThat(lanePolicy.lanes(8, 32)).isEqualTo(1);
+        assertThat(lanePolicy.lanes(8, 100)).isEqualTo(1);
+        assertThat(new LanePolicy(1).lanes(8, 1)).isEqualTo(1);
+    }
+
+    @Test
+    public void countsRunningOperations() {
+        int lanesWhileVerifying = lanePolicy.running(() -> lanePolicy.running(() -> lanePolicy.withLanes(32, lanes -> lanes)));
+        assertThat(lanesWhileVerifying).isEqualTo(32 / 3);
+        assertThat(lanePolicy.running()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.tomitakussaari.phaas.model;
+
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LegacyHashAlgorithmTest {
+
+    private static final String PASSWORD = "legacy-password";
+    private static final String DJANGO_PBKDF2 = "pbkdf2_sha256$1000$seasalt$7sOSJwP0EXHPfMGm8H03pMl9+wAdV3oxv2uy4GeP3bc=";
+    private static final String PASSLIB_PBKDF2 = "$pbkdf2-sha512$1000$MDEyMzQ1Njc4OWFiY2RlZg$pUyxMqI.MM1QqcpqGD64EofCdh88SIsxlx7CaOKlrjCIIFhgRkAPY4aifUW0HtwKkE/pDcZIB.FzAzXYH72Lbg";
+    private static final String PASSLIB_SCRYPT = "$scrypt$ln=10,r=8,p=1$MDEyMzQ1Njc4OWFiY2RlZg$xsHQZOl1KP69Qdsf8mCEhBDFr0aEKwDwv3ylJaiNbbc";
+    private static final String SPRING_SCRYPT = "$s0$a0801$MDEyMzQ1Njc4OWFiY2RlZg==$xsHQZOl1KP69Qdsf8mCEhBDFr0aEKwDwv3ylJaiNbbc=";
+
+    @Test
+    public void verifiesBcryptOfPassword() {
+        String hash = new BCryptPasswordEncoder(4).encode(PASSWORD);
+        assertThat(LegacyHashAlgorithm.findForHash(hash).get()).isEqualTo(LegacyHashAlgorithm.BCRYPT);
+        assertThat(LegacyHashAlgorithm.BCRYPT.matches(PASSWORD, hash)).isTrue();
+        assertThat(LegacyHashAlgorithm.BCRYPT.matches("wrong-password", hash)).isFalse();
+    }
+
+    @Test
+    public void verifiesPbkdf2Hashes() {
+        for (String hash : new String[]{DJANGO_PBKDF2, PASSLIB_PBKDF2}) {
+            assertThat(LegacyHashAlgorithm.findForHash(hash).get()).isEqualTo(LegacyHashAlgorithm.PBKDF2);
+            assertThat(LegacyHashAlgorithm.PBKDF2.matches(PASSWORD, hash)).isTrue();
+            assertThat(LegacyHashAlgorithm.PBKDF2.matches("wrong-password", hash)).isFalse();
+        }
+    }
+
+    @Test
+    public void verifiesScryptHashes() {
+        for (String hash : new String[]{PASSLIB_SCRYPT, SPRING_SCRYPT}) {
+            assertThat(LegacyHashAlgorithm.findForHash(hash).get()).isEqualTo(LegacyHashAlgorithm.SCRYPT);
+            assertThat(LegacyHashAlgorithm.SCRYPT.matches(PASSWORD, hash)).isTrue();
+            assertThat(LegacyHashAlgorithm.SCRYPT.matches("wrong-password", hash)).isFalse();
+            assertThat(LegacyHashAlgorithm.SCRYPT.memoryCostKiB(hash)).isEqualTo(1024);
+        }
+    }
+
+    @Test
+    public void marksImportedHash() {
+        String imported = LegacyHashAlgorithm.imported(DJANGO_PBKDF2);
+        assertThat(imported).isEqualTo("$imported$" + DJANGO_PBKDF2);
+        assertThat(LegacyHashAlgorithm.importedHash(imported).get()).isEqualTo(DJANGO_PBKDF2);
+        assertThat(LegacyHashAlgorithm.importedHash(DJANGO_PBKDF2).isPresent()).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToImportUnknownHash() {
+        LegacyHashAlgorithm.imported("md5$foo$bar");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToImportMalformedHash() {
+        LegacyHashAlgorithm.imported("$scrypt$ln=10,r=8$MDEyMzQ1Njc4OWFiY2RlZg$xsHQZOl1KP69Qdsf8mCEhBDFr0aEKwDwv3ylJaiNbbc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToImportUnsupportedDigest() {
+        LegacyHashAlgorithm.imported("pbkdf2_md5$1000$seasalt$7sOSJwP0EXHPfMGm8H03pMl9+wAdV3oxv2uy4GeP3bc=");
+    }
+}
@@ -1,9 +1,13 @@
 package com.github.tomitakussaari.phaas.model;
 
+import com.google.common.hash.Hashing;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import java.nio.charset.StandardCharsets;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class PasswordEncodingAlgorithmTest {
@@ -16,8 +20,8 @@ public class PasswordEncodingAlgorithmTest {
     @Test
     public void canHashAndVerifyWithAllAlgorithms() {
         for (PasswordEncodingAlgorithm algorithm : PasswordEncodingAlgorithm.values()) {
-            PasswordEncoder encoder = algorithm.encoder();
-            String password = "password";
+            PasswordEncoder encoder = encoderFor(algorithm);
+            String password = passwordFor(algorithm);
             String hash = encoder.encode(password);
             assertThat(encoder.matches(password, hash)).isTrue();
         }
@@ -26,9 +30,9 @@ public class PasswordEncodingAlgorithmTest {
     @Test
     public void findsCorrectEncoderForHash() {
         for (PasswordEncodingAlgorithm algorithm : PasswordEncodingAlgorithm.values()) {
-            String password = "password";
-            String hash = algorithm.encoder().encode(password);
-            PasswordEncoder decoder = PasswordEncodingAlgorithm.findForHash(hash).get().encoder();
+            String password = passwordFor(algorithm);
+            String hash = encoderFor(algorithm).encode(password);
+            PasswordEncoder decoder = encoderFor(PasswordEncodingAlgorithm.findForHash(hash).get());
             assertThat(decoder.matches(password, hash)).isTrue();
         }
     }
@@ -37,7 +41,7 @@ public class PasswordEncodingAlgorithmTest {
     @Test
     public void allAlgorithmsSupportVeryLongPasswords() {
         for (PasswordEncodingAlgorithm algorithm : PasswordEncodingAlgorithm.values()) {
-            PasswordEncoder encoder = algorithm.encoder();
+            PasswordEncoder encoder = encoderFor(algorithm);
             String password = RandomStringUtils.randomAlphabetic(120);
             String hash = encoder.encode(password);
             assertThat(encoder.matches(password, hash)).isTrue();
@@ -45,4 +49,140 @@ public class PasswordEncodingAlgorithmTest {
         }
     }
 
+    @Test
+    public void usesGivenCostParameters() {
+        String bcryptHash = PasswordEncodingAlgorithm.SHA256_BCRYPT.encoder(EncoderParameters.parse("cost=5")).encode("password");
+        assertThat(bcryptHash).startsWith("$2a$05$");
+        String argon2Hash = PasswordEncodingAlgorithm.ARGON2.encoder(EncoderParameters.parse("t=3,m=16384,p=1")).encode("password");
+        assertThat(argon2Hash).startsWith("$argon2i$v=19$m=16384,t=3,p=1$");
+        assertThat(PasswordEncodingAlgorithm.ARGON2.encoder().matches("password", argon2Hash)).isTrue();
+    }
+
+    @Test
+    public void bcryptVerifiesHashesMadeWithSpringSecurityBCrypt() {
+        String hash = new BCryptPasswordEncoder(4).encode(Hashing.sha256().hashString("password", StandardCharsets.UTF_8).toString());
+        assertThat(PasswordEncodingAlgorithm.SHA256_BCRYPT.encoder().matches("password", hash)).isTrue();
+        assertThat(PasswordEncodingAlgorithm.SHA256_BCRYPT.encoder().matches("passw0rd", hash)).isFalse();
+        assertThat(PasswordEncodingAlgorithm.SHA256_BCRYPT.encoder().matches("password", "$2a$05$abcdefghijklmnopqrstuuE94Q3eTNjN48w2NX2tPsDTNeG6w2MH2")).isTrue();
+    }
+
+    @Test
+    public void sameParametersShareEncoder() {
+        assertThat(PasswordEncodingAlgorithm.ARGON2.encoder(EncoderParameters.parse("m=65536"))).isSameAs(PasswordEncodingAlgorithm.ARGON2.encoder());
+    }
+
+    @Test
+    public void memoryCostComesFromParameters() {
+        assertThat(PasswordEncodingAlgorithm.ARGON2.memoryCostKiB(EncoderParameters.DEFAULTS)).isEqualTo(65536);
+        assertThat(PasswordEncodingAlgorithm.ARGON2.memoryCostKiB(EncoderParameters.parse("m=16384"))).isEqualTo(16384);
+        assertThat(PasswordEncodingAlgorithm.SHA256_BCRYPT.memoryCostKiB(EncoderParameters.DEFAULTS)).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidBcryptCost() {
+        PasswordEncodingAlgorithm.SHA256_BCRYPT.encoder(EncoderParameters.parse("cost=3"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooLittleArgon2Memory() {
+        PasswordEncodingAlgorithm.ARGON2.encoder(EncoderParameters.parse("m=8,p=2"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void keyedAlgorithmCanNotBeUsedWithoutKey() {
+        PasswordEncodingAlgorithm.HMAC_SHA256.encoder();
+    }
+
+    @Test(expected = InsufficientEntropyException.class)
+    public void hmacRefusesToHashLowEntropySecrets() {
+        encoderFor(PasswordEncodingAlgorithm.HMAC_SHA256).encode("correct horse battery staple");
+    }
+
+    @Test(expected = InsufficientEntropyException.class)
+    public void hmacRefusesToHashRepetitiveSecrets() {
+        encoderFor(PasswordEncodingAlgorithm.HMAC_SHA256).encode("abababababababababababababababababababababababababababab");
+    }
+
+    @Test
+    public void hmacAcceptsRandomApiKeys() {
+        PasswordEncoder encoder = encoderFor(PasswordEncodingAlgorithm.HMAC_SHA256);
+        String apiKey = RandomStringUtils.randomAlphanumeric(43);
+        String hash = encoder.encode(apiKey);
+        assertThat(hash).startsWith("$hmac-sha256$");
+        assertThat(encoder.matches(apiKey, hash)).isTrue();
+        assertThat(encoder.matches("wrong", hash)).isFalse();
+    }
+
+    @Test
+    public void hmacHashDependsOnKey() {
+        String apiKey = RandomStringUtils.randomAlphanumeric(43);
+        String hash = encoderFor(PasswordEncodingAlgorithm.HMAC_SHA256).encode(apiKey);
+        byte[] otherKey = new byte[32];
+        otherKey[0] = 1;
+        assertThat(PasswordEncodingAlgorithm.HMAC_SHA256.encoder(HashingKeys.of("0", otherKey)).matches(apiKey, hash)).isFalse();
+    }
+
+    @Test
+    public void hmacVerifiesWithKeyThatWasUsedForHashing() {
+        String apiKey = RandomStringUtils.randomAlphanumeric(43);
+        byte[] newKey = new byte[32];
+        newKey[0] = 1;
+        String hash = PasswordEncodingAlgorithm.HMAC_SHA256.encoder(HashingKeys.of("2", newKey)).encode(apiKey);
+        assertThat(hash).startsWith("$hmac-sha256$2$");
+        HashingKeys ring = new HashingKeys() {
+            @Override
+            public String currentKeyId() {
+                return "3";
+            }
+
+            @Override
+            public byte[] key(String keyId) {
+                return keyId.equals("2") ? newKey : new byte[32];
+            }
+        };
+        assertThat(PasswordEncodingAlgorithm.HMAC_SHA256.encoder(ring).matches(apiKey, hash)).isTrue();
+    }
+
+    @Test
+    public void hmacUnderstandsHashesWithoutKeyId() {
+        String apiKey = "ag2n2USptX7vydBvItoOrE7CM9vpDyHAlGLl4ptnq0Z";
+        String hash = "$hmac-sha256$" + encoderFor(PasswordEncodingAlgorithm.HMAC_SHA256).encode(apiKey).substring("$hmac-sha256$0$".length());
+        assertThat(encoderFor(PasswordEncodingAlgorithm.HMAC_SHA256).matches(apiKey, hash)).isTrue();
+    }
+
+    @Test(expected = InsufficientEntropyException.class)
+    public void hmacRefusesToHashHumanPassphrases() {
+        encoderFor(PasswordEncodingAlgorithm.HMAC_SHA256).encode("Tr0ub4dor & 3 purple elephants dancing!");
+    }
+
+    @Test
+    public void acceptsOnlyMachineGeneratedSecrets() {
+        assertThat(HmacSHA256PasswordEncoder.isMachineGeneratedSecret("")).isFalse();
+        assertThat(HmacSHA256PasswordEncoder.isMachineGeneratedSecret("q8Zr2LxV7mT4wKp9sNc3Hy6Jd1Bf5Ge0")).isFalse();
+        assertThat(HmacSHA256PasswordEncoder.isMachineGeneratedSecret("correct horse battery staple and some more words")).isFalse();
+        assertThat(HmacSHA256PasswordEncoder.isMachineGeneratedSecret("ag2n2USptX7vydBvItoOrE7CM9vpDyHAlGLl4ptnq0Z")).isTrue();
+        assertThat(HmacSHA256PasswordEncoder.isMachineGeneratedSecret("ag2n2USptX7vydBvItoOrE7CM9vpDyHAlGLl4ptnq0Z=")).isTrue();
+        assertThat(HmacSHA256PasswordEncoder.isMachineGeneratedSecret("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08")).isTrue();
+        assertThat(HmacSHA256PasswordEncoder.isMachineGeneratedSecret("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f0")).isFalse();
+    }
+
+    @Test
+    public void comparesCostParametersOfHash() {
+        String bcrypt = "$2a$10$WalY3BJdrzuAAXfNyx7O2u0tXuw5UH9RZ.ZKMYhzfMS6L2IpfnwaG";
+        assertThat(PasswordEncodingAlgorithm.SHA256_BCRYPT.isWeaker(bcrypt, EncoderParameters.DEFAULTS)).isTrue();
+        assertThat(PasswordEncodingAlgorithm.SHA256_BCRYPT.isWeaker(bcrypt, EncoderParameters.parse("cost=10"))).isFalse();
+
+        String argon2 = "$argon2id$v=19$m=19456,t=1,p=1$c29tZXNhbHQ$CTFhFdXPJO1aFaMaO6Mm5c8y7cJHAph8ArZWb2GRPPc";
+        assertThat(PasswordEncodingAlgorithm.ARGON2ID.isWeaker(argon2, EncoderParameters.parse("m=65536,t=3,p=4"))).isTrue();
+        assertThat(PasswordEncodingAlgorithm.ARGON2ID.isWeaker(argon2, EncoderParameters.parse("m=19456,t=3"))).isTrue();
+        assertThat(PasswordEncodingAlgorithm.ARGON2ID.isWeaker(argon2, EncoderParameters.parse("m=19456,t=1,p=4"))).isFalse();
+    }
+
+    private static PasswordEncoder encoderFor(PasswordEncodingAlgorithm algorithm) {
+        return algorithm.requiresKey() ? algorithm.encoder(HashingKeys.of("0", new byte[32])) : algorithm.encoder();
+    }
+
+    private static String passwordFor(PasswordEncodingAlgorithm algorithm) {
+        return algorithm.requiresKey() ? RandomStringUtils.randomAlphanumeric(43) : "password";
+    }
 }
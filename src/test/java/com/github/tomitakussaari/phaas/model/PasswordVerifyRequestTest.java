@@ -17,6 +17,13 @@ public class PasswordVerifyRequestTest {
         assertThat(request.schemeId()).isEqualTo(12);
     }
 
+    @Test
+    public void understandsV2Hash() {
+        PasswordVerifyRequest request = new PasswordVerifyRequest("pw", "v2.3.bm9uY2U.Y2lwaGVydGV4dA");
+        assertThat(request.schemeId()).isEqualTo(3);
+        assertThat(request.getProtectedHash().getFormat()).isEqualTo(ProtectedPasswordHash.Format.V2);
+    }
+
     @Test(expected = NullPointerException.class)
     public void newInstanceCreationRequiresHash() {
         new PasswordVerifyRequest("password", null);
@@ -0,0 +1,39 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.github.tomitakussaari.phaas.model.ProtectedPasswordHash.Format;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProtectedPasswordHashTest {
+
+    @Test
+    public void parsesLegacyFormat() {
+        ProtectedPasswordHash hash = ProtectedPasswordHash.parse("12.wannaBeSalt.hashedPasswordWouldBeHere");
+        assertThat(hash.getFormat()).isEqualTo(Format.LEGACY);
+        assertThat(hash.getSchemeId()).isEqualTo(12);
+        assertThat(hash.getSalt()).isEqualTo("wannaBeSalt");
+        assertThat(hash.getEncryptedHash()).isEqualTo("hashedPasswordWouldBeHere");
+        assertThat(hash.getHash()).isEqualTo("12.wannaBeSalt.hashedPasswordWouldBeHere");
+    }
+
+    @Test
+    public void parsesV2Format() {
+        ProtectedPasswordHash hash = ProtectedPasswordHash.parse("v2.7.bm9uY2U.Y2lwaGVydGV4dA");
+        assertThat(hash.getFormat()).isEqualTo(Format.V2);
+        assertThat(hash.getSchemeId()).isEqualTo(7);
+        assertThat(hash.getSalt()).isEqualTo("bm9uY2U");
+        assertThat(hash.getEncryptedHash()).isEqualTo("Y2lwaGVydGV4dA");
+        assertThat(hash.getHash()).isEqualTo("v2.7.bm9uY2U.Y2lwaGVydGV4dA");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownFormat() {
+        ProtectedPasswordHash.parse("1.foobar");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonNumericSchemeId() {
+        ProtectedPasswordHash.parse("v2.x.bm9uY2U.Y2lwaGVydGV4dA");
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.tomitakussaari.phaas.model;
+
+import com.google.common.hash.Hashing;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SHA256AndBCryptPasswordEncoder} to previous implementation, which hex encoded Guava SHA-256 into String
+ * and used Spring Security's {@link BCryptPasswordEncoder}. Run with main method, GC profiler shows allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SHA256AndBCryptBenchmark {
+
+    private static final String PASSWORD = "benchmark password";
+
+    @Param({"4", "10"})
+    private int cost;
+
+    private SHA256AndBCryptPasswordEncoder encoder;
+    private BCryptPasswordEncoder springEncoder;
+    private String hash;
+
+    @Setup
+    public void setUp() {
+        encoder = new SHA256AndBCryptPasswordEncoder(EncoderParameters.DEFAULTS.with(EncoderParameters.COST, cost));
+        springEncoder = new BCryptPasswordEncoder(cost);
+        hash = encoder.encode(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return encoder.matches(PASSWORD, hash);
+    }
+
+    @Benchmark
+    public boolean springVerify() {
+        return springEncoder.matches(Hashing.sha256().hashString(PASSWORD, StandardCharsets.UTF_8).toString(), hash);
+    }
+
+    @Benchmark
+    public String hash() {
+        return encoder.encode(PASSWORD);
+    }
+
+    @Benchmark
+    public String springHash() {
+        return springEncoder.encode(Hashing.sha256().hashString(PASSWORD, StandardCharsets.UTF_8).toString());
+    }
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SHA256AndBCryptBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.tomitakussaari.phaas.user;
+
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
+import com.github.tomitakussaari.phaas.user.dao.UserDTO;
+import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import com.github.tomitakussaari.phaas.util.PepperSource;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.security.web.authentication.preauth.x509.SubjectDnX509PrincipalExtractor;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class CertificateUsersTest {
+
+    private static final String KEYSTORE_PASSWORD = "changeit";
+
+    private final UsersService usersService = Mockito.mock(UsersService.class);
+    private final CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+    private final UserDTO userDTO = new UserDTO(1, "service-a", UsersService.USER_ROLE_VALUE, null);
+
+    @Test
+    public void usesKeysFromSealedKeyStore() throws Exception {
+        PhaasUser user = new PhaasUser(userDTO, Arrays.asList(configuration(1, false), configuration(2, true)), cryptoHelper);
+        when(usersService.loadUserByUsername("service-a")).thenReturn(user);
+        CertificateUsers certificateUsers = new CertificateUsers(usersService, sealedKeyStore(1, "old-key", 2, "active-key"));
+
+        PhaasUser certificateUser = (PhaasUser) certificateUsers.loadUserDetails(new PreAuthenticatedAuthenticationToken("service-a", "N/A"));
+
+        assertThat(certificateUser.getUserPassword()).isNull();
+        assertThat(certificateUser.currentlyActiveCryptoData().getDataProtectionKey()).isEqualTo("active-key");
+        assertThat(certificateUser.cryptoDataForId(1).getDataProtectionKey()).isEqualTo("old-key");
+    }
+
+    @Test(expected = UsernameNotFoundException.class)
+    public void rejectsUserWhenActiveSchemeKeyIsNotSealed() throws Exception {
+        PhaasUser user = new PhaasUser(userDTO, Arrays.asList(configuration(1, false), configuration(2, true)), cryptoHelper);
+        when(usersService.loadUserByUsername("service-a")).thenReturn(user);
+        CertificateUsers certificateUsers = new CertificateUsers(usersService, sealedKeyStore(1, "old-key"));
+
+        certificateUsers.loadUserDetails(new PreAuthenticatedAuthenticationToken("service-a", "N/A"));
+    }
+
+    @Test
+    public void extractsUserNameFromCertificateSubject() throws Exception {
+        SubjectDnX509PrincipalExtractor extractor = new SubjectDnX509PrincipalExtractor();
+        extractor.setSubjectDnRegex(CertificateUsers.DEFAULT_SUBJECT_PATTERN);
+        assertThat(extractor.extractPrincipal(selfSignedCertificate("CN=service-a, OU=backend, O=phaas"))).isEqualTo("service-a");
+        assertThat(extractor.extractPrincipal(selfSignedCertificate("O=phaas, CN=service-b"))).isEqualTo("service-b");
+    }
+
+    private UserConfigurationDTO configuration(int id, boolean active) {
+        return new UserConfigurationDTO(id, userDTO.getUserName(), "not-used", active, PasswordEncodingAlgorithm.SHA256_BCRYPT);
+    }
+
+    private static SealedKeyStore sealedKeyStore(Object... schemeIdsAndKeys) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        keyStore.load(null, null);
+        for (int i = 0; i < schemeIdsAndKeys.length; i += 2) {
+            SecretKeySpec key = new SecretKeySpec(((String) schemeIdsAndKeys[i + 1]).getBytes(StandardCharsets.UTF_8), "PBE");
+            keyStore.setEntry(String.valueOf(schemeIdsAndKeys[i]), new KeyStore.SecretKeyEntry(key), new KeyStore.PasswordProtection(KEYSTORE_PASSWORD.toCharArray()));
+        }
+        File keyStoreFile = File.createTempFile("sealed-keys", ".jceks");
+        keyStoreFile.deleteOnExit();
+        try (OutputStream output = new FileOutputStream(keyStoreFile)) {
+            keyStore.store(output, KEYSTORE_PASSWORD.toCharArray());
+        }
+        return SealedKeyStore.load(keyStoreFile.getAbsolutePath(), KEYSTORE_PASSWORD);
+    }
+
+    private static X509Certificate selfSignedCertificate(String subject) throws IOException, GeneralSecurityException, InterruptedException {
+        File keyStoreFile = File.createTempFile("client-certificate", ".p12");
+        keyStoreFile.delete();
+        keyStoreFile.deleteOnExit();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "client", "-keyalg", "EC", "-dname", subject, "-validity", "1",
+                "-keystore", keyStoreFile.getAbsolutePath(), "-storetype", "PKCS12", "-storepass", KEYSTORE_PASSWORD, "-keypass", KEYSTORE_PASSWORD)
+                .redirectErrorStream(true).start();
+        assertThat(process.waitFor()).isEqualTo(0);
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = new FileInputStream(keyStoreFile)) {
+            keyStore.load(input, KEYSTORE_PASSWORD.toCharArray());
+        }
+        return (X509Certificate) keyStore.getCertificate("client");
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.tomitakussaari.phaas.user;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
+import com.github.tomitakussaari.phaas.user.dao.UserDTO;
+import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import com.github.tomitakussaari.phaas.util.PepperSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.SHA256_BCRYPT;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Compares scheme lookups of {@link PhaasUser} against previous implementation, which streamed over configurations
+ * and created new {@link DataProtectionScheme} on every call. Run with main method, GC profiler shows allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaasUserBenchmark {
+
+    private static final int SCHEMES = 5;
+
+    private final CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+    private List<UserConfigurationDTO> configurations;
+    private PhaasUser user;
+
+    @Setup
+    public void setUp() {
+        configurations = new ArrayList<>();
+        for (int id = 1; id <= SCHEMES; id++) {
+            configurations.add(new UserConfigurationDTO(id, "user", "key-" + id, id == SCHEMES, SHA256_BCRYPT));
+        }
+        user = new PhaasUser(new UserDTO(1, "user", UsersService.USER_ROLE_VALUE, null), configurations, cryptoHelper);
+    }
+
+    @Benchmark
+    public void schemeTable(Blackhole blackhole) {
+        blackhole.consume(user.activeProtectionScheme());
+        blackhole.consume(user.protectionScheme(1));
+        blackhole.consume(user.protectionSchemes());
+    }
+
+    @Benchmark
+    public void streamingLookup(Blackhole blackhole) {
+        blackhole.consume(configurations.stream().filter(UserConfigurationDTO::isActive).findFirst()
+                .map(config -> config.toProtectionScheme(cryptoHelper)).orElseThrow(IllegalStateException::new));
+        blackhole.consume(configurations.stream().filter(config -> config.getId().equals(1)).findFirst()
+                .map(config -> config.toProtectionScheme(cryptoHelper)).orElseThrow(IllegalStateException::new));
+        blackhole.consume(configurations.stream().map(config -> config.toProtectionScheme(cryptoHelper)).collect(toList()));
+    }
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PhaasUserBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -1,7 +1,17 @@
 package com.github.tomitakussaari.phaas.user;
 
+import com.github.tomitakussaari.phaas.model.ProtectionSchemeNotFoundException;
+import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
+import com.github.tomitakussaari.phaas.user.dao.UserDTO;
+import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import com.github.tomitakussaari.phaas.util.PepperSource;
 import org.junit.Test;
 
+import java.util.Collections;
+
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.SHA256_BCRYPT;
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class PhaasUserTest {
 
     @Test(expected = UnsupportedOperationException.class)
@@ -10,4 +20,25 @@ public class PhaasUserTest {
         phaasUser.getPassword();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void returnsSameSchemeInstancesOnEveryCall() {
+        PhaasUser phaasUser = userWithScheme(new UserConfigurationDTO(1, "user", "key", true, SHA256_BCRYPT));
+        assertThat(phaasUser.activeProtectionScheme()).isSameAs(phaasUser.activeProtectionScheme());
+        assertThat(phaasUser.protectionScheme(1)).isSameAs(phaasUser.activeProtectionScheme());
+    }
+
+    @Test(expected = ProtectionSchemeNotFoundException.class)
+    public void failsWhenThereIsNoActiveScheme() {
+        userWithScheme(new UserConfigurationDTO(1, "user", "key", false, SHA256_BCRYPT)).activeProtectionScheme();
+    }
+
+    @Test(expected = ProtectionSchemeNotFoundException.class)
+    public void failsWhenSchemeIsNotFound() {
+        userWithScheme(new UserConfigurationDTO(1, "user", "key", true, SHA256_BCRYPT)).protectionScheme(2);
+    }
+
+    private static PhaasUser userWithScheme(UserConfigurationDTO configuration) {
+        return new PhaasUser(new UserDTO(1, "user", UsersService.USER_ROLE_VALUE, null),
+                Collections.singletonList(configuration), new CryptoHelper(new PepperSource("")));
+    }
+}
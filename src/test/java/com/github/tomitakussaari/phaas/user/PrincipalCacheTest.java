@@ -0,0 +1,54 @@
+package com.github.tomitakussaari.phaas.user;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrincipalCacheTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final PrincipalCache principalCache = new PrincipalCache(10, 60, metricRegistry);
+    private final PhaasUser user = Mockito.mock(PhaasUser.class);
+
+    @Test
+    public void returnsCachedUserOnlyWithSameCredentials() {
+        principalCache.put("user", "password", user);
+        assertThat(principalCache.get("user", "password").orElse(null)).isSameAs(user);
+        assertThat(principalCache.get("user", "password2").isPresent()).isFalse();
+        assertThat(principalCache.get("user2", "password").isPresent()).isFalse();
+    }
+
+    @Test
+    public void invalidatesAllEntriesOfUser() {
+        principalCache.put("user", "password", user);
+        principalCache.put("user", "other-password", user);
+        principalCache.put("user2", "password", user);
+
+        principalCache.invalidate("user");
+
+        assertThat(principalCache.get("user", "password").isPresent()).isFalse();
+        assertThat(principalCache.get("user", "other-password").isPresent()).isFalse();
+        assertThat(principalCache.get("user2", "password").orElse(null)).isSameAs(user);
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        principalCache.get("user", "password");
+        principalCache.put("user", "password", user);
+        principalCache.get("user", "password");
+        principalCache.get("user", "password");
+
+        assertThat(metricRegistry.counter("authentication.cache.hits").getCount()).isEqualTo(2);
+        assertThat(metricRegistry.counter("authentication.cache.misses").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.getGauges().get("authentication.cache.size").getValue()).isEqualTo(1L);
+    }
+
+    @Test
+    public void cachingCanBeDisabledWithZeroSize() {
+        PrincipalCache disabled = new PrincipalCache(0, 60, new MetricRegistry());
+        disabled.put("user", "password", user);
+        assertThat(disabled.get("user", "password").isPresent()).isFalse();
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.tomitakussaari.phaas.user;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
+import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import com.github.tomitakussaari.phaas.util.PepperSource;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.SHA256_BCRYPT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SchemeTableTest {
+
+    private final CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+    private final SchemeTable schemeTable = new SchemeTable(Arrays.asList(
+            new UserConfigurationDTO(7, "user", "key-7", false, SHA256_BCRYPT),
+            new UserConfigurationDTO(3, "user", "key-3", true, ARGON2),
+            new UserConfigurationDTO(12, "user", "key-12", true, SHA256_BCRYPT),
+            new UserConfigurationDTO(3, "user", "duplicate-key-3", false, SHA256_BCRYPT)), cryptoHelper);
+
+    @Test
+    public void findsSchemesById() {
+        assertThat(schemeTable.byId(7).getEncryptedKeyWithSalt()).isEqualTo("key-7");
+        assertThat(schemeTable.byId(12).getEncryptedKeyWithSalt()).isEqualTo("key-12");
+        assertThat(schemeTable.byId(5)).isNull();
+    }
+
+    @Test
+    public void firstSchemeWinsLikeBefore() {
+        assertThat(schemeTable.active().getId()).isEqualTo(3);
+        assertThat(schemeTable.byId(3).getEncryptedKeyWithSalt()).isEqualTo("key-3");
+    }
+
+    @Test
+    public void reusesSchemeInstances() {
+        DataProtectionScheme active = schemeTable.active();
+        assertThat(schemeTable.byId(3)).isSameAs(active);
+        assertThat(schemeTable.all().get(1)).isSameAs(active);
+    }
+
+    @Test
+    public void keepsSchemesInConfigurationOrder() {
+        assertThat(schemeTable.all()).extracting(DataProtectionScheme::getEncryptedKeyWithSalt)
+                .containsExactly("key-7", "key-3", "key-12", "duplicate-key-3");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void isImmutable() {
+        schemeTable.all().clear();
+    }
+
+    @Test
+    public void worksWithoutSchemes() {
+        SchemeTable empty = new SchemeTable(Collections.emptyList(), cryptoHelper);
+        assertThat(empty.active()).isNull();
+        assertThat(empty.byId(1)).isNull();
+        assertThat(empty.all()).isEmpty();
+    }
+}
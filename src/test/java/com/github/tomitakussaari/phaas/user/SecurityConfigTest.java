@@ -1,5 +1,6 @@
 package com.github.tomitakussaari.phaas.user;
 
+import com.codahale.metrics.MetricRegistry;
 import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
 import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
 import com.github.tomitakussaari.phaas.user.SecurityConfig.PhaasAuthenticator;
@@ -9,24 +10,33 @@ import org.junit.Test;
 import org.mockito.Mockito;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
-import static com.github.tomitakussaari.phaas.user.SecurityConfig.USER_NOT_FOUND_PASSWORD;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class SecurityConfigTest {
 
     private final UsersService usersService = Mockito.mock(UsersService.class);
-    private final CryptoHelper mockCryptoHelper = Mockito.mock(CryptoHelper.class);
+    private final CryptoHelper.Decoy userNotFoundDecoy = Mockito.mock(CryptoHelper.Decoy.class);
     private final CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource("foo"));
-    private final String userNotFoundCryptedData = cryptoHelper.encryptData(USER_NOT_FOUND_PASSWORD, "data");
     private final UsernamePasswordAuthenticationToken authenticationToken = Mockito.mock(UsernamePasswordAuthenticationToken.class);
     private final String encryptedData = cryptoHelper.encryptData("correct-password", "my-data");
     private final DataProtectionScheme dataProtectionScheme = new DataProtectionScheme(1, PasswordEncodingAlgorithm.SHA256_BCRYPT, encryptedData, cryptoHelper);
     private final PhaasUser phaasuser = Mockito.mock(PhaasUser.class);
-    private final PhaasAuthenticator authenticator = new PhaasAuthenticator(usersService, mockCryptoHelper, userNotFoundCryptedData);
+    private final PrincipalCache principalCache = new PrincipalCache(10, 60, new MetricRegistry());
+    private final PhaasAuthenticator authenticator = new PhaasAuthenticator(usersService, userNotFoundDecoy, principalCache, true);
 
     @Test(expected = BadCredentialsException.class)
     public void rejectsInvalidPassword() {
@@ -49,7 +59,65 @@ public class SecurityConfigTest {
             authenticator.retrieveUser("foobar", authenticationToken);
             fail("should have thrown user not found");
         } catch(UsernameNotFoundException expected) {
-            verify(mockCryptoHelper).decryptData("userNotFoundPassword", userNotFoundCryptedData);
+            verify(userNotFoundDecoy).decrypt();
+        }
+    }
+
+    @Test
+    public void rewrapsOutdatedKeysInBackground() {
+        String version2Data = "$2.57b384772a17e677.2b94f67aa84311ad8bdc00deb666e3237b15ce6562e2ff1a94141241d20fac3c1c78d34f4ce3e5545990af5e19c4";
+        DataProtectionScheme outdatedScheme = new DataProtectionScheme(1, PasswordEncodingAlgorithm.SHA256_BCRYPT, version2Data, new CryptoHelper(new PepperSource("")));
+        when(authenticationToken.getCredentials()).thenReturn("password");
+        when(phaasuser.getUsername()).thenReturn("user");
+        when(phaasuser.activeProtectionScheme()).thenReturn(outdatedScheme);
+        when(phaasuser.protectionSchemes()).thenReturn(Collections.singletonList(outdatedScheme));
+
+        authenticator.additionalAuthenticationChecks(phaasuser, authenticationToken);
+
+        verify(usersService, timeout(5000)).rewrapOutdatedKeys("user", "password");
+    }
+
+    @Test
+    public void doesNotRewrapUpToDateKeys() {
+        when(authenticationToken.getCredentials()).thenReturn("correct-password");
+        when(phaasuser.activeProtectionScheme()).thenReturn(dataProtectionScheme);
+        when(phaasuser.protectionSchemes()).thenReturn(Collections.singletonList(dataProtectionScheme));
+
+        authenticator.additionalAuthenticationChecks(phaasuser, authenticationToken);
+
+        verify(usersService, never()).rewrapOutdatedKeys(anyString(), any());
+    }
+
+    private void userIsFound() {
+        when(usersService.loadUserByUsername("user")).thenReturn(phaasuser);
+        when(phaasuser.activeProtectionScheme()).thenReturn(dataProtectionScheme);
+        when(phaasuser.isAccountNonExpired()).thenReturn(true);
+        when(phaasuser.isAccountNonLocked()).thenReturn(true);
+        when(phaasuser.isCredentialsNonExpired()).thenReturn(true);
+        when(phaasuser.isEnabled()).thenReturn(true);
+        doReturn(Collections.emptyList()).when(phaasuser).getAuthorities();
+    }
+
+    @Test
+    public void usesCachedUserForRepeatedAuthenticationWithSameCredentials() {
+        userIsFound();
+
+        Authentication first = authenticator.authenticate(new UsernamePasswordAuthenticationToken("user", "correct-password"));
+        Authentication second = authenticator.authenticate(new UsernamePasswordAuthenticationToken("user", "correct-password"));
+
+        assertThat(second.getPrincipal()).isSameAs(first.getPrincipal());
+        verify(usersService, times(1)).loadUserByUsername("user");
+    }
+
+    @Test
+    public void doesNotUseCachedUserWhenCredentialsAreDifferent() {
+        userIsFound();
+        authenticator.authenticate(new UsernamePasswordAuthenticationToken("user", "correct-password"));
+        try {
+            authenticator.authenticate(new UsernamePasswordAuthenticationToken("user", "wrong-password"));
+            fail("should have rejected wrong password");
+        } catch (BadCredentialsException expected) {
+            verify(usersService, times(2)).loadUserByUsername("user");
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.github.tomitakussaari.phaas.user;
+
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.github.tomitakussaari.phaas.model.ProtectionSchemeNotFoundException;
+import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
+import com.github.tomitakussaari.phaas.user.dao.UserDTO;
+import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import com.github.tomitakussaari.phaas.util.PepperSource;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class SessionTokensTest {
+
+    private final CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+    private final SessionTokens sessionTokens = new SessionTokens(Duration.ofMinutes(5), 10, cryptoHelper);
+    private final String encryptedKey = cryptoHelper.encryptData("password", "my-data-protection-key");
+    private final PhaasUser user = user();
+
+    @Test
+    public void authenticatesWithIssuedToken() {
+        String token = sessionTokens.issue(user).getToken();
+
+        PhaasUser authenticated = sessionTokens.authenticate(token).orElseThrow(AssertionError::new);
+
+        assertThat(authenticated.getUsername()).isEqualTo("user");
+        assertThat(authenticated.getUserPassword()).isNull();
+        assertThat(authenticated.communicationSigningKey()).isEqualTo("signing-key");
+        assertThat(authenticated.activeProtectionScheme().getId()).isEqualTo(1);
+        assertThat(authenticated.currentlyActiveCryptoData().getDataProtectionKey()).isEqualTo("my-data-protection-key");
+        assertThat(authenticated.getAuthorities()).hasSize(1);
+    }
+
+    @Test
+    public void tokenContainsNeitherPasswordNorKeys() {
+        String token = sessionTokens.issue(user).getToken();
+
+        String decoded = new String(Base64.getUrlDecoder().decode(token));
+        assertThat(token.contains("password") || decoded.contains("password")).isFalse();
+        assertThat(token.contains("my-data-protection-key") || decoded.contains("my-data-protection-key")).isFalse();
+        assertThat(Base64.getUrlDecoder().decode(token)).hasSize(32);
+    }
+
+    @Test
+    public void rejectsTokenOfOtherInstance() {
+        SessionTokens otherInstance = new SessionTokens(Duration.ofMinutes(5), 10, cryptoHelper);
+        assertThat(sessionTokens.authenticate(otherInstance.issue(user).getToken()).isPresent()).isFalse();
+    }
+
+    @Test
+    public void rejectsExpiredToken() {
+        SessionTokens expiringTokens = new SessionTokens(Duration.ofSeconds(-1), 10, cryptoHelper);
+        assertThat(expiringTokens.authenticate(expiringTokens.issue(user).getToken()).isPresent()).isFalse();
+    }
+
+    @Test
+    public void rejectsTokensIssuedBeforeRevocation() {
+        String token = sessionTokens.issue(user).getToken();
+        sessionTokens.revoke("user");
+        assertThat(sessionTokens.authenticate(token).isPresent()).isFalse();
+        assertThat(sessionTokens.authenticate(sessionTokens.issue(user).getToken()).isPresent()).isTrue();
+    }
+
+    @Test
+    public void revocationDestroysKeysOfAuthenticatedSessions() {
+        PhaasUser authenticated = sessionTokens.authenticate(sessionTokens.issue(user).getToken()).orElseThrow(AssertionError::new);
+
+        sessionTokens.revoke("user");
+
+        assertThat(sessionTokens.sessions()).isEqualTo(0);
+        try {
+            authenticated.currentlyActiveCryptoData();
+            fail("should not have key anymore");
+        } catch (ProtectionSchemeNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsGarbage() {
+        assertThat(sessionTokens.authenticate("not-a-token").isPresent()).isFalse();
+    }
+
+    private PhaasUser user() {
+        UserDTO userDTO = new UserDTO(1, "user", UsersService.USER_ROLE_VALUE, "signing-key");
+        UserConfigurationDTO configuration = new UserConfigurationDTO(1, "user", encryptedKey, true, PasswordEncodingAlgorithm.SHA256_BCRYPT);
+        PhaasUser phaasUser = new PhaasUser(userDTO, Collections.singletonList(configuration), cryptoHelper);
+        phaasUser.setUserPassword("password");
+        return phaasUser;
+    }
+}
@@ -1,15 +1,18 @@
 package com.github.tomitakussaari.phaas.user;
 
+import com.codahale.metrics.MetricRegistry;
 import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
 import com.github.tomitakussaari.phaas.user.UsersFromEnvironment.UserData;
 import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
 import com.github.tomitakussaari.phaas.user.dao.UserConfigurationRepository;
 import com.github.tomitakussaari.phaas.user.dao.UserDTO;
 import com.github.tomitakussaari.phaas.user.dao.UserRepository;
+import com.github.tomitakussaari.phaas.util.CostCalibrator;
 import com.github.tomitakussaari.phaas.util.CryptoHelper;
 import com.github.tomitakussaari.phaas.util.PepperSource;
 import org.mockito.Mockito;
 
+import java.time.Duration;
 import java.util.Collections;
 
 import static org.mockito.Matchers.any;
@@ -26,7 +29,8 @@ public class UsersFromEnvironmentStringCreator {
     public static void main(String... args) {
         String sharedSecret = "secret";
         String password = "my-password";
-        UsersService usersService = new UsersService(userConfigurationRepository, userRepository, new CryptoHelper(new PepperSource("secret-pepper")));
+        UsersService usersService = new UsersService(userConfigurationRepository, userRepository, new CryptoHelper(new PepperSource("secret-pepper")), new PrincipalCache(0, 0, new MetricRegistry()),
+                new SessionTokens(Duration.ofMinutes(1), 10, null), CostCalibrator.withDefaults());
         final UserData userData = new UserData();
         when(userRepository.save(any(UserDTO.class))).then(invocationOnMock -> {
             userData.setUserDTO((UserDTO) invocationOnMock.getArguments()[0]);
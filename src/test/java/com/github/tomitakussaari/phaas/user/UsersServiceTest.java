@@ -1,13 +1,136 @@
 package com.github.tomitakussaari.phaas.user;
 
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
 import com.github.tomitakussaari.phaas.user.UsersService.ROLE;
+import com.github.tomitakussaari.phaas.user.dao.UserConfigurationDTO;
+import com.github.tomitakussaari.phaas.user.dao.UserConfigurationRepository;
+import com.github.tomitakussaari.phaas.user.dao.UserDTO;
+import com.github.tomitakussaari.phaas.user.dao.UserRepository;
+import com.github.tomitakussaari.phaas.util.CostCalibrator;
+import com.github.tomitakussaari.phaas.util.CryptoHelper;
+import com.github.tomitakussaari.phaas.util.PepperSource;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class UsersServiceTest {
 
+    private final UserConfigurationRepository userConfigurationRepository = Mockito.mock(UserConfigurationRepository.class);
+    private final UserRepository userRepository = Mockito.mock(UserRepository.class);
+    private final CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+    private final CostCalibrator costCalibrator = Mockito.mock(CostCalibrator.class);
+    private final PrincipalCache principalCache = new PrincipalCache(10, 60, new MetricRegistry());
+    private final UsersService usersService = new UsersService(userConfigurationRepository, userRepository, cryptoHelper,
+            principalCache, new SessionTokens(Duration.ofMinutes(1), 10, cryptoHelper), costCalibrator);
+
+    @Test
+    public void invalidatesCachedPrincipalAgainAfterCommit() {
+        when(userRepository.findByUserName("user")).thenReturn(Optional.of(new UserDTO(1, "user", UsersService.USER_ROLE_VALUE, null)));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            usersService.deleteUser("user");
+            principalCache.put("user", "password", Mockito.mock(PhaasUser.class)); // concurrent authentication read uncommitted rows
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertThat(principalCache.get("user", "password").isPresent()).isFalse();
+    }
+
+    @Test
+    public void rewrapsOutdatedKeysWithoutChangingKeys() {
+        String version2Data = "$2.57b384772a17e677.2b94f67aa84311ad8bdc00deb666e3237b15ce6562e2ff1a94141241d20fac3c1c78d34f4ce3e5545990af5e19c4";
+        UserConfigurationDTO outdated = new UserConfigurationDTO(1, "user", version2Data, false, PasswordEncodingAlgorithm.SHA256_BCRYPT);
+        UserConfigurationDTO upToDate = new UserConfigurationDTO(2, "user", cryptoHelper.encryptData("password", "new-key"), true, PasswordEncodingAlgorithm.SHA256_BCRYPT);
+        String upToDateKey = upToDate.getDataProtectionKey();
+        when(userConfigurationRepository.findByUser("user")).thenReturn(asList(outdated, upToDate));
+        when(userConfigurationRepository.replaceDataProtectionKey(eq(1), eq(version2Data), anyString())).thenReturn(1);
+
+        usersService.rewrapOutdatedKeys("user", "password");
+
+        ArgumentCaptor<String> newKey = ArgumentCaptor.forClass(String.class);
+        verify(userConfigurationRepository).replaceDataProtectionKey(eq(1), eq(version2Data), newKey.capture());
+        verify(userConfigurationRepository, never()).replaceDataProtectionKey(eq(2), anyString(), anyString());
+        assertThat(upToDate.getDataProtectionKey()).isEqualTo(upToDateKey);
+        assertThat(cryptoHelper.isOutdated(newKey.getValue())).isFalse();
+        assertThat(cryptoHelper.decryptData("password", newKey.getValue())).isEqualTo("my-secret-data");
+        assertThat(newKey.getValue().split("\\.")[2]).isEqualTo(upToDateKey.split("\\.")[2]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doesNotOverwriteKeysThatChangedDuringRewrap() {
+        String version2Data = "$2.57b384772a17e677.2b94f67aa84311ad8bdc00deb666e3237b15ce6562e2ff1a94141241d20fac3c1c78d34f4ce3e5545990af5e19c4";
+        when(userConfigurationRepository.findByUser("user")).thenReturn(Collections.singletonList(
+                new UserConfigurationDTO(1, "user", version2Data, true, PasswordEncodingAlgorithm.SHA256_BCRYPT)));
+        when(userConfigurationRepository.replaceDataProtectionKey(eq(1), eq(version2Data), anyString())).thenReturn(0);
+
+        usersService.rewrapOutdatedKeys("user", "password");
+    }
+
+    @Test
+    public void newProtectionSchemeUsesCalibratedParameters() {
+        when(userRepository.findByUserName("user")).thenReturn(Optional.of(new UserDTO(1, "user", UsersService.USER_ROLE_VALUE, null)));
+        when(userConfigurationRepository.findByUser("user")).thenReturn(Collections.emptyList());
+        when(costCalibrator.parametersFor(PasswordEncodingAlgorithm.ARGON2)).thenReturn(EncoderParameters.parse("m=32768,p=2,t=3"));
+
+        usersService.newProtectionScheme("user", PasswordEncodingAlgorithm.ARGON2, "password", false);
+
+        ArgumentCaptor<UserConfigurationDTO> saved = ArgumentCaptor.forClass(UserConfigurationDTO.class);
+        verify(userConfigurationRepository).save(saved.capture());
+        assertThat(saved.getValue().getEncoderParameters()).isEqualTo("m=32768,p=2,t=3");
+        assertThat(saved.getValue().toProtectionScheme(cryptoHelper).getEncoderParameters()).isEqualTo(EncoderParameters.parse("t=3,m=32768,p=2"));
+    }
+
+    @Test
+    public void newServerReliefSchemeUsesDefaultParametersAndNewSalt() {
+        when(userRepository.findByUserName("user")).thenReturn(Optional.of(new UserDTO(1, "user", UsersService.USER_ROLE_VALUE, null)));
+        when(userConfigurationRepository.findByUser("user")).thenReturn(Collections.emptyList());
+
+        usersService.newProtectionScheme("user", PasswordEncodingAlgorithm.ARGON2, "password", false, true);
+
+        ArgumentCaptor<UserConfigurationDTO> saved = ArgumentCaptor.forClass(UserConfigurationDTO.class);
+        verify(userConfigurationRepository).save(saved.capture());
+        verify(costCalibrator, never()).parametersFor(PasswordEncodingAlgorithm.ARGON2);
+        assertThat(saved.getValue().getEncoderParameters()).isEqualTo("m=65536,p=2,t=2");
+        assertThat(saved.getValue().getServerReliefSalt()).isNotEmpty();
+        assertThat(saved.getValue().toProtectionScheme(cryptoHelper).isServerRelief()).isTrue();
+    }
+
+    @Test
+    public void renewingKeyProtectionKeepsEncoderParameters() {
+        UserDTO user = new UserDTO(1, "user", UsersService.USER_ROLE_VALUE, null);
+        UserConfigurationDTO config = new UserConfigurationDTO(1, "user", cryptoHelper.encryptData("password", "key"), true, PasswordEncodingAlgorithm.SHA256_BCRYPT, "cost=12");
+        when(userRepository.findByUserName("user")).thenReturn(Optional.of(user));
+        when(userRepository.save(user)).thenReturn(user);
+        when(userConfigurationRepository.findByUser("user")).thenReturn(Collections.singletonList(config));
+        when(costCalibrator.parametersFor(PasswordEncodingAlgorithm.SHA256_BCRYPT)).thenReturn(EncoderParameters.parse("cost=10"));
+
+        usersService.renewEncryptionKeyProtection("user", Optional.of("new-password"), "password", Optional.empty());
+
+        ArgumentCaptor<UserConfigurationDTO> saved = ArgumentCaptor.forClass(UserConfigurationDTO.class);
+        verify(userConfigurationRepository).save(saved.capture());
+        assertThat(saved.getValue().getEncoderParameters()).isEqualTo("cost=12");
+        assertThat(cryptoHelper.decryptData("new-password", saved.getValue().getDataProtectionKey())).isEqualTo("key");
+    }
+
     @Test
     public void roleParsingFailsForInvalidValue() {
         try {
@@ -0,0 +1,58 @@
+package com.github.tomitakussaari.phaas.util;
+
+import org.junit.Test;
+
+import java.nio.LongBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ArenaPoolTest {
+
+    @Test
+    public void reusesReleasedArenas() {
+        ArenaPool pool = new ArenaPool(2);
+        pool.acquire(1024).close();
+        pool.acquire(512).close();
+        assertThat(pool.allocations()).isEqualTo(1);
+        assertThat(pool.idleArenas()).isEqualTo(1);
+    }
+
+    @Test
+    public void replacesArenaThatIsTooSmall() {
+        ArenaPool pool = new ArenaPool(2);
+        pool.acquire(1024).close();
+        try (ArenaPool.Arena arena = pool.acquire(4096)) {
+            assertThat(arena.longs().remaining()).isEqualTo(512);
+        }
+        assertThat(pool.allocations()).isEqualTo(2);
+        assertThat(pool.idleArenas()).isEqualTo(1);
+    }
+
+    @Test
+    public void keepsAtMostMaxIdleArenas() {
+        ArenaPool pool = new ArenaPool(1);
+        ArenaPool.Arena first = pool.acquire(1024);
+        ArenaPool.Arena second = pool.acquire(1024);
+        first.close();
+        second.close();
+        assertThat(pool.allocations()).isEqualTo(2);
+        assertThat(pool.idleArenas()).isEqualTo(1);
+    }
+
+    @Test
+    public void wipesArenaWhenItIsReleased() {
+        ArenaPool pool = new ArenaPool(1);
+        try (ArenaPool.Arena arena = pool.acquire(16 * 1024)) {
+            LongBuffer longs = arena.longs();
+            while (longs.hasRemaining()) {
+                longs.put(-1L);
+            }
+        }
+        try (ArenaPool.Arena arena = pool.acquire(16 * 1024)) {
+            LongBuffer longs = arena.longs();
+            while (longs.hasRemaining()) {
+                assertThat(longs.get()).isEqualTo(0L);
+            }
+        }
+    }
+}
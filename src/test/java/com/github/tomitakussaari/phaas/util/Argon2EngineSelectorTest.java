@@ -0,0 +1,61 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.Argon2Engine;
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.core.env.Environment;
+
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2ID;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class Argon2EngineSelectorTest {
+
+    @Test
+    public void keepsArenaForEveryDefaultSizedOperationThatFitsIntoBudget() {
+        assertThat(Argon2EngineSelector.arenas(1024 * 1024)).isEqualTo(16);
+        assertThat(Argon2EngineSelector.arenas(1024)).isEqualTo(1);
+    }
+
+    @Test
+    public void usesJavaEngineWhenNativeArgon2idIsNotAvailable() {
+        Argon2Engine nativeArgon2id = Argon2Engine.NATIVE.isAvailable(ARGON2ID) ? Argon2Engine.NATIVE : Argon2Engine.JAVA;
+        assertThat(Argon2EngineSelector.available(ARGON2ID, Argon2Engine.NATIVE)).isEqualTo(nativeArgon2id);
+        assertThat(Argon2EngineSelector.available(ARGON2, Argon2Engine.NATIVE)).isEqualTo(Argon2Engine.NATIVE);
+        assertThat(Argon2EngineSelector.available(ARGON2ID, Argon2Engine.JAVA)).isEqualTo(Argon2Engine.JAVA);
+    }
+
+    @Test
+    public void selectsEnginePerAlgorithm() {
+        Environment environment = Mockito.mock(Environment.class);
+        when(environment.getProperty("phaas.encoder.argon2.engine", "native")).thenReturn("java");
+        when(environment.getProperty("phaas.encoder.argon2id.engine", "native")).thenReturn("native");
+        Argon2Engine.Selection selection = new Argon2EngineSelector(environment, MemoryAdmissionController.unlimited()).selection();
+        assertThat(selection.engine(ARGON2)).isEqualTo(Argon2Engine.JAVA);
+        assertThat(selection.engine(ARGON2ID)).isEqualTo(Argon2EngineSelector.available(ARGON2ID, Argon2Engine.NATIVE));
+        String hash = "$argon2i$v=19$m=256,t=2,p=1$cGhhYXMtdGVzdC1zYWx0IQ$UrNEJBFavqvARY9r2R3tWR/OI7A/R703/ASoc65jleA";
+        assertThat(ARGON2.encoder(EncoderParameters.DEFAULTS, selection).matches("password", hash)).isTrue();
+        assertThat(ARGON2ID.encoder(EncoderParameters.DEFAULTS, selection).matches("password", hash)).isFalse();
+    }
+
+    @Test
+    public void sendsHashesOfProcessEngineToWorkers() {
+        Argon2EngineSelector selector = new Argon2EngineSelector(Argon2Engine.PROCESS, Argon2Engine.NATIVE, 65536,
+                () -> new Argon2WorkerPool(1, 1, "java", 64, "", 30000));
+        String hash = "$argon2i$v=19$m=256,t=2,p=1$cGhhYXMtdGVzdC1zYWx0IQ$UrNEJBFavqvARY9r2R3tWR/OI7A/R703/ASoc65jleA";
+        assertThat(ARGON2.encoder(EncoderParameters.DEFAULTS, selector.selection()).matches("password", hash)).isTrue();
+        selector.close();
+    }
+
+    @Test
+    public void contextsCanSelectDifferentEngines() {
+        Argon2EngineSelector java = new Argon2EngineSelector(Argon2Engine.JAVA, Argon2Engine.JAVA, 65536);
+        Argon2EngineSelector nativeEngines = new Argon2EngineSelector(Argon2Engine.NATIVE, Argon2Engine.JAVA, 65536);
+        assertThat(java.selection().engine(ARGON2)).isEqualTo(Argon2Engine.JAVA);
+        assertThat(nativeEngines.selection().engine(ARGON2)).isEqualTo(Argon2Engine.NATIVE);
+        java.close();
+        nativeEngines.close();
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
+import com.github.tomitakussaari.phaas.util.MemoryAdmissionController.AdmissionRejectedException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2ID;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class Argon2WorkerPoolTest {
+
+    private static final String HASH = "$argon2i$v=19$m=256,t=2,p=1$cGhhYXMtdGVzdC1zYWx0IQ$UrNEJBFavqvARY9r2R3tWR/OI7A/R703/ASoc65jleA";
+    private static final EncoderParameters SMALL = EncoderParameters.parse("m=256,p=1,t=2");
+
+    /**
+     * Answers every request at once, except requests for hash "slow" that it never answers
+     */
+    private static final String FAKE_WORKER = "while read id op algorithm hash password; do if [ \"$hash\" != slow ]; then echo \"$id OK true\"; fi; done";
+    /**
+     * Like {@link #FAKE_WORKER}, but shows progress (answers to unknown request) after first request for hash "slow"
+     */
+    private static final String SLOW_BUT_ALIVE_WORKER = "while read id op algorithm hash password; do if [ \"$hash\" != slow ]; then echo \"$id OK true\"; "
+            + "else (while true; do echo \"0 OK alive\"; sleep 0.1; done) & fi; done";
+
+    private final Argon2WorkerPool pool = new Argon2WorkerPool(2, 2, "java", 64, "", 30000);
+
+    @After
+    public void close() {
+        pool.close();
+    }
+
+    @Test
+    public void verifiesAndHashesInWorkerProcesses() {
+        assertThat(pool.matches(ARGON2, "password", HASH)).isTrue();
+        assertThat(pool.matches(ARGON2, "password2", HASH)).isFalse();
+        String hash = pool.encode(ARGON2ID, SMALL, "pässword");
+        assertThat(hash).startsWith("$argon2id$v=19$m=256,t=2,p=1$");
+        assertThat(pool.matches(ARGON2ID, "pässword", hash)).isTrue();
+        assertThat(pool.matches(ARGON2ID, "password", hash)).isFalse();
+    }
+
+    @Test
+    public void pipelinesConcurrentRequests() {
+        List<CompletableFuture<Boolean>> results = IntStream.range(0, 20)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> pool.matches(ARGON2, i % 2 == 0 ? "password" : "wrong", HASH)))
+                .collect(toList());
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i).join()).isEqualTo(i % 2 == 0);
+        }
+    }
+
+    @Test
+    public void restartsWorkersThatHaveExited() {
+        pool.killWorkers();
+        assertThat(pool.matches(ARGON2, "password", HASH)).isTrue();
+        assertThat(pool.restarts()).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reportsInvalidParametersAsIllegalArgument() {
+        pool.encode(ARGON2ID, EncoderParameters.parse("m=256,p=0,t=2"), "password");
+    }
+
+    @Test
+    public void requestThatTimesOutFailsAloneWhileWorkerKeepsAnswering() throws Exception {
+        Argon2WorkerPool fakePool = fakePool(2);
+        try {
+            CompletableFuture<Boolean> slow = CompletableFuture.supplyAsync(() -> fakePool.matches(ARGON2, "password", "slow"));
+            Thread.sleep(200);
+            assertThat(fakePool.matches(ARGON2, "password", HASH)).isTrue();
+            assertThatTimesOut(slow);
+            assertThat(fakePool.matches(ARGON2, "password", HASH)).isTrue();
+            assertThat(fakePool.restarts()).isEqualTo(0);
+        } finally {
+            fakePool.close();
+        }
+    }
+
+    @Test
+    public void requestsBeyondWorkerThreadsWaitInPool() throws Exception {
+        Argon2WorkerPool fakePool = fakePool(1);
+        try {
+            CompletableFuture<Boolean> slow = CompletableFuture.supplyAsync(() -> fakePool.matches(ARGON2, "password", "slow"));
+            Thread.sleep(200);
+            CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> fakePool.matches(ARGON2, "password", HASH));
+            assertThatTimesOut(slow);
+            assertThat(queued.join()).isTrue(); // sent only after unresponsive worker was killed
+            assertThat(fakePool.restarts()).isEqualTo(1);
+        } finally {
+            fakePool.close();
+        }
+    }
+
+    @Test
+    public void rejectsRequestsWhenWorkersStayBusy() throws Exception {
+        Argon2WorkerPool fakePool = new Argon2WorkerPool(Arrays.asList("sh", "-c", SLOW_BUT_ALIVE_WORKER), 1, 1, 1000);
+        try {
+            CompletableFuture<Boolean> slow = CompletableFuture.supplyAsync(() -> fakePool.matches(ARGON2, "password", "slow"));
+            Thread.sleep(200);
+            try {
+                fakePool.matches(ARGON2, "password", HASH);
+                fail("should be rejected");
+            } catch (AdmissionRejectedException e) {
+                assertThat(e.getRetryAfterSeconds()).isGreaterThan(0L);
+            }
+            assertThatTimesOut(slow);
+        } finally {
+            fakePool.close();
+        }
+    }
+
+    @Test
+    public void doesNotSendMalformedHashToWorker() {
+        assertThat(pool.matches(ARGON2, "password", HASH + " 1")).isFalse();
+    }
+
+    private static Argon2WorkerPool fakePool(int threads) {
+        return new Argon2WorkerPool(Arrays.asList("sh", "-c", FAKE_WORKER), 1, threads, 1000);
+    }
+
+    private static void assertThatTimesOut(CompletableFuture<Boolean> request) {
+        try {
+            request.join();
+            fail("should time out");
+        } catch (CompletionException e) {
+            assertThat(e.getCause().getMessage()).isEqualTo("Argon2 worker did not respond in time");
+        }
+    }
+}
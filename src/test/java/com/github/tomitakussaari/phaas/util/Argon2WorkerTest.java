@@ -0,0 +1,31 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.Argon2Engine;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Argon2WorkerTest {
+
+    private static final String HASH = "$argon2i$v=19$m=256,t=2,p=1$cGhhYXMtdGVzdC1zYWx0IQ$UrNEJBFavqvARY9r2R3tWR/OI7A/R703/ASoc65jleA";
+    private static final String PASSWORD = Base64.getEncoder().encodeToString("password".getBytes(StandardCharsets.UTF_8));
+
+    private final Argon2Engine.Selection engines = new Argon2Engine.Selection(Argon2Engine.JAVA, Argon2Engine.JAVA, new ArenaPool(1), null);
+
+    @Test
+    public void answersWithIdOfRequest() {
+        assertThat(Argon2Worker.handle("7 M ARGON2 " + HASH + " " + PASSWORD, engines)).isEqualTo("7 OK true");
+        assertThat(Argon2Worker.handle("8 E ARGON2 m=256,p=1,t=2 " + PASSWORD, engines)).startsWith("8 OK $argon2i$v=19$m=256,t=2,p=1$");
+        assertThat(Argon2Worker.handle("9 E ARGON2ID - " + PASSWORD, engines)).startsWith("9 OK $argon2id$v=19$m=65536,t=2,p=");
+    }
+
+    @Test
+    public void reportsBadRequests() {
+        assertThat(Argon2Worker.handle("1 M ARGON2", engines)).isEqualTo("1 BAD Malformed worker request");
+        assertThat(Argon2Worker.handle("2 M SHA256_BCRYPT " + HASH + " " + PASSWORD, engines)).isEqualTo("2 BAD SHA256_BCRYPT is not Argon2");
+        assertThat(Argon2Worker.handle("3 X ARGON2 " + HASH + " " + PASSWORD, engines)).isEqualTo("3 BAD Unknown operation X");
+    }
+}
@@ -1,17 +1,30 @@
 package com.github.tomitakussaari.phaas.util;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.netflix.hystrix.Hystrix;
 import com.netflix.hystrix.HystrixCommandKey;
 import com.netflix.hystrix.HystrixCommandMetrics;
 import com.netflix.hystrix.HystrixEventType;
+import com.github.tomitakussaari.phaas.util.MemoryAdmissionController.AdmissionRejectedException;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.web.context.request.async.DeferredResult;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class AsyncHelperTest {
 
@@ -44,6 +57,38 @@ public class AsyncHelperTest {
         assertThat(threadNameDeferred.getResult()).isNotEqualTo(Thread.currentThread().getName());
     }
 
+    @Test
+    public void runsOperationInBackground() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AsyncHelper.withName("testing").runInBackground(done::countDown);
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void runsItemsInParallelAndKeepsTheirOrder() throws InterruptedException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        DeferredResult<List<String>> results = AsyncHelper.withName("testing").toDeferredResults(asList(5, 1, 3, 0, 2, 4), item -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Uninterruptibles.sleepUninterruptibly(10L * item, TimeUnit.MILLISECONDS);
+            running.decrementAndGet();
+            return "item-" + item;
+        }, (item, error) -> "failed", 2, 5000);
+        waitForResult(results);
+        assertThat(results.getResult()).isEqualTo(asList("item-5", "item-1", "item-3", "item-0", "item-2", "item-4"));
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void failingItemDoesNotFailOthers() throws InterruptedException {
+        DeferredResult<List<String>> results = AsyncHelper.withName("testing").toDeferredResults(asList("a", "", "c"), item -> {
+            Preconditions.checkArgument(!item.isEmpty(), "empty item");
+            return item.toUpperCase();
+        }, (item, error) -> error.getMessage(), 4, 5000);
+        waitForResult(results);
+        assertThat(results.getResult()).isEqualTo(asList("A", "empty item", "C"));
+    }
+
     @Test
     public void illegalStateExceptionsDoNotCountAsHystrixFailures() {
         verifyExceptionIsConverted(IllegalStateException.class, HystrixEventType.BAD_REQUEST, HystrixEventType.FAILURE);
@@ -59,6 +104,50 @@ public class AsyncHelperTest {
         verifyExceptionIsConverted(RuntimeException.class, HystrixEventType.FAILURE, HystrixEventType.BAD_REQUEST);
     }
 
+    @Test
+    public void itemRejectedForLackOfCapacityFailsWholeResult() throws InterruptedException {
+        DeferredResult<List<String>> results = AsyncHelper.withName("testing").toDeferredResults(asList("a", "busy", "c"), item -> {
+            if (item.equals("busy")) {
+                throw new AdmissionRejectedException("timed out waiting for memory", 2);
+            }
+            return item.toUpperCase();
+        }, (item, error) -> error.getMessage(), 4, 5000);
+        waitForResult(results);
+        assertThat(results.getResult()).isInstanceOf(AdmissionRejectedException.class);
+    }
+
+    @Test
+    public void reportsHystrixRejectionsAsAdmissionRejections() {
+        HystrixRuntimeException rejected = new HystrixRuntimeException(HystrixRuntimeException.FailureType.REJECTED_THREAD_EXECUTION, AsyncHelper.NamedCommand.class,
+                "could not be queued for execution", new RejectedExecutionException(), null);
+        assertThat(AsyncHelper.getCause(rejected)).isInstanceOf(AdmissionRejectedException.class);
+        assertThat(((AdmissionRejectedException) AsyncHelper.getCause(rejected)).getRetryAfterSeconds()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsCommandsWhenThreadPoolIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<DeferredResult<Boolean>> blocking = IntStream.range(0, 10)
+                .mapToObj(i -> AsyncHelper.withName("testing").toDeferredResult(() -> Uninterruptibles.awaitUninterruptibly(release, 5, TimeUnit.SECONDS)))
+                .collect(Collectors.toList());
+        try {
+            AsyncHelper.withName("testing").doWithTimeout(() -> "not run");
+            fail("should be rejected");
+        } catch (AdmissionRejectedException expected) {
+        } finally {
+            release.countDown();
+        }
+        for (DeferredResult<Boolean> result : blocking) {
+            waitForResult(result);
+        }
+    }
+
+    private static void waitForResult(DeferredResult<?> result) throws InterruptedException {
+        for (int i = 0; i < 100 && !result.hasResult(); i++) {
+            Thread.sleep(50);
+        }
+    }
+
     private void verifyExceptionIsConverted(Class<? extends Exception> clazz, HystrixEventType expectedType, HystrixEventType notExpectedType) {
         try {
             Supplier<?> exceptionSupplier = () -> {
@@ -0,0 +1,38 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.util.BatchExecutor.BatchTooLargeException;
+import com.github.tomitakussaari.phaas.util.MemoryAdmissionController.AdmissionRejectedException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchExecutorTest {
+
+    private final BatchExecutor executor = new BatchExecutor(2, 2, 5000);
+
+    @Test(expected = BatchTooLargeException.class)
+    public void rejectsTooLargeBatch() {
+        executor.execute("testing", Arrays.asList(1, 2, 3), String::valueOf, error -> error);
+    }
+
+    @Test
+    public void acceptsBatchOfMaxSize() {
+        assertThat(executor.execute("testing", Arrays.asList(1, 2), String::valueOf, error -> error)).isNotNull();
+        assertThat(executor.execute("testing", Collections.emptyList(), String::valueOf, error -> error)).isNotNull();
+    }
+
+    @Test
+    public void batchUsesAtMostHalfOfThreadPool() {
+        assertThat(BatchExecutor.maxParallelism("testing")).isEqualTo(5);
+    }
+
+    @Test
+    public void describesBadRequestsWithTheirMessageAndHidesOtherErrors() {
+        assertThat(BatchExecutor.describe(new IllegalArgumentException("too short"))).isEqualTo("too short");
+        assertThat(BatchExecutor.describe(new AdmissionRejectedException("busy", 1))).isEqualTo("busy");
+        assertThat(BatchExecutor.describe(new NullPointerException("secret detail"))).isEqualTo("Internal error");
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Expected hashes were computed with libxcrypt
+ */
+public class ByteBCryptTest {
+
+    private static final String PASSWORD_SHA256_HEX = "5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8";
+
+    @Test
+    public void hashesLikeLibxcrypt() {
+        assertThat(ByteBCrypt.hash(bytes(PASSWORD_SHA256_HEX), 4, new byte[ByteBCrypt.SALT_LENGTH]))
+                .isEqualTo("$2a$04$......................BWNwpNRoqGP3eYvuk0dObsJ8l.OgDUC");
+    }
+
+    @Test
+    public void verifiesHashesMadeWithLibxcrypt() {
+        assertThat(ByteBCrypt.verify(bytes(PASSWORD_SHA256_HEX), "$2a$05$abcdefghijklmnopqrstuuE94Q3eTNjN48w2NX2tPsDTNeG6w2MH2")).isTrue();
+        assertThat(ByteBCrypt.verify(bytes(PASSWORD_SHA256_HEX), "$2b$04$......................BWNwpNRoqGP3eYvuk0dObsJ8l.OgDUC")).isTrue();
+        assertThat(ByteBCrypt.verify(bytes("U*U"), "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW")).isTrue();
+        assertThat(ByteBCrypt.verify(new byte[0], "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.")).isTrue();
+        assertThat(ByteBCrypt.verify(bytes(Strings.repeat("a", 80)), "$2a$04$......................UaUp2CqHXn14N7RprrzoDsNv91ahi36")).isTrue();
+        assertThat(ByteBCrypt.verify(bytes("U*V"), "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW")).isFalse();
+    }
+
+    @Test
+    public void isCompatibleWithSpringSecurityBCrypt() {
+        String password = "pässwörd";
+        String springHash = BCrypt.hashpw(password, BCrypt.gensalt(4));
+        assertThat(ByteBCrypt.verify(bytes(password), springHash)).isTrue();
+        String hash = ByteBCrypt.hash(bytes(password), 5, EntropySource.defaultSource().salt());
+        assertThat(BCrypt.checkpw(password, hash)).isTrue();
+        assertThat(BCrypt.hashpw(password, hash)).isEqualTo(hash);
+    }
+
+    @Test
+    public void doesNotVerifyMalformedHashes() {
+        byte[] password = bytes("U*U");
+        assertThat(ByteBCrypt.verify(password, null)).isFalse();
+        assertThat(ByteBCrypt.verify(password, "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOe")).isFalse();
+        assertThat(ByteBCrypt.verify(password, "$2x$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW")).isFalse();
+        assertThat(ByteBCrypt.verify(password, "$2a$03$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW")).isFalse();
+        assertThat(ByteBCrypt.verify(password, "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOe!")).isFalse();
+        assertThat(ByteBCrypt.verify(password, "$argon2i$v=19$m=65536,t=2,p=2$c29tZXNhbHQ$aGFzaA")).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesTooSmallCost() {
+        ByteBCrypt.hash(bytes("password"), 3, new byte[ByteBCrypt.SALT_LENGTH]);
+    }
+
+    private static byte[] bytes(String password) {
+        return password.getBytes(StandardCharsets.UTF_8);
+    }
+}
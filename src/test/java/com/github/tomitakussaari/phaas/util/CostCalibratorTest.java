@@ -0,0 +1,92 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.ARGON2ID;
+import static com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm.SHA256_BCRYPT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CostCalibratorTest {
+
+    /**
+     * Argon2 takes 50ms per iteration with 64MB, bcrypt 20ms with cost 10
+     */
+    private static final CostCalibrator.LatencyProbe simulatedHost = (algorithm, parameters) -> algorithm == ARGON2 || algorithm == ARGON2ID
+            ? 50L * parameters.get(EncoderParameters.ITERATIONS, 0) * parameters.get(EncoderParameters.MEMORY, 0) / 65536
+            : 20L << (parameters.get(EncoderParameters.COST, 0) - 10);
+
+    @Test
+    public void proposesDefaultsBeforeCalibration() {
+        CostCalibrator calibrator = calibrator(250, 10, 8, 1024 * 1024);
+        assertThat(calibrator.parametersFor(ARGON2)).isEqualTo(EncoderParameters.parse("m=65536,p=2,t=2"));
+        assertThat(calibrator.parametersFor(PasswordEncodingAlgorithm.HMAC_SHA256).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void fillsTargetLatencyWithIterationsWhenThereIsEnoughMemory() {
+        CostCalibrator calibrator = calibrator(250, 10, 8, 4 * 262144);
+        calibrator.calibrate(ARGON2);
+        // 3 hashes in flight at 250ms would fit 256MB each, but 256MB takes 200ms per iteration, so memory is halved to fit two iterations
+        assertThat(calibrator.parametersFor(ARGON2)).isEqualTo(EncoderParameters.parse("m=131072,p=2,t=2"));
+    }
+
+    @Test
+    public void limitsArgon2MemoryByBudgetAndThroughput() {
+        CostCalibrator calibrator = calibrator(250, 40, 8, 131072);
+        calibrator.calibrate(ARGON2);
+        // 8 processors run 4 hashes with 2 lanes at a time, so 40 hashes/s allows 100ms per hash, and 4 hashes in flight get 32MB each
+        assertThat(calibrator.parametersFor(ARGON2)).isEqualTo(EncoderParameters.parse("m=32768,p=2,t=4"));
+    }
+
+    @Test
+    public void calibratesArgon2idForOneLaneAndKeepsMaximumLanes() {
+        CostCalibrator calibrator = calibrator(250, 40, 8, 131072);
+        calibrator.calibrate(ARGON2ID);
+        // under load every hash uses one lane, so 8 processors run 8 hashes at a time, and 40 hashes/s allows 200ms per hash,
+        // 8 hashes in flight would get 16MB each, which is below minimum memory
+        assertThat(calibrator.parametersFor(ARGON2ID)).isEqualTo(EncoderParameters.parse("m=19456,p=4,t=14"));
+    }
+
+    @Test
+    public void neverGoesBelowMinimum() {
+        CostCalibrator calibrator = calibrator(10, 1000, 1, 65536);
+        calibrator.calibrate(ARGON2);
+        calibrator.calibrate(SHA256_BCRYPT);
+        assertThat(calibrator.parametersFor(ARGON2)).isEqualTo(EncoderParameters.parse("m=32768,p=1,t=2"));
+        assertThat(calibrator.parametersFor(SHA256_BCRYPT)).isEqualTo(CostCalibrator.BCRYPT_MINIMUM);
+    }
+
+    @Test
+    public void proposesHighestBcryptCostWithinTarget() {
+        CostCalibrator calibrator = calibrator(250, 10, 8, 65536);
+        calibrator.calibrate(SHA256_BCRYPT);
+        assertThat(calibrator.parametersFor(SHA256_BCRYPT)).isEqualTo(EncoderParameters.parse("cost=13"));
+    }
+
+    @Test
+    public void configuredParametersWinOverCalibration() {
+        Map<PasswordEncodingAlgorithm, EncoderParameters> configured = new EnumMap<>(PasswordEncodingAlgorithm.class);
+        configured.put(SHA256_BCRYPT, EncoderParameters.parse("cost=12"));
+        CostCalibrator calibrator = new CostCalibrator(250, 10, 8, 65536, simulatedHost, true, configured);
+        calibrator.calibrate(SHA256_BCRYPT);
+        assertThat(calibrator.parametersFor(SHA256_BCRYPT)).isEqualTo(EncoderParameters.parse("cost=12"));
+    }
+
+    @Test
+    public void withDefaultsNeverCalibrates() {
+        CostCalibrator calibrator = CostCalibrator.withDefaults();
+        calibrator.start();
+        assertThat(calibrator.parametersFor(SHA256_BCRYPT)).isEqualTo(EncoderParameters.parse("cost=11"));
+    }
+
+    private static CostCalibrator calibrator(long targetMillis, int targetThroughput, int processors, int memoryBudgetKiB) {
+        return new CostCalibrator(targetMillis, targetThroughput, processors, memoryBudgetKiB, simulatedHost, true, Collections.emptyMap());
+    }
+}
@@ -1,8 +1,16 @@
 package com.github.tomitakussaari.phaas.util;
 
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class CryptoHelperTest {
@@ -21,6 +29,110 @@ public class CryptoHelperTest {
         assertThat(cryptoHelper.decryptData("password", version2Data)).isEqualTo("my-secret-data");
     }
 
+    @Test
+    public void understandsVer3Data() {
+        String version3Data = "$3.PBKDF2_SHA256:1000.000102030405060708090a0b0c0d0e0f.101112131415161718191a1b1c1d1e1f.ICEiIyQlJicoKSorrtove2Bd5acz9Vi5-eck300bt8q8YVImzCYoBpTU";
+        assertThat(cryptoHelper.decryptData("password", version3Data)).isEqualTo("my-secret-data");
+        assertThat(cryptoHelper.decryptDataProtectionKey(1, "password", version3Data)).isEqualTo("my-secret-data");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noticesTamperedVer3Header() {
+        String tamperedData = "$3.PBKDF2_SHA256:1000.000102030405060708090a0b0c0d0e0f.101112131415161718191a1b1c1d1e1e.ICEiIyQlJicoKSorrtove2Bd5acz9Vi5-eck300bt8q8YVImzCYoBpTU";
+        cryptoHelper.decryptData("password", tamperedData);
+    }
+
+    @Test
+    public void encryptsNewDataWithVer4AndConfiguredKeyDerivation() {
+        String encryptedData = cryptoHelper.encryptData("password", "my-secret-data");
+        assertThat(encryptedData).startsWith("$4.0.PBKDF2_SHA256:100000.");
+        assertThat(cryptoHelper.isOutdated(encryptedData)).isFalse();
+    }
+
+    @Test
+    public void ver3DataWithConfiguredKeyDerivationIsNotOutdated() {
+        CryptoHelper helper = new CryptoHelper(new PepperSource(""), new DataProtectionKeyCache(10, 60), new KeyDerivation(KeyDerivation.Algorithm.PBKDF2_SHA256, 1000));
+        assertThat(helper.isOutdated("$3.PBKDF2_SHA256:1000.000102030405060708090a0b0c0d0e0f.101112131415161718191a1b1c1d1e1f.ICEiIyQlJicoKSorrtove2Bd5acz9Vi5-eck300bt8q8YVImzCYoBpTU")).isFalse();
+    }
+
+    @Test
+    public void dataProtectedWithOlderPepperIsReadableAndNotOutdatedAfterRotation() throws IOException {
+        File ring = File.createTempFile("pepper-ring", "test");
+        ring.deleteOnExit();
+        Files.write("1=first-pepper\n", ring, StandardCharsets.UTF_8);
+        PepperSource pepperSource = new PepperSource("", "file://" + ring.getAbsolutePath());
+        CryptoHelper helper = new CryptoHelper(pepperSource, new DataProtectionKeyCache(10, 60), new KeyDerivation(KeyDerivation.Algorithm.PBKDF2_SHA256, 1000));
+        String first = helper.encryptData("password", "first-key");
+        assertThat(first).startsWith("$4.1.");
+
+        Files.write("1=first-pepper\n2=second-pepper\n", ring, StandardCharsets.UTF_8);
+        pepperSource.refresh();
+        String second = helper.encryptData("password", "second-key", first);
+
+        assertThat(second).startsWith("$4.2.");
+        assertThat(second.split("\\.")[3]).isNotEqualTo(first.split("\\.")[3]);
+        assertThat(helper.isOutdated(first)).isFalse();
+        assertThat(helper.decryptData("password", first)).isEqualTo("first-key");
+        assertThat(helper.decryptDataProtectionKey(1, "password", first)).isEqualTo("first-key");
+        assertThat(helper.decryptDataProtectionKey(2, "password", second)).isEqualTo("second-key");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesDataProtectedWithUnknownPepper() {
+        String encryptedData = cryptoHelper.encryptData("password", "my-secret-data");
+        cryptoHelper.decryptData("password", encryptedData.replaceFirst("\\$4\\.0\\.", "\\$4.1."));
+    }
+
+    @Test
+    public void olderVersionsAndKeyDerivationSettingsAreOutdated() {
+        assertThat(cryptoHelper.isOutdated("$2.57b384772a17e677.2b94f67aa84311ad8bdc00deb666e3237b15ce6562e2ff1a94141241d20fac3c1c78d34f4ce3e5545990af5e19c4")).isTrue();
+        assertThat(cryptoHelper.isOutdated("$3.PBKDF2_SHA256:1000.000102030405060708090a0b0c0d0e0f.101112131415161718191a1b1c1d1e1f.ICEiIyQlJicoKSorrtove2Bd5acz9Vi5-eck300bt8q8YVImzCYoBpTU")).isTrue();
+    }
+
+    @Test
+    public void sharesWrappingKeyBetweenDataEncryptedWithSamePassword() {
+        DataProtectionKeyCache keyCache = new DataProtectionKeyCache(10, 60);
+        CryptoHelper helper = new CryptoHelper(new PepperSource(""), keyCache, new KeyDerivation(KeyDerivation.Algorithm.PBKDF2_SHA512, 1000));
+        String first = helper.encryptData("password", "first-key");
+        String second = helper.encryptData("password", "second-key", first);
+
+        assertThat(second.split("\\.")[3]).isEqualTo(first.split("\\.")[3]);
+        assertThat(helper.decryptDataProtectionKey(1, "password", first)).isEqualTo("first-key");
+        assertThat(helper.decryptDataProtectionKey(2, "password", second)).isEqualTo("second-key");
+        assertThat(keyCache.wrappingKeysSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void doesNotShareWrappingKeyWithOutdatedData() {
+        String version2Data = "$2.57b384772a17e677.2b94f67aa84311ad8bdc00deb666e3237b15ce6562e2ff1a94141241d20fac3c1c78d34f4ce3e5545990af5e19c4";
+        String encryptedData = cryptoHelper.encryptData("password", "my-secret-data", version2Data);
+        assertThat(cryptoHelper.isOutdated(encryptedData)).isFalse();
+        assertThat(cryptoHelper.decryptData("password", encryptedData)).isEqualTo("my-secret-data");
+    }
+
+    @Test
+    public void decoyTakesAsLongAsKeyDerivationButDerivesKeyOnlyOnce() {
+        AtomicInteger derivations = new AtomicInteger();
+        KeyDerivation slowDerivation = new KeyDerivation(KeyDerivation.Algorithm.PBKDF2_SHA256, 1000) {
+            @Override
+            byte[] deriveKey(CharSequence password, byte[] salt) {
+                derivations.incrementAndGet();
+                Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+                return super.deriveKey(password, salt);
+            }
+        };
+        CryptoHelper helper = new CryptoHelper(new PepperSource(""), new DataProtectionKeyCache(10, 60), slowDerivation);
+        CryptoHelper.Decoy decoy = helper.decoy("password");
+        int derivationsOfDecoy = derivations.get();
+
+        for (int i = 0; i < 3; i++) {
+            long started = System.nanoTime();
+            decoy.decrypt();
+            assertThat(System.nanoTime() - started).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        assertThat(derivations.get()).isEqualTo(derivationsOfDecoy);
+    }
+
     @Test
     public void encryptsAndDecryptsData() {
         String encryptedData = cryptoHelper.encryptData("password", "my-secret-data");
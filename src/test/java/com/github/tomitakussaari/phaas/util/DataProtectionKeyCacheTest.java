@@ -0,0 +1,70 @@
+package com.github.tomitakussaari.phaas.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataProtectionKeyCacheTest {
+
+    private final DataProtectionKeyCache keyCache = new DataProtectionKeyCache(10, 60);
+    private final AtomicInteger unwraps = new AtomicInteger();
+    private final Supplier<String> unwrapper = () -> {
+        unwraps.incrementAndGet();
+        return "my-data-protection-key";
+    };
+
+    @Test
+    public void unwrapsKeyOnlyOnce() {
+        assertThat(keyCache.get(1, "password", "encrypted-key", unwrapper)).isEqualTo("my-data-protection-key");
+        assertThat(keyCache.get(1, "password", "encrypted-key", unwrapper)).isEqualTo("my-data-protection-key");
+        assertThat(unwraps.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void unwrapsAgainWithDifferentPasswordOrEncryptedKey() {
+        keyCache.get(1, "password", "encrypted-key", unwrapper);
+        keyCache.get(1, "password2", "encrypted-key", unwrapper);
+        keyCache.get(1, "password", "encrypted-key2", unwrapper);
+        keyCache.get(2, "password", "encrypted-key", unwrapper);
+        assertThat(unwraps.get()).isEqualTo(4);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void propagatesUnwrapFailure() {
+        keyCache.get(1, "wrong-password", "encrypted-key", () -> {
+            throw new IllegalStateException("bad padding");
+        });
+    }
+
+    @Test
+    public void doesNotCacheFailedUnwraps() {
+        try {
+            keyCache.get(1, "password", "encrypted-key", () -> {
+                throw new IllegalStateException("bad padding");
+            });
+        } catch (IllegalStateException expected) {
+            assertThat(keyCache.size()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void destroysKeyMaterialWhenEvicted() {
+        DataProtectionKeyCache.SealedKey sealedKey = new DataProtectionKeyCache.SealedKey("my-data-protection-key");
+        assertThat(sealedKey.reveal()).isEqualTo("my-data-protection-key");
+        sealedKey.destroy();
+        assertThat(sealedKey.isDestroyed()).isTrue();
+        assertThat(sealedKey.reveal()).isNull();
+    }
+
+    @Test
+    public void worksWithCryptoHelper() {
+        CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""), keyCache);
+        String encryptedKey = cryptoHelper.encryptData("password", "my-data-protection-key");
+        assertThat(cryptoHelper.decryptDataProtectionKey(1, "password", encryptedKey)).isEqualTo("my-data-protection-key");
+        assertThat(keyCache.get(1, "password", encryptedKey, unwrapper)).isEqualTo("my-data-protection-key");
+        assertThat(unwraps.get()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.github.tomitakussaari.phaas.model.PasswordUpgradeResult;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeferredUpgradesTest {
+
+    private static final CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+    private final CryptoData target = new DataProtectionScheme(2, PasswordEncodingAlgorithm.SHA256_BCRYPT, cryptoHelper.encryptData("password", "key"), cryptoHelper).cryptoData("password");
+    private final DeferredUpgrades upgrades = new DeferredUpgrades(true, 1, 1, 60);
+    private final CountDownLatch rehashAllowed = new CountDownLatch(1);
+    private final AtomicInteger rehashes = new AtomicInteger();
+    private final Supplier<Optional<String>> rehash = () -> {
+        rehashes.incrementAndGet();
+        Uninterruptibles.awaitUninterruptibly(rehashAllowed);
+        return Optional.of("new-hash");
+    };
+
+    @After
+    public void close() {
+        rehashAllowed.countDown();
+        upgrades.close();
+    }
+
+    @Test
+    public void returnsTicketWhileUpgradeIsRunningAndHashWhenItIsDone() {
+        DeferredUpgrades.Upgrade pending = upgrades.upgrade("old-hash", target, rehash);
+        assertThat(pending.getTicket()).isNotEmpty();
+        assertThat(pending.getUpgradedHash().isPresent()).isFalse();
+        assertThat(upgrades.find(pending.getTicket()).get().isPending()).isTrue();
+
+        rehashAllowed.countDown();
+        PasswordUpgradeResult done = waitUntilDone(pending.getTicket());
+        assertThat(done.getUpgradedHash()).isEqualTo(Optional.of("new-hash"));
+
+        DeferredUpgrades.Upgrade nextVerify = upgrades.upgrade("old-hash", target, rehash);
+        assertThat(nextVerify.getUpgradedHash()).isEqualTo(Optional.of("new-hash"));
+        assertThat(nextVerify.getTicket()).isNull();
+        assertThat(rehashes.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void repeatedVerifiesShareSameUpgrade() {
+        String ticket = upgrades.upgrade("old-hash", target, rehash).getTicket();
+        assertThat(upgrades.upgrade("old-hash", target, rehash).getTicket()).isEqualTo(ticket);
+        assertThat(upgrades.upgrade("other-hash", target, rehash).getTicket()).isNotEqualTo(ticket);
+    }
+
+    @Test
+    public void doesNotQueueUpgradeWhenQueueIsFull() {
+        upgrades.upgrade("first", target, rehash);
+        Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS); // first is taken from queue by worker
+        upgrades.upgrade("second", target, rehash);
+        DeferredUpgrades.Upgrade rejected = upgrades.upgrade("third", target, rehash);
+        assertThat(rejected.getTicket()).isNull();
+        assertThat(rejected.getUpgradedHash().isPresent()).isFalse();
+    }
+
+    @Test
+    public void unknownTicketIsNotFound() {
+        assertThat(upgrades.find("unknown").isPresent()).isFalse();
+    }
+
+    private PasswordUpgradeResult waitUntilDone(String ticket) {
+        for (int i = 0; i < 100; i++) {
+            PasswordUpgradeResult result = upgrades.find(ticket).get();
+            if (!result.isPending()) {
+                return result;
+            }
+            Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+        }
+        throw new AssertionError("Upgrade was not done");
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.tomitakussaari.phaas.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures salt and id generation when 64 request threads need them at the same time,
+ * compared to shared {@link SecureRandom}, {@link UUID#randomUUID()} and {@link KeyGenerators}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class EntropySourceBenchmark {
+
+    private final EntropySource entropySource = new EntropySource(1024);
+    private final SecureRandom sharedSecureRandom = new SecureRandom();
+
+    @Setup
+    public void setUp() {
+        entropySource.fill();
+    }
+
+    @TearDown
+    public void tearDown() {
+        entropySource.close();
+    }
+
+    @Benchmark
+    public byte[] entropySourceSalt() {
+        return entropySource.salt();
+    }
+
+    @Benchmark
+    public byte[] sharedSecureRandomSalt() {
+        byte[] salt = new byte[EntropySource.SALT_LENGTH];
+        sharedSecureRandom.nextBytes(salt);
+        return salt;
+    }
+
+    @Benchmark
+    public String keyGeneratorsSalt() {
+        return KeyGenerators.string().generateKey();
+    }
+
+    @Benchmark
+    public UUID entropySourceUUID() {
+        return entropySource.randomUUID();
+    }
+
+    @Benchmark
+    public UUID sharedUUID() {
+        return UUID.randomUUID();
+    }
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EntropySourceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.tomitakussaari.phaas.util;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EntropySourceTest {
+
+    private final EntropySource entropySource = new EntropySource(16);
+
+    @After
+    public void close() {
+        entropySource.close();
+    }
+
+    @Test
+    public void givesUniqueSalts() {
+        Set<String> salts = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 1000).forEach(i -> {
+            byte[] salt = entropySource.salt();
+            assertThat(salt).hasSize(EntropySource.SALT_LENGTH);
+            salts.add(Hex.encodeHexString(salt));
+        });
+        assertThat(salts).hasSize(1000);
+    }
+
+    @Test
+    public void refillsSaltBufferInBackground() throws InterruptedException {
+        entropySource.fill();
+        waitForBufferedSalts(16);
+        IntStream.range(0, 9).forEach(i -> entropySource.salt()); // last one takes buffer below half, and nothing is taken while it is refilled
+        waitForBufferedSalts(16);
+    }
+
+    @Test
+    public void givesRandomUUIDs() {
+        UUID uuid = entropySource.randomUUID();
+        assertThat(uuid.version()).isEqualTo(4);
+        assertThat(uuid.variant()).isEqualTo(2);
+        assertThat(entropySource.randomUUID()).isNotEqualTo(uuid);
+    }
+
+    @Test
+    public void threadsDoNotShareGenerators() throws InterruptedException {
+        Set<UUID> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        IntStream.range(0, 8000).forEach(i -> executor.execute(() -> ids.add(entropySource.randomUUID())));
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(ids).hasSize(8000);
+    }
+
+    private void waitForBufferedSalts(int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && entropySource.bufferedSalts() < expected; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(entropySource.bufferedSalts()).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme.CryptoData;
+import com.github.tomitakussaari.phaas.model.EncoderParameters;
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.github.tomitakussaari.phaas.model.PasswordHashRequest;
+import com.github.tomitakussaari.phaas.model.PasswordVerifyRequest;
+import com.github.tomitakussaari.phaas.model.PasswordVerifyResult;
+import com.github.tomitakussaari.phaas.model.ProtectionSchemeNotFoundException;
+import com.github.tomitakussaari.phaas.model.ServerRelief;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static com.github.tomitakussaari.phaas.util.JsonHelper.objectMapper;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HashRewrapperTest {
+
+    private static final CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+    private static final String DJANGO_PBKDF2 = "pbkdf2_sha256$1000$seasalt$7sOSJwP0EXHPfMGm8H03pMl9+wAdV3oxv2uy4GeP3bc=";
+    private static final String LEGACY_HASH = "1.64e68551653223cb.8bd0e4de5c6b0ab83d5f01b7a2b79ea59f41e24cdcb39e65de6106249190e061159cb4d19b03bd40582b4cc530e0a437a0630eb97ae0a2f89987214dc43a8fec32c04a7a565e328422ef4786ff64423c";
+
+    private final HashRewrapper rewrapper = new HashRewrapper(EntropySource.defaultSource(), 4, 3);
+    private final PasswordHasher hasher = new PasswordHasher();
+    private final PasswordVerifier verifier = new PasswordVerifier();
+    private final CryptoData oldScheme = scheme(1, PasswordEncodingAlgorithm.SHA256_BCRYPT, "encryption_key");
+    private final CryptoData activeScheme = scheme(2, PasswordEncodingAlgorithm.SHA256_BCRYPT, "encryption_key2");
+    private final CryptoData hmacScheme = scheme(3, PasswordEncodingAlgorithm.HMAC_SHA256, "encryption_key3");
+    private final IntFunction<CryptoData> schemes = id -> {
+        if (id == 1) {
+            return oldScheme;
+        } else if (id == 3) {
+            return hmacScheme;
+        }
+        throw new ProtectionSchemeNotFoundException("Unable to find encryption key by id: " + id);
+    };
+
+    @After
+    public void close() {
+        rewrapper.close();
+    }
+
+    @Test
+    public void rewrappedHashIsValidWithActiveScheme() {
+        String hash = hasher.hash(new PasswordHashRequest("password"), oldScheme).getHash();
+        String rewrapped = rewrapper.rewrap(hash, schemes, activeScheme);
+        assertThat(rewrapped).startsWith("v2.2.");
+        PasswordVerifyResult result = verifier.verify(new PasswordVerifyRequest("password", rewrapped), activeScheme, activeScheme);
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.getUpgradedHash().isPresent()).isFalse();
+        assertThat(verifier.verify(new PasswordVerifyRequest("wrong-password", rewrapped), activeScheme, activeScheme).isValid()).isFalse();
+    }
+
+    @Test
+    public void rewrapsLegacyHashOfActiveSchemeIntoV2Format() {
+        String rewrapped = rewrapper.rewrap(LEGACY_HASH, schemes, oldScheme);
+        assertThat(rewrapped).startsWith("v2.1.");
+        assertThat(verifier.verify(new PasswordVerifyRequest("password", rewrapped), oldScheme, oldScheme).isValid()).isTrue();
+    }
+
+    @Test
+    public void leavesHashOfActiveSchemeAsIs() {
+        String hash = hasher.hash(new PasswordHashRequest("password"), activeScheme).getHash();
+        assertThat(rewrapper.rewrap(hash, schemes, activeScheme)).isSameAs(hash);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToRewrapHashOfOtherAlgorithm() {
+        String hash = hasher.hash(new PasswordHashRequest("q8Zr2LxV7mT4wKp9sNc3Hy6Jd1Bf5Ge0aT7uW2xY4zC"), hmacScheme).getHash();
+        rewrapper.rewrap(hash, schemes, activeScheme);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToRewrapHashOfKeyedAlgorithm() {
+        String hash = hasher.hash(new PasswordHashRequest("q8Zr2LxV7mT4wKp9sNc3Hy6Jd1Bf5Ge0aT7uW2xY4zC"), hmacScheme).getHash();
+        rewrapper.rewrap(hash, schemes, scheme(4, PasswordEncodingAlgorithm.HMAC_SHA256, "encryption_key4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToRewrapHashWithLowerCostThanActiveScheme() {
+        CryptoData cheapScheme = new DataProtectionScheme(1, PasswordEncodingAlgorithm.SHA256_BCRYPT, cryptoHelper.encryptData("password", "encryption_key"), cryptoHelper,
+                EncoderParameters.parse("cost=4")).cryptoData("password");
+        String hash = hasher.hash(new PasswordHashRequest("password"), cheapScheme).getHash();
+        rewrapper.rewrap(hash, id -> cheapScheme, activeScheme);
+    }
+
+    @Test
+    public void hashOfActiveSchemeWithLowerCostIsUpgradedOnVerify() {
+        CryptoData cheapScheme = new DataProtectionScheme(2, PasswordEncodingAlgorithm.SHA256_BCRYPT, cryptoHelper.encryptData("password", "encryption_key2"), cryptoHelper,
+                EncoderParameters.parse("cost=4")).cryptoData("password");
+        String weakHash = hasher.hash(new PasswordHashRequest("password"), cheapScheme).getHash();
+
+        PasswordVerifyResult result = verifier.verify(new PasswordVerifyRequest("password", weakHash), activeScheme, activeScheme);
+
+        assertThat(result.isValid()).isTrue();
+        PasswordVerifyResult upgraded = verifier.verify(new PasswordVerifyRequest("password", result.getUpgradedHash().get()), activeScheme, activeScheme);
+        assertThat(upgraded.isValid()).isTrue();
+        assertThat(upgraded.getUpgradedHash().isPresent()).isFalse();
+    }
+
+    @Test
+    public void importedHashIsVerifiedWithItsOwnAlgorithmAndUpgraded() {
+        String imported = rewrapper.importHash(DJANGO_PBKDF2, activeScheme);
+        assertThat(imported).startsWith("v2.2.");
+        PasswordVerifyResult result = verifier.verify(new PasswordVerifyRequest("legacy-password", imported), activeScheme, activeScheme);
+        assertThat(result.isValid()).isTrue();
+        PasswordVerifyResult upgraded = verifier.verify(new PasswordVerifyRequest("legacy-password", result.getUpgradedHash().get()), activeScheme, activeScheme);
+        assertThat(upgraded.isValid()).isTrue();
+        assertThat(upgraded.getUpgradedHash().isPresent()).isFalse();
+        assertThat(verifier.verify(new PasswordVerifyRequest("wrong-password", imported), activeScheme, activeScheme).isValid()).isFalse();
+    }
+
+    @Test
+    public void rewrapsImportedHashIntoSchemeOfOtherAlgorithm() {
+        String imported = rewrapper.importHash(DJANGO_PBKDF2, hmacScheme);
+        String rewrapped = rewrapper.rewrap(imported, schemes, activeScheme);
+        assertThat(verifier.verify(new PasswordVerifyRequest("legacy-password", rewrapped), activeScheme, activeScheme).isValid()).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToRewrapIntoServerReliefScheme() {
+        CryptoData reliefScheme = new DataProtectionScheme(4, PasswordEncodingAlgorithm.ARGON2, cryptoHelper.encryptData("password", "encryption_key4"), cryptoHelper,
+                EncoderParameters.parse(ServerRelief.parametersFor(PasswordEncodingAlgorithm.ARGON2)), ServerRelief.newSalt()).cryptoData("password");
+        rewrapper.rewrap(rewrapper.importHash(DJANGO_PBKDF2, oldScheme), schemes, reliefScheme);
+    }
+
+    @Test
+    public void importsStreamAndReportsUnknownHashes() throws IOException {
+        StringWriter output = new StringWriter();
+        HashRewrapper.Summary summary = rewrapper.importAll(new StringReader("{\"id\": \"1\", \"hash\": \"" + DJANGO_PBKDF2 + "\"}\n{\"id\": \"2\", \"hash\": \"md5$foo\"}\n"),
+                output, activeScheme);
+        String[] lines = output.toString().split("\n");
+        assertThat((boolean) objectMapper.readValue(lines[0], Map.class).get("rewrapped")).isTrue();
+        assertThat(objectMapper.readValue(lines[1], Map.class).get("error")).isEqualTo("Unrecognized legacy hash format");
+        assertThat(summary.getRewrapped()).isEqualTo(1);
+        assertThat(summary.getFailed()).isEqualTo(1);
+    }
+
+    @Test
+    public void rewrapsStreamInOrderAndReportsFailuresPerLine() throws IOException {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            input.append("{\"id\": \"").append(i).append("\", \"hash\": \"").append(hasher.hash(new PasswordHashRequest("password" + i), oldScheme).getHash()).append("\"}\n");
+        }
+        input.append("\n{\"id\": \"unknown\", \"hash\": \"v2.9.foo.bar\"}\n");
+        input.append("not json\n");
+        AtomicInteger schemeLookups = new AtomicInteger();
+        StringWriter output = new StringWriter();
+
+        HashRewrapper.Summary summary = rewrapper.rewrapAll(new StringReader(input.toString()), output, id -> {
+            schemeLookups.incrementAndGet();
+            return schemes.apply(id);
+        }, activeScheme);
+
+        String[] lines = output.toString().split("\n");
+        assertThat(lines).hasSize(12);
+        for (int i = 0; i < 10; i++) {
+            Map line = objectMapper.readValue(lines[i], Map.class);
+            assertThat(line.get("id")).isEqualTo(String.valueOf(i));
+            assertThat((boolean) line.get("rewrapped")).isTrue();
+            assertThat(verifier.verify(new PasswordVerifyRequest("password" + i, (String) line.get("hash")), activeScheme, activeScheme).isValid()).isTrue();
+        }
+        assertThat(objectMapper.readValue(lines[10], Map.class).get("error")).isEqualTo("Unable to find encryption key by id: 9");
+        assertThat((String) objectMapper.readValue(lines[11], Map.class).get("error")).startsWith("Invalid line");
+        assertThat(summary.getRewrapped()).isEqualTo(10);
+        assertThat(summary.getFailed()).isEqualTo(2);
+        assertThat(schemeLookups.get()).isEqualTo(2);
+    }
+
+    private static CryptoData scheme(int id, PasswordEncodingAlgorithm algorithm, String key) {
+        return new DataProtectionScheme(id, algorithm, cryptoHelper.encryptData("password", key), cryptoHelper).cryptoData("password");
+    }
+}
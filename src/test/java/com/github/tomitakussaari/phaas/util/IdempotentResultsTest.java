@@ -0,0 +1,86 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.util.IdempotentResults.IdempotencyKeyReusedException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class IdempotentResultsTest {
+
+    private final IdempotentResults results = new IdempotentResults(10, 2, 60);
+    private final AtomicInteger operations = new AtomicInteger();
+    private final Supplier<String> operation = () -> "result-" + operations.incrementAndGet();
+
+    @Test
+    public void retryWithSameKeyReturnsEarlierResult() {
+        assertThat(results.remember("user", "key", "password", operation)).isEqualTo("result-1");
+        assertThat(results.remember("user", "key", "password", operation)).isEqualTo("result-1");
+        assertThat(operations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void withoutKeyOperationIsAlwaysDone() {
+        results.remember("user", null, "password", operation);
+        results.remember("user", null, "password", operation);
+        assertThat(operations.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void keysAreSeparateForEveryUser() {
+        results.remember("user", "key", "password", operation);
+        assertThat(results.remember("other-user", "key", "password", operation)).isEqualTo("result-2");
+    }
+
+    @Test(expected = IdempotencyKeyReusedException.class)
+    public void rejectsKeyReusedForOtherRequest() {
+        results.remember("user", "key", "password", operation);
+        results.remember("user", "key", "other-password", operation);
+    }
+
+    @Test
+    public void forgetsFailedOperation() {
+        try {
+            results.remember("user", "key", "password", () -> {
+                throw new IllegalStateException("failed");
+            });
+            fail("should have failed");
+        } catch (IllegalStateException expected) {
+            assertThat(expected).hasMessage("failed");
+        }
+        assertThat(results.remember("user", "key", "password", operation)).isEqualTo("result-1");
+    }
+
+    @Test
+    public void keepsAtMostMaxKeysPerUser() {
+        results.remember("user", "first", "password", operation);
+        results.remember("user", "second", "password", operation);
+        results.remember("user", "third", "password", operation);
+        assertThat(results.remember("user", "first", "password", operation)).isEqualTo("result-4");
+    }
+
+    @Test
+    public void retryWaitsForRunningOperation() {
+        CountDownLatch operationAllowed = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> results.remember("user", "key", "password", () -> {
+            Uninterruptibles.awaitUninterruptibly(operationAllowed);
+            return operation.get();
+        }));
+        Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+        CompletableFuture<String> retry = CompletableFuture.supplyAsync(() -> results.remember("user", "key", "password", operation));
+        Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+        assertThat(retry.isDone()).isFalse();
+
+        operationAllowed.countDown();
+        assertThat(first.join()).isEqualTo("result-1");
+        assertThat(retry.join()).isEqualTo("result-1");
+        assertThat(operations.get()).isEqualTo(1);
+    }
+}
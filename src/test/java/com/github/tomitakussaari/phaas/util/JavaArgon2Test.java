@@ -0,0 +1,97 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.util.JavaArgon2.Type;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Expected values were computed with libargon2 reference implementation.
+ */
+public class JavaArgon2Test {
+
+    private static final byte[] SALT = "phaas-test-salt!".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PASSWORD = "password".getBytes(StandardCharsets.UTF_8);
+
+    private final JavaArgon2 argon2 = new JavaArgon2(new ArenaPool(2));
+
+    @Test
+    public void argon2iMatchesReferenceImplementation() {
+        assertThat(argon2.hash(Type.ARGON2I, 2, 256, 1, PASSWORD, SALT, 32))
+                .isEqualTo("$argon2i$v=19$m=256,t=2,p=1$cGhhYXMtdGVzdC1zYWx0IQ$UrNEJBFavqvARY9r2R3tWR/OI7A/R703/ASoc65jleA");
+        assertThat(argon2.hash(Type.ARGON2I, 2, 65536, 2, PASSWORD, SALT, 32))
+                .isEqualTo("$argon2i$v=19$m=65536,t=2,p=2$cGhhYXMtdGVzdC1zYWx0IQ$Bn6gCTA3ZNsbTbfZ3gQwGC0OVsF+7Ebn4Esy1fGy0nM");
+    }
+
+    @Test
+    public void memoryThatIsNotMultipleOfLanesIsRoundedDown() {
+        assertThat(argon2.hash(Type.ARGON2I, 3, 1000, 2, PASSWORD, SALT, 32))
+                .isEqualTo("$argon2i$v=19$m=1000,t=3,p=2$cGhhYXMtdGVzdC1zYWx0IQ$eab1w1kBrMTHJ7nytlYgNmsNEtkbjDWU/nLn9qeaamc");
+    }
+
+    @Test
+    public void argon2idMatchesReferenceImplementation() {
+        assertThat(argon2.hash(Type.ARGON2ID, 2, 2048, 4, "pässwörd".getBytes(StandardCharsets.UTF_8), SALT, 32))
+                .isEqualTo("$argon2id$v=19$m=2048,t=2,p=4$cGhhYXMtdGVzdC1zYWx0IQ$jZGgmsuE+6ju9TwBGsHiDR8kaEN1H3clWGm+B+sIvSw");
+    }
+
+    @Test
+    public void argon2dMatchesReferenceImplementation() {
+        assertThat(argon2.hash(Type.ARGON2D, 1, 64, 8, new byte[0], SALT, 32))
+                .isEqualTo("$argon2d$v=19$m=64,t=1,p=8$cGhhYXMtdGVzdC1zYWx0IQ$Vzxuo9L2S3Wwt6tsVWlg+w08OOtM8ojX3SuLM/Qh1RI");
+        assertThat(Hex.encodeHexString(argon2.rawHash(Type.ARGON2D, JavaArgon2.VERSION_13, 4, 4096, 1, PASSWORD, SALT, 64)))
+                .isEqualTo("68310fe59e7fe133f61c42f80ad2c2a76a8bf0396519bcef4c58eb20de1fb3c0"
+                        + "94b3db6f4cf1e91adaa15fcfd1ce1fae46790123df806b70e4fb329d0daf4e35");
+    }
+
+    @Test
+    public void hashesLongerThanBlake2bOutput() {
+        assertThat(Hex.encodeHexString(argon2.rawHash(Type.ARGON2ID, JavaArgon2.VERSION_13, 2, 512, 3, PASSWORD, SALT, 100)))
+                .isEqualTo("ca632094e634fe4913f13c2b6b9dc4fab2a6dcd674bdcccaf7961b6868d703df4bf16c4d668a701da8d6efc3f135d066"
+                        + "fd75b3e4c78041c6ca6fa2e430ffc0cf06c52ead5233de98ddcddc1a4d5b1dc78c22338909561f8979ceb999352c3fd7fa59ca61");
+    }
+
+    @Test
+    public void verifiesHashesMadeWithReferenceImplementation() {
+        byte[] password = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+        String hash = "$argon2id$v=19$m=16384,t=2,p=2$cGhhYXMtdGVzdC1zYWx0IQ$6tVPWk4gE/8ufQ1vT0vi6qXkAGFzBgQZ1UHT8062qzU";
+        assertThat(argon2.verify(Type.ARGON2ID, hash, password)).isTrue();
+        assertThat(argon2.verify(Type.ARGON2ID, hash, PASSWORD)).isFalse();
+        assertThat(argon2.verify(Type.ARGON2I, hash, password)).isFalse();
+    }
+
+    @Test
+    public void verifiesVersion10Hashes() {
+        String hash = "$argon2i$v=16$m=256,t=2,p=2$cGhhYXMtdGVzdC1zYWx0IQ$pOaZ3DEoXgjj1GGkIQcwKOUaq9fpexWtr7GLw0j/4nE";
+        assertThat(argon2.verify(Type.ARGON2I, hash, PASSWORD)).isTrue();
+        assertThat(argon2.verify(Type.ARGON2I, hash.replace("$v=16", ""), PASSWORD)).isTrue();
+        assertThat(argon2.verify(Type.ARGON2I, hash.replace("v=16", "v=19"), PASSWORD)).isFalse();
+    }
+
+    @Test
+    public void doesNotVerifyMalformedHashes() {
+        assertThat(argon2.verify(Type.ARGON2I, null, PASSWORD)).isFalse();
+        assertThat(argon2.verify(Type.ARGON2I, "$argon2i$not-a-hash", PASSWORD)).isFalse();
+        assertThat(argon2.verify(Type.ARGON2I, "$argon2i$v=19$m=256,t=2$cGhhYXMtdGVzdC1zYWx0IQ$UrNEJBFavqvARY9r2R3tWR", PASSWORD)).isFalse();
+        assertThat(argon2.verify(Type.ARGON2I, "$argon2i$v=19$m=4,t=2,p=1$cGhhYXMtdGVzdC1zYWx0IQ$UrNEJBFavqvARY9r2R3tWR", PASSWORD)).isFalse();
+        assertThat(argon2.verify(Type.ARGON2I, "$argon2i$v=18$m=256,t=2,p=1$cGhhYXMtdGVzdC1zYWx0IQ$UrNEJBFavqvARY9r2R3tWR", PASSWORD)).isFalse();
+    }
+
+    @Test
+    public void blake2bMatchesRfc7693() {
+        assertThat(Hex.encodeHexString(Blake2b.hash(64, new byte[0])))
+                .isEqualTo("786a02f742015903c6c6fd852552d272912f4740e15847618a86e217f71f5419d25e1031afee585313896444934eb04b903a685b1448b755d56f701afe9be2ce");
+        assertThat(Hex.encodeHexString(Blake2b.hash(32, "abc".getBytes(StandardCharsets.US_ASCII))))
+                .isEqualTo("bddd813c634239723171ef3fee98579b94964e3bb1cb3e427262c8c068d52319");
+        byte[] twoBlocks = new byte[256];
+        for (int i = 0; i < twoBlocks.length; i++) {
+            twoBlocks[i] = (byte) i;
+        }
+        assertThat(Hex.encodeHexString(Blake2b.hash(20, twoBlocks, twoBlocks))).isEqualTo("e1695d971d2357c55fe6824cf175e915700ea2f2");
+        assertThat(Hex.encodeHexString(new Blake2b(64).update(twoBlocks, 0, 128).digest()))
+                .isEqualTo("2319e3789c47e2daa5fe807f61bec2a1a6537fa03f19ff32e87eecbfd64b7e0e8ccff439ac333b040f19b0c4ddd11a61e24ac1fe0f10a039806c5dcc0da3d115");
+    }
+}
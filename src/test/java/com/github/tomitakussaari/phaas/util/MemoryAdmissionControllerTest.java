@@ -0,0 +1,118 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomitakussaari.phaas.util.MemoryAdmissionController.AdmissionRejectedException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class MemoryAdmissionControllerTest {
+
+    private static final int OPERATION_KIB = 65536;
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final MemoryAdmissionController controller = new MemoryAdmissionController(2 * OPERATION_KIB, 1, 200, 3, metricRegistry);
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void reservesMemoryWhileOperationIsRunning() throws Exception {
+        fillBudget();
+        assertThat(controller.reservedBytes()).isEqualTo(2L * OPERATION_KIB * 1024);
+        assertThat(metricRegistry.getGauges().get("argon2.admission.reserved-bytes").getValue()).isEqualTo(2L * OPERATION_KIB * 1024);
+        release.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        assertThat(controller.reservedBytes()).isEqualTo(0L);
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() throws Exception {
+        fillBudget();
+        executor.submit(() -> controller.withReservation(OPERATION_KIB, () -> true));
+        while (controller.queueDepth() == 0) {
+            Thread.sleep(5);
+        }
+        assertThat(metricRegistry.getGauges().get("argon2.admission.queue-depth").getValue()).isEqualTo(1);
+        try {
+            controller.withReservation(OPERATION_KIB, () -> true);
+            fail("should have been rejected");
+        } catch (AdmissionRejectedException e) {
+            assertThat(e.getRetryAfterSeconds()).isEqualTo(3);
+        }
+        assertThat(metricRegistry.counter("argon2.admission.rejected").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsWhenWaitingTakesTooLong() throws Exception {
+        fillBudget();
+        Future<Boolean> queued = executor.submit(() -> controller.withReservation(OPERATION_KIB, () -> true));
+        try {
+            queued.get();
+            fail("should have been rejected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(AdmissionRejectedException.class);
+        }
+        assertThat(controller.queueDepth()).isEqualTo(0);
+    }
+
+    @Test
+    public void runsOperationsWithoutMemoryCostAndTooLargeOperations() {
+        assertThat(controller.withReservation(0, () -> "free")).isEqualTo("free");
+        assertThat(controller.withReservation(10 * OPERATION_KIB, () -> "alone")).isEqualTo("alone");
+        assertThat(controller.reservedBytes()).isEqualTo(0L);
+    }
+
+    @Test
+    public void releasesReservationWhenOperationFails() {
+        try {
+            controller.withReservation(OPERATION_KIB, () -> {
+                throw new IllegalArgumentException("failure");
+            });
+            fail("should have failed");
+        } catch (IllegalArgumentException expected) {
+            assertThat(controller.reservedBytes()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void derivesBudgetFromContainerLimit() {
+        assertThat(MemoryAdmissionController.budgetKiB(2048L)).isEqualTo(2048 * 1024);
+        assertThat(MemoryAdmissionController.budgetKiB(2048L * 1024 * 1024, 512L * 1024 * 1024)).isEqualTo(768 * 1024);
+        assertThat(MemoryAdmissionController.budgetKiB(512L * 1024 * 1024, 512L * 1024 * 1024)).isEqualTo(OPERATION_KIB);
+    }
+
+    @Test
+    public void parsesCgroupLimits() {
+        assertThat(MemoryAdmissionController.parseCgroupLimit("max\n").isPresent()).isFalse();
+        assertThat(MemoryAdmissionController.parseCgroupLimit("9223372036854771712\n").isPresent()).isFalse();
+        assertThat(MemoryAdmissionController.parseCgroupLimit("1073741824\n").getAsLong()).isEqualTo(1073741824L);
+    }
+
+    private void fillBudget() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            executor.submit(() -> controller.withReservation(OPERATION_KIB, () -> {
+                running.countDown();
+                return Uninterruptibles.awaitUninterruptibly(release, 10, TimeUnit.SECONDS);
+            }));
+        }
+        running.await();
+    }
+}
@@ -81,10 +81,121 @@ public class PasswordVerifierTest {
         assertThat(result.isValid()).isFalse();
     }
 
+    @Test
+    public void newHashesUseV2Format() {
+        HashedPassword hash = hasher.hash(new PasswordHashRequest(password), decryptedCurrentProtectionScheme);
+        assertThat(hash.getHash()).startsWith("v2.1.");
+        assertThat(ProtectedPasswordHash.parse(hash.getHash()).getFormat()).isEqualTo(ProtectedPasswordHash.Format.V2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsV2HashWithTamperedSchemeId() {
+        HashedPassword hash = hasher.hash(new PasswordHashRequest(password), decryptedCurrentProtectionScheme);
+        String tampered = hash.getHash().replaceFirst("v2\\.1\\.", "v2.2.");
+        verifier.verify(new PasswordVerifyRequest(password, tampered), decryptedCurrentProtectionScheme, decryptedCurrentProtectionScheme);
+    }
+
     @Test
     public void verifiesExistingHash() {
         String hash = "1.64e68551653223cb.8bd0e4de5c6b0ab83d5f01b7a2b79ea59f41e24cdcb39e65de6106249190e061159cb4d19b03bd40582b4cc530e0a437a0630eb97ae0a2f89987214dc43a8fec32c04a7a565e328422ef4786ff64423c";
         PasswordVerifyResult result = verifier.verify(new PasswordVerifyRequest("password", hash), decryptedCurrentProtectionScheme, decryptedCurrentProtectionScheme);
         assertThat(result.isValid()).isTrue();
     }
+
+    @Test
+    public void verifiesApiKeysWithHmacScheme() {
+        DataProtectionScheme.CryptoData hmacScheme = new DataProtectionScheme(3, PasswordEncodingAlgorithm.HMAC_SHA256, cryptoHelper.encryptData(password, encryptionKey), cryptoHelper).cryptoData(password);
+        String apiKey = RandomStringUtils.randomAlphanumeric(43);
+        HashedPassword hash = hasher.hash(new PasswordHashRequest(apiKey), hmacScheme);
+        assertThat(verifier.verify(new PasswordVerifyRequest(apiKey, hash.getHash()), hmacScheme, hmacScheme).isValid()).isTrue();
+        assertThat(verifier.verify(new PasswordVerifyRequest(apiKey + "1", hash.getHash()), hmacScheme, hmacScheme).isValid()).isFalse();
+    }
+
+    @Test
+    public void doesNotUpgradeLowEntropyPasswordToHmacScheme() {
+        DataProtectionScheme.CryptoData hmacScheme = new DataProtectionScheme(3, PasswordEncodingAlgorithm.HMAC_SHA256, cryptoHelper.encryptData(password, encryptionKeyTwo), cryptoHelper).cryptoData(password);
+        HashedPassword hash = hasher.hash(new PasswordHashRequest(password), decryptedCurrentProtectionScheme);
+        PasswordVerifyResult result = verifier.verify(new PasswordVerifyRequest(password, hash.getHash()), decryptedCurrentProtectionScheme, hmacScheme);
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.getUpgradedHash().isPresent()).isFalse();
+    }
+
+    @Test
+    public void doesNotUpgradePasswordThatLooksLikeApiKeyToHmacScheme() {
+        DataProtectionScheme.CryptoData hmacScheme = new DataProtectionScheme(3, PasswordEncodingAlgorithm.HMAC_SHA256, cryptoHelper.encryptData(password, encryptionKeyTwo), cryptoHelper).cryptoData(password);
+        String apiKeyLikePassword = RandomStringUtils.randomAlphanumeric(43);
+        HashedPassword hash = hasher.hash(new PasswordHashRequest(apiKeyLikePassword), decryptedCurrentProtectionScheme);
+        PasswordVerifyResult result = verifier.verify(new PasswordVerifyRequest(apiKeyLikePassword, hash.getHash()), decryptedCurrentProtectionScheme, hmacScheme);
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.getUpgradedHash().isPresent()).isFalse();
+    }
+
+    @Test
+    public void verifiesClientHashWithServerReliefScheme() {
+        DataProtectionScheme.CryptoData reliefScheme = serverReliefScheme(3);
+        String clientHash = "ZGVyaXZlZC1ieS1jbGllbnQtd2l0aC1hcmdvbjItYW5kLXNhbHQ";
+        HashedPassword hash = hasher.hash(new PasswordHashRequest(clientHash), reliefScheme);
+        assertThat(verifier.verify(new PasswordVerifyRequest(clientHash, hash.getHash()), reliefScheme, reliefScheme).isValid()).isTrue();
+        assertThat(verifier.verify(new PasswordVerifyRequest(clientHash.replace('Z', 'A'), hash.getHash()), reliefScheme, reliefScheme).isValid()).isFalse();
+        assertThat(verifier.verify(new PasswordVerifyRequest(password, hash.getHash()), reliefScheme, reliefScheme).isValid()).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void serverReliefSchemeRefusesToHashRawPassword() {
+        hasher.hash(new PasswordHashRequest(password), serverReliefScheme(3));
+    }
+
+    @Test
+    public void doesNotUpgradeIntoOrOutOfServerReliefScheme() {
+        DataProtectionScheme.CryptoData reliefScheme = serverReliefScheme(3);
+        HashedPassword hash = hasher.hash(new PasswordHashRequest(password), decryptedCurrentProtectionScheme);
+        PasswordVerifyResult result = verifier.verify(new PasswordVerifyRequest(password, hash.getHash()), decryptedCurrentProtectionScheme, reliefScheme);
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.getUpgradedHash().isPresent()).isFalse();
+
+        String clientHash = "ZGVyaXZlZC1ieS1jbGllbnQtd2l0aC1hcmdvbjItYW5kLXNhbHQ";
+        HashedPassword reliefHash = hasher.hash(new PasswordHashRequest(clientHash), reliefScheme);
+        result = verifier.verify(new PasswordVerifyRequest(clientHash, reliefHash.getHash()), reliefScheme, serverReliefScheme(4));
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.getUpgradedHash().isPresent()).isFalse();
+    }
+
+    @Test
+    public void defersUpgradeAndReturnsUpgradedHashOnNextVerify() throws InterruptedException {
+        DeferredUpgrades deferredUpgrades = new DeferredUpgrades(true, 1, 10, 60);
+        PasswordVerifier deferringVerifier = new PasswordVerifier(EntropySource.defaultSource(), MemoryAdmissionController.unlimited(), deferredUpgrades);
+        HashedPassword hash = hasher.hash(new PasswordHashRequest(password), decryptedCurrentProtectionScheme);
+        PasswordVerifyRequest request = new PasswordVerifyRequest(password, hash.getHash());
+
+        PasswordVerifyResult first = deferringVerifier.verify(request, decryptedCurrentProtectionScheme, decryptedNewProtectionScheme);
+        assertThat(first.isValid()).isTrue();
+        assertThat(first.getUpgradedHash().isPresent()).isFalse();
+        assertThat(first.getUpgradeTicket()).isNotEmpty();
+
+        PasswordVerifyResult next = first;
+        for (int i = 0; i < 100 && !next.getUpgradedHash().isPresent(); i++) {
+            Thread.sleep(50);
+            next = deferringVerifier.verify(request, decryptedCurrentProtectionScheme, decryptedNewProtectionScheme);
+        }
+        assertThat(next.getUpgradeTicket()).isNull();
+        PasswordVerifyResult upgraded = verifier.verify(new PasswordVerifyRequest(password, next.getUpgradedHash().get()), decryptedNewProtectionScheme, decryptedNewProtectionScheme);
+        assertThat(upgraded.isValid()).isTrue();
+        deferredUpgrades.close();
+    }
+
+    @Test
+    public void doesNotDeferUpgradeOfWrongPassword() {
+        DeferredUpgrades deferredUpgrades = new DeferredUpgrades(true, 1, 10, 60);
+        PasswordVerifier deferringVerifier = new PasswordVerifier(EntropySource.defaultSource(), MemoryAdmissionController.unlimited(), deferredUpgrades);
+        HashedPassword hash = hasher.hash(new PasswordHashRequest(password), decryptedCurrentProtectionScheme);
+        PasswordVerifyResult result = deferringVerifier.verify(new PasswordVerifyRequest("wrong-password", hash.getHash()), decryptedCurrentProtectionScheme, decryptedNewProtectionScheme);
+        assertThat(result.isValid()).isFalse();
+        assertThat(result.getUpgradeTicket()).isNull();
+        deferredUpgrades.close();
+    }
+
+    private DataProtectionScheme.CryptoData serverReliefScheme(int id) {
+        return new DataProtectionScheme(id, PasswordEncodingAlgorithm.ARGON2, cryptoHelper.encryptData(password, encryptionKey + id), cryptoHelper,
+                EncoderParameters.parse(ServerRelief.parametersFor(PasswordEncodingAlgorithm.ARGON2)), ServerRelief.newSalt()).cryptoData(password);
+    }
 }
@@ -0,0 +1,35 @@
+package com.github.tomitakussaari.phaas.util;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Pbkdf2Test {
+
+    @Test
+    public void derivesTestVectorOfRfc7914() {
+        assertThat(Hex.encodeHexString(Pbkdf2.derive("HmacSHA256", "passwd".toCharArray(), "salt".getBytes(StandardCharsets.UTF_8), 1, 64)))
+                .isEqualTo("55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc49ca9cccf179b645991664b39d77ef317c71b845b1e30bd509112041d3a19783");
+    }
+
+    @Test
+    public void derivesTestVectorOfRfc6070WithManyIterations() {
+        assertThat(Hex.encodeHexString(Pbkdf2.derive("HmacSHA1", "password".toCharArray(), "salt".getBytes(StandardCharsets.UTF_8), 4096, 20)))
+                .isEqualTo("4b007901b765489abead49d926f721d065a429c1");
+    }
+
+    @Test
+    public void acceptsEmptyPassword() {
+        assertThat(Hex.encodeHexString(Pbkdf2.derive("HmacSHA256", new char[0], "salt".getBytes(StandardCharsets.UTF_8), 2, 32)))
+                .isEqualTo("62384466264daadc4144018c6bd864648272b34da8980d31521ffcce92ae003b");
+    }
+
+    @Test
+    public void encodesPasswordAsUtf8() {
+        assertThat(Hex.encodeHexString(Pbkdf2.derive("HmacSHA256", "p\u00e4ssw\u00f6rd".toCharArray(), "salt".getBytes(StandardCharsets.UTF_8), 2, 32)))
+                .isEqualTo("516c4cfbf60066dc5769ae6ce3c06aae67841d34869ff951588a1f3f8847d652");
+    }
+}
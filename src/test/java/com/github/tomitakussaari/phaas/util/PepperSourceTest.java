@@ -170,6 +170,72 @@ public class PepperSourceTest {
         }
     }
 
+    @Test
+    public void usesLastPepperOfRingAsCurrent() {
+        PepperSource pepperSource = new PepperSource("legacy", "string://# comment\n1=first\n\n2=second=with-equals\n");
+        assertThat(pepperSource.currentPepperId()).isEqualTo("2");
+        assertThat(pepperSource.getPepper()).isEqualTo("second=with-equals");
+        assertThat(pepperSource.getPepper("1")).isEqualTo("first");
+        assertThat(pepperSource.getPepper(PepperSource.LEGACY_PEPPER_ID)).isEqualTo("legacy");
+    }
+
+    @Test
+    public void legacyPepperIsCurrentWithoutRing() {
+        PepperSource pepperSource = new PepperSource("legacy");
+        assertThat(pepperSource.currentPepperId()).isEqualTo(PepperSource.LEGACY_PEPPER_ID);
+        assertThat(pepperSource.getPepper()).isEqualTo("legacy");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesUnknownPepper() {
+        new PepperSource("legacy").getPepper("1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesInvalidPepperId() {
+        new PepperSource("legacy", "string://1.2=pepper");
+    }
+
+    @Test
+    public void refreshKeepsRemovedPeppersAndRefusesToChangeExistingOnes() throws IOException {
+        File ring = File.createTempFile("pepper-ring", "test");
+        ring.deleteOnExit();
+        Files.write("1=first\n2=second\n", ring, StandardCharsets.UTF_8);
+        PepperSource pepperSource = new PepperSource("", "file://" + ring.getAbsolutePath());
+
+        Files.write("2=changed\n3=third\n", ring, StandardCharsets.UTF_8);
+        pepperSource.refresh();
+        assertThat(pepperSource.currentPepperId()).isEqualTo("3");
+        assertThat(pepperSource.getPepper("1")).isEqualTo("first");
+        assertThat(pepperSource.getPepper("2")).isEqualTo("second");
+
+        Files.write("3=third\n4=fourth\n3=changed\n", ring, StandardCharsets.UTF_8);
+        pepperSource.refresh();
+        assertThat(pepperSource.currentPepperId()).isEqualTo("3");
+        assertThat(pepperSource.getPepper("4")).isEqualTo("fourth");
+    }
+
+    @Test
+    public void refreshesRingInBackground() throws Exception {
+        File ring = File.createTempFile("pepper-ring", "test");
+        ring.deleteOnExit();
+        Files.write("1=first\n", ring, StandardCharsets.UTF_8);
+        propertyConfigured("string://legacy");
+        when(environment.getProperty("phaas.pepper.ring.source")).thenReturn("file://" + ring.getAbsolutePath());
+        when(environment.getProperty("phaas.pepper.ring.refresh-seconds", Long.class, 300L)).thenReturn(1L);
+        PepperSource pepperSource = new PepperSource(environment);
+        try {
+            assertThat(pepperSource.getPepper()).isEqualTo("first");
+            Files.write("1=first\n2=second\n", ring, StandardCharsets.UTF_8);
+            for (int i = 0; i < 50 && !pepperSource.currentPepperId().equals("2"); i++) {
+                Thread.sleep(100);
+            }
+            assertThat(pepperSource.getPepper()).isEqualTo("second");
+        } finally {
+            pepperSource.close();
+        }
+    }
+
     private void withHttpServer(int statusCode, BiConsumer<Integer, RequestSavingPepperResponseHandler> testCase) throws Exception {
         HttpServer server = HttpServer.create(new InetSocketAddress(0), 0);
         RequestSavingPepperResponseHandler requestSavingPepperResponseHandler = new RequestSavingPepperResponseHandler(statusCode);
@@ -0,0 +1,37 @@
+package com.github.tomitakussaari.phaas.util;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScryptTest {
+
+    @Test
+    public void derivesTestVectorsOfRfc7914() {
+        assertThat(Hex.encodeHexString(Scrypt.derive("password".toCharArray(), "NaCl".getBytes(StandardCharsets.UTF_8), 1024, 8, 16, 64)))
+                .isEqualTo("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640");
+        assertThat(Hex.encodeHexString(Scrypt.derive("pleaseletmein".toCharArray(), "SodiumChloride".getBytes(StandardCharsets.UTF_8), 16384, 8, 1, 64)))
+                .isEqualTo("7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887");
+    }
+
+    /**
+     * First test vector of RFC 7914 has empty salt, that JCE PBKDF2 does not accept. Imported hashes always have salt.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresSalt() {
+        Scrypt.derive(new char[0], new byte[0], 16, 1, 1, 64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresPowerOfTwoCost() {
+        Scrypt.derive(new char[0], "salt".getBytes(StandardCharsets.UTF_8), 1000, 8, 1, 32);
+    }
+
+    @Test
+    public void memoryCostIsSizeOfBlocks() {
+        assertThat(Scrypt.memoryCostKiB(16384, 8)).isEqualTo(16384);
+    }
+}
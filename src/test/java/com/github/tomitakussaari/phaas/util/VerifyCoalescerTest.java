@@ -0,0 +1,111 @@
+package com.github.tomitakussaari.phaas.util;
+
+import com.github.tomitakussaari.phaas.model.DataProtectionScheme;
+import com.github.tomitakussaari.phaas.model.PasswordEncodingAlgorithm;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class VerifyCoalescerTest {
+
+    private static final CryptoHelper cryptoHelper = new CryptoHelper(new PepperSource(""));
+    private final DataProtectionScheme scheme = new DataProtectionScheme(1, PasswordEncodingAlgorithm.SHA256_BCRYPT, cryptoHelper.encryptData("password", "key"), cryptoHelper);
+    private final AtomicInteger verifications = new AtomicInteger();
+    private final CountDownLatch verificationAllowed = new CountDownLatch(1);
+    private final Supplier<Boolean> slowVerification = () -> {
+        verifications.incrementAndGet();
+        Uninterruptibles.awaitUninterruptibly(verificationAllowed);
+        return true;
+    };
+    private final Supplier<Boolean> verification = () -> {
+        verifications.incrementAndGet();
+        return true;
+    };
+
+    @Test
+    public void concurrentDuplicatesShareOneVerification() {
+        VerifyCoalescer coalescer = VerifyCoalescer.withoutCache();
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> coalescer.verify(scheme, "hash", "password", slowVerification));
+        waitUntilInFlight(coalescer);
+        CompletableFuture<Boolean> duplicate = CompletableFuture.supplyAsync(() -> coalescer.verify(scheme, "hash", "password", slowVerification));
+        Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+
+        verificationAllowed.countDown();
+        assertThat(first.join()).isTrue();
+        assertThat(duplicate.join()).isTrue();
+        assertThat(verifications.get()).isEqualTo(1);
+        assertThat(coalescer.inFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void differentCandidatesAreNotCoalesced() {
+        VerifyCoalescer coalescer = VerifyCoalescer.withoutCache();
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> coalescer.verify(scheme, "hash", "password", slowVerification));
+        waitUntilInFlight(coalescer);
+        assertThat(coalescer.verify(scheme, "hash", "password2", () -> false)).isFalse();
+        assertThat(coalescer.verify(scheme, "hash2", "password", () -> false)).isFalse();
+        verificationAllowed.countDown();
+        assertThat(first.join()).isTrue();
+    }
+
+    @Test
+    public void failureIsSharedWithDuplicatesButNotRemembered() {
+        VerifyCoalescer coalescer = new VerifyCoalescer(60000, 10);
+        CountDownLatch failureAllowed = new CountDownLatch(1);
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> coalescer.verify(scheme, "hash", "password", () -> {
+            Uninterruptibles.awaitUninterruptibly(failureAllowed);
+            throw new IllegalStateException("tampered");
+        }));
+        waitUntilInFlight(coalescer);
+        CompletableFuture<Boolean> duplicate = CompletableFuture.supplyAsync(() -> coalescer.verify(scheme, "hash", "password", verification));
+        Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+        failureAllowed.countDown();
+
+        try {
+            duplicate.join();
+            fail("should have failed");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class).hasMessage("tampered");
+        }
+        Throwable leaderFailure = first.handle((result, error) -> error).join();
+        assertThat(leaderFailure.getCause()).isInstanceOf(IllegalStateException.class).hasMessage("tampered");
+        assertThat(coalescer.verify(scheme, "hash", "password", verification)).isTrue();
+        assertThat(verifications.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void remembersResultOnlyWhenCacheIsEnabled() {
+        VerifyCoalescer withoutCache = VerifyCoalescer.withoutCache();
+        withoutCache.verify(scheme, "hash", "password", verification);
+        withoutCache.verify(scheme, "hash", "password", verification);
+        assertThat(verifications.get()).isEqualTo(2);
+
+        VerifyCoalescer withCache = new VerifyCoalescer(60000, 10);
+        withCache.verify(scheme, "hash", "password", verification);
+        assertThat(withCache.verify(scheme, "hash", "password", () -> false)).isTrue();
+        assertThat(verifications.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void forgetsResultAfterTtl() {
+        VerifyCoalescer coalescer = new VerifyCoalescer(50, 10);
+        coalescer.verify(scheme, "hash", "password", verification);
+        Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+        assertThat(coalescer.verify(scheme, "hash", "password", () -> false)).isFalse();
+    }
+
+    private static void waitUntilInFlight(VerifyCoalescer coalescer) {
+        for (int i = 0; i < 100 && coalescer.inFlight() == 0; i++) {
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+        assertThat(coalescer.inFlight()).isEqualTo(1);
+    }
+}